@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Propagates the trace in one header per field, see <a href="https://github.com/openzipkin/b3-propagation">b3
+ * propagation</a>, together with the {@link TraceHttpHeaders#ORIGINATING_SPAN_ID originating span}.
+ */
+enum B3MultiPropagator implements Propagator {
+    INSTANCE;
+
+    @Override
+    public <C> Optional<PropagationContext> extract(C carrier, Getter<C> getter) {
+        SamplingDecision sampling = parseSampled(getter.get(carrier, TraceHttpHeaders.IS_SAMPLED));
+        CharSequence traceId = getter.get(carrier, TraceHttpHeaders.TRACE_ID);
+        if (traceId == null || traceId.length() == 0) {
+            return sampling == SamplingDecision.UNDECIDED
+                    ? Optional.empty()
+                    : Optional.of(PropagationContext.ofSampling(sampling));
+        }
+        return Optional.of(PropagationContext.of(
+                PropagationHeaders.parseId(traceId),
+                PropagationHeaders.parseOptionalId(getter.get(carrier, TraceHttpHeaders.SPAN_ID)),
+                PropagationHeaders.parseOptionalId(getter.get(carrier, TraceHttpHeaders.PARENT_SPAN_ID)),
+                PropagationHeaders.parseOptionalId(getter.get(carrier, TraceHttpHeaders.ORIGINATING_SPAN_ID)),
+                sampling,
+                null));
+    }
+
+    @Override
+    public <C> void inject(PropagationContext context, C carrier, Setter<C> setter) {
+        TracingId traceId = context.traceId();
+        if (traceId != null) {
+            setter.set(carrier, TraceHttpHeaders.TRACE_ID, traceId.toString());
+            TracingId spanId = context.spanId();
+            if (spanId != null) {
+                setter.set(carrier, TraceHttpHeaders.SPAN_ID, spanId.toString());
+            }
+        }
+        if (context.sampling() != SamplingDecision.UNDECIDED) {
+            setter.set(carrier, TraceHttpHeaders.IS_SAMPLED, context.sampling() == SamplingDecision.SAMPLE ? "1" : "0");
+        }
+        if (traceId != null) {
+            TracingId parentSpanId = context.parentSpanId();
+            if (parentSpanId != null) {
+                setter.set(carrier, TraceHttpHeaders.PARENT_SPAN_ID, parentSpanId.toString());
+            }
+            TracingId originatingSpanId = context.originatingSpanId();
+            if (originatingSpanId != null) {
+                setter.set(carrier, TraceHttpHeaders.ORIGINATING_SPAN_ID, originatingSpanId.toString());
+            }
+        }
+    }
+
+    /**
+     * Sample iff the header is "1", do not sample if the header contains another non-empty value, or undecided if there
+     * is no such header or the header is empty.
+     */
+    private static SamplingDecision parseSampled(@Nullable CharSequence header) {
+        if (header == null || header.length() == 0) {
+            return SamplingDecision.UNDECIDED;
+        }
+        return header.length() == 1 && header.charAt(0) == '1'
+                ? SamplingDecision.SAMPLE
+                : SamplingDecision.DO_NOT_SAMPLE;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.util.Optional;
+
+/**
+ * Propagates the trace in the single {@link TraceHttpHeaders#B3 b3} header, formatted as
+ * {@code {TraceId}-{SpanId}-{SamplingState}-{ParentSpanId}} where the last two fields are optional, or as only the
+ * sampling state. See <a href="https://github.com/openzipkin/b3-propagation">b3 propagation</a>.
+ */
+enum B3SinglePropagator implements Propagator {
+    INSTANCE;
+
+    @Override
+    public <C> Optional<PropagationContext> extract(C carrier, Getter<C> getter) {
+        CharSequence header = getter.get(carrier, TraceHttpHeaders.B3);
+        if (header == null || header.length() == 0) {
+            return Optional.empty();
+        }
+        if (header.length() == 1) {
+            SamplingDecision sampling = parseSampling(header, 0);
+            return sampling == SamplingDecision.UNDECIDED
+                    ? Optional.empty()
+                    : Optional.of(PropagationContext.ofSampling(sampling));
+        }
+        int traceIdEnd = PropagationHeaders.indexOf(header, '-', 0);
+        if (traceIdEnd <= 0) {
+            return Optional.empty();
+        }
+        int spanIdEnd = PropagationHeaders.indexOf(header, '-', traceIdEnd + 1);
+        int length = header.length();
+        if (spanIdEnd < 0) {
+            spanIdEnd = length;
+        }
+        if (spanIdEnd == traceIdEnd + 1) {
+            return Optional.empty();
+        }
+        SamplingDecision sampling = SamplingDecision.UNDECIDED;
+        TracingId parentSpanId = null;
+        if (spanIdEnd < length) {
+            int samplingEnd = PropagationHeaders.indexOf(header, '-', spanIdEnd + 1);
+            if (samplingEnd < 0) {
+                samplingEnd = length;
+            }
+            if (samplingEnd != spanIdEnd + 2) {
+                return Optional.empty();
+            }
+            sampling = parseSampling(header, spanIdEnd + 1);
+            if (samplingEnd + 1 < length) {
+                parentSpanId = TracingId.parse(header, samplingEnd + 1, length);
+            }
+        }
+        return Optional.of(PropagationContext.of(
+                TracingId.parse(header, 0, traceIdEnd),
+                TracingId.parse(header, traceIdEnd + 1, spanIdEnd),
+                parentSpanId,
+                null,
+                sampling,
+                null));
+    }
+
+    @Override
+    public <C> void inject(PropagationContext context, C carrier, Setter<C> setter) {
+        TracingId traceId = context.traceId();
+        TracingId spanId = context.spanId();
+        if (traceId == null || spanId == null) {
+            if (context.sampling() != SamplingDecision.UNDECIDED) {
+                setter.set(carrier, TraceHttpHeaders.B3, context.sampling() == SamplingDecision.SAMPLE ? "1" : "0");
+            }
+            return;
+        }
+        boolean decided = context.sampling() != SamplingDecision.UNDECIDED;
+        // The parent span can only be propagated together with a sampling state
+        TracingId parentSpanId = decided ? context.parentSpanId() : null;
+        int length = traceId.length() + 1 + spanId.length();
+        if (decided) {
+            length += 2;
+        }
+        if (parentSpanId != null) {
+            length += 1 + parentSpanId.length();
+        }
+        // Encoded straight into the backing array of the header, rather than through a builder
+        char[] header = new char[length];
+        int offset = traceId.encodeTo(header, 0);
+        header[offset++] = '-';
+        offset = spanId.encodeTo(header, offset);
+        if (decided) {
+            header[offset++] = '-';
+            header[offset++] = context.sampling() == SamplingDecision.SAMPLE ? '1' : '0';
+        }
+        if (parentSpanId != null) {
+            header[offset++] = '-';
+            parentSpanId.encodeTo(header, offset);
+        }
+        setter.set(carrier, TraceHttpHeaders.B3, new String(header));
+    }
+
+    /** Debug ({@code d}) traces are sampled. */
+    private static SamplingDecision parseSampling(CharSequence header, int index) {
+        switch (header.charAt(index)) {
+            case '1':
+            case 'd':
+                return SamplingDecision.SAMPLE;
+            case '0':
+                return SamplingDecision.DO_NOT_SAMPLE;
+            default:
+                return SamplingDecision.UNDECIDED;
+        }
+    }
+}
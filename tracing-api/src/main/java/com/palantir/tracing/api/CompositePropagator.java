@@ -0,0 +1,59 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Extracts the context from the first of its extractors which finds a trace, falling back to the first sampling
+ * decision found, and injects the context using all of its injectors.
+ */
+final class CompositePropagator implements Propagator {
+
+    private final Propagator[] extractors;
+    private final Propagator[] injectors;
+
+    CompositePropagator(List<Propagator> extractors, List<Propagator> injectors) {
+        this.extractors = extractors.toArray(new Propagator[0]);
+        this.injectors = injectors.toArray(new Propagator[0]);
+    }
+
+    @Override
+    public <C> Optional<PropagationContext> extract(C carrier, Getter<C> getter) {
+        Optional<PropagationContext> samplingOnly = Optional.empty();
+        for (Propagator extractor : extractors) {
+            Optional<PropagationContext> context = extractor.extract(carrier, getter);
+            if (context.isPresent()) {
+                if (context.get().traceId() != null) {
+                    return context;
+                }
+                if (!samplingOnly.isPresent()) {
+                    samplingOnly = context;
+                }
+            }
+        }
+        return samplingOnly;
+    }
+
+    @Override
+    public <C> void inject(PropagationContext context, C carrier, Setter<C> setter) {
+        for (Propagator injector : injectors) {
+            injector.inject(context, carrier, setter);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TracingClock} which only moves when {@link #advance advanced}, so that the timestamps and durations of spans
+ * are deterministic in tests. Create with {@link TracingClock#manual(Instant)}.
+ */
+public final class ManualTracingClock implements TracingClock {
+
+    private final long startEpochMicros;
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    ManualTracingClock(Instant start) {
+        Objects.requireNonNull(start, "start");
+        this.startEpochMicros = TimeUnit.SECONDS.toMicros(start.getEpochSecond()) + start.getNano() / 1000;
+    }
+
+    /** Moves the clock forward by the given duration. */
+    public ManualTracingClock advance(Duration duration) {
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException("Cannot move a clock backwards: " + duration);
+        }
+        nanoTime.addAndGet(duration.toNanos());
+        return this;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanoTime.get();
+    }
+
+    @Override
+    public long epochMicros(long nanos) {
+        return startEpochMicros + Math.floorDiv(nanos, 1000);
+    }
+}
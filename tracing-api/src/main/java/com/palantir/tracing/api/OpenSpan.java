@@ -16,9 +16,8 @@
 
 package com.palantir.tracing.api;
 
-import java.time.Clock;
-import java.time.Instant;
 import java.util.Optional;
+import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
 /**
@@ -28,7 +27,6 @@ import org.immutables.value.Value;
 @Value.Immutable
 @Value.Style(visibility = Value.Style.ImplementationVisibility.PACKAGE)
 public abstract class OpenSpan {
-    private static final Clock CLOCK = Clock.systemUTC();
 
     /** Returns a description of the operation for this event. */
     @Value.Parameter
@@ -54,7 +52,8 @@ public abstract class OpenSpan {
 
     /** Returns the identifier of the parent span for the current span, if one exists. */
     @Value.Parameter
-    public abstract Optional<String> getParentSpanId();
+    @Nullable
+    public abstract TracingId parentSpanIdentifier();
 
     /**
      * Returns the identifier of the 'originating' span if one exists.
@@ -62,11 +61,33 @@ public abstract class OpenSpan {
      * @see TraceHttpHeaders
      */
     @Value.Parameter
-    public abstract Optional<String> getOriginatingSpanId();
+    @Nullable
+    public abstract TracingId originatingSpanIdentifier();
 
     /** Returns a globally unique identifier representing a single span within the call trace. */
     @Value.Parameter
-    public abstract String getSpanId();
+    public abstract TracingId spanIdentifier();
+
+    /** Returns the identifier of the parent span for the current span, if one exists. */
+    public Optional<String> getParentSpanId() {
+        TracingId parentSpanId = parentSpanIdentifier();
+        return parentSpanId == null ? Optional.empty() : Optional.of(parentSpanId.toString());
+    }
+
+    /**
+     * Returns the identifier of the 'originating' span if one exists.
+     *
+     * @see TraceHttpHeaders
+     */
+    public Optional<String> getOriginatingSpanId() {
+        TracingId originatingSpanId = originatingSpanIdentifier();
+        return originatingSpanId == null ? Optional.empty() : Optional.of(originatingSpanId.toString());
+    }
+
+    /** Returns a globally unique identifier representing a single span within the call trace. */
+    public String getSpanId() {
+        return spanIdentifier().toString();
+    }
 
     /** Indicates the {@link SpanType} of this span, e.g., a server-side vs. client-side vs local span. */
     @Value.Parameter
@@ -80,7 +101,9 @@ public abstract class OpenSpan {
      * <p>Users should not set the {@code startTimeMs} value manually.
      */
     public static Builder builder() {
-        return new Builder().startTimeMicroSeconds(getNowInMicroSeconds()).startClockNanoSeconds(System.nanoTime());
+        TracingClock clock = TracingClock.system();
+        long nanoTime = clock.nanoTime();
+        return new Builder().startTimeMicroSeconds(clock.epochMicros(nanoTime)).startClockNanoSeconds(nanoTime);
     }
 
     /** Use this factory method to avoid allocate {@link Builder} in hot path. */
@@ -90,8 +113,41 @@ public abstract class OpenSpan {
             SpanType type,
             Optional<String> parentSpanId,
             Optional<String> originatingSpanId) {
+        return of(
+                operation,
+                TracingId.parse(spanId),
+                type,
+                parentSpanId.map(TracingId::parse).orElse(null),
+                originatingSpanId.map(TracingId::parse).orElse(null));
+    }
+
+    /**
+     * Like {@link #of(String, String, SpanType, Optional, Optional)}, but takes {@link TracingId identifiers} which are
+     * only rendered as strings once they are read.
+     */
+    public static OpenSpan of(
+            String operation,
+            TracingId spanId,
+            SpanType type,
+            @Nullable TracingId parentSpanId,
+            @Nullable TracingId originatingSpanId) {
+        return of(operation, spanId, type, parentSpanId, originatingSpanId, TracingClock.system());
+    }
+
+    /**
+     * Like {@link #of(String, TracingId, SpanType, TracingId, TracingId)}, but reads the start time of the span from
+     * the given clock.
+     */
+    public static OpenSpan of(
+            String operation,
+            TracingId spanId,
+            SpanType type,
+            @Nullable TracingId parentSpanId,
+            @Nullable TracingId originatingSpanId,
+            TracingClock clock) {
+        long nanoTime = clock.nanoTime();
         return ImmutableOpenSpan.of(
-                operation, getNowInMicroSeconds(), System.nanoTime(), parentSpanId, originatingSpanId, spanId, type);
+                operation, clock.epochMicros(nanoTime), nanoTime, parentSpanId, originatingSpanId, spanId, type);
     }
 
     /**
@@ -104,10 +160,36 @@ public abstract class OpenSpan {
         return of(operation, spanId, type, parentSpanId, Optional.empty());
     }
 
-    private static long getNowInMicroSeconds() {
-        Instant now = CLOCK.instant();
-        return (1000000 * now.getEpochSecond()) + (now.getNano() / 1000);
-    }
+    public static class Builder extends ImmutableOpenSpan.Builder {
+
+        /** Sets the {@link #spanIdentifier() span identifier} from its string form. */
+        public final Builder spanId(String spanId) {
+            spanIdentifier(TracingId.parse(spanId));
+            return this;
+        }
 
-    public static class Builder extends ImmutableOpenSpan.Builder {}
+        /** Sets the {@link #parentSpanIdentifier() parent span identifier} from its string form. */
+        public final Builder parentSpanId(String parentSpanId) {
+            parentSpanIdentifier(TracingId.parse(parentSpanId));
+            return this;
+        }
+
+        /** Sets the {@link #parentSpanIdentifier() parent span identifier} from its string form, if present. */
+        public final Builder parentSpanId(Optional<String> parentSpanId) {
+            parentSpanIdentifier(parentSpanId.map(TracingId::parse).orElse(null));
+            return this;
+        }
+
+        /** Sets the {@link #originatingSpanIdentifier() originating span identifier} from its string form. */
+        public final Builder originatingSpanId(String originatingSpanId) {
+            originatingSpanIdentifier(TracingId.parse(originatingSpanId));
+            return this;
+        }
+
+        /** Sets the {@link #originatingSpanIdentifier() originating span identifier} from its string form. */
+        public final Builder originatingSpanId(Optional<String> originatingSpanId) {
+            originatingSpanIdentifier(originatingSpanId.map(TracingId::parse).orElse(null));
+            return this;
+        }
+    }
 }
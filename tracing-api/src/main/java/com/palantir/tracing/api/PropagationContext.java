@@ -0,0 +1,172 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * The trace state exchanged between services by a {@link Propagator}. A context extracted from an incoming request may
+ * only carry a {@link #sampling() sampling decision}, in which case the callee starts a new trace.
+ */
+public final class PropagationContext {
+
+    private static final PropagationContext SAMPLE = new PropagationContext(SamplingDecision.SAMPLE);
+    private static final PropagationContext DO_NOT_SAMPLE = new PropagationContext(SamplingDecision.DO_NOT_SAMPLE);
+    private static final PropagationContext UNDECIDED = new PropagationContext(SamplingDecision.UNDECIDED);
+
+    @Nullable
+    private final TracingId traceId;
+
+    @Nullable
+    private final TracingId spanId;
+
+    @Nullable
+    private final TracingId parentSpanId;
+
+    @Nullable
+    private final TracingId originatingSpanId;
+
+    private final SamplingDecision sampling;
+
+    @Nullable
+    private final String traceState;
+
+    private PropagationContext(
+            @Nullable TracingId traceId,
+            @Nullable TracingId spanId,
+            @Nullable TracingId parentSpanId,
+            @Nullable TracingId originatingSpanId,
+            SamplingDecision sampling,
+            @Nullable String traceState) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.originatingSpanId = originatingSpanId;
+        this.sampling = Objects.requireNonNull(sampling, "sampling");
+        this.traceState = traceState;
+    }
+
+    private PropagationContext(SamplingDecision sampling) {
+        this(null, null, null, null, sampling, null);
+    }
+
+    /** Returns the context of a span of the given trace, as injected into the requests it makes. */
+    public static PropagationContext of(
+            TracingId traceId,
+            TracingId spanId,
+            @Nullable TracingId parentSpanId,
+            @Nullable TracingId originatingSpanId,
+            SamplingDecision sampling) {
+        return new PropagationContext(
+                Objects.requireNonNull(traceId, "traceId"),
+                Objects.requireNonNull(spanId, "spanId"),
+                parentSpanId,
+                originatingSpanId,
+                sampling,
+                null);
+    }
+
+    /** Returns a context which only carries a sampling decision. */
+    public static PropagationContext ofSampling(SamplingDecision sampling) {
+        switch (sampling) {
+            case SAMPLE:
+                return SAMPLE;
+            case DO_NOT_SAMPLE:
+                return DO_NOT_SAMPLE;
+            case UNDECIDED:
+                return UNDECIDED;
+        }
+        throw new IllegalArgumentException("Unknown sampling decision: " + sampling);
+    }
+
+    /**
+     * Returns a context extracted from a request, or built by the caller to continue an incoming context carrying
+     * vendor-specific {@code traceState}.
+     */
+    public static PropagationContext of(
+            @Nullable TracingId traceId,
+            @Nullable TracingId spanId,
+            @Nullable TracingId parentSpanId,
+            @Nullable TracingId originatingSpanId,
+            SamplingDecision sampling,
+            @Nullable String traceState) {
+        return new PropagationContext(traceId, spanId, parentSpanId, originatingSpanId, sampling, traceState);
+    }
+
+    /** The trace identifier, or null if the caller only propagated a sampling decision. */
+    @Nullable
+    public TracingId traceId() {
+        return traceId;
+    }
+
+    /** The span of the caller, which becomes the parent of the spans started for the request. */
+    @Nullable
+    public TracingId spanId() {
+        return spanId;
+    }
+
+    @Nullable
+    public TracingId parentSpanId() {
+        return parentSpanId;
+    }
+
+    /** See {@link TraceHttpHeaders#ORIGINATING_SPAN_ID}. */
+    @Nullable
+    public TracingId originatingSpanId() {
+        return originatingSpanId;
+    }
+
+    public SamplingDecision sampling() {
+        return sampling;
+    }
+
+    /** Vendor-specific W3C {@code tracestate}, passed through unmodified. */
+    @Nullable
+    public String traceState() {
+        return traceState;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PropagationContext)) {
+            return false;
+        }
+        PropagationContext that = (PropagationContext) other;
+        return Objects.equals(traceId, that.traceId)
+                && Objects.equals(spanId, that.spanId)
+                && Objects.equals(parentSpanId, that.parentSpanId)
+                && Objects.equals(originatingSpanId, that.originatingSpanId)
+                && sampling == that.sampling
+                && Objects.equals(traceState, that.traceState);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(traceId, spanId, parentSpanId, originatingSpanId, sampling, traceState);
+    }
+
+    @Override
+    public String toString() {
+        return "PropagationContext{traceId=" + traceId + ", spanId=" + spanId + ", parentSpanId=" + parentSpanId
+                + ", originatingSpanId=" + originatingSpanId + ", sampling=" + sampling + ", traceState=" + traceState
+                + '}';
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import javax.annotation.Nullable;
+
+/** Parsing utilities shared by the {@link Propagator} implementations. */
+final class PropagationHeaders {
+
+    private PropagationHeaders() {}
+
+    /** Parses a header value holding a single identifier, retaining header strings rather than rendering them again. */
+    static TracingId parseId(CharSequence value) {
+        if (value instanceof String) {
+            return TracingId.parse((String) value);
+        }
+        return TracingId.parse(value, 0, value.length());
+    }
+
+    @Nullable
+    static TracingId parseOptionalId(@Nullable CharSequence value) {
+        return value == null || value.length() == 0 ? null : parseId(value);
+    }
+
+    static int indexOf(CharSequence value, char character, int fromIndex) {
+        for (int i = fromIndex; i < value.length(); i++) {
+            if (value.charAt(i) == character) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Nullable
+    static String toStringOrNull(@Nullable CharSequence value) {
+        return value == null || value.length() == 0 ? null : value.toString();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Reads a {@link PropagationContext} from the headers of an incoming request and writes it into the headers of an
+ * outgoing request, in a format such as B3 or W3C trace context. Implementations are stateless and thread-safe, see
+ * {@link Propagators} for the supported formats.
+ */
+public interface Propagator {
+
+    /**
+     * Returns the context propagated in the headers of {@code carrier}, or empty if the headers carry neither a trace
+     * nor a sampling decision in this format.
+     */
+    <C> Optional<PropagationContext> extract(C carrier, Getter<C> getter);
+
+    /** Writes the headers propagating {@code context} into {@code carrier}. */
+    <C> void inject(PropagationContext context, C carrier, Setter<C> setter);
+
+    /** Reads a header of a request, e.g. {@code ContainerRequestContext::getHeaderString}. */
+    interface Getter<C> {
+        /** Returns the first value of the named header, or null if the header is absent. */
+        @Nullable
+        CharSequence get(C carrier, String name);
+    }
+
+    /** Sets a header of a request, replacing any existing values, e.g. {@code Request.Builder::header}. */
+    interface Setter<C> {
+        void set(C carrier, String name, String value);
+    }
+}
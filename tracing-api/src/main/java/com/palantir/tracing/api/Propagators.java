@@ -0,0 +1,63 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** Factories for the supported {@link Propagator propagation formats}. */
+public final class Propagators {
+
+    private static final Propagator STANDARD = new CompositePropagator(
+            Arrays.asList(B3MultiPropagator.INSTANCE, B3SinglePropagator.INSTANCE, W3cTraceContextPropagator.INSTANCE),
+            Collections.singletonList(B3MultiPropagator.INSTANCE));
+
+    private Propagators() {}
+
+    /** Zipkin B3 propagation with one header per field, as understood by all services using this library. */
+    public static Propagator b3Multi() {
+        return B3MultiPropagator.INSTANCE;
+    }
+
+    /** Zipkin B3 propagation in the single {@link TraceHttpHeaders#B3 b3} header. */
+    public static Propagator b3Single() {
+        return B3SinglePropagator.INSTANCE;
+    }
+
+    /** W3C trace context propagation in the {@link TraceHttpHeaders#TRACEPARENT traceparent} header. */
+    public static Propagator w3c() {
+        return W3cTraceContextPropagator.INSTANCE;
+    }
+
+    /**
+     * The propagator used by the integrations unless configured otherwise: extracts B3 multi-header, B3 single-header
+     * and W3C trace context, preferring them in that order, and injects {@link #b3Multi() B3 multi-header}.
+     */
+    public static Propagator standard() {
+        return STANDARD;
+    }
+
+    /**
+     * Returns a propagator extracting the trace from the first of the given propagators which finds one, and injecting
+     * the trace in all of their formats.
+     */
+    public static Propagator composite(Propagator... propagators) {
+        List<Propagator> list = Arrays.asList(propagators);
+        return new CompositePropagator(list, list);
+    }
+}
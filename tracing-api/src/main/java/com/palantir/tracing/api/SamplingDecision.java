@@ -0,0 +1,29 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+/** The sampling decision propagated by the caller of a service, if any. */
+public enum SamplingDecision {
+    /** The caller sampled the trace, spans of this service should be sampled too. */
+    SAMPLE,
+
+    /** The caller did not sample the trace, spans of this service should not be sampled either. */
+    DO_NOT_SAMPLE,
+
+    /** The caller did not propagate a sampling decision, this service may decide whether to sample the trace. */
+    UNDECIDED
+}
@@ -16,6 +16,8 @@
 
 package com.palantir.tracing.api;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import org.immutables.value.Value;
@@ -44,6 +46,29 @@ public abstract class Span {
      */
     public abstract Map<String, String> getMetadata();
 
+    /** Returns the typed tags which were added to the span while it was in progress. */
+    @Value.Default
+    public SpanTags getTags() {
+        return SpanTags.empty();
+    }
+
+    /**
+     * Returns the {@link #getMetadata() metadata} together with the {@link #getTags() tags} rendered as strings, which
+     * is computed once requested. Tags follow the metadata, which takes precedence over a tag with the same key.
+     */
+    @Value.Lazy
+    public Map<String, String> getAllMetadata() {
+        SpanTags tags = getTags();
+        if (tags.isEmpty()) {
+            return getMetadata();
+        }
+        Map<String, String> all = new LinkedHashMap<>(getMetadata());
+        for (int i = 0; i < tags.size(); i++) {
+            all.putIfAbsent(tags.key(i), tags.valueAsString(i));
+        }
+        return Collections.unmodifiableMap(all);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
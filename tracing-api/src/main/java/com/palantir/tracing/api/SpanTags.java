@@ -0,0 +1,305 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Typed key-value tags of a completed {@link Span}, stored in flat arrays so that numbers and flags are only rendered
+ * as strings once an observer asks for them, see {@link Span#getAllMetadata()}. Keys are unique, and iterate in the
+ * order they were first added.
+ */
+public final class SpanTags {
+
+    private static final String[] NO_KEYS = new String[0];
+    private static final Type[] NO_TYPES = new Type[0];
+    private static final long[] NO_PRIMITIVES = new long[0];
+    private static final SpanTags EMPTY = new SpanTags(NO_KEYS, NO_TYPES, NO_PRIMITIVES, null, 0);
+
+    /** The type of the value of a tag. */
+    public enum Type {
+        LONG,
+        DOUBLE,
+        BOOLEAN,
+        STRING
+    }
+
+    private final String[] keys;
+    private final Type[] types;
+
+    // Longs, raw double bits, or 1 for true, indexed like the keys
+    private final long[] primitives;
+
+    // Only allocated once a string tag is added
+    @Nullable
+    private final String[] strings;
+
+    private final int size;
+
+    private SpanTags(String[] keys, Type[] types, long[] primitives, @Nullable String[] strings, int size) {
+        this.keys = keys;
+        this.types = types;
+        this.primitives = primitives;
+        this.strings = strings;
+        this.size = size;
+    }
+
+    public static SpanTags empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String key(int index) {
+        return keys[checkIndex(index)];
+    }
+
+    public Type type(int index) {
+        return types[checkIndex(index)];
+    }
+
+    /** Returns the value of a {@link Type#LONG} tag. */
+    public long longValue(int index) {
+        checkType(index, Type.LONG);
+        return primitives[index];
+    }
+
+    /** Returns the value of a {@link Type#DOUBLE} tag. */
+    public double doubleValue(int index) {
+        checkType(index, Type.DOUBLE);
+        return Double.longBitsToDouble(primitives[index]);
+    }
+
+    /** Returns the value of a {@link Type#BOOLEAN} tag. */
+    public boolean booleanValue(int index) {
+        checkType(index, Type.BOOLEAN);
+        return primitives[index] != 0;
+    }
+
+    /** Returns the value of a {@link Type#STRING} tag. */
+    public String stringValue(int index) {
+        checkType(index, Type.STRING);
+        return Objects.requireNonNull(strings, "strings")[index];
+    }
+
+    /** Returns the value of the tag rendered as a string, as it appears in {@link Span#getAllMetadata()}. */
+    public String valueAsString(int index) {
+        switch (type(index)) {
+            case LONG:
+                return Long.toString(longValue(index));
+            case DOUBLE:
+                return Double.toString(doubleValue(index));
+            case BOOLEAN:
+                return Boolean.toString(booleanValue(index));
+            case STRING:
+                return stringValue(index);
+        }
+        throw new IllegalStateException("Unknown tag type: " + types[index]);
+    }
+
+    public boolean containsKey(String key) {
+        return indexOf(keys, size, key) >= 0;
+    }
+
+    /** Returns the tags with their values rendered as strings. */
+    public Map<String, String> toMap() {
+        if (size == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], valueAsString(i));
+        }
+        return map;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Tag index " + index + " out of bounds for size " + size);
+        }
+        return index;
+    }
+
+    private void checkType(int index, Type expected) {
+        if (type(index) != expected) {
+            throw new IllegalArgumentException("Tag " + keys[index] + " is a " + types[index] + ", not a " + expected);
+        }
+    }
+
+    private static int indexOf(String[] keys, int size, String key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SpanTags)) {
+            return false;
+        }
+        SpanTags that = (SpanTags) other;
+        if (size != that.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!keys[i].equals(that.keys[i])
+                    || types[i] != that.types[i]
+                    || primitives[i] != that.primitives[i]
+                    || (types[i] == Type.STRING && !stringValue(i).equals(that.stringValue(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < size; i++) {
+            result = 31 * result + keys[i].hashCode();
+            result = 31 * result + (types[i] == Type.STRING ? stringValue(i).hashCode() : Long.hashCode(primitives[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SpanTags" + toMap();
+    }
+
+    /**
+     * Accumulates the tags of a span. Adding a tag whose key was already added replaces its value. Not thread-safe.
+     */
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 4;
+
+        // Arrays are only allocated once the first tag is added
+        private String[] keys = NO_KEYS;
+        private Type[] types = NO_TYPES;
+        private long[] primitives = NO_PRIMITIVES;
+
+        @Nullable
+        private String[] strings;
+
+        private int size;
+
+        private Builder() {}
+
+        public Builder put(String key, long value) {
+            int index = slot(key, Type.LONG);
+            primitives[index] = value;
+            return this;
+        }
+
+        public Builder put(String key, double value) {
+            int index = slot(key, Type.DOUBLE);
+            primitives[index] = Double.doubleToRawLongBits(value);
+            return this;
+        }
+
+        public Builder put(String key, boolean value) {
+            int index = slot(key, Type.BOOLEAN);
+            primitives[index] = value ? 1 : 0;
+            return this;
+        }
+
+        public Builder put(String key, String value) {
+            Objects.requireNonNull(value, "value");
+            int index = slot(key, Type.STRING);
+            String[] current = strings;
+            if (current == null) {
+                current = new String[keys.length];
+                strings = current;
+            }
+            current[index] = value;
+            primitives[index] = 0;
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * Returns the tags added so far without copying them. This builder is reset, and may be used to accumulate a
+         * new set of tags.
+         */
+        public SpanTags build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            SpanTags tags = new SpanTags(keys, types, primitives, strings, size);
+            keys = NO_KEYS;
+            types = NO_TYPES;
+            primitives = NO_PRIMITIVES;
+            strings = null;
+            size = 0;
+            return tags;
+        }
+
+        private int slot(String key, Type type) {
+            Objects.requireNonNull(key, "key");
+            int index = indexOf(keys, size, key);
+            if (index < 0) {
+                if (size == keys.length) {
+                    grow();
+                }
+                index = size++;
+                keys[index] = key;
+            }
+            types[index] = type;
+            String[] current = strings;
+            if (current != null) {
+                // Do not retain a replaced string value
+                current[index] = null;
+            }
+            return index;
+        }
+
+        private void grow() {
+            int capacity = Math.max(INITIAL_CAPACITY, keys.length * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            primitives = Arrays.copyOf(primitives, capacity);
+            String[] current = strings;
+            if (current != null) {
+                strings = Arrays.copyOf(current, capacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derives wall-clock times from {@link System#nanoTime()} relative to an anchor, which pairs a {@link Clock#systemUTC()
+ * system clock} reading with the monotonic reading taken alongside it. The anchor is renewed once it is older than a
+ * second, which bounds the drift between the two clocks and lets adjustments of the system clock take effect.
+ */
+final class SystemTracingClock implements TracingClock {
+
+    static final SystemTracingClock INSTANCE = new SystemTracingClock(Clock.systemUTC());
+
+    private static final long RESYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Clock clock;
+    private volatile Anchor anchor;
+
+    SystemTracingClock(Clock clock) {
+        this.clock = clock;
+        this.anchor = anchor(System.nanoTime());
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public long epochMicros(long nanoTime) {
+        Anchor current = anchor;
+        long elapsedNanos = nanoTime - current.nanoTime;
+        if (elapsedNanos >= RESYNC_INTERVAL_NANOS) {
+            // Racing threads may both renew the anchor, either reading is as good as the other
+            current = anchor(nanoTime);
+            anchor = current;
+            elapsedNanos = 0;
+        }
+        return current.epochMicros + Math.floorDiv(elapsedNanos, 1000);
+    }
+
+    private Anchor anchor(long nanoTime) {
+        Instant now = clock.instant();
+        return new Anchor(TimeUnit.SECONDS.toMicros(now.getEpochSecond()) + now.getNano() / 1000, nanoTime);
+    }
+
+    private static final class Anchor {
+        private final long epochMicros;
+        private final long nanoTime;
+
+        Anchor(long epochMicros, long nanoTime) {
+            this.epochMicros = epochMicros;
+            this.nanoTime = nanoTime;
+        }
+    }
+}
@@ -16,7 +16,7 @@
 
 package com.palantir.tracing.api;
 
-/** Zipkin-compatible HTTP header names. */
+/** Zipkin-compatible and W3C trace context HTTP header names. */
 public interface TraceHttpHeaders {
     String TRACE_ID = "X-B3-TraceId";
     String PARENT_SPAN_ID = "X-B3-ParentSpanId";
@@ -34,4 +34,13 @@ public interface TraceHttpHeaders {
      * tracing, the typical trace logs (with sampling) are still required.
      */
     String ORIGINATING_SPAN_ID = "X-OrigSpanId";
+
+    /** Single-header B3 propagation: {@code {TraceId}-{SpanId}-{SamplingState}-{ParentSpanId}}. */
+    String B3 = "b3";
+
+    /** W3C trace context: {@code {version}-{trace-id}-{parent-id}-{trace-flags}}. */
+    String TRACEPARENT = "traceparent";
+
+    /** W3C vendor-specific trace state, passed through unmodified. */
+    String TRACESTATE = "tracestate";
 }
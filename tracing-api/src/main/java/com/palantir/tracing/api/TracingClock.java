@@ -0,0 +1,46 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.time.Instant;
+
+/**
+ * Source of the timestamps of spans. Span durations are measured with the monotonic {@link #nanoTime()}, and each
+ * span's wall-clock start time is derived from the same reading using {@link #epochMicros(long)}, so starting a span
+ * reads the clock only once.
+ */
+public interface TracingClock {
+
+    /** Returns a monotonic reading in nanoseconds, with the semantics of {@link System#nanoTime()}. */
+    long nanoTime();
+
+    /** Returns the wall-clock time, in microseconds since the epoch, at which {@link #nanoTime()} was read. */
+    long epochMicros(long nanoTime);
+
+    /**
+     * The clock used unless configured otherwise, which reads {@link System#nanoTime()} and derives wall-clock times
+     * from a system clock reading taken at most once per second, without allocating.
+     */
+    static TracingClock system() {
+        return SystemTracingClock.INSTANCE;
+    }
+
+    /** Returns a clock which only advances when told to, for deterministic tests. */
+    static ManualTracingClock manual(Instant start) {
+        return new ManualTracingClock(start);
+    }
+}
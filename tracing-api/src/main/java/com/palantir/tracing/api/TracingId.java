@@ -0,0 +1,246 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import com.palantir.logsafe.Preconditions;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * A trace or span identifier backed by a pair of primitive longs. Identifiers are either 64 bits wide (B3 span and
+ * trace ids, W3C parent ids) or 128 bits wide (W3C trace ids), and are only rendered as lowercase hex when
+ * {@link #toString()} is called, e.g. when a header is written or a span is serialized.
+ *
+ * <p>Identifiers received from other services which are not 16 or 32 character lowercase hex strings cannot be
+ * represented as primitives, and are retained verbatim.
+ */
+public final class TracingId {
+
+    private static final char[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+    private static final int HEX_LENGTH_64 = 16;
+    private static final int HEX_LENGTH_128 = 32;
+
+    private final long high;
+    private final long low;
+    // 16 or 32 for identifiers backed by primitives, zero for verbatim identifiers
+    private final int hexLength;
+
+    // Lazily rendered, benign data race: all threads compute an equal value.
+    @Nullable
+    private String string;
+
+    private TracingId(long high, long low, int hexLength, @Nullable String string) {
+        this.high = high;
+        this.low = low;
+        this.hexLength = hexLength;
+        this.string = string;
+    }
+
+    /** Returns a random 64-bit identifier suitable for span and trace ids. */
+    public static TracingId random() {
+        return of(ThreadLocalRandom.current().nextLong());
+    }
+
+    /** Returns a random 128-bit identifier suitable for W3C trace ids. */
+    public static TracingId random128() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return of(random.nextLong(), random.nextLong());
+    }
+
+    /** Returns a 64-bit identifier. */
+    public static TracingId of(long value) {
+        return new TracingId(0L, value, HEX_LENGTH_64, null);
+    }
+
+    /** Returns a 128-bit identifier composed of the given high and low halves. */
+    public static TracingId of(long high, long low) {
+        return new TracingId(high, low, HEX_LENGTH_128, null);
+    }
+
+    /**
+     * Returns an identifier for the given string. Lowercase hex strings of 16 or 32 characters are decoded into
+     * primitives, any other non-empty value is retained verbatim. In both cases {@link #toString()} returns the given
+     * string without re-encoding it.
+     */
+    public static TracingId parse(String value) {
+        Preconditions.checkArgument(value != null && !value.isEmpty(), "Identifier must be non-empty");
+        int length = value.length();
+        if (length == HEX_LENGTH_64) {
+            if (isLowerHex(value, 0, HEX_LENGTH_64)) {
+                return new TracingId(0L, decodeHex(value, 0), HEX_LENGTH_64, value);
+            }
+        } else if (length == HEX_LENGTH_128) {
+            if (isLowerHex(value, 0, HEX_LENGTH_128)) {
+                return new TracingId(decodeHex(value, 0), decodeHex(value, HEX_LENGTH_64), HEX_LENGTH_128, value);
+            }
+        }
+        return new TracingId(0L, 0L, 0, value);
+    }
+
+    /**
+     * Like {@link #parse(String)}, but parses the characters of {@code value} between {@code start} (inclusive) and
+     * {@code end} (exclusive), e.g. one field of a single-header propagation format. Hex identifiers are decoded
+     * without copying the characters, and rendered again when {@link #toString()} is called.
+     */
+    public static TracingId parse(CharSequence value, int start, int end) {
+        int length = end - start;
+        Preconditions.checkArgument(start >= 0 && end <= value.length() && length > 0, "Identifier must be non-empty");
+        if (length == HEX_LENGTH_64 && isLowerHex(value, start, HEX_LENGTH_64)) {
+            return of(decodeHex(value, start));
+        }
+        if (length == HEX_LENGTH_128 && isLowerHex(value, start, HEX_LENGTH_128)) {
+            return of(decodeHex(value, start), decodeHex(value, start + HEX_LENGTH_64));
+        }
+        return new TracingId(0L, 0L, 0, value.subSequence(start, end).toString());
+    }
+
+    /** Returns true if this identifier is backed by primitives rather than a verbatim string. */
+    public boolean isPrimitive() {
+        return hexLength != 0;
+    }
+
+    /** Returns true if this is a 128-bit identifier. */
+    public boolean is128Bit() {
+        return hexLength == HEX_LENGTH_128;
+    }
+
+    /** Returns the high 64 bits of a 128-bit identifier, or zero for 64-bit and verbatim identifiers. */
+    public long getHigh() {
+        return high;
+    }
+
+    /** Returns the low 64 bits of this identifier, or zero for verbatim identifiers. */
+    public long getLow() {
+        return low;
+    }
+
+    /** Appends the rendered form of this identifier without allocating intermediate strings. */
+    public StringBuilder appendTo(StringBuilder builder) {
+        String rendered = string;
+        if (rendered != null) {
+            return builder.append(rendered);
+        }
+        if (hexLength == HEX_LENGTH_128) {
+            appendHex(builder, high);
+        }
+        appendHex(builder, low);
+        return builder;
+    }
+
+    /** Number of characters of the {@link #toString() rendered form} of this identifier. */
+    int length() {
+        return hexLength == 0 ? toString().length() : hexLength;
+    }
+
+    /**
+     * Writes the {@link #toString() rendered form} of this identifier into {@code data} at {@code offset}, returning
+     * the offset following it, so that propagators can build headers without intermediate builders or strings.
+     */
+    int encodeTo(char[] data, int offset) {
+        String rendered = string;
+        if (rendered != null) {
+            rendered.getChars(0, rendered.length(), data, offset);
+            return offset + rendered.length();
+        }
+        int position = offset;
+        if (hexLength == HEX_LENGTH_128) {
+            encodeHex(high, data, position);
+            position += HEX_LENGTH_64;
+        }
+        encodeHex(low, data, position);
+        return position + HEX_LENGTH_64;
+    }
+
+    @Override
+    public String toString() {
+        String rendered = string;
+        if (rendered == null) {
+            char[] data = new char[hexLength];
+            int offset = 0;
+            if (hexLength == HEX_LENGTH_128) {
+                encodeHex(high, data, 0);
+                offset = HEX_LENGTH_64;
+            }
+            encodeHex(low, data, offset);
+            rendered = new String(data);
+            string = rendered;
+        }
+        return rendered;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof TracingId)) {
+            return false;
+        }
+        TracingId that = (TracingId) other;
+        if (hexLength != 0 && that.hexLength != 0) {
+            return high == that.high && low == that.low && hexLength == that.hexLength;
+        }
+        return hexLength == that.hexLength && toString().equals(that.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        if (hexLength == 0) {
+            return toString().hashCode();
+        }
+        return Objects.hash(high, low, hexLength);
+    }
+
+    /**
+     * Convert a long to a big-endian hex string. Hand-coded implementation is more efficient than
+     * Strings.pad(Long.toHexString) because that code has to deal with mixed length longs, and then mixed length
+     * amounts of padding - we want to minimise the overhead of tracing.
+     */
+    private static void encodeHex(long number, char[] data, int offset) {
+        for (int i = 0; i < HEX_LENGTH_64; i++) {
+            data[offset + i] = HEX_DIGITS[(int) ((number >> (60 - 4 * i)) & 0xF)];
+        }
+    }
+
+    private static void appendHex(StringBuilder builder, long number) {
+        for (int i = 0; i < HEX_LENGTH_64; i++) {
+            builder.append(HEX_DIGITS[(int) ((number >> (60 - 4 * i)) & 0xF)]);
+        }
+    }
+
+    private static boolean isLowerHex(CharSequence value, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            char character = value.charAt(i);
+            if (!((character >= '0' && character <= '9') || (character >= 'a' && character <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long decodeHex(CharSequence value, int offset) {
+        long result = 0L;
+        for (int i = offset; i < offset + HEX_LENGTH_64; i++) {
+            char character = value.charAt(i);
+            result = (result << 4) | (character <= '9' ? character - '0' : character - 'a' + 10);
+        }
+        return result;
+    }
+}
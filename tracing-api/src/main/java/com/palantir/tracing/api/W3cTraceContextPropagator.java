@@ -0,0 +1,129 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import java.util.Optional;
+
+/**
+ * Propagates the trace in the W3C {@link TraceHttpHeaders#TRACEPARENT traceparent} and
+ * {@link TraceHttpHeaders#TRACESTATE tracestate} headers, see <a href="https://www.w3.org/TR/trace-context/">W3C trace
+ * context</a>. 64-bit trace ids are padded to 128 bits when injected, and 128-bit trace ids whose high half is zero are
+ * extracted as 64-bit ids, so that traces keep their identifier when crossing B3 and W3C hops.
+ *
+ * <p>The format cannot carry a trace without a sampling decision, undecided traces are propagated as not sampled.
+ * Verbatim identifiers which are not hex cannot be propagated at all.
+ */
+enum W3cTraceContextPropagator implements Propagator {
+    INSTANCE;
+
+    private static final String VERSION = "00";
+    private static final String PADDING = "0000000000000000";
+    private static final int TRACE_ID_START = 3;
+    private static final int TRACE_ID_END = TRACE_ID_START + 32;
+    private static final int PARENT_ID_START = TRACE_ID_END + 1;
+    private static final int PARENT_ID_END = PARENT_ID_START + 16;
+    private static final int FLAGS_START = PARENT_ID_END + 1;
+    private static final int LENGTH = FLAGS_START + 2;
+    private static final int SAMPLED_FLAG = 0x1;
+
+    @Override
+    public <C> Optional<PropagationContext> extract(C carrier, Getter<C> getter) {
+        CharSequence header = getter.get(carrier, TraceHttpHeaders.TRACEPARENT);
+        if (header == null || !isValid(header)) {
+            return Optional.empty();
+        }
+        TracingId traceId = TracingId.parse(header, TRACE_ID_START, TRACE_ID_END);
+        TracingId parentId = TracingId.parse(header, PARENT_ID_START, PARENT_ID_END);
+        if (!traceId.isPrimitive()
+                || !parentId.isPrimitive()
+                || (traceId.getHigh() == 0 && traceId.getLow() == 0)
+                || parentId.getLow() == 0) {
+            return Optional.empty();
+        }
+        int flags = (hexDigit(header, FLAGS_START) << 4) | hexDigit(header, FLAGS_START + 1);
+        return Optional.of(PropagationContext.of(
+                traceId.getHigh() == 0 ? TracingId.of(traceId.getLow()) : traceId,
+                parentId,
+                null,
+                null,
+                (flags & SAMPLED_FLAG) != 0 ? SamplingDecision.SAMPLE : SamplingDecision.DO_NOT_SAMPLE,
+                PropagationHeaders.toStringOrNull(getter.get(carrier, TraceHttpHeaders.TRACESTATE))));
+    }
+
+    @Override
+    public <C> void inject(PropagationContext context, C carrier, Setter<C> setter) {
+        TracingId traceId = context.traceId();
+        TracingId spanId = context.spanId();
+        if (traceId == null
+                || spanId == null
+                || !traceId.isPrimitive()
+                || !spanId.isPrimitive()
+                || spanId.is128Bit()) {
+            return;
+        }
+        // Encoded straight into the backing array of the header, rather than through a builder
+        char[] header = new char[LENGTH];
+        VERSION.getChars(0, VERSION.length(), header, 0);
+        header[TRACE_ID_START - 1] = '-';
+        int offset = TRACE_ID_START;
+        if (!traceId.is128Bit()) {
+            PADDING.getChars(0, PADDING.length(), header, offset);
+            offset += PADDING.length();
+        }
+        traceId.encodeTo(header, offset);
+        header[TRACE_ID_END] = '-';
+        spanId.encodeTo(header, PARENT_ID_START);
+        header[PARENT_ID_END] = '-';
+        header[FLAGS_START] = '0';
+        header[FLAGS_START + 1] = context.sampling() == SamplingDecision.SAMPLE ? '1' : '0';
+        setter.set(carrier, TraceHttpHeaders.TRACEPARENT, new String(header));
+        String traceState = context.traceState();
+        if (traceState != null) {
+            setter.set(carrier, TraceHttpHeaders.TRACESTATE, traceState);
+        }
+    }
+
+    /**
+     * Future versions may append fields, which are ignored. Version {@code ff} is invalid, and lowercase hex is
+     * validated when the identifiers are parsed.
+     */
+    private static boolean isValid(CharSequence header) {
+        if (header.length() < LENGTH) {
+            return false;
+        }
+        if (header.charAt(0) == 'f' && header.charAt(1) == 'f') {
+            return false;
+        }
+        if (header.charAt(0) == '0' && header.charAt(1) == '0' && header.length() != LENGTH) {
+            return false;
+        }
+        return header.charAt(2) == '-'
+                && header.charAt(TRACE_ID_END) == '-'
+                && header.charAt(PARENT_ID_END) == '-'
+                && hexDigit(header, FLAGS_START) >= 0
+                && hexDigit(header, FLAGS_START + 1) >= 0
+                && (header.length() == LENGTH || header.charAt(LENGTH) == '-');
+    }
+
+    private static int hexDigit(CharSequence header, int index) {
+        char character = header.charAt(index);
+        if (character >= '0' && character <= '9') {
+            return character - '0';
+        }
+        return character >= 'a' && character <= 'f' ? character - 'a' + 10 : -1;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Test;
+
+public final class PropagatorsTest {
+
+    private static final Propagator.Getter<Map<String, String>> GETTER = Map::get;
+    private static final Propagator.Setter<Map<String, String>> SETTER = Map::put;
+
+    private static final TracingId TRACE_ID = TracingId.parse("0af7651916cd43dd");
+    private static final TracingId SPAN_ID = TracingId.parse("b7ad6b7169203331");
+    private static final TracingId PARENT_SPAN_ID = TracingId.parse("00f067aa0ba902b7");
+
+    @Test
+    public void testB3MultiRoundTrip() {
+        PropagationContext context =
+                PropagationContext.of(TRACE_ID, SPAN_ID, PARENT_SPAN_ID, PARENT_SPAN_ID, SamplingDecision.SAMPLE);
+        Map<String, String> headers = inject(Propagators.b3Multi(), context);
+        assertThat(headers)
+                .containsEntry(TraceHttpHeaders.TRACE_ID, "0af7651916cd43dd")
+                .containsEntry(TraceHttpHeaders.SPAN_ID, "b7ad6b7169203331")
+                .containsEntry(TraceHttpHeaders.PARENT_SPAN_ID, "00f067aa0ba902b7")
+                .containsEntry(TraceHttpHeaders.ORIGINATING_SPAN_ID, "00f067aa0ba902b7")
+                .containsEntry(TraceHttpHeaders.IS_SAMPLED, "1")
+                .hasSize(5);
+        assertThat(Propagators.b3Multi().extract(headers, GETTER)).contains(context);
+    }
+
+    @Test
+    public void testB3MultiSampling() {
+        Map<String, String> headers = new HashMap<>();
+        assertThat(Propagators.b3Multi().extract(headers, GETTER)).isEmpty();
+        headers.put(TraceHttpHeaders.IS_SAMPLED, "0");
+        assertThat(Propagators.b3Multi().extract(headers, GETTER))
+                .contains(PropagationContext.ofSampling(SamplingDecision.DO_NOT_SAMPLE));
+        headers.put(TraceHttpHeaders.TRACE_ID, "verbatim");
+        headers.put(TraceHttpHeaders.IS_SAMPLED, "");
+        PropagationContext context = Propagators.b3Multi().extract(headers, GETTER).get();
+        assertThat(context.traceId()).hasToString("verbatim");
+        assertThat(context.spanId()).isNull();
+        assertThat(context.sampling()).isEqualTo(SamplingDecision.UNDECIDED);
+    }
+
+    @Test
+    public void testB3Single() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(TraceHttpHeaders.B3, "0af7651916cd43dd-b7ad6b7169203331-1-00f067aa0ba902b7");
+        assertThat(Propagators.b3Single().extract(headers, GETTER))
+                .contains(PropagationContext.of(TRACE_ID, SPAN_ID, PARENT_SPAN_ID, null, SamplingDecision.SAMPLE));
+
+        headers.put(TraceHttpHeaders.B3, "0af7651916cd43dd-b7ad6b7169203331");
+        assertThat(Propagators.b3Single().extract(headers, GETTER))
+                .contains(PropagationContext.of(TRACE_ID, SPAN_ID, null, null, SamplingDecision.UNDECIDED));
+
+        headers.put(TraceHttpHeaders.B3, "d");
+        assertThat(Propagators.b3Single().extract(headers, GETTER))
+                .contains(PropagationContext.ofSampling(SamplingDecision.SAMPLE));
+
+        headers.put(TraceHttpHeaders.B3, "0af7651916cd43dd-");
+        assertThat(Propagators.b3Single().extract(headers, GETTER)).isEmpty();
+        headers.put(TraceHttpHeaders.B3, "0af7651916cd43dd-b7ad6b7169203331-10");
+        assertThat(Propagators.b3Single().extract(headers, GETTER)).isEmpty();
+    }
+
+    @Test
+    public void testB3SingleInject() {
+        assertThat(inject(
+                        Propagators.b3Single(),
+                        PropagationContext.of(TRACE_ID, SPAN_ID, PARENT_SPAN_ID, null, SamplingDecision.DO_NOT_SAMPLE)))
+                .containsOnly(entry(TraceHttpHeaders.B3, "0af7651916cd43dd-b7ad6b7169203331-0-00f067aa0ba902b7"));
+        assertThat(inject(
+                        Propagators.b3Single(),
+                        PropagationContext.of(TRACE_ID, SPAN_ID, PARENT_SPAN_ID, null, SamplingDecision.UNDECIDED)))
+                .containsOnly(entry(TraceHttpHeaders.B3, "0af7651916cd43dd-b7ad6b7169203331"));
+    }
+
+    @Test
+    public void testW3cExtract() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(TraceHttpHeaders.TRACEPARENT, "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+        headers.put(TraceHttpHeaders.TRACESTATE, "congo=t61rcWkgMzE");
+        PropagationContext context = Propagators.w3c().extract(headers, GETTER).get();
+        assertThat(context.traceId()).hasToString("4bf92f3577b34da6a3ce929d0e0e4736");
+        assertThat(context.spanId()).isEqualTo(PARENT_SPAN_ID);
+        assertThat(context.sampling()).isEqualTo(SamplingDecision.SAMPLE);
+        assertThat(context.traceState()).isEqualTo("congo=t61rcWkgMzE");
+
+        // 64-bit trace ids remain 64-bit across W3C hops
+        headers.put(TraceHttpHeaders.TRACEPARENT, "00-00000000000000000af7651916cd43dd-00f067aa0ba902b7-00");
+        context = Propagators.w3c().extract(headers, GETTER).get();
+        assertThat(context.traceId()).isEqualTo(TRACE_ID);
+        assertThat(context.sampling()).isEqualTo(SamplingDecision.DO_NOT_SAMPLE);
+    }
+
+    @Test
+    public void testW3cExtractInvalid() {
+        assertThat(extractTraceparent("00-00000000000000000000000000000000-00f067aa0ba902b7-01"))
+                .isEmpty();
+        assertThat(extractTraceparent("00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01"))
+                .isEmpty();
+        assertThat(extractTraceparent("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01"))
+                .isEmpty();
+        assertThat(extractTraceparent("ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"))
+                .isEmpty();
+        assertThat(extractTraceparent("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-extra"))
+                .isEmpty();
+        assertThat(extractTraceparent("01-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-extra"))
+                .isPresent();
+    }
+
+    @Test
+    public void testW3cInject() {
+        PropagationContext context =
+                PropagationContext.of(TRACE_ID, SPAN_ID, PARENT_SPAN_ID, null, SamplingDecision.SAMPLE);
+        assertThat(inject(Propagators.w3c(), context))
+                .containsOnly(
+                        entry(TraceHttpHeaders.TRACEPARENT, "00-00000000000000000af7651916cd43dd-b7ad6b7169203331-01"));
+        assertThat(inject(
+                        Propagators.w3c(),
+                        PropagationContext.of(
+                                TracingId.parse("verbatim"), SPAN_ID, null, null, SamplingDecision.SAMPLE)))
+                .isEmpty();
+    }
+
+    @Test
+    public void testStandardPrefersB3AndInjectsB3Multi() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(TraceHttpHeaders.TRACEPARENT, "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+        headers.put(TraceHttpHeaders.IS_SAMPLED, "0");
+        PropagationContext context = Propagators.standard().extract(headers, GETTER).get();
+        assertThat(context.traceId()).hasToString("4bf92f3577b34da6a3ce929d0e0e4736");
+
+        headers.put(TraceHttpHeaders.TRACE_ID, "0af7651916cd43dd");
+        context = Propagators.standard().extract(headers, GETTER).get();
+        assertThat(context.traceId()).isEqualTo(TRACE_ID);
+        assertThat(context.sampling()).isEqualTo(SamplingDecision.DO_NOT_SAMPLE);
+
+        assertThat(inject(Propagators.standard(), context))
+                .containsOnlyKeys(TraceHttpHeaders.TRACE_ID, TraceHttpHeaders.IS_SAMPLED);
+    }
+
+    @Test
+    public void testComposite() {
+        Propagator propagator = Propagators.composite(Propagators.b3Single(), Propagators.w3c());
+        PropagationContext context =
+                PropagationContext.of(TRACE_ID, SPAN_ID, null, null, SamplingDecision.SAMPLE);
+        Map<String, String> headers = inject(propagator, context);
+        assertThat(headers).containsOnlyKeys(TraceHttpHeaders.B3, TraceHttpHeaders.TRACEPARENT);
+        assertThat(propagator.extract(headers, GETTER)).contains(context);
+    }
+
+    private static Optional<PropagationContext> extractTraceparent(String traceparent) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(TraceHttpHeaders.TRACEPARENT, traceparent);
+        return Propagators.w3c().extract(headers, GETTER);
+    }
+
+    private static Map<String, String> inject(Propagator propagator, PropagationContext context) {
+        Map<String, String> headers = new HashMap<>();
+        propagator.inject(context, headers, SETTER);
+        return headers;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import org.junit.Test;
+
+public final class SpanTagsTest {
+
+    @Test
+    public void testStoresTypedValues() {
+        SpanTags tags = SpanTags.builder()
+                .put("rows", 42L)
+                .put("ratio", 0.75)
+                .put("hit", true)
+                .put("region", "eu")
+                .build();
+
+        assertThat(tags.size()).isEqualTo(4);
+        assertThat(tags.type(0)).isEqualTo(SpanTags.Type.LONG);
+        assertThat(tags.longValue(0)).isEqualTo(42L);
+        assertThat(tags.doubleValue(1)).isEqualTo(0.75);
+        assertThat(tags.booleanValue(2)).isTrue();
+        assertThat(tags.stringValue(3)).isEqualTo("eu");
+        assertThat(tags.toMap())
+                .containsExactly(
+                        entry("rows", "42"), entry("ratio", "0.75"), entry("hit", "true"), entry("region", "eu"));
+        assertThatThrownBy(() -> tags.doubleValue(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> tags.key(4)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void testReplacesValuesOfExistingKeys() {
+        SpanTags tags = SpanTags.builder()
+                .put("value", "text")
+                .put("other", 1L)
+                .put("value", false)
+                .build();
+        assertThat(tags.toMap()).containsExactly(entry("value", "false"), entry("other", "1"));
+        assertThat(tags.containsKey("value")).isTrue();
+        assertThat(tags.containsKey("missing")).isFalse();
+    }
+
+    @Test
+    public void testGrowsAndResetsBuilder() {
+        SpanTags.Builder builder = SpanTags.builder();
+        assertThat(builder.build()).isSameAs(SpanTags.empty());
+        for (int i = 0; i < 10; i++) {
+            builder.put("key" + i, "value" + i);
+        }
+        SpanTags tags = builder.build();
+        assertThat(tags.size()).isEqualTo(10);
+        assertThat(tags.stringValue(9)).isEqualTo("value9");
+        assertThat(builder.isEmpty()).isTrue();
+
+        builder.put("key0", "value0");
+        assertThat(tags.size()).isEqualTo(10);
+        assertThat(builder.build()).isNotEqualTo(tags);
+    }
+
+    @Test
+    public void testEquality() {
+        assertThat(SpanTags.builder().put("a", 1L).put("b", "x").build())
+                .isEqualTo(SpanTags.builder().put("a", 1L).put("b", "x").build())
+                .hasSameHashCodeAs(SpanTags.builder().put("a", 1L).put("b", "x").build())
+                .isNotEqualTo(SpanTags.builder().put("a", 1.0).put("b", "x").build())
+                .isNotEqualTo(SpanTags.builder().put("a", 1L).put("b", "y").build());
+    }
+
+    @Test
+    public void testSpanMergesTagsIntoMetadata() {
+        Span span = Span.builder()
+                .traceId("trace")
+                .spanId("span")
+                .type(SpanType.LOCAL)
+                .operation("op")
+                .startTimeMicroSeconds(1)
+                .durationNanoSeconds(2)
+                .putMetadata("status", "200")
+                .tags(SpanTags.builder().put("status", 500L).put("bytes", 10L).build())
+                .build();
+        assertThat(span.getMetadata()).containsOnly(entry("status", "200"));
+        assertThat(span.getAllMetadata()).containsExactly(entry("status", "200"), entry("bytes", "10"));
+    }
+}
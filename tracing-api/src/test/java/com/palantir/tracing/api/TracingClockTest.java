@@ -0,0 +1,87 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public final class TracingClockTest {
+
+    @Test
+    public void testSystemClockTracksWallClock() {
+        assertThat(TracingClock.system()).isSameAs(SystemTracingClock.INSTANCE);
+        TracingClock clock = new SystemTracingClock(Clock.systemUTC());
+        long before = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        long nanoTime = clock.nanoTime();
+        long epochMicros = clock.epochMicros(nanoTime);
+        long after = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() + 1);
+
+        assertThat(epochMicros).isBetween(before - 1_000, after + 1_000);
+        assertThat(clock.epochMicros(nanoTime + 2_000)).isEqualTo(epochMicros + 2);
+    }
+
+    @Test
+    public void testSystemClockResyncs() {
+        AtomicReference<Instant> now = new AtomicReference<>(Instant.ofEpochSecond(100));
+        SystemTracingClock clock = new SystemTracingClock(new Clock() {
+            @Override
+            public ZoneOffset getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId _zone) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        });
+        long start = System.nanoTime();
+        long startMicros = clock.epochMicros(start);
+        assertThat(startMicros).isBetween(100_000_000L, 100_001_000L);
+
+        // The wall clock moved forward a minute, which is only noticed once the anchor is renewed
+        now.set(Instant.ofEpochSecond(160));
+        long later = start + TimeUnit.SECONDS.toNanos(2);
+        assertThat(clock.epochMicros(later)).isEqualTo(160_000_000L);
+        assertThat(clock.epochMicros(later + 5_000)).isEqualTo(160_000_005L);
+    }
+
+    @Test
+    public void testManualClock() {
+        ManualTracingClock clock = TracingClock.manual(Instant.ofEpochSecond(10, 3_000));
+        long start = clock.nanoTime();
+        assertThat(clock.epochMicros(start)).isEqualTo(10_000_003L);
+
+        clock.advance(Duration.ofMillis(5));
+        assertThat(clock.nanoTime() - start).isEqualTo(5_000_000L);
+        assertThat(clock.epochMicros(clock.nanoTime())).isEqualTo(10_005_003L);
+        assertThatThrownBy(() -> clock.advance(Duration.ofNanos(-1))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.api;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import org.junit.Test;
+
+public final class TracingIdTest {
+
+    @Test
+    public void testRendersPaddedHex() {
+        assertThat(TracingId.of(0).toString()).isEqualTo("0000000000000000");
+        assertThat(TracingId.of(42).toString()).isEqualTo("000000000000002a");
+        assertThat(TracingId.of(-42).toString()).isEqualTo("ffffffffffffffd6");
+        assertThat(TracingId.of(1L, 42L).toString()).isEqualTo("0000000000000001000000000000002a");
+    }
+
+    @Test
+    public void testAppendToMatchesToString() {
+        TracingId id = TracingId.random128();
+        assertThat(id.appendTo(new StringBuilder()).toString()).isEqualTo(id.toString());
+    }
+
+    @Test
+    public void testParsesHexIntoPrimitives() {
+        TracingId id64 = TracingId.parse("00000000075bcd15");
+        assertThat(id64.isPrimitive()).isTrue();
+        assertThat(id64.is128Bit()).isFalse();
+        assertThat(id64.getLow()).isEqualTo(123456789L);
+        assertThat(id64).isEqualTo(TracingId.of(123456789L));
+
+        TracingId id128 = TracingId.parse("ffffffffffffffd6000000000000002a");
+        assertThat(id128.is128Bit()).isTrue();
+        assertThat(id128.getHigh()).isEqualTo(-42L);
+        assertThat(id128.getLow()).isEqualTo(42L);
+        assertThat(id128).isEqualTo(TracingId.of(-42L, 42L)).hasSameHashCodeAs(TracingId.of(-42L, 42L));
+    }
+
+    @Test
+    public void testRetainsNonHexValuesVerbatim() {
+        TracingId upperCase = TracingId.parse("00000000075BCD15");
+        assertThat(upperCase.isPrimitive()).isFalse();
+        assertThat(upperCase.toString()).isEqualTo("00000000075BCD15");
+        assertThat(upperCase).isNotEqualTo(TracingId.of(123456789L));
+
+        TracingId arbitrary = TracingId.parse("my trace");
+        assertThat(arbitrary.toString()).isEqualTo("my trace");
+        assertThat(arbitrary).isEqualTo(TracingId.parse("my trace"));
+    }
+
+    @Test
+    public void testDistinguishesWidths() {
+        assertThat(TracingId.of(42L)).isNotEqualTo(TracingId.of(0L, 42L));
+    }
+
+    @Test
+    public void testRejectsEmptyValues() {
+        assertThatThrownBy(() -> TracingId.parse("")).isInstanceOf(SafeIllegalArgumentException.class);
+        assertThatThrownBy(() -> TracingId.parse("a-b", 1, 1)).isInstanceOf(SafeIllegalArgumentException.class);
+    }
+
+    @Test
+    public void testParsesRangeOfCharSequence() {
+        StringBuilder header = new StringBuilder("00000000075bcd15-verbatim");
+        assertThat(TracingId.parse(header, 0, 16)).isEqualTo(TracingId.of(123456789L));
+        assertThat(TracingId.parse(header, 17, header.length())).isEqualTo(TracingId.parse("verbatim"));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanType;
+import java.net.InetAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures serializing and logging spans with an {@link AsyncSlf4jSpanObserver}. The observer runs on the completing
+ * thread and logs to a logger which is enabled at trace level but discards its output, see {@code log4j2.xml}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@SuppressWarnings("checkstyle:VisibilityModifier")
+public class AsyncSlf4jSpanObserverBenchmark {
+
+    @Param({"SAMPLE", "DO_NOT_SAMPLE", "UNDECIDED"})
+    public TracingBenchmark.BenchmarkObservability observability;
+
+    private final Span span = Span.builder()
+            .traceId(Tracers.randomId())
+            .parentSpanId(Tracers.randomId())
+            .spanId(Tracers.randomId())
+            .operation("GET /api/v1/benchmark/{id}")
+            .startTimeMicroSeconds(1_580_000_000_000_000L)
+            .durationNanoSeconds(12_345_678L)
+            .type(SpanType.SERVER_INCOMING)
+            .putAllMetadata(ImmutableMap.of("userId", "1", "status", "200"))
+            .build();
+
+    private ExecutorService executor;
+    private AsyncSlf4jSpanObserver observer;
+
+    @Setup
+    public final void before() {
+        executor = MoreExecutors.newDirectExecutorService();
+        observer = AsyncSlf4jSpanObserver.of(
+                "benchmark",
+                InetAddress.getLoopbackAddress(),
+                LoggerFactory.getLogger("com.palantir.tracing.benchmark.zipkin"),
+                executor);
+        Tracer.setSampler(observability.getTraceSampler());
+        Tracer.subscribe("jmh-slf4j", observer);
+        Tracer.getAndClearTrace();
+    }
+
+    @TearDown
+    public final void after() {
+        Tracer.unsubscribe("jmh-slf4j");
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public final void doConsume() {
+        observer.doConsume(span);
+    }
+
+    @Benchmark
+    public final void completeSpan() {
+        Tracer.fastStartSpan("benchmark", SpanType.SERVER_INCOMING);
+        Tracer.fastCompleteSpan();
+    }
+}
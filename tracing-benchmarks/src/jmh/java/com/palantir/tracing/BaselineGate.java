@@ -0,0 +1,156 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.palantir.logsafe.SafeArg;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares benchmark results against a baseline file mapping each benchmark to its relative cost, the time per
+ * operation and thread divided by that of the {@link ReferenceBenchmark} measured in the same run, and to the bytes
+ * allocated per operation measured by the gc profiler. Relative costs carry over between machines of different speed,
+ * unlike raw scores. Each entry bounds every parameter combination and thread count of its benchmark. Benchmarks
+ * missing from the baseline fail the gate, so that an empty or stale baseline cannot pass it, unless missing entries
+ * are allowed while new benchmarks are added ahead of re-recording the baseline.
+ */
+final class BaselineGate {
+
+    private static final Logger log = LoggerFactory.getLogger(BaselineGate.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String RELATIVE_COST = "relativeCost";
+    private static final String BYTES_PER_OP = "bytesPerOp";
+    private static final String ALLOCATION_RESULT = "gc.alloc.rate.norm";
+    // Allocation is measured per operation, small absolute differences are noise rather than regressions
+    private static final double ALLOCATION_SLACK_BYTES = 16;
+
+    private final double tolerance;
+    private final boolean allowMissing;
+
+    BaselineGate(double tolerance, boolean allowMissing) {
+        this.tolerance = tolerance;
+        this.allowMissing = allowMissing;
+    }
+
+    /** Returns a description of every result which regressed by more than the tolerance. */
+    List<String> regressions(Path baselineFile, RunResult reference, Collection<RunResult> results)
+            throws IOException {
+        Map<String, Map<String, Double>> baseline = read(baselineFile);
+        double referenceNanos = nanosPerOp(reference);
+        List<String> regressions = new ArrayList<>();
+        for (RunResult result : results) {
+            String key = key(result.getParams());
+            Map<String, Double> expected = baseline.get(result.getParams().getBenchmark());
+            if (expected == null) {
+                if (allowMissing) {
+                    log.warn("No baseline for benchmark {}", SafeArg.of("benchmark", key));
+                } else {
+                    regressions.add(key + ": missing from the baseline, record it with -PwriteBaseline");
+                }
+                continue;
+            }
+            double relativeCost = nanosPerOp(result) / referenceNanos;
+            Double expectedCost = expected.get(RELATIVE_COST);
+            if (expectedCost != null && relativeCost > expectedCost * (1 + tolerance)) {
+                regressions.add(String.format(
+                        "%s: costs %.3f times the reference, baseline %.3f", key, relativeCost, expectedCost));
+            }
+            OptionalDouble bytesPerOp = bytesPerOp(result);
+            Double expectedBytesPerOp = expected.get(BYTES_PER_OP);
+            if (bytesPerOp.isPresent()
+                    && expectedBytesPerOp != null
+                    && bytesPerOp.getAsDouble() > expectedBytesPerOp * (1 + tolerance) + ALLOCATION_SLACK_BYTES) {
+                regressions.add(String.format(
+                        "%s: allocates %.1f bytes/op, baseline %.1f",
+                        key, bytesPerOp.getAsDouble(), expectedBytesPerOp));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Replaces the baseline file with the given results, recording the highest relative cost and allocation of each
+     * benchmark across its parameters and thread counts.
+     */
+    static void write(Path baselineFile, RunResult reference, Collection<RunResult> results) throws IOException {
+        double referenceNanos = nanosPerOp(reference);
+        SortedMap<String, Map<String, Double>> baseline = new TreeMap<>();
+        for (RunResult result : results) {
+            Map<String, Double> entry =
+                    baseline.computeIfAbsent(result.getParams().getBenchmark(), _benchmark -> new TreeMap<>());
+            entry.merge(RELATIVE_COST, nanosPerOp(result) / referenceNanos, Math::max);
+            bytesPerOp(result).ifPresent(bytes -> entry.merge(BYTES_PER_OP, bytes, Math::max));
+        }
+        MAPPER.writerWithDefaultPrettyPrinter().writeValue(baselineFile.toFile(), baseline);
+    }
+
+    /** Time spent by each thread per operation, regardless of the mode and time unit of the benchmark. */
+    private static double nanosPerOp(RunResult result) {
+        BenchmarkParams params = result.getParams();
+        double score = result.getPrimaryResult().getScore();
+        double unitNanos = params.getTimeUnit().toNanos(1);
+        if (params.getMode() == Mode.Throughput) {
+            // Throughput is summed over the threads
+            return params.getThreads() * unitNanos / score;
+        }
+        return score * unitNanos;
+    }
+
+    private static Map<String, Map<String, Double>> read(Path baselineFile) throws IOException {
+        if (!Files.exists(baselineFile)) {
+            return new TreeMap<>();
+        }
+        return MAPPER.readValue(baselineFile.toFile(), new TypeReference<Map<String, Map<String, Double>>>() {});
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static OptionalDouble bytesPerOp(RunResult result) {
+        for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+            // jmh prefixes the labels of profiler results
+            if (secondary.getKey().endsWith(ALLOCATION_RESULT)) {
+                return OptionalDouble.of(secondary.getValue().getScore());
+            }
+        }
+        return OptionalDouble.empty();
+    }
+
+    private static String key(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark()).append('[');
+        for (String param : new TreeSet<>(params.getParamsKeys())) {
+            key.append(param).append('=').append(params.getParam(param)).append(',');
+        }
+        return key.append("threads=").append(params.getThreads()).append(']').toString();
+    }
+}
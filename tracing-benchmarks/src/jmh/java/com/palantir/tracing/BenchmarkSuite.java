@@ -0,0 +1,151 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the benchmarks once per thread count with the gc profiler and compares their cost relative to the
+ * {@link ReferenceBenchmark} and their allocation rate against a stored baseline, exiting with a non-zero status if any
+ * benchmark regressed or is missing from the baseline. Benchmarks annotated with
+ * {@link org.openjdk.jmh.annotations.Threads} run once, with their own thread count. Supported arguments:
+ *
+ * <ul>
+ *   <li>{@code --baseline <file>}: baseline to compare against, defaults to {@code baseline.json}
+ *   <li>{@code --threads <n,m,...>}: thread counts to run the other benchmarks with, defaults to {@code 1,4}
+ *   <li>{@code --include <regex>}: benchmarks to run, defaults to all
+ *   <li>{@code --tolerance <fraction>}: relative change tolerated before failing, defaults to {@code 0.25}
+ *   <li>{@code --allow-missing}: only warns about benchmarks missing from the baseline
+ *   <li>{@code --write-baseline}: records the results as the new baseline rather than comparing
+ * </ul>
+ */
+public final class BenchmarkSuite {
+
+    private static final Logger log = LoggerFactory.getLogger(BenchmarkSuite.class);
+
+    private BenchmarkSuite() {}
+
+    public static void main(String[] args) throws Exception {
+        Path baseline = Paths.get("baseline.json");
+        String threads = "1,4";
+        String include = ".*";
+        // Relative costs still shift somewhat between CPUs, so only larger regressions fail the gate
+        double tolerance = 0.25;
+        boolean allowMissing = false;
+        boolean writeBaseline = false;
+        Iterator<String> arguments = Arrays.asList(args).iterator();
+        while (arguments.hasNext()) {
+            String argument = arguments.next();
+            switch (argument) {
+                case "--baseline":
+                    baseline = Paths.get(arguments.next());
+                    break;
+                case "--threads":
+                    threads = arguments.next();
+                    break;
+                case "--include":
+                    include = arguments.next();
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(arguments.next());
+                    break;
+                case "--allow-missing":
+                    allowMissing = true;
+                    break;
+                case "--write-baseline":
+                    writeBaseline = true;
+                    break;
+                default:
+                    throw new SafeIllegalArgumentException("Unknown argument", SafeArg.of("argument", argument));
+            }
+        }
+
+        // Overriding the thread count would replace the one given by @Threads, so those benchmarks run on their own
+        Set<BenchmarkListEntry> benchmarks = BenchmarkList.defaultList()
+                .find(
+                        OutputFormatFactory.createFormatInstance(System.out, VerboseMode.SILENT),
+                        Collections.singletonList(include),
+                        Collections.emptyList());
+        List<String> ownThreads = new ArrayList<>();
+        List<String> anyThreads = new ArrayList<>();
+        for (BenchmarkListEntry benchmark : benchmarks) {
+            if (benchmark.getUsername().equals(ReferenceBenchmark.NAME)) {
+                continue;
+            }
+            String pattern = "^" + Pattern.quote(benchmark.getUsername()) + "$";
+            if (benchmark.getThreads().hasValue()) {
+                ownThreads.add(pattern);
+            } else {
+                anyThreads.add(pattern);
+            }
+        }
+
+        RunResult reference = new Runner(new OptionsBuilder()
+                        .include("^" + Pattern.quote(ReferenceBenchmark.NAME) + "$")
+                        .build())
+                .runSingle();
+        List<RunResult> results = new ArrayList<>();
+        if (!anyThreads.isEmpty()) {
+            for (String threadCount : threads.split(",")) {
+                ChainedOptionsBuilder opt = new OptionsBuilder()
+                        .addProfiler(GCProfiler.class)
+                        .threads(Integer.parseInt(threadCount.trim()));
+                anyThreads.forEach(opt::include);
+                results.addAll(new Runner(opt.build()).run());
+            }
+        }
+        if (!ownThreads.isEmpty()) {
+            ChainedOptionsBuilder opt = new OptionsBuilder().addProfiler(GCProfiler.class);
+            ownThreads.forEach(opt::include);
+            results.addAll(new Runner(opt.build()).run());
+        }
+
+        if (writeBaseline) {
+            BaselineGate.write(baseline, reference, results);
+            log.info("Recorded new baseline", SafeArg.of("baseline", baseline), SafeArg.of("results", results.size()));
+            return;
+        }
+        List<String> regressions = new BaselineGate(tolerance, allowMissing).regressions(baseline, reference, results);
+        if (!regressions.isEmpty()) {
+            for (String regression : regressions) {
+                log.error("Regression: {}", SafeArg.of("regression", regression));
+            }
+            System.exit(1);
+        }
+    }
+}
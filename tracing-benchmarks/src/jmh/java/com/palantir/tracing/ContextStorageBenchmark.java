@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link TraceContextStorage} implementations and the cost of keeping the MDC up to date. Every root span
+ * sets and clears the trace of its thread, which is what each short-lived task pays when it starts and finishes a
+ * trace. {@link #threadPerTask} additionally pays for the storage of a fresh thread, the closest approximation of
+ * virtual threads available on the Java version this library targets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@SuppressWarnings("checkstyle:VisibilityModifier")
+public class ContextStorageBenchmark {
+
+    private static final Runnable ROOT_SPAN = () -> {
+        Tracer.fastStartSpan("benchmark");
+        Tracer.fastCompleteSpan();
+    };
+
+    public enum Storage {
+        THREAD_LOCAL,
+        PINNED_THREAD_LOCAL
+    }
+
+    @Param({"THREAD_LOCAL", "PINNED_THREAD_LOCAL"})
+    public Storage storage;
+
+    @Param({"true", "false"})
+    public boolean mdc;
+
+    @Setup
+    public final void before() {
+        Tracer.setContextStorage(
+                storage == Storage.PINNED_THREAD_LOCAL
+                        ? TraceContextStorage.pinnedThreadLocal()
+                        : TraceContextStorage.threadLocal());
+        Tracer.setMdcEnabled(mdc);
+    }
+
+    @TearDown
+    public final void after() {
+        Tracer.setContextStorage(TraceContextStorage.threadLocal());
+        Tracer.setMdcEnabled(true);
+    }
+
+    @Benchmark
+    public final void rootSpan(ObservabilityState _state) {
+        ROOT_SPAN.run();
+    }
+
+    @Benchmark
+    public final void wrappedTask(ObservabilityState _state) {
+        Tracer.fastStartSpan("benchmark");
+        try {
+            Tracers.wrap(ROOT_SPAN).run();
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+    }
+
+    @Benchmark
+    public final void threadPerTask(ObservabilityState _state) throws InterruptedException {
+        Thread thread = new Thread(ROOT_SPAN);
+        thread.start();
+        thread.join();
+    }
+}
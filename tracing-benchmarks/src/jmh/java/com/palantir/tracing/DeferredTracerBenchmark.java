@@ -0,0 +1,109 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures capturing the current trace into a {@link DeferredTracer} and restoring it. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class DeferredTracerBenchmark {
+
+    private static final Tracers.ThrowingCallable<String, RuntimeException> TASK = () -> "result";
+
+    @State(Scope.Thread)
+    public static class CapturedState {
+        private DeferredTracer deferredTracer;
+
+        @Setup
+        public final void before(ObservabilityState _state) {
+            Tracer.fastStartSpan("benchmark");
+            try {
+                deferredTracer = new DeferredTracer("deferred");
+            } finally {
+                Tracer.fastCompleteSpan();
+            }
+        }
+    }
+
+    /** Leaves {@code depth} spans open on the benchmark thread, like a task submitted from deep within a request. */
+    @State(Scope.Thread)
+    @SuppressWarnings("checkstyle:VisibilityModifier")
+    public static class DeepStackState {
+        @Param({"1", "16", "64"})
+        public int depth;
+
+        @Setup
+        public final void before(ObservabilityState _state) {
+            for (int i = 0; i < depth; i++) {
+                Tracer.fastStartSpan("benchmark");
+            }
+        }
+
+        @TearDown
+        public final void after() {
+            for (int i = 0; i < depth; i++) {
+                Tracer.fastCompleteSpan();
+            }
+        }
+    }
+
+    @Benchmark
+    public final String captureAndRun(ObservabilityState _state) {
+        Tracer.fastStartSpan("benchmark");
+        try {
+            return new DeferredTracer("deferred").withTrace(TASK);
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+    }
+
+    @Benchmark
+    public final DeferredTracer capture(ObservabilityState _state) {
+        Tracer.fastStartSpan("benchmark");
+        try {
+            return new DeferredTracer("deferred");
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+    }
+
+    @Benchmark
+    public final String withTrace(CapturedState state) {
+        return state.deferredTracer.withTrace(TASK);
+    }
+
+    @Benchmark
+    public final DeferredTracer captureFromDeepStack(DeepStackState _state) {
+        return new DeferredTracer("deferred");
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the lifecycle of a {@link DetachedSpan} and the spans derived from it. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class DetachedSpanBenchmark {
+
+    @Benchmark
+    public final void startComplete(ObservabilityState _state) {
+        DetachedSpan.start("benchmark").complete();
+    }
+
+    @Benchmark
+    public final void childSpan(ObservabilityState _state) {
+        DetachedSpan root = DetachedSpan.start("benchmark");
+        try (CloseableSpan ignored = root.childSpan("child")) {
+            // nothing to do
+        }
+        root.complete();
+    }
+
+    @Benchmark
+    public final void childDetachedSpan(ObservabilityState _state) {
+        DetachedSpan root = DetachedSpan.start("benchmark");
+        root.childDetachedSpan("child").complete();
+        root.complete();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of {@link Tracers#wrap} on tasks and executors, both when the task runs on the submitting thread
+ * and when it is handed off to a pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    private static final Callable<String> TASK = () -> "result";
+
+    private ExecutorService directExecutor;
+    private ExecutorService pooledExecutor;
+
+    @Setup
+    public final void before() {
+        directExecutor = Tracers.wrap(MoreExecutors.newDirectExecutorService());
+        pooledExecutor = Tracers.wrap(Executors.newFixedThreadPool(4));
+    }
+
+    @TearDown
+    public final void after() {
+        directExecutor.shutdownNow();
+        pooledExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public final String wrapCallable(ObservabilityState _state) throws Exception {
+        Tracer.fastStartSpan("benchmark");
+        try {
+            return Tracers.wrap(TASK).call();
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+    }
+
+    @Benchmark
+    public final String wrapWithNewTrace(ObservabilityState _state) throws Exception {
+        return Tracers.wrapWithNewTrace("benchmark", TASK).call();
+    }
+
+    @Benchmark
+    public final String directExecutor(ObservabilityState _state) throws InterruptedException, ExecutionException {
+        Tracer.fastStartSpan("benchmark");
+        try {
+            return directExecutor.submit(TASK).get();
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+    }
+
+    @Benchmark
+    public final String pooledExecutor(ObservabilityState _state) throws InterruptedException, ExecutionException {
+        Tracer.fastStartSpan("benchmark");
+        try {
+            return pooledExecutor.submit(TASK).get();
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Shared benchmark state which installs the sampler of the benchmarked {@link TracingBenchmark.BenchmarkObservability}
+ * and subscribes a single observer consuming spans into the blackhole.
+ */
+@State(Scope.Benchmark)
+@SuppressWarnings("checkstyle:VisibilityModifier")
+public class ObservabilityState {
+
+    @Param({"SAMPLE", "DO_NOT_SAMPLE", "UNDECIDED"})
+    public TracingBenchmark.BenchmarkObservability observability;
+
+    @Setup
+    public final void before(Blackhole blackhole) {
+        Tracer.setSampler(observability.getTraceSampler());
+        Tracer.subscribe("jmh", blackhole::consume);
+        // clear any existing trace to make sure this sampler is used
+        Tracer.getAndClearTrace();
+    }
+
+    @TearDown
+    public final void after() {
+        Tracer.unsubscribe("jmh");
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures completing spans with a varying number of subscribed observers. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@SuppressWarnings("checkstyle:VisibilityModifier")
+public class ObserverDispatchBenchmark {
+
+    @Param({"SAMPLE", "DO_NOT_SAMPLE", "UNDECIDED"})
+    public TracingBenchmark.BenchmarkObservability observability;
+
+    @Param({"1", "5", "10"})
+    public int observers;
+
+    @Setup
+    public final void before(Blackhole blackhole) {
+        Tracer.setSampler(observability.getTraceSampler());
+        for (int i = 0; i < observers; i++) {
+            Tracer.subscribe("jmh-" + i, blackhole::consume);
+        }
+        Tracer.getAndClearTrace();
+    }
+
+    @TearDown
+    public final void after() {
+        for (int i = 0; i < observers; i++) {
+            Tracer.unsubscribe("jmh-" + i);
+        }
+    }
+
+    @Benchmark
+    public final void completeSpan() {
+        Tracer.fastStartSpan("benchmark");
+        Tracer.fastCompleteSpan();
+    }
+
+    @Benchmark
+    public final void completeNestedSpans() {
+        Tracer.fastStartSpan("benchmark");
+        try {
+            Tracer.fastStartSpan("child");
+            Tracer.fastCompleteSpan();
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.tracing.api.SpanType;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures header injection by the {@link OkhttpTraceInterceptor2}. Calls are answered by an interceptor without
+ * touching the network, {@link #untraced} measures the cost of the client itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class OkhttpTraceInterceptorBenchmark {
+
+    private static final Request REQUEST =
+            new Request.Builder().url("http://localhost:8080/api/benchmark").build();
+    private static final Interceptor RESPOND_OK = chain -> new Response.Builder()
+            .request(chain.request())
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .body(ResponseBody.create(MediaType.parse("text/plain"), ""))
+            .build();
+
+    private final OkHttpClient untracedClient =
+            new OkHttpClient.Builder().addInterceptor(RESPOND_OK).build();
+    private final OkHttpClient tracedClient = new OkHttpClient.Builder()
+            .addInterceptor(OkhttpTraceInterceptor2.create(_request -> {
+                Tracer.fastStartSpan("OkHttp: network-call", SpanType.CLIENT_OUTGOING);
+                return Tracer::fastCompleteSpan;
+            }))
+            .addInterceptor(RESPOND_OK)
+            .build();
+
+    @Benchmark
+    public final Response untraced(ObservabilityState _state) throws IOException {
+        return untracedClient.newCall(REQUEST).execute();
+    }
+
+    @Benchmark
+    public final Response traced(ObservabilityState _state) throws IOException {
+        return tracedClient.newCall(REQUEST).execute();
+    }
+}
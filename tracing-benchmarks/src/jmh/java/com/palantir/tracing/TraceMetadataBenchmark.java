@@ -0,0 +1,78 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.tracing.api.Propagators;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures read-only accessors of the trace state of the current thread while a span is in progress. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class TraceMetadataBenchmark {
+
+    @State(Scope.Thread)
+    public static class SpanInProgress {
+        @Setup
+        public final void before(ObservabilityState _state) {
+            Tracer.fastStartSpan("benchmark");
+        }
+
+        @TearDown
+        public final void after() {
+            Tracer.getAndClearTrace();
+        }
+    }
+
+    @Benchmark
+    public final Optional<TraceMetadata> maybeGetTraceMetadata(SpanInProgress _span) {
+        return Tracer.maybeGetTraceMetadata();
+    }
+
+    @Benchmark
+    public final Map<String, String> injectPropagationContext(SpanInProgress _span) {
+        Map<String, String> headers = new HashMap<>();
+        Tracer.injectPropagationContext(Propagators.standard(), headers, Map::put);
+        return headers;
+    }
+
+    @Benchmark
+    public final String getTraceId(SpanInProgress _span) {
+        return Tracer.getTraceId();
+    }
+
+    @Benchmark
+    public final boolean isTraceObservable(SpanInProgress _span) {
+        return Tracer.isTraceObservable();
+    }
+}
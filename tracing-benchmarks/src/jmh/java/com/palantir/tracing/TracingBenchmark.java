@@ -17,6 +17,8 @@
 package com.palantir.tracing;
 
 import com.google.common.util.concurrent.Runnables;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
@@ -70,9 +72,14 @@ public class TracingBenchmark {
     @Param({"SAMPLE", "DO_NOT_SAMPLE", "UNDECIDED"})
     public BenchmarkObservability observability;
 
+    // Populating the MDC requires the trace id, unsampled traces only avoid allocating when it is disabled
+    @Param({"true", "false"})
+    public boolean mdc;
+
     @Setup
     public final void before(Blackhole blackhole) {
         Tracer.setSampler(observability.getTraceSampler());
+        Tracer.setMdcEnabled(mdc);
         Tracer.subscribe("jmh", blackhole::consume);
         // clear any existing trace to make sure this sampler is used
         Tracer.getAndClearTrace();
@@ -81,6 +88,7 @@ public class TracingBenchmark {
     @TearDown
     public final void after() {
         Tracer.unsubscribe("jmh");
+        Tracer.setMdcEnabled(true);
     }
 
     @Benchmark
@@ -88,6 +96,26 @@ public class TracingBenchmark {
         nestedSpans.run();
     }
 
+    @Benchmark
+    public static void taggedSpan() {
+        Tracer.fastStartSpan("benchmark-tagged-span");
+        try {
+            Tracer.tag("rows", 1024L);
+            Tracer.tag("cacheHit", true);
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+    }
+
+    @Benchmark
+    public static void metadataSpan() {
+        Tracer.fastStartSpan("benchmark-metadata-span");
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("rows", String.valueOf(1024L));
+        metadata.put("cacheHit", String.valueOf(true));
+        Tracer.fastCompleteSpan(metadata);
+    }
+
     private static Runnable createNestedSpan(int depth) {
         if (depth <= 0) {
             return Runnables.doNothing();
@@ -0,0 +1,98 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.google.common.collect.ImmutableMap;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanType;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/** Compares the Jackson based {@code ZipkinCompatSpan.toJson()} with the streaming {@link ZipkinJsonEncoder}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@SuppressWarnings({"checkstyle:hideutilityclassconstructor", "checkstyle:VisibilityModifier"})
+public class ZipkinEncodingBenchmark {
+
+    private static final InetAddress ADDRESS = InetAddress.getLoopbackAddress();
+    private static final AsyncSlf4jSpanObserver.ZipkinCompatEndpoint ENDPOINT = ImmutableZipkinCompatEndpoint.builder()
+            .serviceName("benchmark")
+            .ipv4(ADDRESS.getHostAddress())
+            .build();
+    private static final ZipkinJsonEncoder V1_ENCODER = ZipkinJsonEncoder.v1("benchmark", ADDRESS);
+    private static final ZipkinJsonEncoder V2_ENCODER = ZipkinJsonEncoder.v2("benchmark", ADDRESS);
+
+    private final Span span = Span.builder()
+            .traceId(Tracers.randomId())
+            .parentSpanId(Tracers.randomId())
+            .spanId(Tracers.randomId())
+            .operation("GET /api/v1/benchmark/{id}")
+            .startTimeMicroSeconds(1_580_000_000_000_000L)
+            .durationNanoSeconds(12_345_678L)
+            .type(SpanType.SERVER_INCOMING)
+            .putAllMetadata(ImmutableMap.of("userId", "1", "status", "200"))
+            .build();
+
+    @Benchmark
+    public final String jacksonV1() {
+        return AsyncSlf4jSpanObserver.ZipkinCompatSpan.fromSpan(span, ENDPOINT).toJson();
+    }
+
+    @Benchmark
+    public final String streamingV1() {
+        return V1_ENCODER.encode(span);
+    }
+
+    @Benchmark
+    public final String streamingV2() {
+        return V2_ENCODER.encode(span);
+    }
+
+    public static void main(String[] _args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(ZipkinEncodingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .threads(4)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(3))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(3))
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.jersey;
+
+import com.palantir.tracing.ObservabilityState;
+import com.palantir.tracing.api.TraceHttpHeaders;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the request and response filters of the {@link TraceEnrichingFilter} around a single request. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class TraceEnrichingFilterBenchmark {
+
+    @State(Scope.Thread)
+    @SuppressWarnings("checkstyle:VisibilityModifier")
+    public static class Exchange {
+        /** Whether the request carries the trace and span ids of a calling service. */
+        @Param({"false", "true"})
+        public boolean propagated;
+
+        private ContainerRequest request;
+        private ContainerResponse response;
+
+        @Setup
+        public final void before(ObservabilityState _state) {
+            request = new ContainerRequest(
+                    URI.create("http://localhost:8080/"),
+                    URI.create("http://localhost:8080/api/benchmark"),
+                    "GET",
+                    null,
+                    new MapPropertiesDelegate());
+            if (propagated) {
+                request.header(TraceHttpHeaders.TRACE_ID, "0123456789abcdef");
+                request.header(TraceHttpHeaders.SPAN_ID, "fedcba9876543210");
+            }
+            response = new ContainerResponse(request, Response.ok().build());
+        }
+    }
+
+    @Benchmark
+    public final void filter(Exchange exchange) throws IOException {
+        TraceEnrichingFilter.INSTANCE.filter(exchange.request);
+        TraceEnrichingFilter.INSTANCE.filter(exchange.request, exchange.response);
+    }
+}
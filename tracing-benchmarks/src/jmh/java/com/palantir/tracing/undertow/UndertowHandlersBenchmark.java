@@ -0,0 +1,67 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.undertow;
+
+import com.palantir.tracing.ObservabilityState;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Methods;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link TracedOperationHandler} and {@link TracedRequestHandler} from the start of the request until
+ * the request span completes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class UndertowHandlersBenchmark {
+
+    private static final HttpHandler OPERATION_HANDLER =
+            new TracedOperationHandler(ResponseCodeHandler.HANDLE_200, "GET /api/benchmark");
+    private static final HttpHandler REQUEST_HANDLER = new TracedRequestHandler(ResponseCodeHandler.HANDLE_200);
+
+    @Benchmark
+    public final HttpServerExchange tracedOperationHandler(ObservabilityState _state) throws Exception {
+        return handle(OPERATION_HANDLER);
+    }
+
+    @Benchmark
+    public final HttpServerExchange tracedRequestHandler(ObservabilityState _state) throws Exception {
+        return handle(REQUEST_HANDLER);
+    }
+
+    private static HttpServerExchange handle(HttpHandler handler) throws Exception {
+        // The exchange has no connection to complete, so the request span is completed as the listener would
+        HttpServerExchange exchange = new HttpServerExchange(null, new HeaderMap(), new HeaderMap(), 200);
+        exchange.setRequestMethod(Methods.GET);
+        handler.handleRequest(exchange);
+        exchange.getAttachment(UndertowTracing.REQUEST_SPAN).complete();
+        return exchange;
+    }
+}
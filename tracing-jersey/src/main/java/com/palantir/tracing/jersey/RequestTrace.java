@@ -0,0 +1,68 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.jersey;
+
+import com.palantir.tracing.CloseableSpan;
+import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.DetachedSpanScope;
+import javax.annotation.Nullable;
+
+/**
+ * Tracing state of a request to an asynchronous resource, which makes its {@link DetachedSpan} the current span of the
+ * thread running the synchronous portion of the request. Entering and exiting is tied to the thread which entered, so
+ * that filters and listeners running on other threads of the request cannot disturb it.
+ */
+final class RequestTrace {
+
+    private final DetachedSpan span;
+    private final DetachedSpanScope scope;
+
+    // Guarded by this
+    @Nullable
+    private CloseableSpan entered;
+
+    @Nullable
+    private Thread thread;
+
+    RequestTrace(DetachedSpan span) {
+        this.span = span;
+        this.scope = DetachedSpanScope.of(span);
+    }
+
+    DetachedSpan span() {
+        return span;
+    }
+
+    /** Makes the request span the current span of this thread, unless another thread has done so already. */
+    @SuppressWarnings("MustBeClosedChecker") // closed by exit
+    synchronized void enter() {
+        if (entered == null) {
+            entered = scope.enter();
+            thread = Thread.currentThread();
+        }
+    }
+
+    /** Restores the trace this thread had before {@link #enter entering}, if it entered. */
+    synchronized void exit() {
+        CloseableSpan current = entered;
+        if (current != null && thread == Thread.currentThread()) {
+            entered = null;
+            thread = null;
+            current.close();
+        }
+    }
+}
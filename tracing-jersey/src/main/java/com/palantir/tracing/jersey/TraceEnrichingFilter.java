@@ -16,30 +16,56 @@
 
 package com.palantir.tracing.jersey;
 
-import com.google.common.base.Strings;
+import static com.palantir.logsafe.Preconditions.checkNotNull;
+
+import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.InternalTracers;
 import com.palantir.tracing.Observability;
+import com.palantir.tracing.OperationNames;
 import com.palantir.tracing.Tracer;
-import com.palantir.tracing.Tracers;
-import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.PropagationContext;
+import com.palantir.tracing.api.Propagator;
+import com.palantir.tracing.api.Propagators;
+import com.palantir.tracing.api.SamplingDecision;
 import com.palantir.tracing.api.SpanType;
 import com.palantir.tracing.api.TraceHttpHeaders;
+import com.palantir.tracing.api.TracingId;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import javax.annotation.Nullable;
 import javax.annotation.Priority;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
 import javax.ws.rs.container.ContainerResponseContext;
 import javax.ws.rs.container.ContainerResponseFilter;
 import javax.ws.rs.core.Context;
-import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.Provider;
 import org.glassfish.jersey.server.ExtendedUriInfo;
 import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
 
+/**
+ * Traces each request using a span which is the current span of the threads running the synchronous portion of the
+ * request. Requests to synchronous resources run on a single thread, which traces them like any other root span.
+ * Requests to asynchronous resources are traced using a {@link DetachedSpan} stored in the
+ * {@link #REQUEST_SPAN_PROPERTY_NAME request properties} instead, which is the current span of the threads running the
+ * request filters and the resource method, and is completed by the response filter on whichever thread it runs.
+ * Continuations of asynchronous resources should capture the trace using {@link com.palantir.tracing.Tracers#wrap}
+ * within the resource method, or use the request span directly.
+ *
+ * <p>The filter also listens to request events in order to release the threads of asynchronous requests, so it must be
+ * registered as an {@link ApplicationEventListener} too when registering it for specific contracts.
+ */
 // Default is `Priorities.USER` == 5000. This filter needs to execute earlier to ensure traces are ready to use.
 @Priority(500)
 @Provider
-public final class TraceEnrichingFilter implements ContainerRequestFilter, ContainerResponseFilter {
+public final class TraceEnrichingFilter
+        implements ContainerRequestFilter, ContainerResponseFilter, ApplicationEventListener {
     public static final TraceEnrichingFilter INSTANCE = new TraceEnrichingFilter();
 
     /** This is the name of the trace id property we set on {@link ContainerRequestContext}. */
@@ -47,69 +73,168 @@ public final class TraceEnrichingFilter implements ContainerRequestFilter, Conta
 
     public static final String SAMPLED_PROPERTY_NAME = "com.palantir.tracing.sampled";
 
+    /**
+     * Name of the {@link DetachedSpan} property spanning requests to asynchronous resources, which they may use to
+     * trace their continuations, e.g. using {@link com.palantir.tracing.DetachedSpanScope}. Not set for requests to
+     * synchronous resources.
+     */
+    public static final String REQUEST_SPAN_PROPERTY_NAME = "com.palantir.tracing.requestSpan";
+
+    private static final String REQUEST_TRACE_PROPERTY_NAME = "com.palantir.tracing.requestTrace";
+
+    // Set while the span of a synchronous request is open on the thread running it
+    private static final String SYNC_SPAN_PROPERTY_NAME = "com.palantir.tracing.syncSpan";
+
+    private static final OperationNames.TwoKeyTable OPERATIONS =
+            OperationNames.global().table((method, path) -> "Jersey: " + method + " " + path);
+
+    private static final Propagator.Getter<ContainerRequestContext> HEADER_GETTER =
+            ContainerRequestContext::getHeaderString;
+    private static final PropagationContext UNDECIDED = PropagationContext.ofSampling(SamplingDecision.UNDECIDED);
+
     @Context
     @SuppressWarnings("NullAway") // instantiated using by Jersey using reflection
     private ExtendedUriInfo uriInfo;
 
+    private final Propagator propagator;
+
+    public TraceEnrichingFilter() {
+        this(Propagators.standard());
+    }
+
+    /** Creates a filter reading the trace of incoming requests using the given {@link Propagator}. */
+    public TraceEnrichingFilter(Propagator propagator) {
+        this.propagator = checkNotNull(propagator, "propagator");
+    }
+
+    // Visible for testing, Jersey injects the request's uri info otherwise
+    TraceEnrichingFilter(ExtendedUriInfo uriInfo) {
+        this(Propagators.standard());
+        this.uriInfo = uriInfo;
+    }
+
     // Handles incoming request
     @Override
     public void filter(ContainerRequestContext requestContext) throws IOException {
-        String path = Optional.ofNullable(uriInfo)
-                .map(ExtendedUriInfo::getMatchedModelResource)
-                .map(Resource::getPath)
-                .orElse("(unknown)");
-
-        String operation = "Jersey: " + requestContext.getMethod() + " " + path;
-        // The following strings are all nullable
-        String traceId = requestContext.getHeaderString(TraceHttpHeaders.TRACE_ID);
-        String spanId = requestContext.getHeaderString(TraceHttpHeaders.SPAN_ID);
-
-        // Set up thread-local span that inherits state from HTTP headers
-        if (Strings.isNullOrEmpty(traceId)) {
-            // HTTP request did not indicate a trace; initialize trace state and create a span.
-            Tracer.initTrace(getObservabilityFromHeader(requestContext), Tracers.randomId());
-            Tracer.fastStartSpan(operation, SpanType.SERVER_INCOMING);
-        } else {
-            Tracer.initTrace(getObservabilityFromHeader(requestContext), traceId);
-            if (spanId == null) {
+        String operation = OPERATIONS.get(requestContext.getMethod(), getPath()).name();
+        PropagationContext context = propagator.extract(requestContext, HEADER_GETTER).orElse(UNDECIDED);
+
+        // Inherit the trace from HTTP headers, or start a new trace if the request did not indicate one
+        TracingId maybeTraceId = context.traceId();
+        TracingId parentSpanId = maybeTraceId == null ? null : context.spanId();
+        TracingId traceIdentifier = maybeTraceId == null ? TracingId.random() : maybeTraceId;
+        Observability observability = Observability.of(context.sampling());
+
+        // Give asynchronous downstream handlers access to the trace, extracted identifiers render as the header value
+        // they were parsed from
+        requestContext.setProperty(TRACE_ID_PROPERTY_NAME, traceIdentifier.toString());
+
+        if (!isAsync()) {
+            // The request runs on this thread only, so its span need not outlive the thread state
+            Tracer.initTrace(observability, traceIdentifier, operation, SpanType.SERVER_INCOMING);
+            if (parentSpanId == null) {
                 Tracer.fastStartSpan(operation, SpanType.SERVER_INCOMING);
             } else {
-                // caller's span is this span's parent.
-                Tracer.fastStartSpan(operation, spanId, SpanType.SERVER_INCOMING);
+                Tracer.fastStartSpan(operation, parentSpanId, SpanType.SERVER_INCOMING);
             }
+            requestContext.setProperty(SAMPLED_PROPERTY_NAME, Tracer.isTraceObservable());
+            requestContext.setProperty(SYNC_SPAN_PROPERTY_NAME, Boolean.TRUE);
+            return;
         }
 
-        // Give asynchronous downstream handlers access to the trace id
-        requestContext.setProperty(TRACE_ID_PROPERTY_NAME, Tracer.getTraceId());
-        requestContext.setProperty(SAMPLED_PROPERTY_NAME, Tracer.isTraceObservable());
+        DetachedSpan span = DetachedSpan.start(
+                observability, traceIdentifier, parentSpanId, operation, SpanType.SERVER_INCOMING);
+        RequestTrace requestTrace = new RequestTrace(span);
+        requestContext.setProperty(SAMPLED_PROPERTY_NAME, InternalTracers.isSampled(span));
+        requestContext.setProperty(REQUEST_SPAN_PROPERTY_NAME, span);
+        requestContext.setProperty(REQUEST_TRACE_PROPERTY_NAME, requestTrace);
+
+        // The request span is the current span of the synchronous portion of the request
+        requestTrace.enter();
     }
 
     // Handles outgoing response
     @Override
     public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
             throws IOException {
-        MultivaluedMap<String, Object> headers = responseContext.getHeaders();
-        Optional<Span> maybeSpan = Tracer.completeSpan();
-        if (maybeSpan.isPresent()) {
-            Span span = maybeSpan.get();
-            headers.putSingle(TraceHttpHeaders.TRACE_ID, span.getTraceId());
-        } else {
-            // When the filter is called twice (e.g. an exception is thrown in a streaming call),
-            // the current trace will be empty. To allow clients to still get the trace ID corresponding to
-            // the failure, we retrieve it from the requestContext.
-            Optional.ofNullable(requestContext.getProperty(TRACE_ID_PROPERTY_NAME))
-                    .ifPresent(s -> headers.putSingle(TraceHttpHeaders.TRACE_ID, s));
+        // When the filter is called twice (e.g. an exception is thrown in a streaming call), the span has been
+        // completed already. To allow clients to still get the trace ID corresponding to the failure, it is read from
+        // the requestContext rather than the span.
+        Optional.ofNullable(requestContext.getProperty(TRACE_ID_PROPERTY_NAME))
+                .ifPresent(s -> responseContext.getHeaders().putSingle(TraceHttpHeaders.TRACE_ID, s));
+        complete(requestContext);
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent _event) {}
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent _requestEvent) {
+        return RequestListener.INSTANCE;
+    }
+
+    private boolean isAsync() {
+        ResourceMethod method = uriInfo == null ? null : uriInfo.getMatchedResourceMethod();
+        return method != null
+                && (method.isSuspendDeclared()
+                        || method.isManagedAsyncDeclared()
+                        || CompletionStage.class.isAssignableFrom(
+                                method.getInvocable().getRawResponseType()));
+    }
+
+    @Nullable
+    private static RequestTrace requestTrace(ContainerRequestContext requestContext) {
+        Object requestTrace = requestContext.getProperty(REQUEST_TRACE_PROPERTY_NAME);
+        return requestTrace instanceof RequestTrace ? (RequestTrace) requestTrace : null;
+    }
+
+    /** Completes the request span, later calls have no effect. */
+    private static void complete(ContainerRequestContext requestContext) {
+        RequestTrace requestTrace = requestTrace(requestContext);
+        if (requestTrace != null) {
+            requestTrace.span().complete();
+            requestTrace.exit();
+        } else if (requestContext.getProperty(SYNC_SPAN_PROPERTY_NAME) != null) {
+            requestContext.removeProperty(SYNC_SPAN_PROPERTY_NAME);
+            Tracer.fastCompleteSpan();
         }
     }
 
-    // Force sample iff the context contains a "1" X-B3-Sampled header, force not sample if the header contains another
-    // non-empty value, or undecided if there is no such header or the header is empty.
-    private static Observability getObservabilityFromHeader(ContainerRequestContext context) {
-        String header = context.getHeaderString(TraceHttpHeaders.IS_SAMPLED);
-        if (Strings.isNullOrEmpty(header)) {
-            return Observability.UNDECIDED;
-        } else {
-            return "1".equals(header) ? Observability.SAMPLE : Observability.DO_NOT_SAMPLE;
+    /**
+     * Limits the thread-local request span of asynchronous requests to the threads running request filters and the
+     * resource method, which may differ for {@link org.glassfish.jersey.server.ManagedAsync managed} resources, and
+     * completes the span of requests which finish without running response filters.
+     */
+    private enum RequestListener implements RequestEventListener {
+        INSTANCE;
+
+        @Override
+        public void onEvent(RequestEvent event) {
+            if (event.getType() == RequestEvent.Type.FINISHED) {
+                complete(event.getContainerRequest());
+                return;
+            }
+            RequestTrace requestTrace = requestTrace(event.getContainerRequest());
+            if (requestTrace == null) {
+                return;
+            }
+            switch (event.getType()) {
+                case REQUEST_FILTERED:
+                case RESOURCE_METHOD_FINISHED:
+                    requestTrace.exit();
+                    break;
+                case RESOURCE_METHOD_START:
+                    requestTrace.enter();
+                    break;
+                default:
+                    break;
+            }
         }
     }
+
+    private String getPath() {
+        Resource resource = uriInfo == null ? null : uriInfo.getMatchedModelResource();
+        String path = resource == null ? null : resource.getPath();
+        return path == null ? "(unknown)" : path;
+    }
 }
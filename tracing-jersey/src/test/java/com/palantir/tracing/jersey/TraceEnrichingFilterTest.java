@@ -17,14 +17,17 @@
 package com.palantir.tracing.jersey;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.palantir.tracing.DetachedSpan;
 import com.palantir.tracing.TraceSampler;
 import com.palantir.tracing.Tracer;
 import com.palantir.tracing.Tracers;
@@ -36,6 +39,13 @@ import io.dropwizard.Application;
 import io.dropwizard.Configuration;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.testing.junit.DropwizardAppRule;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -44,12 +54,19 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import org.glassfish.jersey.client.JerseyClientBuilder;
+import org.glassfish.jersey.process.Inflector;
+import org.glassfish.jersey.server.ExtendedUriInfo;
+import org.glassfish.jersey.server.model.Resource;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.ClassRule;
@@ -62,6 +79,8 @@ import org.slf4j.MDC;
 
 public final class TraceEnrichingFilterTest {
 
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool();
+
     @ClassRule
     public static final DropwizardAppRule<Configuration> APP =
             new DropwizardAppRule<>(TracingTestServer.class, "src/test/resources/test-server.yml");
@@ -78,6 +97,12 @@ public final class TraceEnrichingFilterTest {
     @Mock
     private UriInfo uriInfo;
 
+    @Mock
+    private ContainerResponseContext responseContext;
+
+    @Mock
+    private ExtendedUriInfo asyncUriInfo;
+
     @Mock
     private TraceSampler traceSampler;
 
@@ -99,6 +124,13 @@ public final class TraceEnrichingFilterTest {
         when(uriInfo.getPath()).thenReturn("/foo");
         when(request.getUriInfo()).thenReturn(uriInfo);
         when(traceSampler.sample()).thenReturn(true);
+        when(responseContext.getHeaders()).thenReturn(new MultivaluedHashMap<>());
+
+        Inflector<ContainerRequestContext, Object> handler = _context -> null;
+        Resource.Builder asyncResource = Resource.builder("/async");
+        asyncResource.addMethod("GET").suspended(AsyncResponse.NO_TIMEOUT, TimeUnit.SECONDS).handledBy(handler);
+        when(asyncUriInfo.getMatchedResourceMethod())
+                .thenReturn(asyncResource.build().getResourceMethods().get(0));
     }
 
     @After
@@ -241,6 +273,96 @@ public final class TraceEnrichingFilterTest {
         verify(request).setProperty(eq(TraceEnrichingFilter.TRACE_ID_PROPERTY_NAME), anyString());
     }
 
+    @Test
+    public void testFilter_tracesAsyncRequests() {
+        Response response = target.path("/async-trace")
+                .request()
+                .header(TraceHttpHeaders.TRACE_ID, "traceId")
+                .get();
+        assertThat(response.getStatus()).isEqualTo(204);
+        assertThat(response.getHeaderString(TraceHttpHeaders.TRACE_ID)).isEqualTo("traceId");
+        verify(observer, times(3)).consume(spanCaptor.capture());
+        Map<String, Span> spans = spanCaptor.getAllValues().stream()
+                .collect(Collectors.toMap(Span::getOperation, Function.identity()));
+        assertThat(spans).containsOnlyKeys("sync", "async", "Jersey: GET /async-trace");
+        Span request = spans.get("Jersey: GET /async-trace");
+        assertThat(request.getTraceId()).isEqualTo("traceId");
+        assertThat(spans.get("sync").getParentSpanId()).hasValue(request.getSpanId());
+        assertThat(spans.get("async").getParentSpanId()).hasValue(request.getSpanId());
+    }
+
+    @Test
+    public void testFilter_tracesSyncRequestsInThreadState() throws Exception {
+        Map<String, Object> properties = recordProperties();
+
+        TraceEnrichingFilter.INSTANCE.filter(request);
+        assertThat(Tracer.getTraceId()).isEqualTo("traceId");
+        assertThat(properties).doesNotContainKey(TraceEnrichingFilter.REQUEST_SPAN_PROPERTY_NAME);
+
+        TraceEnrichingFilter.INSTANCE.filter(request, responseContext);
+        assertThat(Tracer.hasTraceId()).isFalse();
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNull();
+        verify(observer).consume(spanCaptor.capture());
+        assertThat(spanCaptor.getValue().getTraceId()).isEqualTo("traceId");
+        assertThat(spanCaptor.getValue().type()).isEqualTo(SpanType.SERVER_INCOMING);
+
+        // Running the response filter again, as failing streaming responses do, leaves other traces alone
+        Tracer.fastStartSpan("other");
+        TraceEnrichingFilter.INSTANCE.filter(request, responseContext);
+        assertThat(Tracer.hasTraceId()).isTrue();
+        Tracer.fastCompleteSpan();
+        verify(observer, times(2)).consume(any());
+        assertThat(responseContext.getHeaders().getFirst(TraceHttpHeaders.TRACE_ID)).isEqualTo("traceId");
+    }
+
+    @Test
+    public void testFilter_clearsThreadStateOfAsyncRequests() throws Exception {
+        Map<String, Object> properties = recordProperties();
+        TraceEnrichingFilter filter = new TraceEnrichingFilter(asyncUriInfo);
+
+        filter.filter(request);
+        assertThat(Tracer.getTraceId()).isEqualTo("traceId");
+        assertThat(properties.get(TraceEnrichingFilter.REQUEST_SPAN_PROPERTY_NAME)).isInstanceOf(DetachedSpan.class);
+
+        // Response filters running on another thread leave the thread which ran the request filter alone
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertThat(executor.submit(() -> {
+                                filter.filter(request, responseContext);
+                                return Tracer.hasTraceId();
+                            })
+                            .get())
+                    .isFalse();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(Tracer.getTraceId()).isEqualTo("traceId");
+        verify(observer).consume(spanCaptor.capture());
+        assertThat(spanCaptor.getValue().getTraceId()).isEqualTo("traceId");
+
+        // Completing the span again, as the FINISHED event does, releases the thread
+        filter.filter(request, responseContext);
+        assertThat(Tracer.hasTraceId()).isFalse();
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNull();
+        verify(observer).consume(any());
+    }
+
+    private Map<String, Object> recordProperties() {
+        if (Tracer.hasTraceId()) {
+            Tracer.getAndClearTrace();
+        }
+        when(request.getHeaderString(TraceHttpHeaders.TRACE_ID)).thenReturn("traceId");
+        Map<String, Object> properties = new HashMap<>();
+        doAnswer(invocation -> properties.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(request)
+                .setProperty(anyString(), any());
+        when(request.getProperty(anyString())).thenAnswer(invocation -> properties.get(invocation.getArgument(0)));
+        doAnswer(invocation -> properties.remove(invocation.getArgument(0)))
+                .when(request)
+                .removeProperty(anyString());
+        return properties;
+    }
+
     public static class TracingTestServer extends Application<Configuration> {
         @Override
         public final void run(Configuration _value, final Environment env) throws Exception {
@@ -277,6 +399,17 @@ public final class TraceEnrichingFilterTest {
         public StreamingOutput getStreamingTraceOperation() {
             return os -> {};
         }
+
+        @Override
+        public void getAsyncTraceOperation(AsyncResponse response) {
+            Tracer.fastStartSpan("sync");
+            Tracer.fastCompleteSpan();
+            ASYNC_EXECUTOR.execute(Tracers.wrap(() -> {
+                Tracer.fastStartSpan("async");
+                Tracer.fastCompleteSpan();
+                response.resume(Response.noContent().build());
+            }));
+        }
     }
 
     @Path("/")
@@ -308,5 +441,9 @@ public final class TraceEnrichingFilterTest {
         @Path("/streaming-trace")
         @Produces(MediaType.APPLICATION_OCTET_STREAM)
         StreamingOutput getStreamingTraceOperation();
+
+        @GET
+        @Path("/async-trace")
+        void getAsyncTraceOperation(@Suspended AsyncResponse response);
     }
 }
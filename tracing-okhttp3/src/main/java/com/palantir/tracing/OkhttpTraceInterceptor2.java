@@ -16,8 +16,11 @@
 
 package com.palantir.tracing;
 
+import com.palantir.logsafe.Preconditions;
 import com.palantir.logsafe.exceptions.SafeRuntimeException;
-import com.palantir.tracing.api.TraceHttpHeaders;
+import com.palantir.tracing.api.Propagator;
+import com.palantir.tracing.api.Propagators;
+import com.palantir.tracing.api.SpanType;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.function.Function;
@@ -25,18 +28,45 @@ import okhttp3.Interceptor;
 import okhttp3.Request;
 import okhttp3.Response;
 
-/** An OkHttp interceptor that adds Zipkin-style trace/span/parent-span headers to the HTTP request. */
+/**
+ * An OkHttp interceptor that adds trace/span/parent-span headers to the HTTP request, in the Zipkin-style format unless
+ * another {@link Propagator} is configured.
+ */
 public final class OkhttpTraceInterceptor2 implements Interceptor {
 
+    /** Internal header giving the path template of the request, which is removed before the request is sent. */
+    private static final String PATH_TEMPLATE_HEADER = "hr-path-template";
+
+    private static final OperationNames.SingleKeyTable OPERATIONS =
+            OperationNames.global().table(path -> "OkHttp: " + path);
+
+    private static final Function<Request, CloseableSpan> CLIENT_SPANS = OkhttpTraceInterceptor2::startClientSpan;
+
     private final Function<Request, CloseableSpan> createNetworkCallSpan;
+    private final Propagator propagator;
 
-    private OkhttpTraceInterceptor2(Function<Request, CloseableSpan> createNetworkCallSpan) {
+    private OkhttpTraceInterceptor2(Function<Request, CloseableSpan> createNetworkCallSpan, Propagator propagator) {
         this.createNetworkCallSpan = createNetworkCallSpan;
+        this.propagator = propagator;
+    }
+
+    /**
+     * Returns an interceptor which records each call as a {@link SpanType#CLIENT_OUTGOING} child of the current span.
+     * The span is named after the path template of the request if one is given, or its method otherwise.
+     */
+    public static Interceptor create() {
+        return create(CLIENT_SPANS, Propagators.standard());
     }
 
     /** Provide a function to construct an appropriately parented span for the network call. */
     public static Interceptor create(Function<Request, CloseableSpan> createNetworkCallSpan) {
-        return new OkhttpTraceInterceptor2(createNetworkCallSpan);
+        return create(createNetworkCallSpan, Propagators.standard());
+    }
+
+    /** Like {@link #create(Function)}, but writes the trace headers using the given propagator. */
+    public static Interceptor create(Function<Request, CloseableSpan> createNetworkCallSpan, Propagator propagator) {
+        return new OkhttpTraceInterceptor2(
+                createNetworkCallSpan, Preconditions.checkNotNull(propagator, "propagator"));
     }
 
     @Override
@@ -44,27 +74,23 @@ public final class OkhttpTraceInterceptor2 implements Interceptor {
         Request request = chain.request();
 
         try (Closeable span = createNetworkCallSpan.apply(request)) {
-            TraceMetadata metadata = Tracer.maybeGetTraceMetadata()
-                    .orElseThrow(() -> new SafeRuntimeException("Trace with no spans in progress"));
-
-            Request.Builder tracedRequest = request.newBuilder()
-                    .header(TraceHttpHeaders.TRACE_ID, Tracer.getTraceId())
-                    .header(TraceHttpHeaders.SPAN_ID, metadata.getSpanId())
-                    .header(TraceHttpHeaders.IS_SAMPLED, Tracer.isTraceObservable() ? "1" : "0");
-
-            if (metadata.getParentSpanId().isPresent()) {
-                tracedRequest.header(
-                        TraceHttpHeaders.PARENT_SPAN_ID,
-                        metadata.getParentSpanId().get());
+            Request.Builder tracedRequest = request.newBuilder();
+            if (request.header(PATH_TEMPLATE_HEADER) != null) {
+                tracedRequest.removeHeader(PATH_TEMPLATE_HEADER);
             }
-
-            if (metadata.getOriginatingSpanId().isPresent()) {
-                tracedRequest.header(
-                        TraceHttpHeaders.ORIGINATING_SPAN_ID,
-                        metadata.getOriginatingSpanId().get());
+            if (!Tracer.injectPropagationContext(propagator, tracedRequest, Request.Builder::header)) {
+                throw new SafeRuntimeException("Trace with no spans in progress");
             }
 
             return chain.proceed(tracedRequest.build());
         }
     }
+
+    private static CloseableSpan startClientSpan(Request request) {
+        String pathTemplate = request.header(PATH_TEMPLATE_HEADER);
+        // Path templates are looked up rather than concatenated, so the name is not rebuilt for every call
+        String operation = pathTemplate == null ? request.method() : OPERATIONS.get(pathTemplate).name();
+        Tracer.fastStartSpan(operation, SpanType.CLIENT_OUTGOING);
+        return Tracer::fastCompleteSpan;
+    }
 }
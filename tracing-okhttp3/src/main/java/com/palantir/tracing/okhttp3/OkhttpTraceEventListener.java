@@ -0,0 +1,279 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.okhttp3;
+
+import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.InternalTracers;
+import com.palantir.tracing.Tracer;
+import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TracingClock;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Breaks the network time of OkHttp calls made within sampled traces down into phases. Each sampled call records an
+ * {@value #CALL_OPERATION} span, which is started as a child of the current span of the thread creating the call and
+ * completes once the call ends, whichever threads deliver its events. The span is tagged with totals over all attempts
+ * of the call:
+ *
+ * <ul>
+ *   <li>{@value #CONNECTION_ACQUIRE_NANOS}: from the start of the call until a connection was acquired from the pool or
+ *       established, including the time waiting for a connection, resolving its host and connecting
+ *   <li>{@value #DNS_NANOS}: resolving host names
+ *   <li>{@value #CONNECT_NANOS}: establishing TCP connections, including TLS handshakes
+ *   <li>{@value #TLS_NANOS}: TLS handshakes
+ *   <li>{@value #REQUEST_WRITE_NANOS}: writing the request headers and body
+ *   <li>{@value #SERVER_NANOS}: from writing the request until the response headers started to arrive
+ * </ul>
+ *
+ * <p>The {@link #createWithPhaseSpans() phase spans} additionally record each phase, including reading the response
+ * body, as a child of the call span. Calls created outside of sampled traces are not measured.
+ */
+public final class OkhttpTraceEventListener extends EventListener {
+
+    public static final String CALL_OPERATION = "OkHttp: call";
+
+    public static final String CONNECTION_ACQUIRE_NANOS = "connectionAcquireNanos";
+    public static final String DNS_NANOS = "dnsNanos";
+    public static final String CONNECT_NANOS = "connectNanos";
+    public static final String TLS_NANOS = "tlsNanos";
+    public static final String REQUEST_WRITE_NANOS = "requestWriteNanos";
+    public static final String SERVER_NANOS = "serverNanos";
+
+    private static final EventListener.Factory TAGS = _call -> newListener(false);
+    private static final EventListener.Factory PHASE_SPANS = _call -> newListener(true);
+
+    // Captured by the thread creating the call, since the events are delivered by whichever threads execute it
+    private final DetachedSpan callSpan;
+    private final TracingClock clock;
+    private final boolean phaseSpans;
+
+    // Events of a call are delivered sequentially, though not necessarily on the same thread
+    private long callStartNanos;
+    private long dnsStartNanos;
+    private long dnsNanos;
+    private long connectStartNanos;
+    private long connectNanos;
+    private long tlsStartNanos;
+    private long tlsNanos;
+    private long requestStartNanos;
+    private long requestEndNanos;
+    private boolean requestWriting;
+    private long requestWriteNanos;
+    private long serverNanos;
+
+    // Open phase spans, only used with phaseSpans
+    @Nullable
+    private DetachedSpan dnsSpan;
+
+    @Nullable
+    private DetachedSpan connectSpan;
+
+    @Nullable
+    private DetachedSpan tlsSpan;
+
+    @Nullable
+    private DetachedSpan requestSpan;
+
+    @Nullable
+    private DetachedSpan serverSpan;
+
+    @Nullable
+    private DetachedSpan responseSpan;
+
+    private OkhttpTraceEventListener(DetachedSpan callSpan, TracingClock clock, boolean phaseSpans) {
+        this.callSpan = callSpan;
+        this.clock = clock;
+        this.phaseSpans = phaseSpans;
+    }
+
+    /** Returns a factory of listeners which tag a span spanning each sampled call with the duration of its phases. */
+    public static EventListener.Factory create() {
+        return TAGS;
+    }
+
+    /** Like {@link #create()}, but additionally records a span for each phase of sampled calls. */
+    public static EventListener.Factory createWithPhaseSpans() {
+        return PHASE_SPANS;
+    }
+
+    private static EventListener newListener(boolean phaseSpans) {
+        // Invoked by the thread creating the call, unsampled calls share a listener which ignores all events
+        if (!Tracer.isTraceObservable()) {
+            return EventListener.NONE;
+        }
+        DetachedSpan callSpan = DetachedSpan.start(CALL_OPERATION, SpanType.LOCAL);
+        return new OkhttpTraceEventListener(callSpan, InternalTracers.getClock(), phaseSpans);
+    }
+
+    @Override
+    public void callStart(Call _call) {
+        callStartNanos = clock.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call _call, String _domainName) {
+        dnsStartNanos = clock.nanoTime();
+        dnsSpan = startPhase("OkHttp: dns");
+    }
+
+    @Override
+    public void dnsEnd(Call _call, String _domainName, @Nullable List<InetAddress> _inetAddressList) {
+        dnsNanos += clock.nanoTime() - dnsStartNanos;
+        callSpan.tag(DNS_NANOS, dnsNanos);
+        dnsSpan = completePhase(dnsSpan);
+    }
+
+    @Override
+    public void connectStart(Call _call, InetSocketAddress _inetSocketAddress, Proxy _proxy) {
+        connectStartNanos = clock.nanoTime();
+        connectSpan = startPhase("OkHttp: connect");
+    }
+
+    @Override
+    public void secureConnectStart(Call _call) {
+        tlsStartNanos = clock.nanoTime();
+        tlsSpan = startPhase("OkHttp: tls");
+    }
+
+    @Override
+    public void secureConnectEnd(Call _call, @Nullable Handshake _handshake) {
+        tlsNanos += clock.nanoTime() - tlsStartNanos;
+        callSpan.tag(TLS_NANOS, tlsNanos);
+        tlsSpan = completePhase(tlsSpan);
+    }
+
+    @Override
+    public void connectEnd(
+            Call _call, InetSocketAddress _inetSocketAddress, Proxy _proxy, @Nullable Protocol _protocol) {
+        endConnect();
+    }
+
+    @Override
+    public void connectFailed(
+            Call _call,
+            InetSocketAddress _inetSocketAddress,
+            Proxy _proxy,
+            @Nullable Protocol _protocol,
+            IOException _ioe) {
+        tlsSpan = completePhase(tlsSpan);
+        endConnect();
+    }
+
+    @Override
+    public void connectionAcquired(Call _call, Connection _connection) {
+        callSpan.tag(CONNECTION_ACQUIRE_NANOS, clock.nanoTime() - callStartNanos);
+    }
+
+    @Override
+    public void requestHeadersStart(Call _call) {
+        requestStartNanos = clock.nanoTime();
+        requestWriting = true;
+        requestSpan = startPhase("OkHttp: request");
+    }
+
+    @Override
+    public void requestHeadersEnd(Call _call, Request request) {
+        // Requests with a body continue writing it, and end with requestBodyEnd
+        if (request.body() == null) {
+            endRequest();
+        }
+    }
+
+    @Override
+    public void requestBodyEnd(Call _call, long _byteCount) {
+        endRequest();
+    }
+
+    @Override
+    public void responseHeadersStart(Call _call) {
+        if (requestWriting) {
+            // The body of requests expecting a 100-continue response may not have been sent
+            endRequest();
+        }
+        if (requestEndNanos != 0) {
+            serverNanos += clock.nanoTime() - requestEndNanos;
+            requestEndNanos = 0;
+            callSpan.tag(SERVER_NANOS, serverNanos);
+        }
+        serverSpan = completePhase(serverSpan);
+        responseSpan = startPhase("OkHttp: response");
+    }
+
+    @Override
+    public void responseBodyEnd(Call _call, long _byteCount) {
+        responseSpan = completePhase(responseSpan);
+    }
+
+    @Override
+    public void callEnd(Call _call) {
+        completeAll();
+    }
+
+    @Override
+    public void callFailed(Call _call, IOException _ioe) {
+        completeAll();
+    }
+
+    private void endConnect() {
+        connectNanos += clock.nanoTime() - connectStartNanos;
+        callSpan.tag(CONNECT_NANOS, connectNanos);
+        connectSpan = completePhase(connectSpan);
+    }
+
+    private void endRequest() {
+        requestWriting = false;
+        requestEndNanos = clock.nanoTime();
+        requestWriteNanos += requestEndNanos - requestStartNanos;
+        callSpan.tag(REQUEST_WRITE_NANOS, requestWriteNanos);
+        requestSpan = completePhase(requestSpan);
+        serverSpan = startPhase("OkHttp: server");
+    }
+
+    @Nullable
+    private DetachedSpan startPhase(String operation) {
+        return phaseSpans ? callSpan.childDetachedSpan(operation, SpanType.LOCAL) : null;
+    }
+
+    @Nullable
+    private static DetachedSpan completePhase(@Nullable DetachedSpan span) {
+        if (span != null) {
+            span.complete();
+        }
+        return null;
+    }
+
+    private void completeAll() {
+        dnsSpan = completePhase(dnsSpan);
+        tlsSpan = completePhase(tlsSpan);
+        connectSpan = completePhase(connectSpan);
+        requestSpan = completePhase(requestSpan);
+        serverSpan = completePhase(serverSpan);
+        responseSpan = completePhase(responseSpan);
+        callSpan.complete();
+    }
+}
@@ -16,10 +16,12 @@
 
 package com.palantir.tracing.okhttp3;
 
+import com.palantir.logsafe.Preconditions;
+import com.palantir.tracing.OperationNames;
 import com.palantir.tracing.Tracer;
-import com.palantir.tracing.api.OpenSpan;
+import com.palantir.tracing.api.Propagator;
+import com.palantir.tracing.api.Propagators;
 import com.palantir.tracing.api.SpanType;
-import com.palantir.tracing.api.TraceHttpHeaders;
 import java.io.IOException;
 import okhttp3.Interceptor;
 import okhttp3.Request;
@@ -37,31 +39,36 @@ public enum OkhttpTraceInterceptor implements Interceptor {
     /** The HTTP header used to communicate API endpoint names internally. Not considered public API. */
     public static final String PATH_TEMPLATE_HEADER = "hr-path-template";
 
+    private static final OperationNames.SingleKeyTable OPERATIONS =
+            OperationNames.global().table(path -> "OkHttp: " + path);
+
+    /**
+     * Returns an interceptor like {@link #INSTANCE}, which writes the trace headers using the given propagator rather
+     * than {@link Propagators#standard()}.
+     */
+    public static Interceptor create(Propagator propagator) {
+        Propagator checked = Preconditions.checkNotNull(propagator, "propagator");
+        return chain -> intercept(chain, checked);
+    }
+
     @Override
     public Response intercept(Chain chain) throws IOException {
+        return intercept(chain, Propagators.standard());
+    }
+
+    private static Response intercept(Chain chain, Propagator propagator) throws IOException {
         Request request = chain.request();
 
         String spanName = request.method();
+        Request.Builder tracedRequest = request.newBuilder();
         String httpRemotingPath = request.header(PATH_TEMPLATE_HEADER);
         if (httpRemotingPath != null) {
-            spanName = "OkHttp: " + httpRemotingPath;
-            request = request.newBuilder().removeHeader(PATH_TEMPLATE_HEADER).build();
+            spanName = OPERATIONS.get(httpRemotingPath).name();
+            tracedRequest.removeHeader(PATH_TEMPLATE_HEADER);
         }
 
-        OpenSpan span = Tracer.startSpan(spanName, SpanType.CLIENT_OUTGOING);
-        Request.Builder tracedRequest = request.newBuilder()
-                .header(TraceHttpHeaders.TRACE_ID, Tracer.getTraceId())
-                .header(TraceHttpHeaders.SPAN_ID, span.getSpanId())
-                .header(TraceHttpHeaders.IS_SAMPLED, Tracer.isTraceObservable() ? "1" : "0");
-        if (span.getParentSpanId().isPresent()) {
-            tracedRequest.header(
-                    TraceHttpHeaders.PARENT_SPAN_ID, span.getParentSpanId().get());
-        }
-        if (span.getOriginatingSpanId().isPresent()) {
-            tracedRequest.header(
-                    TraceHttpHeaders.ORIGINATING_SPAN_ID,
-                    span.getOriginatingSpanId().get());
-        }
+        Tracer.fastStartSpan(spanName, SpanType.CLIENT_OUTGOING);
+        Tracer.injectPropagationContext(propagator, tracedRequest, Request.Builder::header);
 
         Response response;
         try {
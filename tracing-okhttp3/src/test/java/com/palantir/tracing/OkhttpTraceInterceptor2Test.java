@@ -0,0 +1,93 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanObserver;
+import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TraceHttpHeaders;
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public final class OkhttpTraceInterceptor2Test {
+
+    @Mock
+    private Interceptor.Chain chain;
+
+    @Mock
+    private SpanObserver observer;
+
+    @Captor
+    private ArgumentCaptor<Request> requestCaptor;
+
+    @Captor
+    private ArgumentCaptor<Span> spanCaptor;
+
+    @Before
+    public void before() {
+        Tracer.subscribe("OkhttpTraceInterceptor2Test", observer);
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+    }
+
+    @After
+    public void after() {
+        Tracer.unsubscribe("OkhttpTraceInterceptor2Test");
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+    }
+
+    @Test
+    public void testNamesClientSpanAfterPathTemplate() throws IOException {
+        when(chain.request())
+                .thenReturn(new Request.Builder()
+                        .url("http://localhost/users/123")
+                        .header("hr-path-template", "/users/{id}")
+                        .build());
+        OkhttpTraceInterceptor2.create().intercept(chain);
+
+        verify(chain).proceed(requestCaptor.capture());
+        Request intercepted = requestCaptor.getValue();
+        assertThat(intercepted.header("hr-path-template")).isNull();
+        verify(observer).consume(spanCaptor.capture());
+        Span span = spanCaptor.getValue();
+        assertThat(span.getOperation()).isEqualTo("OkHttp: /users/{id}");
+        assertThat(span.type()).isEqualTo(SpanType.CLIENT_OUTGOING);
+        assertThat(intercepted.header(TraceHttpHeaders.SPAN_ID)).isEqualTo(span.getSpanId());
+    }
+
+    @Test
+    public void testNamesClientSpanAfterMethodWithoutPathTemplate() throws IOException {
+        when(chain.request()).thenReturn(new Request.Builder().url("http://localhost").build());
+        OkhttpTraceInterceptor2.create().intercept(chain);
+
+        verify(observer).consume(spanCaptor.capture());
+        assertThat(spanCaptor.getValue().getOperation()).isEqualTo("GET");
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.okhttp3;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.palantir.tracing.Observability;
+import com.palantir.tracing.Tracer;
+import com.palantir.tracing.Tracers;
+import com.palantir.tracing.api.Span;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public final class OkhttpTraceEventListenerTest {
+
+    private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("localhost", 443);
+
+    @Mock
+    private Call call;
+
+    @Mock
+    private Connection connection;
+
+    private final List<Span> spans = new ArrayList<>();
+
+    @Before
+    public void before() {
+        Tracer.subscribe("OkhttpTraceEventListenerTest", spans::add);
+    }
+
+    @After
+    public void after() {
+        Tracer.unsubscribe("OkhttpTraceEventListenerTest");
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+    }
+
+    @Test
+    public void testTagsClientSpanWithPhases() {
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("client");
+        EventListener listener = OkhttpTraceEventListener.create().create(call);
+        runCall(listener);
+        Span client = Tracer.completeSpan().get();
+
+        Span callSpan = spans.get(0);
+        assertThat(callSpan.getOperation()).isEqualTo(OkhttpTraceEventListener.CALL_OPERATION);
+        assertThat(callSpan.getParentSpanId()).hasValue(client.getSpanId());
+        assertThat(callSpan.getAllMetadata())
+                .containsKeys(
+                        OkhttpTraceEventListener.CONNECTION_ACQUIRE_NANOS,
+                        OkhttpTraceEventListener.DNS_NANOS,
+                        OkhttpTraceEventListener.CONNECT_NANOS,
+                        OkhttpTraceEventListener.TLS_NANOS,
+                        OkhttpTraceEventListener.REQUEST_WRITE_NANOS,
+                        OkhttpTraceEventListener.SERVER_NANOS);
+        assertThat(spans).containsExactly(callSpan, client);
+    }
+
+    @Test
+    public void testRecordsPhaseSpans() {
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("client");
+        EventListener listener = OkhttpTraceEventListener.createWithPhaseSpans().create(call);
+        runCall(listener);
+        Span client = Tracer.completeSpan().get();
+
+        Map<String, Span> byOperation =
+                spans.stream().collect(Collectors.toMap(Span::getOperation, Function.identity()));
+        assertThat(byOperation)
+                .containsOnlyKeys(
+                        "client",
+                        OkhttpTraceEventListener.CALL_OPERATION,
+                        "OkHttp: dns",
+                        "OkHttp: connect",
+                        "OkHttp: tls",
+                        "OkHttp: request",
+                        "OkHttp: server",
+                        "OkHttp: response");
+        Span callSpan = byOperation.get(OkhttpTraceEventListener.CALL_OPERATION);
+        assertThat(callSpan.getParentSpanId()).hasValue(client.getSpanId());
+        assertThat(spans)
+                .filteredOn(span -> !span.equals(client) && !span.equals(callSpan))
+                .allSatisfy(span -> assertThat(span.getParentSpanId()).hasValue(callSpan.getSpanId()));
+    }
+
+    @Test
+    public void testRecordsEnqueuedCallsInTheTraceCreatingThem() throws Exception {
+        BlockingQueue<Span> observed = new LinkedBlockingQueue<>();
+        Tracer.subscribe("OkhttpTraceEventListenerTest.enqueue", observed::add);
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread responder = new Thread(() -> respond(server));
+            responder.start();
+            OkHttpClient client = new OkHttpClient.Builder()
+                    .eventListenerFactory(OkhttpTraceEventListener.createWithPhaseSpans())
+                    .build();
+
+            Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+            Tracer.fastStartSpan("client");
+            String traceId = Tracer.getTraceId();
+            Call enqueued = client.newCall(new Request.Builder()
+                    .url("http://localhost:" + server.getLocalPort())
+                    .build());
+            Span caller = Tracer.completeSpan().get();
+            // The call runs on a dispatcher thread after the span which created it completed
+            enqueued.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call _call, IOException _exception) {}
+
+                @Override
+                public void onResponse(Call _call, Response response) {
+                    response.close();
+                }
+            });
+
+            Map<String, Span> byOperation = new HashMap<>();
+            while (!byOperation.containsKey(OkhttpTraceEventListener.CALL_OPERATION)) {
+                Span span = observed.poll(5, TimeUnit.SECONDS);
+                assertThat(span).isNotNull();
+                byOperation.put(span.getOperation(), span);
+            }
+            responder.join();
+
+            Span callSpan = byOperation.get(OkhttpTraceEventListener.CALL_OPERATION);
+            assertThat(callSpan.getTraceId()).isEqualTo(traceId);
+            assertThat(callSpan.getParentSpanId()).hasValue(caller.getSpanId());
+            assertThat(callSpan.getAllMetadata())
+                    .containsKeys(
+                            OkhttpTraceEventListener.CONNECTION_ACQUIRE_NANOS,
+                            OkhttpTraceEventListener.CONNECT_NANOS,
+                            OkhttpTraceEventListener.REQUEST_WRITE_NANOS,
+                            OkhttpTraceEventListener.SERVER_NANOS);
+            assertThat(byOperation).containsKeys("OkHttp: connect", "OkHttp: request", "OkHttp: server");
+            assertThat(byOperation.values())
+                    .filteredOn(span -> !span.equals(callSpan) && !span.equals(caller))
+                    .allSatisfy(span -> {
+                        assertThat(span.getTraceId()).isEqualTo(traceId);
+                        assertThat(span.getParentSpanId()).hasValue(callSpan.getSpanId());
+                    });
+        } finally {
+            Tracer.unsubscribe("OkhttpTraceEventListenerTest.enqueue");
+        }
+    }
+
+    @Test
+    public void testIgnoresUnsampledCalls() {
+        Tracer.initTrace(Observability.DO_NOT_SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("client");
+        assertThat(OkhttpTraceEventListener.createWithPhaseSpans().create(call)).isSameAs(EventListener.NONE);
+        Tracer.fastCompleteSpan();
+
+        // Calls created without a trace are not measured either
+        assertThat(Tracer.hasTraceId()).isFalse();
+        assertThat(OkhttpTraceEventListener.create().create(call)).isSameAs(EventListener.NONE);
+        assertThat(spans).isEmpty();
+    }
+
+    private static void respond(ServerSocket server) {
+        try (Socket socket = server.accept()) {
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.isEmpty());
+            OutputStream output = socket.getOutputStream();
+            output.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void runCall(EventListener listener) {
+        Request request = new Request.Builder().url("https://localhost").build();
+        listener.callStart(call);
+        listener.dnsStart(call, "localhost");
+        listener.dnsEnd(call, "localhost", Collections.emptyList());
+        listener.connectStart(call, ADDRESS, Proxy.NO_PROXY);
+        listener.secureConnectStart(call);
+        listener.secureConnectEnd(call, null);
+        listener.connectEnd(call, ADDRESS, Proxy.NO_PROXY, Protocol.HTTP_1_1);
+        listener.connectionAcquired(call, connection);
+        listener.requestHeadersStart(call);
+        listener.requestHeadersEnd(call, request);
+        listener.responseHeadersStart(call);
+        listener.responseBodyStart(call);
+        listener.responseBodyEnd(call, 10);
+        listener.connectionReleased(call, connection);
+        listener.callEnd(call);
+    }
+}
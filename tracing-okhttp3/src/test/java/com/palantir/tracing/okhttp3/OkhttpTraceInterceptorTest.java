@@ -26,6 +26,7 @@ import com.palantir.tracing.Observability;
 import com.palantir.tracing.Tracer;
 import com.palantir.tracing.Tracers;
 import com.palantir.tracing.api.OpenSpan;
+import com.palantir.tracing.api.Propagators;
 import com.palantir.tracing.api.Span;
 import com.palantir.tracing.api.SpanObserver;
 import com.palantir.tracing.api.SpanType;
@@ -129,6 +130,17 @@ public final class OkhttpTraceInterceptorTest {
         assertThat(intercepted.headers(TraceHttpHeaders.IS_SAMPLED)).containsOnly("0");
     }
 
+    @Test
+    public void testUsesConfiguredPropagator() throws IOException {
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+        String traceId = Tracer.getTraceId();
+        OkhttpTraceInterceptor.create(Propagators.b3Single()).intercept(chain);
+        verify(chain).proceed(requestCaptor.capture());
+        Request intercepted = requestCaptor.getValue();
+        assertThat(intercepted.headers(TraceHttpHeaders.TRACE_ID)).isEmpty();
+        assertThat(intercepted.header(TraceHttpHeaders.B3)).matches(traceId + "-[0-9a-f]{16}-1");
+    }
+
     @Test
     public void testPopsSpan() throws IOException {
         OpenSpan before = Tracer.startSpan("");
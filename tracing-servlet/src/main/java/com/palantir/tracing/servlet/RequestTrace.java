@@ -0,0 +1,101 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.servlet;
+
+import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.DetachedSpanScope;
+import javax.annotation.Nullable;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+
+/** Tracing state of a request, which completes its span once the request or its asynchronous processing completes. */
+final class RequestTrace implements AsyncListener {
+
+    static final String STATUS = "status";
+    static final String BYTES_WRITTEN = "bytesWritten";
+    static final String FIRST_BYTE_NANOS = "firstByteNanos";
+
+    private final DetachedSpan span;
+    private final DetachedSpanScope scope;
+    private final HttpServletResponse response;
+    private final long startNanos;
+
+    // Only measured for sampled requests
+    @Nullable
+    private final TracedServletResponse tracedResponse;
+
+    RequestTrace(
+            DetachedSpan span,
+            HttpServletResponse response,
+            long startNanos,
+            @Nullable TracedServletResponse tracedResponse) {
+        this.span = span;
+        this.scope = DetachedSpanScope.of(span);
+        this.response = response;
+        this.startNanos = startNanos;
+        this.tracedResponse = tracedResponse;
+    }
+
+    DetachedSpan span() {
+        return span;
+    }
+
+    DetachedSpanScope scope() {
+        return scope;
+    }
+
+    @Nullable
+    TracedServletResponse tracedResponse() {
+        return tracedResponse;
+    }
+
+    /** Tags and completes the span, later calls have no effect. */
+    void complete() {
+        TracedServletResponse traced = tracedResponse;
+        if (traced != null) {
+            span.tag(STATUS, response.getStatus());
+            span.tag(BYTES_WRITTEN, traced.bytesWritten());
+            long firstByteNanos = traced.firstByteNanos();
+            if (firstByteNanos >= 0) {
+                span.tag(FIRST_BYTE_NANOS, firstByteNanos - startNanos);
+            }
+        }
+        span.complete();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent _event) {
+        complete();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent _event) {
+        // The container completes the request once listeners had a chance to respond
+    }
+
+    @Override
+    public void onError(AsyncEvent _event) {
+        // Followed by onComplete
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // Listeners must register again to be notified once a restarted asynchronous operation completes
+        event.getAsyncContext().addListener(this);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Records when the application first writes to the response, and how many bytes it writes to the output stream. The
+ * stream and writer are wrapped once per response, and writing only updates counters. Characters written through the
+ * {@link #getWriter() writer} are not counted, since their encoding is up to the container.
+ */
+final class TracedServletResponse extends HttpServletResponseWrapper {
+
+    // Accessed by whichever thread writes the response, which the servlet container orders
+    private long firstByteNanos = -1;
+    private long bytesWritten;
+
+    @Nullable
+    private CountingOutputStream outputStream;
+
+    @Nullable
+    private MarkingWriter writer;
+
+    TracedServletResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        ServletOutputStream delegate = super.getOutputStream();
+        CountingOutputStream current = outputStream;
+        if (current == null || current.delegate != delegate) {
+            current = new CountingOutputStream(delegate);
+            outputStream = current;
+        }
+        return current;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        PrintWriter delegate = super.getWriter();
+        MarkingWriter current = writer;
+        if (current == null || current.delegate != delegate) {
+            current = new MarkingWriter(delegate);
+            writer = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        markFirstByte();
+        super.flushBuffer();
+    }
+
+    /** Time at which the application first wrote to the response, as given by {@link System#nanoTime()}, or -1. */
+    long firstByteNanos() {
+        return firstByteNanos;
+    }
+
+    long bytesWritten() {
+        return bytesWritten;
+    }
+
+    private void markFirstByte() {
+        if (firstByteNanos < 0) {
+            firstByteNanos = System.nanoTime();
+        }
+    }
+
+    private final class CountingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+
+        CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            markFirstByte();
+            delegate.write(value);
+            bytesWritten++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            markFirstByte();
+            delegate.write(bytes, offset, length);
+            bytesWritten += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            markFirstByte();
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+
+    /** Writes through the container's writer, which does its own buffering, noting the first write. */
+    private final class MarkingWriter extends PrintWriter {
+
+        private final PrintWriter delegate;
+
+        MarkingWriter(PrintWriter delegate) {
+            super(delegate);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int value) {
+            markFirstByte();
+            super.write(value);
+        }
+
+        @Override
+        public void write(char[] buf, int offset, int length) {
+            markFirstByte();
+            super.write(buf, offset, length);
+        }
+
+        @Override
+        public void write(String str, int offset, int length) {
+            markFirstByte();
+            super.write(str, offset, length);
+        }
+
+        @Override
+        public void flush() {
+            markFirstByte();
+            super.flush();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.servlet;
+
+import static com.palantir.logsafe.Preconditions.checkNotNull;
+
+import com.palantir.tracing.CloseableSpan;
+import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.InternalTracers;
+import com.palantir.tracing.Observability;
+import com.palantir.tracing.OperationNames;
+import com.palantir.tracing.api.PropagationContext;
+import com.palantir.tracing.api.Propagator;
+import com.palantir.tracing.api.Propagators;
+import com.palantir.tracing.api.SamplingDecision;
+import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TraceHttpHeaders;
+import com.palantir.tracing.api.TracingId;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Traces each request using a {@link SpanType#SERVER_INCOMING} span, which continues the trace given by the request
+ * headers. The span is a {@link DetachedSpan} stored in the {@link #REQUEST_SPAN_ATTRIBUTE request attributes}, and is
+ * the current span of the threads running the filter chain. Requests which start asynchronous processing complete
+ * their span once the {@link javax.servlet.AsyncContext} completes, on whichever thread does so.
+ *
+ * <p>The spans of sampled requests are tagged with the response status, the number of bytes written to the response
+ * output stream, and the time from the start of the span until the application first wrote to the response. The
+ * response of the {@link javax.servlet.AsyncContext} is measured too, unless the application starts asynchronous
+ * processing with a response other than the one it was given.
+ *
+ * <p>The filter should be registered ahead of other filters for all dispatcher types, and with asynchronous support.
+ */
+public final class TracingFilter implements Filter {
+
+    /** Name of the {@link DetachedSpan} request attribute spanning the request. */
+    public static final String REQUEST_SPAN_ATTRIBUTE = "com.palantir.tracing.requestSpan";
+
+    private static final String REQUEST_TRACE_ATTRIBUTE = "com.palantir.tracing.servlet.requestTrace";
+
+    private static final OperationNames.TwoKeyTable OPERATIONS =
+            OperationNames.global().table((method, path) -> "Servlet: " + method + " " + path);
+
+    private static final Propagator.Getter<HttpServletRequest> HEADER_GETTER = HttpServletRequest::getHeader;
+    private static final PropagationContext UNDECIDED = PropagationContext.ofSampling(SamplingDecision.UNDECIDED);
+
+    private final Propagator propagator;
+
+    // URL patterns of the servlets of the context, from which operation names are derived
+    private Set<String> mappings = Collections.emptySet();
+
+    public TracingFilter() {
+        this(Propagators.standard());
+    }
+
+    /** Creates a filter reading the trace of incoming requests using the given {@link Propagator}. */
+    public TracingFilter(Propagator propagator) {
+        this.propagator = checkNotNull(propagator, "propagator");
+    }
+
+    @Override
+    public void init(FilterConfig config) {
+        Set<String> mappings = new HashSet<>();
+        for (ServletRegistration registration : config.getServletContext().getServletRegistrations().values()) {
+            mappings.addAll(registration.getMappings());
+        }
+        this.mappings = mappings;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        Object existing = request.getAttribute(REQUEST_TRACE_ATTRIBUTE);
+        if (existing instanceof RequestTrace) {
+            // Asynchronous, forward or include dispatch of a request whose span is already open
+            RequestTrace requestTrace = (RequestTrace) existing;
+            try (CloseableSpan ignored = requestTrace.scope().enter()) {
+                dispatch(requestTrace, (HttpServletRequest) request, (HttpServletResponse) response, chain);
+            }
+            return;
+        }
+
+        RequestTrace requestTrace = start((HttpServletRequest) request, (HttpServletResponse) response);
+        try (CloseableSpan ignored = requestTrace.scope().enter()) {
+            dispatch(requestTrace, (HttpServletRequest) request, (HttpServletResponse) response, chain);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(requestTrace);
+            } else {
+                requestTrace.complete();
+            }
+        }
+    }
+
+    /**
+     * Runs the filter chain with the {@link TracedServletResponse} of sampled requests on every dispatch, unless the
+     * dispatched response already wraps it. The request is wrapped so that {@link ServletRequest#startAsync()} keeps
+     * using the traced response.
+     */
+    private static void dispatch(
+            RequestTrace requestTrace, HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        TracedServletResponse tracedResponse = requestTrace.tracedResponse();
+        if (tracedResponse == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletResponse dispatchedResponse = wraps(response, tracedResponse) ? response : tracedResponse;
+        chain.doFilter(new TracedServletRequest(request, tracedResponse), dispatchedResponse);
+    }
+
+    private static boolean wraps(ServletResponse response, TracedServletResponse tracedResponse) {
+        return response == tracedResponse
+                || (response instanceof ServletResponseWrapper
+                        && ((ServletResponseWrapper) response).isWrapperFor(tracedResponse));
+    }
+
+    private RequestTrace start(HttpServletRequest request, HttpServletResponse response) {
+        long startNanos = System.nanoTime();
+        String operation = OPERATIONS.get(request.getMethod(), getPath(request)).name();
+        PropagationContext context = propagator.extract(request, HEADER_GETTER).orElse(UNDECIDED);
+        TracingId maybeTraceId = context.traceId();
+        TracingId parentSpanId = maybeTraceId == null ? null : context.spanId();
+        TracingId traceIdentifier = maybeTraceId == null ? TracingId.random() : maybeTraceId;
+        DetachedSpan span = DetachedSpan.start(
+                Observability.of(context.sampling()),
+                traceIdentifier,
+                parentSpanId,
+                operation,
+                SpanType.SERVER_INCOMING);
+        // Extracted identifiers render as the header value they were parsed from
+        String traceId = traceIdentifier.toString();
+
+        // Populate the response before the application may commit it
+        response.setHeader(TraceHttpHeaders.TRACE_ID, traceId);
+        TracedServletResponse tracedResponse =
+                InternalTracers.isSampled(span) ? new TracedServletResponse(response) : null;
+        RequestTrace requestTrace = new RequestTrace(span, response, startNanos, tracedResponse);
+        request.setAttribute(REQUEST_SPAN_ATTRIBUTE, span);
+        request.setAttribute(REQUEST_TRACE_ATTRIBUTE, requestTrace);
+        return requestTrace;
+    }
+
+    /**
+     * Returns the URL pattern of the servlet handling the request, rather than a path of the request, so that the
+     * number of operation names is bounded by the servlet mappings.
+     */
+    private String getPath(HttpServletRequest request) {
+        String path = request.getServletPath();
+        if (path == null || path.isEmpty()) {
+            // Requests for the context root, or handled by a wildcard mapping such as "/*"
+            return "/";
+        }
+        if (request.getPathInfo() != null || mappings.contains(path) || mappings.contains(path + "/*")) {
+            // The servlet path omits the path info of wildcard mappings such as "/api/*", and exact mappings match it
+            return path;
+        }
+        int extension = path.lastIndexOf('.');
+        if (extension > path.lastIndexOf('/')) {
+            String pattern = "*" + path.substring(extension);
+            if (mappings.contains(pattern)) {
+                return pattern;
+            }
+        }
+        // The default servlet, mapped to "/", is given the full path of each request
+        return "/";
+    }
+
+    @Override
+    public void destroy() {
+        // nop
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.servlet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.palantir.tracing.AlwaysSampler;
+import com.palantir.tracing.Tracer;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TraceHttpHeaders;
+import io.dropwizard.Application;
+import io.dropwizard.Configuration;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterRegistration;
+import javax.servlet.ServletRegistration;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.client.JerseyClientBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class TracingFilterTest {
+    @ClassRule
+    public static final DropwizardAppRule<Configuration> APP =
+            new DropwizardAppRule<>(TracingTestServer.class, "src/test/resources/test-server.yml");
+
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool();
+
+    private final BlockingQueue<Span> spans = new LinkedBlockingQueue<>();
+
+    private WebTarget target;
+
+    @Before
+    public void before() {
+        String endpointUri = "http://localhost:" + APP.getLocalPort();
+        JerseyClientBuilder builder = new JerseyClientBuilder();
+        Client client = builder.build();
+        target = client.target(endpointUri);
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+        Tracer.subscribe("TracingFilterTest", spans::add);
+    }
+
+    @After
+    public void after() {
+        Tracer.unsubscribe("TracingFilterTest");
+    }
+
+    @Test
+    public void testFilter_tracesRequest() throws InterruptedException {
+        Response response = target.path("/sync")
+                .request()
+                .header(TraceHttpHeaders.TRACE_ID, "abcdef")
+                .header(TraceHttpHeaders.SPAN_ID, "0123456789abcdef")
+                .get();
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.readEntity(String.class)).isEqualTo("hello");
+        assertThat(response.getHeaderString(TraceHttpHeaders.TRACE_ID)).isEqualTo("abcdef");
+        assertThat(response.getHeaderString("Servlet-Trace-Id")).isEqualTo("abcdef");
+
+        Span span = spans.poll(5, TimeUnit.SECONDS);
+        assertThat(span).isNotNull();
+        assertThat(span.getOperation()).isEqualTo("Servlet: GET /sync");
+        assertThat(span.type()).isEqualTo(SpanType.SERVER_INCOMING);
+        assertThat(span.getTraceId()).isEqualTo("abcdef");
+        assertThat(span.getParentSpanId()).hasValue("0123456789abcdef");
+        assertThat(span.getAllMetadata())
+                .containsEntry(RequestTrace.STATUS, "200")
+                .containsEntry(RequestTrace.BYTES_WRITTEN, "5")
+                .containsKey(RequestTrace.FIRST_BYTE_NANOS);
+        assertThat(spans).isEmpty();
+    }
+
+    @Test
+    public void testFilter_completesAsyncRequest() throws InterruptedException {
+        Response response = target.path("/async").request().get();
+        assertThat(response.getStatus()).isEqualTo(202);
+        assertThat(response.readEntity(String.class)).isEqualTo("later");
+        String traceId = response.getHeaderString(TraceHttpHeaders.TRACE_ID);
+        assertThat(response.getHeaderString("Servlet-Trace-Id")).isEqualTo(traceId);
+
+        Span span = spans.poll(5, TimeUnit.SECONDS);
+        assertThat(span).isNotNull();
+        assertThat(span.getOperation()).isEqualTo("Servlet: GET /async");
+        assertThat(span.getTraceId()).isEqualTo(traceId);
+        assertThat(span.getAllMetadata())
+                .containsEntry(RequestTrace.STATUS, "202")
+                .containsEntry(RequestTrace.BYTES_WRITTEN, "5");
+        assertThat(Long.parseLong(span.getAllMetadata().get(RequestTrace.FIRST_BYTE_NANOS)))
+                .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+        assertThat(span.getDurationNanoSeconds()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void testFilter_tracesAsyncDispatch() throws InterruptedException {
+        Response response = target.path("/dispatch").request().get();
+        assertThat(response.getStatus()).isEqualTo(201);
+        assertThat(response.readEntity(String.class)).isEqualTo("again");
+        String traceId = response.getHeaderString(TraceHttpHeaders.TRACE_ID);
+        assertThat(response.getHeaderString("Servlet-Trace-Id")).isEqualTo(traceId);
+
+        Span span = spans.poll(5, TimeUnit.SECONDS);
+        assertThat(span).isNotNull();
+        assertThat(span.getOperation()).isEqualTo("Servlet: GET /dispatch");
+        assertThat(span.getTraceId()).isEqualTo(traceId);
+        assertThat(span.getAllMetadata())
+                .containsEntry(RequestTrace.STATUS, "201")
+                .containsEntry(RequestTrace.BYTES_WRITTEN, "5");
+        assertThat(spans.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    public void testFilter_namesOperationsAfterServletMappings() throws InterruptedException {
+        assertThat(target.path("/files/a.txt").request().get().getStatus()).isEqualTo(200);
+        assertThat(target.path("/b.txt").request().get().getStatus()).isEqualTo(200);
+
+        for (int i = 0; i < 2; i++) {
+            Span span = spans.poll(5, TimeUnit.SECONDS);
+            assertThat(span).isNotNull();
+            assertThat(span.getOperation()).isEqualTo("Servlet: GET *.txt");
+        }
+    }
+
+    public static class TracingTestServer extends Application<Configuration> {
+        @Override
+        public final void run(Configuration _config, final Environment env) {
+            FilterRegistration.Dynamic filter = env.servlets().addFilter("tracingFilter", new TracingFilter());
+            filter.setAsyncSupported(true);
+            filter.addMappingForUrlPatterns(EnumSet.allOf(DispatcherType.class), false, "/*");
+
+            env.servlets()
+                    .addServlet("sync", new HttpServlet() {
+                        @Override
+                        protected void service(HttpServletRequest _req, HttpServletResponse resp)
+                                throws IOException {
+                            resp.addHeader("Servlet-Trace-Id", Tracer.getTraceId());
+                            resp.getOutputStream().print("hello");
+                        }
+                    })
+                    .addMapping("/sync");
+
+            ServletRegistration.Dynamic async = env.servlets().addServlet("async", new HttpServlet() {
+                @Override
+                protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                    resp.addHeader("Servlet-Trace-Id", Tracer.getTraceId());
+                    AsyncContext context = req.startAsync();
+                    ASYNC_EXECUTOR.execute(() -> {
+                        try {
+                            Thread.sleep(20);
+                            HttpServletResponse asyncResponse = (HttpServletResponse) context.getResponse();
+                            asyncResponse.setStatus(202);
+                            asyncResponse.getOutputStream().print("later");
+                        } catch (InterruptedException | IOException e) {
+                            throw new RuntimeException(e);
+                        } finally {
+                            context.complete();
+                        }
+                    });
+                }
+            });
+            async.setAsyncSupported(true);
+            async.addMapping("/async");
+
+            ServletRegistration.Dynamic dispatch = env.servlets().addServlet("dispatch", new HttpServlet() {
+                @Override
+                protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                    if (req.getDispatcherType() == DispatcherType.ASYNC) {
+                        resp.addHeader("Servlet-Trace-Id", Tracer.getTraceId());
+                        resp.setStatus(201);
+                        resp.getOutputStream().print("again");
+                        return;
+                    }
+                    AsyncContext context = req.startAsync();
+                    ASYNC_EXECUTOR.execute(context::dispatch);
+                }
+            });
+            dispatch.setAsyncSupported(true);
+            dispatch.addMapping("/dispatch");
+
+            env.servlets()
+                    .addServlet("text", new HttpServlet() {
+                        @Override
+                        protected void service(HttpServletRequest _req, HttpServletResponse resp)
+                                throws IOException {
+                            resp.getOutputStream().print("text");
+                        }
+                    })
+                    .addMapping("*.txt");
+        }
+    }
+}
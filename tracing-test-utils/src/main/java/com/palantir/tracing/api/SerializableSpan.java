@@ -67,7 +67,7 @@ abstract class SerializableSpan {
                 .operation(span.getOperation())
                 .startTimeMicroSeconds(span.getStartTimeMicroSeconds())
                 .durationNanoSeconds(span.getDurationNanoSeconds())
-                .metadata(span.getMetadata())
+                .metadata(span.getAllMetadata())
                 .build();
     }
 }
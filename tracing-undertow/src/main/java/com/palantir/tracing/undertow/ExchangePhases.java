@@ -0,0 +1,181 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.undertow;
+
+import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.InternalTracers;
+import com.palantir.tracing.api.TracingClock;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ResponseCommitListener;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.AbstractStreamSourceConduit;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.StreamSourceConduit;
+
+/**
+ * Breaks the duration of a sampled exchange down into the time its tasks waited for a worker thread, the time spent
+ * in handlers, the time handlers were blocked on reading the request or writing the response, and the time from
+ * committing the response until the exchange completed. The durations are added to the request span as tags once the
+ * exchange completes. Durations are read from the {@link InternalTracers#getClock() clock} which times the request
+ * span. Unsampled exchanges are not measured.
+ */
+final class ExchangePhases implements ResponseCommitListener {
+
+    static final String QUEUE_NANOS = "queueNanos";
+    static final String HANDLER_NANOS = "handlerNanos";
+    static final String BLOCKING_READ_NANOS = "blockingReadNanos";
+    static final String BLOCKING_WRITE_NANOS = "blockingWriteNanos";
+    static final String RESPONSE_WRITE_NANOS = "responseWriteNanos";
+
+    private final TracingClock clock;
+
+    // Guarded by this, since the exchange may move between the I/O thread and workers
+    private long queueNanos;
+    private long handlerNanos;
+    private long blockingReadNanos;
+    private long blockingWriteNanos;
+    private long commitNanos = -1;
+    private int handlerDepth;
+
+    private ExchangePhases(TracingClock clock) {
+        this.clock = clock;
+    }
+
+    /** Starts measuring the given exchange, which must be sampled. */
+    static ExchangePhases start(HttpServerExchange exchange) {
+        ExchangePhases phases = new ExchangePhases(InternalTracers.getClock());
+        exchange.addRequestWrapper(phases.requestWrapper());
+        exchange.addResponseWrapper(phases.responseWrapper());
+        exchange.addResponseCommitListener(phases);
+        return phases;
+    }
+
+    /** Current time of the clock which measures this exchange, e.g. for {@link #queued}. */
+    long nanoTime() {
+        return clock.nanoTime();
+    }
+
+    synchronized void queued(long nanos) {
+        queueNanos += nanos;
+    }
+
+    /**
+     * Marks the start of handler execution, returning the time to pass to {@link #exitHandler}. Handlers invoked from
+     * within other handlers of the same exchange are not counted twice.
+     */
+    synchronized long enterHandler() {
+        return handlerDepth++ == 0 ? clock.nanoTime() : -1;
+    }
+
+    synchronized void exitHandler(long startNanos) {
+        handlerDepth--;
+        if (startNanos >= 0) {
+            handlerNanos += clock.nanoTime() - startNanos;
+        }
+    }
+
+    @Override
+    public synchronized void beforeCommit(HttpServerExchange _exchange) {
+        commitNanos = clock.nanoTime();
+    }
+
+    /** Adds the measured durations to the request span, which is about to complete. */
+    synchronized void tag(DetachedSpan requestSpan) {
+        requestSpan.tag(QUEUE_NANOS, queueNanos);
+        requestSpan.tag(HANDLER_NANOS, handlerNanos);
+        requestSpan.tag(BLOCKING_READ_NANOS, blockingReadNanos);
+        requestSpan.tag(BLOCKING_WRITE_NANOS, blockingWriteNanos);
+        if (commitNanos >= 0) {
+            requestSpan.tag(RESPONSE_WRITE_NANOS, clock.nanoTime() - commitNanos);
+        }
+    }
+
+    private synchronized void blockedOnRead(long nanos) {
+        blockingReadNanos += nanos;
+    }
+
+    private synchronized void blockedOnWrite(long nanos) {
+        blockingWriteNanos += nanos;
+    }
+
+    private ConduitWrapper<StreamSourceConduit> requestWrapper() {
+        return (factory, _exchange) -> new TimedSourceConduit(factory.create());
+    }
+
+    private ConduitWrapper<StreamSinkConduit> responseWrapper() {
+        return (factory, _exchange) -> new TimedSinkConduit(factory.create());
+    }
+
+    /** Measures the time blocking request streams wait for data to arrive. */
+    private final class TimedSourceConduit extends AbstractStreamSourceConduit<StreamSourceConduit> {
+
+        TimedSourceConduit(StreamSourceConduit next) {
+            super(next);
+        }
+
+        @Override
+        public void awaitReadable() throws IOException {
+            long start = clock.nanoTime();
+            try {
+                super.awaitReadable();
+            } finally {
+                blockedOnRead(clock.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void awaitReadable(long time, TimeUnit timeUnit) throws IOException {
+            long start = clock.nanoTime();
+            try {
+                super.awaitReadable(time, timeUnit);
+            } finally {
+                blockedOnRead(clock.nanoTime() - start);
+            }
+        }
+    }
+
+    /** Measures the time blocking response streams wait for the client to accept more data. */
+    private final class TimedSinkConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+        TimedSinkConduit(StreamSinkConduit next) {
+            super(next);
+        }
+
+        @Override
+        public void awaitWritable() throws IOException {
+            long start = clock.nanoTime();
+            try {
+                super.awaitWritable();
+            } finally {
+                blockedOnWrite(clock.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void awaitWritable(long time, TimeUnit timeUnit) throws IOException {
+            long start = clock.nanoTime();
+            try {
+                super.awaitWritable(time, timeUnit);
+            } finally {
+                blockedOnWrite(clock.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.undertow;
+
+import static com.palantir.logsafe.Preconditions.checkNotNull;
+
+import com.palantir.tracing.DetachedSpanScope;
+import io.undertow.server.HttpServerExchange;
+import java.util.concurrent.Executor;
+
+/**
+ * Carries the trace of an exchange traced by {@link TracedOperationHandler} or {@link TracedRequestHandler} to other
+ * threads. Tasks dispatched from within a handler using {@link HttpServerExchange#dispatch(Runnable)} or
+ * {@link HttpServerExchange#dispatch(io.undertow.server.HttpHandler)} run within the request span without further
+ * work. Tasks given an explicit executor, dispatched after the handler returned, or registered as I/O callbacks must
+ * be wrapped using this class. Tasks running on the I/O thread of the exchange do not update the MDC.
+ */
+public final class TracedExchanges {
+
+    /**
+     * Returns an executor which runs tasks on the worker of the exchange within its request span, for use with
+     * {@link HttpServerExchange#dispatch(Executor, Runnable)} once the handler has returned.
+     */
+    public static Executor executor(HttpServerExchange exchange) {
+        DetachedSpanScope scope = exchange.getAttachment(UndertowTracing.REQUEST_SCOPE);
+        if (scope == null) {
+            return exchange.getConnection().getWorker();
+        }
+        return new TracingExchangeExecutor(exchange, scope, null, false);
+    }
+
+    /** Returns an executor which runs tasks on {@code executor} within the request span of the exchange. */
+    public static Executor executor(HttpServerExchange exchange, Executor executor) {
+        checkNotNull(executor, "executor is required");
+        DetachedSpanScope scope = exchange.getAttachment(UndertowTracing.REQUEST_SCOPE);
+        if (scope == null) {
+            return executor;
+        }
+        return new TracingExchangeExecutor(exchange, scope, executor, false);
+    }
+
+    /** Wraps a task, e.g. an I/O callback of the exchange, to run within the request span of the exchange. */
+    public static Runnable wrap(HttpServerExchange exchange, Runnable task) {
+        checkNotNull(task, "task is required");
+        DetachedSpanScope scope = exchange.getAttachment(UndertowTracing.REQUEST_SCOPE);
+        if (scope == null) {
+            return task;
+        }
+        ExchangePhases phases = exchange.getAttachment(UndertowTracing.REQUEST_PHASES);
+        return () -> TracingExchangeExecutor.run(exchange, scope, phases, task);
+    }
+
+    private TracedExchanges() {}
+}
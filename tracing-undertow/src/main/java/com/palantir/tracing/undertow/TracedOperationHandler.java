@@ -20,6 +20,8 @@ import static com.palantir.logsafe.Preconditions.checkNotNull;
 
 import com.palantir.tracing.CloseableSpan;
 import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.api.Propagator;
+import com.palantir.tracing.api.Propagators;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
@@ -31,8 +33,8 @@ import io.undertow.util.AttachmentKey;
  *
  * <p>Note that this handler must be registered after routing, each instance is used for exactly one operation name.
  * This {@link HttpHandler handler} traces the execution of the {@link TracedOperationHandler#delegate} handlers
- * {@link HttpHandler#handleRequest(HttpServerExchange)}, but does not apply tracing to any asynchronous operations that
- * handler may register.
+ * {@link HttpHandler#handleRequest(HttpServerExchange)}. Work the handler dispatches to other threads runs within the
+ * request span, see {@link TracedExchanges}.
  */
 public final class TracedOperationHandler implements HttpHandler {
     /**
@@ -45,17 +47,24 @@ public final class TracedOperationHandler implements HttpHandler {
 
     private final String operation;
     private final HttpHandler delegate;
+    private final Propagator propagator;
 
     public TracedOperationHandler(HttpHandler delegate, String operation) {
+        this(delegate, operation, Propagators.standard());
+    }
+
+    /** Like {@link #TracedOperationHandler(HttpHandler, String)}, but reads the trace using the given propagator. */
+    public TracedOperationHandler(HttpHandler delegate, String operation, Propagator propagator) {
         this.delegate = checkNotNull(delegate, "A delegate HttpHandler is required");
         this.operation = "Undertow: " + checkNotNull(operation, "Operation name is required");
+        this.propagator = checkNotNull(propagator, "A propagator is required");
     }
 
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
-        DetachedSpan detachedSpan = UndertowTracing.getOrInitializeRequestTrace(exchange);
+        DetachedSpan detachedSpan = UndertowTracing.getOrInitializeRequestTrace(exchange, propagator);
         try (CloseableSpan ignored = detachedSpan.childSpan(operation)) {
-            delegate.handleRequest(exchange);
+            UndertowTracing.handle(exchange, delegate);
         }
     }
 
@@ -16,7 +16,11 @@
 
 package com.palantir.tracing.undertow;
 
+import static com.palantir.logsafe.Preconditions.checkNotNull;
+
 import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.api.Propagator;
+import com.palantir.tracing.api.Propagators;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 
@@ -32,15 +36,22 @@ import io.undertow.server.HttpServerExchange;
 public final class TracedRequestHandler implements HttpHandler {
 
     private final HttpHandler delegate;
+    private final Propagator propagator;
 
     public TracedRequestHandler(HttpHandler delegate) {
+        this(delegate, Propagators.standard());
+    }
+
+    /** Like {@link #TracedRequestHandler(HttpHandler)}, but reads the trace using the given propagator. */
+    public TracedRequestHandler(HttpHandler delegate, Propagator propagator) {
         this.delegate = delegate;
+        this.propagator = checkNotNull(propagator, "A propagator is required");
     }
 
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
-        UndertowTracing.getOrInitializeRequestTrace(exchange);
-        delegate.handleRequest(exchange);
+        UndertowTracing.getOrInitializeRequestTrace(exchange, propagator);
+        UndertowTracing.handle(exchange, delegate);
     }
 
     @Override
@@ -0,0 +1,123 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.undertow;
+
+import static com.palantir.logsafe.Preconditions.checkNotNull;
+
+import com.palantir.tracing.CloseableSpan;
+import com.palantir.tracing.DetachedSpanScope;
+import io.undertow.server.HttpServerExchange;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Runs tasks of an exchange within its {@link UndertowTracing#REQUEST_SPAN request span}. Tasks which run on the I/O
+ * thread of the exchange do not update the MDC, since non-blocking handlers are expected to return promptly. The time
+ * tasks of sampled exchanges wait for a thread, and the time they run, are added to their {@link ExchangePhases}.
+ */
+final class TracingExchangeExecutor implements Executor {
+
+    private final HttpServerExchange exchange;
+    private final DetachedSpanScope scope;
+
+    @Nullable
+    private final Executor delegate;
+
+    @Nullable
+    private final ExchangePhases phases;
+
+    private final boolean dispatchExecutor;
+
+    // Wrapper of a task which has started running, reused by the next dispatch of the exchange
+    private final AtomicReference<DispatchedTask> spare = new AtomicReference<>();
+
+    /**
+     * Creates an executor which submits tasks to {@code delegate}, or the worker of the exchange if null. If
+     * {@code dispatchExecutor} is set, the executor reinstalls itself as the dispatch executor of the exchange before
+     * running each task, since Undertow resets it whenever the exchange is dispatched.
+     */
+    TracingExchangeExecutor(
+            HttpServerExchange exchange,
+            DetachedSpanScope scope,
+            @Nullable Executor delegate,
+            boolean dispatchExecutor) {
+        this.exchange = exchange;
+        this.scope = scope;
+        this.delegate = delegate;
+        this.dispatchExecutor = dispatchExecutor;
+        this.phases = exchange.getAttachment(UndertowTracing.REQUEST_PHASES);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Executor executor = delegate == null ? exchange.getConnection().getWorker() : delegate;
+        DispatchedTask dispatched = spare.getAndSet(null);
+        if (dispatched == null) {
+            dispatched = new DispatchedTask();
+        }
+        dispatched.task = task;
+        dispatched.submittedNanos = phases == null ? 0 : phases.nanoTime();
+        executor.execute(dispatched);
+    }
+
+    static void run(
+            HttpServerExchange exchange, DetachedSpanScope scope, @Nullable ExchangePhases phases, Runnable task) {
+        try (CloseableSpan ignored = exchange.isInIoThread() ? scope.enterWithoutMdc() : scope.enter()) {
+            if (phases == null) {
+                task.run();
+                return;
+            }
+            long startNanos = phases.enterHandler();
+            try {
+                task.run();
+            } finally {
+                phases.exitHandler(startNanos);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TracingExchangeExecutor{delegate=" + delegate + '}';
+    }
+
+    /** Runs a dispatched task, and hands itself back to the executor before doing so. */
+    private final class DispatchedTask implements Runnable {
+
+        @Nullable
+        private Runnable task;
+
+        private long submittedNanos;
+
+        @Override
+        public void run() {
+            Runnable current = checkNotNull(task, "task");
+            long submitted = submittedNanos;
+            task = null;
+            spare.set(this);
+            if (dispatchExecutor && exchange.getDispatchExecutor() == null) {
+                exchange.setDispatchExecutor(TracingExchangeExecutor.this);
+            }
+            ExchangePhases measured = phases;
+            if (measured != null) {
+                measured.queued(measured.nanoTime() - submitted);
+            }
+            TracingExchangeExecutor.run(exchange, scope, measured, current);
+        }
+    }
+}
@@ -17,19 +17,22 @@
 package com.palantir.tracing.undertow;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Strings;
 import com.palantir.tracing.DetachedSpan;
+import com.palantir.tracing.DetachedSpanScope;
 import com.palantir.tracing.InternalTracers;
 import com.palantir.tracing.Observability;
-import com.palantir.tracing.Tracers;
+import com.palantir.tracing.api.PropagationContext;
+import com.palantir.tracing.api.Propagator;
+import com.palantir.tracing.api.SamplingDecision;
 import com.palantir.tracing.api.SpanType;
 import com.palantir.tracing.api.TraceHttpHeaders;
+import com.palantir.tracing.api.TracingId;
 import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HttpString;
-import java.util.Optional;
 
 /**
  * Internal utility functionality shared between {@link TracedOperationHandler} and {@link TracedRequestHandler}.
@@ -39,8 +42,9 @@ final class UndertowTracing {
 
     // Tracing header definitions
     private static final HttpString TRACE_ID = HttpString.tryFromString(TraceHttpHeaders.TRACE_ID);
-    private static final HttpString SPAN_ID = HttpString.tryFromString(TraceHttpHeaders.SPAN_ID);
-    private static final HttpString IS_SAMPLED = HttpString.tryFromString(TraceHttpHeaders.IS_SAMPLED);
+
+    private static final Propagator.Getter<HeaderMap> HEADER_GETTER = HeaderMap::getFirst;
+    private static final PropagationContext UNDECIDED = PropagationContext.ofSampling(SamplingDecision.UNDECIDED);
 
     // Consider moving this to TracingAttachments and making it public. For now it's well encapsulated
     // here because we expect the two handler implementations to be sufficient.
@@ -48,40 +52,70 @@ final class UndertowTracing {
     @VisibleForTesting
     static final AttachmentKey<DetachedSpan> REQUEST_SPAN = AttachmentKey.create(DetachedSpan.class);
 
+    /** Re-establishes the {@link #REQUEST_SPAN} on threads which the exchange is dispatched to. */
+    static final AttachmentKey<DetachedSpanScope> REQUEST_SCOPE = AttachmentKey.create(DetachedSpanScope.class);
+
+    /** Durations of the phases of sampled exchanges, absent for unsampled exchanges. */
+    static final AttachmentKey<ExchangePhases> REQUEST_PHASES = AttachmentKey.create(ExchangePhases.class);
+
     private static final String OPERATION_NAME = "Undertow Request";
 
     /** Apply detached tracing state to the provided {@link HttpServerExchange request}. */
-    static DetachedSpan getOrInitializeRequestTrace(HttpServerExchange exchange) {
+    static DetachedSpan getOrInitializeRequestTrace(HttpServerExchange exchange, Propagator propagator) {
         DetachedSpan detachedSpan = exchange.getAttachment(REQUEST_SPAN);
         if (detachedSpan == null) {
-            return initializeRequestTrace(exchange);
+            return initializeRequestTrace(exchange, propagator);
         }
         return detachedSpan;
     }
 
-    private static DetachedSpan initializeRequestTrace(HttpServerExchange exchange) {
-        HeaderMap requestHeaders = exchange.getRequestHeaders();
-        String maybeTraceId = requestHeaders.getFirst(TRACE_ID);
-        boolean newTraceId = maybeTraceId == null;
-        String traceId = newTraceId ? Tracers.randomId() : maybeTraceId;
-        DetachedSpan detachedSpan = detachedSpan(newTraceId, traceId, requestHeaders);
-        setExchangeState(exchange, detachedSpan, traceId);
+    private static DetachedSpan initializeRequestTrace(HttpServerExchange exchange, Propagator propagator) {
+        PropagationContext context =
+                propagator.extract(exchange.getRequestHeaders(), HEADER_GETTER).orElse(UNDECIDED);
+        TracingId maybeTraceId = context.traceId();
+        TracingId traceId = maybeTraceId == null ? TracingId.random() : maybeTraceId;
+        DetachedSpan detachedSpan = detachedSpan(maybeTraceId == null, traceId, context);
+        // Extracted identifiers render as the header value they were parsed from
+        setExchangeState(exchange, detachedSpan, traceId.toString());
         return detachedSpan;
     }
 
     private static void setExchangeState(HttpServerExchange exchange, DetachedSpan detachedSpan, String traceId) {
         // Populate response before proceeding since later operations might commit the response.
         exchange.getResponseHeaders().put(TRACE_ID, traceId);
-        exchange.putAttachment(TracingAttachments.IS_SAMPLED, InternalTracers.isSampled(detachedSpan));
+        boolean sampled = InternalTracers.isSampled(detachedSpan);
+        exchange.putAttachment(TracingAttachments.IS_SAMPLED, sampled);
         exchange.putAttachment(REQUEST_SPAN, detachedSpan);
+        if (sampled) {
+            exchange.putAttachment(REQUEST_PHASES, ExchangePhases.start(exchange));
+        }
+        DetachedSpanScope scope = DetachedSpanScope.of(detachedSpan);
+        exchange.putAttachment(REQUEST_SCOPE, scope);
+        exchange.setDispatchExecutor(
+                new TracingExchangeExecutor(exchange, scope, exchange.getDispatchExecutor(), true));
         exchange.addExchangeCompleteListener(DetachedTraceCompletionListener.INSTANCE);
     }
 
-    private static DetachedSpan detachedSpan(boolean newTrace, String traceId, HeaderMap requestHeaders) {
+    /** Runs a handler of the exchange, adding its duration to the {@link ExchangePhases} of sampled exchanges. */
+    static void handle(HttpServerExchange exchange, HttpHandler handler) throws Exception {
+        ExchangePhases phases = exchange.getAttachment(REQUEST_PHASES);
+        if (phases == null) {
+            handler.handleRequest(exchange);
+            return;
+        }
+        long startNanos = phases.enterHandler();
+        try {
+            handler.handleRequest(exchange);
+        } finally {
+            phases.exitHandler(startNanos);
+        }
+    }
+
+    private static DetachedSpan detachedSpan(boolean newTrace, TracingId traceId, PropagationContext context) {
         return DetachedSpan.start(
-                getObservabilityFromHeader(requestHeaders),
+                Observability.of(context.sampling()),
                 traceId,
-                newTrace ? Optional.empty() : Optional.ofNullable(requestHeaders.getFirst(SPAN_ID)),
+                newTrace ? null : context.spanId(),
                 OPERATION_NAME,
                 SpanType.SERVER_INCOMING);
     }
@@ -94,6 +128,10 @@ final class UndertowTracing {
             try {
                 DetachedSpan detachedSpan = exchange.getAttachment(REQUEST_SPAN);
                 if (detachedSpan != null) {
+                    ExchangePhases phases = exchange.getAttachment(REQUEST_PHASES);
+                    if (phases != null) {
+                        phases.tag(detachedSpan);
+                    }
                     detachedSpan.complete();
                 }
             } finally {
@@ -102,18 +140,5 @@ final class UndertowTracing {
         }
     }
 
-    /**
-     * Force sample iff the context contains a "1" X-B3-Sampled header, force not sample if the header contains another
-     * non-empty value, or undecided if there is no such header or the header is empty.
-     */
-    private static Observability getObservabilityFromHeader(HeaderMap headers) {
-        String header = headers.getFirst(IS_SAMPLED);
-        if (Strings.isNullOrEmpty(header)) {
-            return Observability.UNDECIDED;
-        } else {
-            return "1".equals(header) ? Observability.SAMPLE : Observability.DO_NOT_SAMPLE;
-        }
-    }
-
     private UndertowTracing() {}
 }
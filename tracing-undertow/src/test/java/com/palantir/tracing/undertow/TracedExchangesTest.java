@@ -0,0 +1,220 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.undertow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.palantir.tracing.AlwaysSampler;
+import com.palantir.tracing.Tracer;
+import com.palantir.tracing.Tracers;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.TraceHttpHeaders;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+public final class TracedExchangesTest {
+
+    private static final AtomicInteger portSelector = new AtomicInteger(4539);
+
+    private final List<Span> spans = new CopyOnWriteArrayList<>();
+    private final Map<String, Optional<String>> traceIds = new ConcurrentHashMap<>();
+    private final Map<String, Optional<String>> mdcTraceIds = new ConcurrentHashMap<>();
+
+    private int port;
+    private Undertow server;
+    private CountDownLatch traceReportedLatch;
+
+    @Before
+    public void before() {
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+        Tracer.subscribe("TracedExchangesTest", spans::add);
+        traceReportedLatch = new CountDownLatch(1);
+        port = portSelector.incrementAndGet();
+    }
+
+    @After
+    public void after() {
+        Tracer.unsubscribe("TracedExchangesTest");
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testCarriesTraceThroughDispatch() throws Exception {
+        start(new TracedOperationHandler(
+                exchange -> {
+                    record("io", exchange);
+                    exchange.dispatch(worker -> {
+                        record("worker", worker);
+                        // Dispatching again from the worker keeps the trace
+                        worker.dispatch(() -> {
+                            record("redispatched", worker);
+                            Tracer.fastStartSpan("work");
+                            Tracer.fastCompleteSpan();
+                            worker.endExchange();
+                        });
+                    });
+                },
+                "handler"));
+
+        HttpURLConnection con = connection();
+        con.setRequestProperty(TraceHttpHeaders.TRACE_ID, "abcdef");
+        con.setRequestProperty(TraceHttpHeaders.IS_SAMPLED, "1");
+        assertThat(con.getResponseCode()).isEqualTo(200);
+        assertThat(traceReportedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(traceIds)
+                .containsEntry("worker", Optional.of("abcdef"))
+                .containsEntry("redispatched", Optional.of("abcdef"));
+        assertThat(mdcTraceIds).containsEntry("redispatched", Optional.of("abcdef"));
+        Span request = spans.stream()
+                .filter(span -> span.getOperation().equals("Undertow Request"))
+                .findFirst()
+                .get();
+        Span work = spans.stream()
+                .filter(span -> span.getOperation().equals("work"))
+                .findFirst()
+                .get();
+        assertThat(work.getTraceId()).isEqualTo("abcdef");
+        assertThat(work.getParentSpanId()).hasValue(request.getSpanId());
+    }
+
+    @Test
+    public void testWrappedCallbacksSkipMdcOnIoThread() throws Exception {
+        start(new TracedRequestHandler(exchange -> {
+            Runnable callback = TracedExchanges.wrap(exchange, () -> record("callback", exchange));
+            exchange.dispatch();
+            // Runs on the I/O thread once the handler has returned
+            exchange.getIoThread().execute(() -> {
+                callback.run();
+                exchange.endExchange();
+            });
+        }));
+
+        HttpURLConnection con = connection();
+        con.setRequestProperty(TraceHttpHeaders.TRACE_ID, "abcdef");
+        con.setRequestProperty(TraceHttpHeaders.IS_SAMPLED, "1");
+        assertThat(con.getResponseCode()).isEqualTo(200);
+        assertThat(traceReportedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(traceIds).containsEntry("callback", Optional.of("abcdef"));
+        assertThat(mdcTraceIds).containsEntry("callback", Optional.empty());
+    }
+
+    @Test
+    public void testExecutorOutsideOfHandler() throws Exception {
+        start(new TracedRequestHandler(exchange -> {
+            exchange.dispatch();
+            exchange.getConnection().getWorker().execute(() -> {
+                // The handler has returned, so Undertow submits the task to the given executor directly
+                exchange.dispatch(TracedExchanges.executor(exchange), () -> {
+                    record("executor", exchange);
+                    exchange.endExchange();
+                });
+            });
+        }));
+
+        HttpURLConnection con = connection();
+        con.setRequestProperty(TraceHttpHeaders.TRACE_ID, "abcdef");
+        assertThat(con.getResponseCode()).isEqualTo(200);
+        assertThat(traceReportedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(traceIds).containsEntry("executor", Optional.of("abcdef"));
+        assertThat(mdcTraceIds).containsEntry("executor", Optional.of("abcdef"));
+    }
+
+    @Test
+    public void testRecordsPhasesOfSampledExchanges() throws Exception {
+        start(new TracedRequestHandler(exchange -> exchange.dispatch(worker -> {
+            Thread.sleep(20);
+            worker.startBlocking();
+            worker.getOutputStream().write(new byte[] {1, 2, 3});
+            worker.endExchange();
+        })));
+
+        HttpURLConnection con = connection();
+        con.setRequestProperty(TraceHttpHeaders.IS_SAMPLED, "1");
+        assertThat(con.getResponseCode()).isEqualTo(200);
+        assertThat(traceReportedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(spans).hasSize(1);
+        Map<String, String> metadata = spans.get(0).getAllMetadata();
+        assertThat(metadata)
+                .containsKeys(
+                        ExchangePhases.QUEUE_NANOS,
+                        ExchangePhases.BLOCKING_READ_NANOS,
+                        ExchangePhases.BLOCKING_WRITE_NANOS,
+                        ExchangePhases.RESPONSE_WRITE_NANOS);
+        assertThat(Long.parseLong(metadata.get(ExchangePhases.HANDLER_NANOS)))
+                .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void testSkipsPhasesOfUnsampledExchanges() throws Exception {
+        start(new TracedRequestHandler(exchange -> {
+            assertThat(exchange.getAttachment(UndertowTracing.REQUEST_PHASES)).isNull();
+            exchange.setStatusCode(204);
+        }));
+
+        HttpURLConnection con = connection();
+        con.setRequestProperty(TraceHttpHeaders.IS_SAMPLED, "0");
+        assertThat(con.getResponseCode()).isEqualTo(204);
+        assertThat(traceReportedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(spans).isEmpty();
+    }
+
+    private void record(String name, HttpServerExchange exchange) {
+        assertThat(exchange.isInIoThread()).isEqualTo(name.equals("io") || name.equals("callback"));
+        traceIds.put(name, Tracer.hasTraceId() ? Optional.of(Tracer.getTraceId()) : Optional.empty());
+        mdcTraceIds.put(name, Optional.ofNullable(MDC.get(Tracers.TRACE_ID_KEY)));
+    }
+
+    private void start(HttpHandler handler) {
+        server = Undertow.builder()
+                .addHttpListener(port, null)
+                .setHandler(exchange -> {
+                    exchange.addExchangeCompleteListener((_exc, nextListener) -> {
+                        nextListener.proceed();
+                        traceReportedLatch.countDown();
+                    });
+                    handler.handleRequest(exchange);
+                })
+                .build();
+        server.start();
+    }
+
+    private HttpURLConnection connection() throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + port).openConnection();
+    }
+}
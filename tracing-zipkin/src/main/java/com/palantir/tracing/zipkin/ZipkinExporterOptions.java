@@ -0,0 +1,118 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.zipkin;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.tracing.SpanBatchingOptions;
+import java.net.InetAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/** Configuration of a {@link ZipkinSpanExporter}. */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.PACKAGE)
+public interface ZipkinExporterOptions {
+
+    /** The {@code /api/v2/spans} endpoint of the Zipkin collector, e.g. {@code http://zipkin:9411/api/v2/spans}. */
+    URI endpoint();
+
+    /** Name of the local service, reported as the local endpoint of every span. */
+    String serviceName();
+
+    /** Address of the local service, reported as the local endpoint of every span. */
+    Optional<InetAddress> ip();
+
+    /** Number of requests sent to the collector concurrently. */
+    @Value.Default
+    default int connections() {
+        return 2;
+    }
+
+    /**
+     * Maximum number of encoded batches waiting for a connection. Once reached, encoding blocks and spans accumulate in
+     * the {@link #batching() buffer}, which drops them according to its overflow policy.
+     */
+    @Value.Default
+    default int maxPendingBatches() {
+        return 8;
+    }
+
+    /** Number of times a batch is sent before it is dropped, including the first attempt. */
+    @Value.Default
+    default int maxAttempts() {
+        return 5;
+    }
+
+    /** Delay before the first retry, doubled for every further retry up to {@link #maxBackoff()}. */
+    @Value.Default
+    default Duration initialBackoff() {
+        return Duration.ofMillis(100);
+    }
+
+    @Value.Default
+    default Duration maxBackoff() {
+        return Duration.ofSeconds(10);
+    }
+
+    @Value.Default
+    default Duration connectTimeout() {
+        return Duration.ofSeconds(10);
+    }
+
+    @Value.Default
+    default Duration readTimeout() {
+        return Duration.ofSeconds(30);
+    }
+
+    /** Maximum time {@link ZipkinSpanExporter#close()} waits for buffered spans to be sent. */
+    @Value.Default
+    default Duration shutdownTimeout() {
+        return Duration.ofSeconds(10);
+    }
+
+    /** How spans are buffered and grouped into the batches sent to the collector. */
+    @Value.Default
+    default SpanBatchingOptions batching() {
+        return SpanBatchingOptions.builder().threadName("tracing-zipkin-exporter").build();
+    }
+
+    @Value.Check
+    default void check() {
+        Preconditions.checkArgument(
+                connections() > 0, "connections must be positive", SafeArg.of("connections", connections()));
+        Preconditions.checkArgument(
+                maxPendingBatches() > 0,
+                "maxPendingBatches must be positive",
+                SafeArg.of("maxPendingBatches", maxPendingBatches()));
+        Preconditions.checkArgument(
+                maxAttempts() > 0, "maxAttempts must be positive", SafeArg.of("maxAttempts", maxAttempts()));
+        Preconditions.checkArgument(
+                !initialBackoff().isNegative() && initialBackoff().compareTo(maxBackoff()) <= 0,
+                "initialBackoff must be between zero and maxBackoff",
+                SafeArg.of("initialBackoff", initialBackoff()),
+                SafeArg.of("maxBackoff", maxBackoff()));
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    class Builder extends ImmutableZipkinExporterOptions.Builder {}
+}
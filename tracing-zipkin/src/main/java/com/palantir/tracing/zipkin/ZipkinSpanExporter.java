@@ -0,0 +1,325 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.zipkin;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.tracing.BatchingSpanObserver;
+import com.palantir.tracing.ZipkinJsonEncoder;
+import com.palantir.tracing.api.Span;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BatchingSpanObserver} which sends spans directly to a Zipkin collector, as gzipped arrays of Zipkin v2
+ * JSON spans posted to its {@code /api/v2/spans} endpoint.
+ *
+ * <p>Batches are encoded on the batching thread and handed to {@link ZipkinExporterOptions#connections()} sender
+ * threads through a bounded queue. When the collector cannot keep up the queue fills, which holds back the batching
+ * thread until spans are dropped by the bounded span buffer, so memory use stays bounded. Failed requests are retried
+ * with exponential backoff, except for those the collector rejected as malformed. Spans which could not be delivered
+ * are counted by {@link #getUndeliveredSpans()}, those dropped from the buffer by {@link #getDroppedSpans()}.
+ *
+ * <pre>{@code
+ * Tracer.subscribe("zipkin", ZipkinSpanExporter.create(ZipkinExporterOptions.builder()
+ *         .endpoint(URI.create("http://zipkin:9411/api/v2/spans"))
+ *         .serviceName("my-service")
+ *         .build()));
+ * }</pre>
+ */
+public final class ZipkinSpanExporter extends BatchingSpanObserver {
+
+    private static final Logger log = LoggerFactory.getLogger(ZipkinSpanExporter.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final ZipkinJsonEncoder encoder;
+    private final URL endpoint;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long shutdownTimeoutNanos;
+    private final BlockingQueue<Batch> pendingBatches;
+    private final List<Thread> senders;
+
+    // Only used by the batching thread
+    private final StringBuilder json = new StringBuilder(16 * 1024);
+
+    private final AtomicLong sentSpans = new AtomicLong();
+    private final AtomicLong undeliveredSpans = new AtomicLong();
+
+    // Senders exit once no batches are pending
+    private volatile boolean stopping;
+
+    // Written by close before the drain thread is stopped, read by consumeBatch once closed
+    private volatile long closeDeadlineNanos;
+
+    // Set by close once senders have been stopped, so that batches enqueued later are counted as undelivered
+    private volatile boolean abandoned;
+
+    private ZipkinSpanExporter(ZipkinExporterOptions options) {
+        super(options.batching());
+        this.encoder = ZipkinJsonEncoder.v2(options.serviceName(), options.ip().orElse(null));
+        this.endpoint = toUrl(options);
+        this.connectTimeoutMillis = Math.toIntExact(options.connectTimeout().toMillis());
+        this.readTimeoutMillis = Math.toIntExact(options.readTimeout().toMillis());
+        this.maxAttempts = options.maxAttempts();
+        this.initialBackoffNanos = options.initialBackoff().toNanos();
+        this.maxBackoffNanos = options.maxBackoff().toNanos();
+        this.shutdownTimeoutNanos = options.shutdownTimeout().toNanos();
+        this.pendingBatches = new ArrayBlockingQueue<>(options.maxPendingBatches());
+        this.senders = new ArrayList<>(options.connections());
+        for (int i = 0; i < options.connections(); i++) {
+            Thread sender = new Thread(this::send, options.batching().threadName() + "-sender-" + i);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+    }
+
+    public static ZipkinSpanExporter create(ZipkinExporterOptions options) {
+        ZipkinSpanExporter exporter = new ZipkinSpanExporter(options);
+        exporter.start();
+        return exporter;
+    }
+
+    @Override
+    protected void consumeBatch(List<Span> spans) {
+        json.setLength(0);
+        json.append('[');
+        for (int i = 0; i < spans.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            encoder.encode(spans.get(i), json);
+        }
+        json.append(']');
+        Batch batch = new Batch(gzip(json), spans.size());
+        try {
+            while (!pendingBatches.offer(batch, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                // Senders are backed up, and will not catch up before the exporter gives up on them
+                if (isClosed() && System.nanoTime() - closeDeadlineNanos >= 0) {
+                    undeliveredSpans.addAndGet(batch.spans);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            undeliveredSpans.addAndGet(batch.spans);
+            return;
+        }
+        if (abandoned) {
+            // Enqueued after close abandoned the pending batches, no sender is left to deliver it
+            abandon(pendingBatches.poll());
+        }
+    }
+
+    /** Number of spans accepted by the collector. */
+    public long getSentSpans() {
+        return sentSpans.get();
+    }
+
+    /**
+     * Number of spans in batches which were not delivered, because the collector rejected them, all attempts failed,
+     * or they were still pending once the {@link ZipkinExporterOptions#shutdownTimeout() shutdown timeout} elapsed.
+     */
+    public long getUndeliveredSpans() {
+        return undeliveredSpans.get();
+    }
+
+    /**
+     * Sends all buffered spans to the collector, waiting at most for the configured
+     * {@link ZipkinExporterOptions#shutdownTimeout() shutdown timeout} before abandoning the remaining batches. Spans
+     * which are still buffered once the timeout elapses are counted as {@link #getUndeliveredSpans() undelivered}.
+     */
+    @Override
+    public void close() {
+        long deadline = System.nanoTime() + shutdownTimeoutNanos;
+        closeDeadlineNanos = deadline;
+        closeWithin(shutdownTimeoutNanos);
+        stopping = true;
+        boolean interrupted = false;
+        for (Thread sender : senders) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try {
+                if (remainingMillis > 0) {
+                    sender.join(remainingMillis);
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            // Abandons backoff and pending batches, requests in flight finish within their timeouts
+            sender.interrupt();
+        }
+        abandoned = true;
+        abandon(pendingBatches.poll());
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void abandon(@Nullable Batch first) {
+        Batch batch = first;
+        while (batch != null) {
+            undeliveredSpans.addAndGet(batch.spans);
+            batch = pendingBatches.poll();
+        }
+    }
+
+    private void send() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Batch batch;
+            try {
+                batch = pendingBatches.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch != null) {
+                deliver(batch);
+            } else if (stopping) {
+                return;
+            }
+        }
+    }
+
+    private void deliver(Batch batch) {
+        long backoffNanos = initialBackoffNanos;
+        for (int attempt = 1; ; attempt++) {
+            Outcome outcome = post(batch.body);
+            if (outcome == Outcome.SENT) {
+                sentSpans.addAndGet(batch.spans);
+                return;
+            }
+            if (outcome == Outcome.REJECTED || attempt >= maxAttempts) {
+                undeliveredSpans.addAndGet(batch.spans);
+                log.debug(
+                        "Dropping batch of spans which could not be sent to Zipkin",
+                        SafeArg.of("spans", batch.spans),
+                        SafeArg.of("attempts", attempt),
+                        SafeArg.of("outcome", outcome));
+                return;
+            }
+            // Jitter avoids all senders retrying in lockstep
+            long jitterNanos = ThreadLocalRandom.current().nextLong(backoffNanos / 2 + 1);
+            try {
+                TimeUnit.NANOSECONDS.sleep(backoffNanos / 2 + jitterNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                undeliveredSpans.addAndGet(batch.spans);
+                return;
+            }
+            backoffNanos = Math.min(maxBackoffNanos, backoffNanos * 2);
+        }
+    }
+
+    private Outcome post(byte[] body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            // Read the response fully, so that the connection is kept alive for the next request
+            consume(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            if (status / 100 == 2) {
+                return Outcome.SENT;
+            }
+            log.debug("Zipkin collector responded with an error", SafeArg.of("status", status));
+            return status == 429 || status >= 500 ? Outcome.FAILED : Outcome.REJECTED;
+        } catch (IOException e) {
+            log.debug("Failed to send spans to Zipkin", e);
+            return Outcome.FAILED;
+        }
+    }
+
+    private static void consume(@Nullable InputStream response) throws IOException {
+        if (response == null) {
+            return;
+        }
+        try (InputStream in = response) {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    private static byte[] gzip(CharSequence content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length() / 4 + 64);
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            writer.append(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static URL toUrl(ZipkinExporterOptions options) {
+        try {
+            return options.endpoint().toURL();
+        } catch (MalformedURLException e) {
+            throw new SafeIllegalArgumentException("Invalid Zipkin endpoint", e);
+        }
+    }
+
+    private enum Outcome {
+        SENT,
+        /** Failed in a way which may succeed when retried. */
+        FAILED,
+        /** Rejected by the collector, retrying would not help. */
+        REJECTED
+    }
+
+    private static final class Batch {
+        private final byte[] body;
+        private final int spans;
+
+        Batch(byte[] body, int spans) {
+            this.body = body;
+            this.spans = spans;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing.zipkin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.palantir.tracing.SpanBatchingOptions;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ZipkinSpanExporterTest {
+
+    private final Collector collector = new Collector();
+
+    @Before
+    public void before() throws IOException {
+        collector.start();
+    }
+
+    @After
+    public void after() {
+        collector.stop();
+    }
+
+    @Test
+    public void testSendsGzippedBatches() {
+        ZipkinSpanExporter exporter = ZipkinSpanExporter.create(options()
+                .batching(SpanBatchingOptions.builder().maxBatchSize(2).build())
+                .build());
+        for (int i = 0; i < 5; i++) {
+            exporter.consume(span(i));
+        }
+        exporter.close();
+
+        assertThat(exporter.getSentSpans()).isEqualTo(5);
+        assertThat(exporter.getUndeliveredSpans()).isZero();
+        assertThat(collector.contentEncodings).containsOnly("gzip");
+        assertThat(collector.bodies).hasSize(3).allSatisfy(body -> assertThat(body)
+                .startsWith("[{\"traceId\":\"0000000000000001\"")
+                .contains("\"localEndpoint\":{\"serviceName\":\"my-service\"")
+                .endsWith("}]"));
+        assertThat(String.join("", collector.bodies)).contains("\"id\":\"0000000000000004\"");
+    }
+
+    @Test
+    public void testRetriesFailedRequests() {
+        collector.statuses.add(503);
+        collector.statuses.add(429);
+        ZipkinSpanExporter exporter = ZipkinSpanExporter.create(options().build());
+        exporter.consume(span(1));
+        exporter.close();
+
+        assertThat(collector.bodies).hasSize(3);
+        assertThat(exporter.getSentSpans()).isEqualTo(1);
+        assertThat(exporter.getUndeliveredSpans()).isZero();
+    }
+
+    @Test
+    public void testDropsRejectedBatches() {
+        collector.statuses.add(400);
+        ZipkinSpanExporter exporter = ZipkinSpanExporter.create(options().build());
+        exporter.consume(span(1));
+        exporter.close();
+
+        assertThat(collector.bodies).hasSize(1);
+        assertThat(exporter.getSentSpans()).isZero();
+        assertThat(exporter.getUndeliveredSpans()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        for (int i = 0; i < 3; i++) {
+            collector.statuses.add(500);
+        }
+        ZipkinSpanExporter exporter = ZipkinSpanExporter.create(options().maxAttempts(2).build());
+        exporter.consume(span(1));
+        exporter.close();
+
+        assertThat(collector.bodies).hasSize(2);
+        assertThat(exporter.getUndeliveredSpans()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAbandonsBatchesAfterShutdownTimeout() {
+        for (int i = 0; i < 100; i++) {
+            collector.statuses.add(503);
+        }
+        ZipkinSpanExporter exporter = ZipkinSpanExporter.create(options()
+                .connections(1)
+                .maxAttempts(100)
+                .initialBackoff(Duration.ofSeconds(5))
+                .maxBackoff(Duration.ofSeconds(5))
+                .shutdownTimeout(Duration.ofMillis(200))
+                .batching(SpanBatchingOptions.builder().maxBatchSize(1).build())
+                .build());
+        exporter.consume(span(1));
+        exporter.consume(span(2));
+        long start = System.nanoTime();
+        exporter.close();
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(4));
+        // The sender accounts for the batch it was retrying once it notices the interrupt
+        while (exporter.getUndeliveredSpans() < 2 && System.nanoTime() - start < Duration.ofSeconds(4).toNanos()) {
+            Thread.yield();
+        }
+        assertThat(exporter.getSentSpans()).isZero();
+        assertThat(exporter.getUndeliveredSpans()).isEqualTo(2);
+    }
+
+    @Test
+    public void testStopsWaitingForBackedUpSendersAfterShutdownTimeout() {
+        for (int i = 0; i < 100; i++) {
+            collector.statuses.add(503);
+        }
+        ZipkinSpanExporter exporter = ZipkinSpanExporter.create(options()
+                .connections(1)
+                .maxPendingBatches(1)
+                .maxAttempts(100)
+                .initialBackoff(Duration.ofSeconds(5))
+                .maxBackoff(Duration.ofSeconds(5))
+                .shutdownTimeout(Duration.ofMillis(200))
+                .batching(SpanBatchingOptions.builder().maxBatchSize(1).build())
+                .build());
+        for (int i = 0; i < 5; i++) {
+            exporter.consume(span(i));
+        }
+        long start = System.nanoTime();
+        exporter.close();
+
+        // The batching thread is blocked on the full queue of pending batches until the timeout elapses
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(4));
+        while (exporter.getUndeliveredSpans() < 5 && System.nanoTime() - start < Duration.ofSeconds(4).toNanos()) {
+            Thread.yield();
+        }
+        assertThat(exporter.getSentSpans()).isZero();
+        assertThat(exporter.getUndeliveredSpans()).isEqualTo(5);
+    }
+
+    private ZipkinExporterOptions.Builder options() {
+        return ZipkinExporterOptions.builder()
+                .endpoint(URI.create("http://localhost:" + collector.port() + "/api/v2/spans"))
+                .serviceName("My-Service")
+                .ip(InetAddress.getLoopbackAddress())
+                .initialBackoff(Duration.ofMillis(1));
+    }
+
+    private static Span span(int index) {
+        return Span.builder()
+                .traceId("0000000000000001")
+                .spanId(String.format("%016x", index))
+                .type(SpanType.LOCAL)
+                .operation("operation")
+                .startTimeMicroSeconds(1_600_000_000_000_000L + index)
+                .durationNanoSeconds(1_000)
+                .build();
+    }
+
+    /** In-process stand-in for a Zipkin collector, responding with the queued statuses and then 202. */
+    private static final class Collector {
+        private final List<String> bodies = new CopyOnWriteArrayList<>();
+        private final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+        private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+        private HttpServer server;
+
+        void start() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/api/v2/spans", this::handle);
+            server.start();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            contentEncodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            try (InputStream body = new GZIPInputStream(exchange.getRequestBody())) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read = body.read(buffer);
+                while (read >= 0) {
+                    content.write(buffer, 0, read);
+                    read = body.read(buffer);
+                }
+                bodies.add(new String(content.toByteArray(), StandardCharsets.UTF_8));
+            }
+            Integer status = statuses.poll();
+            exchange.sendResponseHeaders(status == null ? 202 : status, -1);
+            exchange.close();
+        }
+    }
+}
@@ -27,8 +27,6 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 import com.palantir.logsafe.UnsafeArg;
 import com.palantir.tracing.api.Span;
-import java.net.Inet4Address;
-import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
@@ -56,7 +54,7 @@ public final class AsyncSlf4jSpanObserver extends AsyncSpanObserver {
             .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
     private final Logger logger;
-    private final ZipkinCompatEndpoint endpoint;
+    private final ZipkinJsonEncoder encoder;
 
     @JsonSerialize(as = ImmutableZipkinCompatSpan.class)
     @Value.Immutable
@@ -122,14 +120,14 @@ public final class AsyncSlf4jSpanObserver extends AsyncSpanObserver {
         private static Iterable<? extends ZipkinCompatBinaryAnnotation> spanMetadataToZipkinBinaryAnnotations(
                 Span span, ZipkinCompatEndpoint endpoint) {
             List<ZipkinCompatBinaryAnnotation> binaryAnnotations = new ArrayList<>();
-            for (Map.Entry<String, String> entry : span.getMetadata().entrySet()) {
+            for (Map.Entry<String, String> entry : span.getAllMetadata().entrySet()) {
                 binaryAnnotations.add(ZipkinCompatBinaryAnnotation.of(entry.getKey(), entry.getValue(), endpoint));
             }
             return binaryAnnotations;
         }
 
         static long nanoToMicro(long nano) {
-            return (nano + 1000) / 1000L;
+            return ZipkinJsonEncoder.nanoToMicro(nano);
         }
 
         String toJson() {
@@ -195,16 +193,7 @@ public final class AsyncSlf4jSpanObserver extends AsyncSpanObserver {
 
     private AsyncSlf4jSpanObserver(String serviceName, InetAddress ip, Logger logger, ExecutorService executorService) {
         super(executorService);
-
-        ImmutableZipkinCompatEndpoint.Builder endpointBuilder =
-                ImmutableZipkinCompatEndpoint.builder().serviceName(serviceName);
-        if (ip instanceof Inet4Address) {
-            endpointBuilder.ipv4(ip.getHostAddress());
-        } else if (ip instanceof Inet6Address) {
-            endpointBuilder.ipv6(ip.getHostAddress());
-        }
-        this.endpoint = endpointBuilder.build();
-
+        this.encoder = ZipkinJsonEncoder.v1(serviceName, ip);
         this.logger = logger;
     }
 
@@ -224,10 +213,7 @@ public final class AsyncSlf4jSpanObserver extends AsyncSpanObserver {
     @Override
     public void doConsume(Span span) {
         if (logger.isTraceEnabled()) {
-            logger.trace(
-                    "{}",
-                    UnsafeArg.of(
-                            "span", ZipkinCompatSpan.fromSpan(span, endpoint).toJson()));
+            logger.trace("{}", UnsafeArg.of("span", encoder.encode(span)));
         }
     }
 }
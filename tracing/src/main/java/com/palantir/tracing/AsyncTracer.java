@@ -44,6 +44,10 @@ import java.util.Optional;
 public final class AsyncTracer {
 
     private static final String DEFAULT_OPERATION = "async";
+    private static final OperationNames.SingleKeyTable ENQUEUE_OPERATIONS =
+            OperationNames.global().table(name -> name + "-enqueue");
+    private static final OperationNames.SingleKeyTable RUN_OPERATIONS =
+            OperationNames.global().table(name -> name + "-run");
 
     private final Trace deferredTrace;
     private final String operation;
@@ -62,24 +66,23 @@ public final class AsyncTracer {
      */
     public AsyncTracer(Optional<String> operation) {
         this.operation = operation.orElse(DEFAULT_OPERATION);
-        Tracer.fastStartSpan(this.operation + "-enqueue");
+        Tracer.fastStartSpan(ENQUEUE_OPERATIONS.get(this.operation).name());
         deferredTrace = Tracer.copyTrace().get();
         Tracer.fastDiscardSpan(); // span will completed in the deferred execution
     }
 
     /** Runs the given callable with the current trace at the time of construction of this {@link AsyncTracer}. */
     public <T, E extends Throwable> T withTrace(Tracers.ThrowingCallable<T, E> inner) throws E {
-        Trace originalTrace = Tracer.getAndClearTrace();
-        Tracer.setTrace(deferredTrace);
+        Trace originalTrace = Tracer.swapTrace(deferredTrace, true);
         // Finish the enqueue span
         Tracer.fastCompleteSpan();
-        Tracer.fastStartSpan(operation + "-run");
+        Tracer.fastStartSpan(RUN_OPERATIONS.get(operation).name());
         try {
             return inner.call();
         } finally {
             // Finish the run span
             Tracer.fastCompleteSpan();
-            Tracer.setTrace(originalTrace);
+            Tracer.swapTrace(originalTrace, true);
         }
     }
 }
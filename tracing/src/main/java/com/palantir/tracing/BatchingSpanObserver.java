@@ -0,0 +1,229 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanObserver;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SpanObserver} which buffers spans in a bounded lock-free queue and hands them to {@link #consumeBatch} in
+ * batches on a single, dedicated drain thread. Observing a span never blocks and never allocates: when the buffer is
+ * full spans are dropped according to the configured {@link SpanBatchingOptions.OverflowPolicy}.
+ *
+ * <p>A batch is exported once it reaches {@link SpanBatchingOptions#maxBatchSize()} spans, or once its oldest span has
+ * waited for {@link SpanBatchingOptions#linger()}. Call {@link #close()} to export all buffered spans and stop the
+ * drain thread.
+ *
+ * <p>The drain thread is not started by the constructor, since it would run {@link #consumeBatch} before subclasses are
+ * fully constructed. Subclasses should {@link #start()} it once constructed, e.g. from a factory method, and otherwise
+ * the first observed span starts it.
+ */
+public abstract class BatchingSpanObserver implements SpanObserver, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchingSpanObserver.class);
+
+    private final BoundedRingBuffer<Span> buffer;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final SpanBatchingOptions.OverflowPolicy overflowPolicy;
+    private final Thread drainThread;
+
+    private final AtomicLong droppedSpans = new AtomicLong();
+    private final AtomicLong exportedSpans = new AtomicLong();
+    private final AtomicLong failedSpans = new AtomicLong();
+
+    // Written while holding lifecycleLock, so that the drain thread is never started once the observer is closed
+    private final Object lifecycleLock = new Object();
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    protected BatchingSpanObserver() {
+        this(SpanBatchingOptions.builder().build());
+    }
+
+    protected BatchingSpanObserver(SpanBatchingOptions options) {
+        this.buffer = new BoundedRingBuffer<>(options.capacity());
+        this.maxBatchSize = options.maxBatchSize();
+        this.lingerNanos = options.linger().toNanos();
+        this.overflowPolicy = options.overflowPolicy();
+        this.drainThread = new Thread(this::drain, options.threadName());
+        this.drainThread.setDaemon(true);
+    }
+
+    /**
+     * Starts the drain thread, once the observer is fully constructed. Later calls, and calls once the observer is
+     * closed, have no effect.
+     */
+    protected final void start() {
+        if (!started) {
+            synchronized (lifecycleLock) {
+                if (!started && !closed) {
+                    drainThread.start();
+                    started = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Exports the given batch of spans. Invoked on the drain thread only, so implementations need not be thread-safe.
+     * The list must not be retained: it is cleared and reused once this method returns.
+     */
+    protected abstract void consumeBatch(List<Span> spans);
+
+    @Override
+    public final void consume(Span span) {
+        if (closed) {
+            droppedSpans.incrementAndGet();
+            return;
+        }
+        start();
+        long position = buffer.offer(span);
+        if (position < 0 && overflowPolicy == SpanBatchingOptions.OverflowPolicy.DROP_OLDEST) {
+            while (position < 0 && buffer.poll() != null) {
+                droppedSpans.incrementAndGet();
+                position = buffer.offer(span);
+            }
+        }
+        if (position < 0) {
+            droppedSpans.incrementAndGet();
+        } else if (closed && !drainThread.isAlive()) {
+            // Closed while offering, after the drain thread had exported its last batch
+            discardBuffered();
+        } else if ((position + 1) % maxBatchSize == 0) {
+            // A full batch is waiting, don't make it linger.
+            LockSupport.unpark(drainThread);
+        }
+    }
+
+    /** Number of spans discarded because the buffer was full or the observer was closed. */
+    public final long getDroppedSpans() {
+        return droppedSpans.get();
+    }
+
+    /** Number of spans successfully handed to {@link #consumeBatch}. */
+    public final long getExportedSpans() {
+        return exportedSpans.get();
+    }
+
+    /** Number of spans in batches for which {@link #consumeBatch} threw. */
+    public final long getFailedSpans() {
+        return failedSpans.get();
+    }
+
+    /** Exports any buffered spans and stops the drain thread, waiting for it to terminate. */
+    @Override
+    public void close() {
+        closeWithin(Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #close()}, but waits at most {@code timeoutNanos} for the drain thread to terminate, returning false
+     * if it is still exporting spans once the timeout elapses.
+     */
+    protected final boolean closeWithin(long timeoutNanos) {
+        synchronized (lifecycleLock) {
+            closed = true;
+            if (!started) {
+                // Spans offered concurrently find the drain thread not alive, and discard themselves
+                return true;
+            }
+        }
+        LockSupport.unpark(drainThread);
+        long startNanos = System.nanoTime();
+        boolean interrupted = false;
+        while (drainThread.isAlive()) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(timeoutNanos - (System.nanoTime() - startNanos));
+            if (remainingMillis <= 0) {
+                break;
+            }
+            try {
+                drainThread.join(remainingMillis);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (drainThread.isAlive()) {
+            return false;
+        }
+        // Spans offered by threads which saw the observer open while it was closing
+        discardBuffered();
+        return true;
+    }
+
+    /** Drops the spans left in the buffer once the drain thread has terminated. */
+    private void discardBuffered() {
+        while (buffer.poll() != null) {
+            droppedSpans.incrementAndGet();
+        }
+    }
+
+    /** True once {@link #close()} has been called, e.g. for {@link #consumeBatch} to stop waiting on a backlog. */
+    protected final boolean isClosed() {
+        return closed;
+    }
+
+    private void drain() {
+        List<Span> batch = new ArrayList<>(Math.min(maxBatchSize, buffer.capacity()));
+        List<Span> unmodifiableBatch = Collections.unmodifiableList(batch);
+        long batchStartNanos = 0L;
+        while (true) {
+            // Read before draining, so that spans observed before close are always exported.
+            boolean stopping = closed;
+            Span span;
+            while (batch.size() < maxBatchSize && (span = buffer.poll()) != null) {
+                if (batch.isEmpty()) {
+                    batchStartNanos = System.nanoTime();
+                }
+                batch.add(span);
+            }
+
+            long lingeredNanos = System.nanoTime() - batchStartNanos;
+            if (!batch.isEmpty() && (stopping || batch.size() >= maxBatchSize || lingeredNanos >= lingerNanos)) {
+                export(unmodifiableBatch);
+                batch.clear();
+            } else if (stopping) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, batch.isEmpty() ? lingerNanos : lingerNanos - lingeredNanos);
+            }
+        }
+    }
+
+    private void export(List<Span> batch) {
+        try {
+            consumeBatch(batch);
+            exportedSpans.addAndGet(batch.size());
+        } catch (RuntimeException | Error e) {
+            failedSpans.addAndGet(batch.size());
+            log.trace("Failed to export batch of spans", SafeArg.of("batchSize", batch.size()), e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import javax.annotation.Nullable;
+
+/** See {@link TraceContextStorage#carrierThreads}. */
+final class CarrierThreadTraceContextStorage implements TraceContextStorage {
+
+    private final TraceContextStorage fallback;
+
+    CarrierThreadTraceContextStorage(TraceContextStorage fallback) {
+        this.fallback = fallback;
+    }
+
+    @Nullable
+    @Override
+    public Trace get() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof TraceContextCarrier) {
+            return ((TraceContextCarrier) thread).getTraceContext();
+        }
+        return fallback.get();
+    }
+
+    @Override
+    public void set(Trace trace) {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof TraceContextCarrier) {
+            ((TraceContextCarrier) thread).setTraceContext(trace);
+        } else {
+            fallback.set(trace);
+        }
+    }
+
+    @Override
+    public void clear() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof TraceContextCarrier) {
+            ((TraceContextCarrier) thread).setTraceContext(null);
+        } else {
+            fallback.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CarrierThreadTraceContextStorage{fallback=" + fallback + '}';
+    }
+}
@@ -17,9 +17,13 @@
 package com.palantir.tracing;
 
 import com.google.errorprone.annotations.MustBeClosed;
-import com.palantir.tracing.api.OpenSpan;
 import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TracingId;
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Optional;
 import java.util.function.Function;
@@ -42,8 +46,7 @@ import javax.annotation.Nullable;
  *     return null;
  * });
  *
- * N.b. the captured trace is restored without the full stack of spans, and so it's not possible to complete spans
- * not started within the deferred context.
+ * N.b. spans which were open when the trace was captured must not be completed within the deferred context.
  *
  * </code>
  * </pre>
@@ -52,18 +55,29 @@ public final class DeferredTracer implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    // The serialized form of earlier versions, which kept the captured trace as strings
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("traceId", String.class),
+        new ObjectStreamField("isObservable", boolean.class),
+        new ObjectStreamField("isTailSampled", boolean.class),
+        new ObjectStreamField("operation", String.class),
+        new ObjectStreamField("parentSpanId", String.class)
+    };
+
     private static final String DEFAULT_OPERATION = "DeferredTracer(unnamed operation)";
 
+    /**
+     * Copy of the trace at the time of construction, or null if there was none. The spans open at that time are frozen,
+     * so each {@link #withTrace} continues a cheap copy of it rather than rebuilding the trace.
+     */
     @Nullable
-    private final String traceId;
-
-    private final boolean isObservable;
+    private transient Trace trace;
 
+    /** Parent of the spans started by a deserialized tracer, whose trace holds no spans. */
     @Nullable
-    private final String operation;
+    private transient TracingId parentSpanId;
 
-    @Nullable
-    private final String parentSpanId;
+    private transient String operation;
 
     /**
      * Deprecated.
@@ -86,19 +100,16 @@ public final class DeferredTracer implements Serializable {
     }
 
     public DeferredTracer(String operation) {
-        Optional<Trace> maybeTrace = Tracer.copyTrace();
-        if (maybeTrace.isPresent()) {
-            Trace trace = maybeTrace.get();
-            this.traceId = trace.getTraceId();
-            this.isObservable = trace.isObservable();
-            this.parentSpanId = trace.top().map(OpenSpan::getSpanId).orElse(null);
-            this.operation = operation;
-        } else {
-            this.traceId = null;
-            this.isObservable = false;
-            this.parentSpanId = null;
-            this.operation = null;
-        }
+        this.trace = Tracer.copyTraceOrNull();
+        this.operation = operation;
+    }
+
+    /** Captures the trace of the given span rather than the current trace, so that deferred spans are its children. */
+    DeferredTracer(DetachedSpan span, String operation) {
+        Trace spanTrace = Tracer.detachedSpanTrace(span);
+        // Copying freezes the span, which concurrent runs then share
+        this.trace = spanTrace != null ? spanTrace.deepCopy() : null;
+        this.operation = operation;
     }
 
     /** Runs the given callable with the current trace at the time of construction of this {@link DeferredTracer}. */
@@ -109,22 +120,50 @@ public final class DeferredTracer implements Serializable {
     }
 
     @MustBeClosed
-    @SuppressWarnings("NullAway") // either both operation & parentSpanId are nullable or neither are
     CloseableTrace withTrace() {
-        if (traceId == null) {
+        Trace captured = trace;
+        if (captured == null) {
             return NopCloseableTrace.INSTANCE;
         }
 
-        Optional<Trace> originalTrace = Tracer.copyTrace();
-
-        Tracer.setTrace(Trace.of(isObservable, traceId));
-        if (parentSpanId != null) {
-            Tracer.fastStartSpan(operation, parentSpanId, SpanType.LOCAL);
+        Trace originalTrace = Tracer.swapTrace(captured.deepCopy(), true);
+        TracingId parent = parentSpanId;
+        if (parent != null) {
+            Tracer.fastStartSpan(operation, parent, SpanType.LOCAL);
         } else {
             Tracer.fastStartSpan(operation);
         }
 
-        return originalTrace.map(CLOSEABLE_TRACE_FUNCTION).orElse(DefaultCloseableTrace.INSTANCE);
+        return originalTrace == null ? DefaultCloseableTrace.INSTANCE : CLOSEABLE_TRACE_FUNCTION.apply(originalTrace);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        Trace captured = trace;
+        if (captured != null) {
+            TracingId parent = parentSpanId != null ? parentSpanId : captured.topSpanIdentifier();
+            fields.put("traceId", captured.getTraceId());
+            fields.put("isObservable", captured.isObservable());
+            fields.put("isTailSampled", captured.isTailSampled());
+            fields.put("operation", operation);
+            fields.put("parentSpanId", parent != null ? parent.toString() : null);
+        }
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        String traceId = (String) fields.get("traceId", null);
+        String parent = (String) fields.get("parentSpanId", null);
+        String serializedOperation = (String) fields.get("operation", null);
+        this.operation = serializedOperation != null ? serializedOperation : DEFAULT_OPERATION;
+        if (traceId != null) {
+            TracingId traceIdentifier = TracingId.parse(traceId);
+            this.trace = fields.get("isTailSampled", false)
+                    ? Trace.tailSampled(traceIdentifier, null)
+                    : Trace.of(fields.get("isObservable", false), traceIdentifier);
+            this.parentSpanId = parent != null ? TracingId.parse(parent) : null;
+        }
     }
 
     private enum NopCloseableTrace implements CloseableTrace {
@@ -140,15 +179,14 @@ public final class DeferredTracer implements Serializable {
         @Override
         public void close() {
             Tracer.fastCompleteSpan();
-            if (Tracer.hasTraceId()) {
-                Tracer.getAndClearTrace();
-            }
+            // The frozen spans of the captured trace remain open
+            Tracer.swapTrace(null, true);
         }
     }
 
     @SuppressWarnings("UnnecessaryLambda") // this library is allocation sensitive
     private static final Function<Trace, CloseableTrace> CLOSEABLE_TRACE_FUNCTION = originalTrace -> () -> {
-        DefaultCloseableTrace.INSTANCE.close();
+        Tracer.fastCompleteSpan();
         Tracer.setTrace(originalTrace);
     };
 
@@ -18,8 +18,10 @@ package com.palantir.tracing;
 
 import com.google.errorprone.annotations.MustBeClosed;
 import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TracingId;
 import java.util.Optional;
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 
 /** Span which is not bound to thread state, and can be completed on any other thread. */
 public interface DetachedSpan {
@@ -64,6 +66,20 @@ public interface DetachedSpan {
         return Tracer.detachInternal(observability, traceId, parentSpanId, operation, type);
     }
 
+    /**
+     * Like {@link #start(Observability, String, Optional, String, SpanType)}, but takes identifiers which have already
+     * been parsed, e.g. from the {@link com.palantir.tracing.api.PropagationContext} of an incoming request.
+     */
+    @CheckReturnValue
+    static DetachedSpan start(
+            Observability observability,
+            TracingId traceId,
+            @Nullable TracingId parentSpanId,
+            String operation,
+            SpanType type) {
+        return Tracer.detachInternal(observability, traceId, parentSpanId, operation, type);
+    }
+
     /**
      * Equivalent to {@link Tracer#startSpan(String, SpanType)}, but using this {@link DetachedSpan} as the parent
      * instead of thread state.
@@ -106,6 +122,21 @@ public interface DetachedSpan {
         return childDetachedSpan(operation, SpanType.LOCAL);
     }
 
+    /**
+     * Adds a tag to this span, which is recorded once the span {@link #complete() completes} if the trace is sampled.
+     * Tags of unsampled spans, and tags added after completion, are discarded. See {@link Tracer#tag(String, long)}.
+     */
+    default void tag(String _key, long _value) {}
+
+    /** Like {@link #tag(String, long)}, but adds a floating point tag. */
+    default void tag(String _key, double _value) {}
+
+    /** Like {@link #tag(String, long)}, but adds a boolean tag. */
+    default void tag(String _key, boolean _value) {}
+
+    /** Like {@link #tag(String, long)}, but adds a string tag. */
+    default void tag(String _key, String _value) {}
+
     /**
      * Completes this span. After complete is invoked, other methods are not expected to produce spans, but they must
      * not throw either in order to avoid confusing failures.
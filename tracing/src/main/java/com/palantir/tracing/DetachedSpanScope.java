@@ -0,0 +1,145 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.google.errorprone.annotations.MustBeClosed;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Makes a {@link DetachedSpan} the current span of the thread which {@link #enter() enters} this scope, so that spans
+ * started on that thread become its children until the returned {@link CloseableSpan} is closed. Unlike
+ * {@link DetachedSpan#childSpan}, entering neither starts a span nor allocates: the scope builds a single trace whose
+ * current span is the detached span, which replaces the trace of the thread on entry. Exiting the scope restores
+ * whatever trace the thread had before entering it.
+ *
+ * <p>A scope may be entered any number of times, e.g. whenever an asynchronous request resumes on another thread.
+ * Threads which enter the scope while another thread is within it are given a trace of their own instead, which is
+ * built once and reused by later concurrent entries. Spans started within the scope must be completed before it is
+ * exited, and the detached span itself is still completed through {@link DetachedSpan#complete}.
+ */
+public final class DetachedSpanScope {
+
+    private static final CloseableSpan NOOP = () -> {};
+
+    private final DetachedSpan detachedSpan;
+
+    @Nullable
+    private final Trace trace;
+
+    private final CloseableSpan exit = this::exit;
+
+    // Thread within the scope, which alone accesses the fields below
+    private final AtomicReference<Thread> owner = new AtomicReference<>();
+
+    @Nullable
+    private Trace previous;
+
+    private boolean mdcUpdated;
+
+    // Entry of the last thread which entered concurrently and has since exited
+    private final AtomicReference<ConcurrentEntry> spare = new AtomicReference<>();
+
+    private DetachedSpanScope(DetachedSpan detachedSpan) {
+        this.detachedSpan = detachedSpan;
+        this.trace = Tracer.detachedSpanTrace(detachedSpan);
+    }
+
+    /** Returns a scope for the given span, which should be created once and kept alongside the span. */
+    public static DetachedSpanScope of(DetachedSpan detachedSpan) {
+        return new DetachedSpanScope(detachedSpan);
+    }
+
+    /**
+     * Makes the detached span the current span of this thread, and updates the SLF4J MDC accordingly. Entering a scope
+     * which the current thread has already entered has no effect.
+     */
+    @MustBeClosed
+    public CloseableSpan enter() {
+        return enter(true);
+    }
+
+    /**
+     * Like {@link #enter()}, but leaves the SLF4J MDC untouched. Meant for brief context switches on event loop
+     * threads, which do not log on behalf of the request.
+     */
+    @MustBeClosed
+    public CloseableSpan enterWithoutMdc() {
+        return enter(false);
+    }
+
+    private CloseableSpan enter(boolean updateMdc) {
+        if (trace == null) {
+            return NOOP;
+        }
+        Thread current = Thread.currentThread();
+        if (owner.compareAndSet(null, current)) {
+            previous = Tracer.swapTrace(trace, updateMdc);
+            mdcUpdated = updateMdc;
+            return exit;
+        }
+        if (owner.get() == current) {
+            return NOOP;
+        }
+        ConcurrentEntry entry = spare.getAndSet(null);
+        if (entry == null) {
+            // The owner may be modifying the trace, so build another one rather than copying it
+            entry = new ConcurrentEntry(spare, Tracer.detachedSpanTrace(detachedSpan));
+        }
+        entry.enter(updateMdc);
+        return entry;
+    }
+
+    private void exit() {
+        Trace restored = previous;
+        previous = null;
+        Tracer.swapTrace(restored, mdcUpdated);
+        owner.set(null);
+    }
+
+    /** State of a thread within the scope while another thread owns it, accessed only by that thread. */
+    private static final class ConcurrentEntry implements CloseableSpan {
+
+        private final AtomicReference<ConcurrentEntry> spare;
+
+        @Nullable
+        private final Trace trace;
+
+        @Nullable
+        private Trace previous;
+
+        private boolean mdcUpdated;
+
+        ConcurrentEntry(AtomicReference<ConcurrentEntry> spare, @Nullable Trace trace) {
+            this.spare = spare;
+            this.trace = trace;
+        }
+
+        void enter(boolean updateMdc) {
+            previous = Tracer.swapTrace(trace, updateMdc);
+            mdcUpdated = updateMdc;
+        }
+
+        @Override
+        public void close() {
+            Trace restored = previous;
+            previous = null;
+            Tracer.swapTrace(restored, mdcUpdated);
+            spare.set(this);
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.palantir.tracing;
 
+import com.palantir.tracing.api.TracingClock;
+
 /**
  * Internal utilities meant for consumption only inside of the tracing codebase.
  *
@@ -29,5 +31,10 @@ public final class InternalTracers {
         return Tracer.isSampled(detachedSpan);
     }
 
+    /** Returns the clock which times spans, for integrations measuring durations that are recorded as tags. */
+    public static TracingClock getClock() {
+        return Tracer.getClock();
+    }
+
     private InternalTracers() {}
 }
@@ -0,0 +1,199 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.tracing.api.SpanType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Aggregates the duration of every completed span, whether or not its trace is sampled, into a log-linear histogram
+ * per operation and {@link SpanType}. Unlike {@link Tracer#subscribe observers}, which only see the spans of sampled
+ * traces, the histograms reflect all requests, so that latency percentiles remain accurate however few traces are
+ * sampled. Enable with {@link Tracer#setLatencyHistograms}.
+ *
+ * <p>Recording never locks: operations are looked up by their identifier in a registry of their own, which holds at
+ * most {@value #MAX_OPERATIONS} operations and reports the spans of any further operations as
+ * {@value #OVERFLOW_OPERATION}. Each histogram is split into at most {@value #MAX_STRIPES} stripes which are written by
+ * different threads, and allocated once a thread of the stripe records a span. Each bucket covers a range of at most
+ * 1/32 of its values, so percentiles are reported within about 3% of the recorded durations.
+ */
+public final class LatencyHistograms {
+
+    /** Operation reported for spans whose operation did not fit into the registry of the histograms. */
+    public static final String OVERFLOW_OPERATION = OperationNames.OVERFLOW_NAME;
+
+    // Bounds the number of histograms, however many operation names the application derives
+    private static final int MAX_OPERATIONS = 512;
+    private static final int MAX_STRIPES = 4;
+
+    private static final SpanType[] SPAN_TYPES = SpanType.values();
+
+    // Durations below 32ns have their own bucket, each further power of two is split into 32 buckets
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Durations above 2^36ns (about 69 seconds) share the last bucket
+    private static final int MAX_SHIFT = 31;
+    static final int BUCKETS = (MAX_SHIFT + 2) * SUB_BUCKETS;
+    private static final int MAX_INDEX = BUCKETS;
+
+    private static final int STRIPES =
+            Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+
+    private final OperationNames operationNames;
+    private final AtomicReferenceArray<Histogram> histograms;
+
+    @VisibleForTesting
+    LatencyHistograms(OperationNames operationNames) {
+        this.operationNames = operationNames;
+        this.histograms = new AtomicReferenceArray<>(operationNames.capacity() * SPAN_TYPES.length);
+    }
+
+    /**
+     * Returns histograms keyed by a registry of their own, so that the operations they keep apart do not depend on the
+     * names which other users of the {@link OperationNames#global() global} registry have registered.
+     */
+    public static LatencyHistograms create() {
+        return new LatencyHistograms(new OperationNames(MAX_OPERATIONS));
+    }
+
+    /** Records the duration of a completed span. */
+    public void record(String operation, SpanType type, long durationNanos) {
+        int index = operationNames.intern(operation).id() * SPAN_TYPES.length + type.ordinal();
+        Histogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histogram = new Histogram();
+            if (!histograms.compareAndSet(index, null, histogram)) {
+                histogram = histograms.get(index);
+            }
+        }
+        histogram.record(durationNanos);
+    }
+
+    /**
+     * Returns the latencies recorded since the previous snapshot, or since the histograms were created, for each
+     * operation and span type which completed any span in the interval.
+     */
+    public List<LatencySnapshot> snapshot() {
+        List<LatencySnapshot> snapshots = new ArrayList<>();
+        for (int index = 0; index < histograms.length(); index++) {
+            Histogram histogram = histograms.get(index);
+            if (histogram == null) {
+                continue;
+            }
+            long[] counts = new long[BUCKETS];
+            long max = histogram.drainTo(counts);
+            long count = 0;
+            int highestBucket = -1;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                if (counts[bucket] != 0) {
+                    count += counts[bucket];
+                    highestBucket = bucket;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            int id = index / SPAN_TYPES.length;
+            String operation = operationNames.byId(id).map(OperationName::name).orElse(OVERFLOW_OPERATION);
+            // A span recorded while draining may have its count and maximum attributed to different intervals
+            long maxNanos = Math.max(max, lowestEquivalentValue(highestBucket));
+            snapshots.add(
+                    new LatencySnapshot(operation, SPAN_TYPES[index % SPAN_TYPES.length], counts, count, maxNanos));
+        }
+        return snapshots;
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        return (shift + 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    /** Smallest duration recorded into the given bucket. */
+    static long lowestEquivalentValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /** Largest duration recorded into the given bucket, except for the last bucket which is unbounded. */
+    static long highestEquivalentValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    private static final class Histogram {
+        // Bucket counts followed by the maximum duration, allocated once a thread of the stripe records a span
+        private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+
+        void record(long durationNanos) {
+            long nanos = Math.max(0, durationNanos);
+            AtomicLongArray counts = stripe((int) Thread.currentThread().getId() & (STRIPES - 1));
+            counts.incrementAndGet(bucketIndex(nanos));
+            long max = counts.get(MAX_INDEX);
+            while (nanos > max && !counts.compareAndSet(MAX_INDEX, max, nanos)) {
+                max = counts.get(MAX_INDEX);
+            }
+        }
+
+        /** Adds the counts recorded since the last call to {@code counts}, and returns their maximum duration. */
+        long drainTo(long[] counts) {
+            Preconditions.checkArgument(counts.length == BUCKETS, "Unexpected number of buckets");
+            long max = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                AtomicLongArray stripe = stripes.get(i);
+                if (stripe == null) {
+                    continue;
+                }
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    // Avoid writing to buckets which did not change, most of them are empty
+                    if (stripe.get(bucket) != 0) {
+                        counts[bucket] += stripe.getAndSet(bucket, 0);
+                    }
+                }
+                max = Math.max(max, stripe.getAndSet(MAX_INDEX, 0));
+            }
+            return max;
+        }
+
+        private AtomicLongArray stripe(int index) {
+            AtomicLongArray stripe = stripes.get(index);
+            if (stripe == null) {
+                stripe = new AtomicLongArray(BUCKETS + 1);
+                if (!stripes.compareAndSet(index, null, stripe)) {
+                    stripe = stripes.get(index);
+                }
+            }
+            return stripe;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.tracing.api.SpanType;
+
+/**
+ * The durations of the spans of one operation and {@link SpanType} which completed during an interval, see
+ * {@link LatencyHistograms#snapshot()}. Percentiles are the largest duration of the histogram bucket containing the
+ * percentile, capped by the {@link #maxNanos() maximum}.
+ */
+public final class LatencySnapshot {
+
+    private final String operation;
+    private final SpanType type;
+    private final long[] counts;
+    private final long count;
+    private final long maxNanos;
+
+    LatencySnapshot(String operation, SpanType type, long[] counts, long count, long maxNanos) {
+        this.operation = operation;
+        this.type = type;
+        this.counts = counts;
+        this.count = count;
+        this.maxNanos = maxNanos;
+    }
+
+    /** The operation of the spans, or {@link LatencyHistograms#OVERFLOW_OPERATION} for unregistered operations. */
+    public String operation() {
+        return operation;
+    }
+
+    public SpanType type() {
+        return type;
+    }
+
+    /** The number of spans which completed during the interval. */
+    public long count() {
+        return count;
+    }
+
+    public long maxNanos() {
+        return maxNanos;
+    }
+
+    public long p50Nanos() {
+        return valueAtPercentileNanos(50);
+    }
+
+    public long p99Nanos() {
+        return valueAtPercentileNanos(99);
+    }
+
+    public long p999Nanos() {
+        return valueAtPercentileNanos(99.9);
+    }
+
+    /** Returns the duration which {@code percentile} percent of the spans did not exceed. */
+    public long valueAtPercentileNanos(double percentile) {
+        Preconditions.checkArgument(
+                percentile > 0 && percentile <= 100,
+                "percentile must be in (0, 100]",
+                SafeArg.of("percentile", percentile));
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(LatencyHistograms.highestEquivalentValue(bucket), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot{operation='"
+                + operation
+                + "', type="
+                + type
+                + ", count="
+                + count
+                + ", p50Nanos="
+                + p50Nanos()
+                + ", p99Nanos="
+                + p99Nanos()
+                + ", p999Nanos="
+                + p999Nanos()
+                + ", maxNanos="
+                + maxNanos
+                + '}';
+    }
+}
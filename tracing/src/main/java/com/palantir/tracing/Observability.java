@@ -16,6 +16,10 @@
 
 package com.palantir.tracing;
 
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.tracing.api.SamplingDecision;
+
 /** Represents the desired observability of a new trace. */
 public enum Observability {
     /** Force the trace to be sampled. */
@@ -25,5 +29,18 @@ public enum Observability {
     DO_NOT_SAMPLE,
 
     /** Do not force, and let the tracer decide the observability. */
-    UNDECIDED
+    UNDECIDED;
+
+    /** Returns the observability requested by the sampling decision propagated by a caller. */
+    public static Observability of(SamplingDecision sampling) {
+        switch (sampling) {
+            case SAMPLE:
+                return SAMPLE;
+            case DO_NOT_SAMPLE:
+                return DO_NOT_SAMPLE;
+            case UNDECIDED:
+                return UNDECIDED;
+        }
+        throw new SafeIllegalArgumentException("Unknown sampling decision", SafeArg.of("sampling", sampling));
+    }
 }
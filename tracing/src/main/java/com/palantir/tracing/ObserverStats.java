@@ -0,0 +1,49 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import org.immutables.value.Value;
+
+/** Point-in-time statistics of a {@link Tracer#subscribe subscribed} span observer. */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.PACKAGE)
+public interface ObserverStats {
+
+    /** Name under which the observer is subscribed. */
+    String name();
+
+    /** Number of spans passed to the observer. */
+    long invocations();
+
+    /** Number of invocations which threw an exception. */
+    long errors();
+
+    /** Total time spent in the observer across all invocations. */
+    long cumulativeNanos();
+
+    /**
+     * True if the observer exceeded the {@link Tracer#setObserverLatencyBudget latency budget} and no longer receives
+     * spans.
+     */
+    boolean quarantined();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    class Builder extends ImmutableObserverStats.Builder {}
+}
@@ -18,6 +18,7 @@ package com.palantir.tracing;
 
 import com.palantir.tracing.api.Span;
 import com.palantir.tracing.api.SpanObserver;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 public final class Observers {
@@ -37,4 +38,21 @@ public final class Observers {
             }
         };
     }
+
+    /**
+     * Wraps the given observer into a {@link BatchingSpanObserver} which notifies it from a single drain thread. Spans
+     * observed while the buffer configured by {@code options} is full are discarded.
+     */
+    public static BatchingSpanObserver batchingDecorator(final SpanObserver observer, SpanBatchingOptions options) {
+        BatchingSpanObserver batching = new BatchingSpanObserver(options) {
+            @Override
+            protected void consumeBatch(List<Span> spans) {
+                for (int i = 0; i < spans.size(); i++) {
+                    observer.consume(spans.get(i));
+                }
+            }
+        };
+        batching.start();
+        return batching;
+    }
 }
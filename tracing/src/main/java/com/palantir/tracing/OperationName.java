@@ -0,0 +1,54 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+/**
+ * An operation name {@link OperationNames#intern interned} by an {@link OperationNames} registry, together with a
+ * small identifier suitable for indexing per-operation state held in arrays.
+ */
+public final class OperationName {
+
+    private final String name;
+    private final int id;
+
+    OperationName(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Identifier of this name, between {@code 1} and {@link OperationNames#capacity()} (exclusive), or
+     * {@link OperationNames#OVERFLOW_ID} once the registry is full.
+     */
+    public int id() {
+        return id;
+    }
+
+    /** True if this is the shared {@link OperationNames#OVERFLOW} name, returned once the registry is full. */
+    public boolean isOverflow() {
+        return id == OperationNames.OVERFLOW_ID;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
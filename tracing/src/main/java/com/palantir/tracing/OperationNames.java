@@ -0,0 +1,180 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static com.palantir.logsafe.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.palantir.logsafe.SafeArg;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A bounded registry of operation names. Interning a name returns a shared {@link OperationName} with a dense
+ * identifier, so that per-operation state can be kept in arrays of {@link #capacity()} elements. Once the registry is
+ * full, further names are no longer retained and are all replaced by the shared {@link #OVERFLOW} name, which bounds
+ * both the memory used by the registry and the cardinality of anything keyed by operation, including span names.
+ *
+ * <p>Integrations deriving operation names from request attributes should use a {@link #table(Function) table}, which
+ * caches the derived names by their inputs so that the name is not rebuilt for every request:
+ *
+ * <pre>{@code
+ * private static final OperationNames.TwoKeyTable OPERATIONS =
+ *         OperationNames.global().table((method, path) -> "Jersey: " + method + " " + path);
+ *
+ * String operation = OPERATIONS.get(method, path).name();
+ * }</pre>
+ */
+public final class OperationNames {
+
+    /** Identifier shared by all names which were not registered because the registry was full. */
+    public static final int OVERFLOW_ID = 0;
+
+    /** Name of the {@link #OVERFLOW} operation. */
+    public static final String OVERFLOW_NAME = "other";
+
+    /** Returned in place of any name which was not registered because the registry was full. */
+    public static final OperationName OVERFLOW = new OperationName(OVERFLOW_NAME, OVERFLOW_ID);
+
+    private static final int DEFAULT_CAPACITY = 4_096;
+
+    private static final OperationNames GLOBAL = new OperationNames(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final ConcurrentMap<String, OperationName> names = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<OperationName> byId;
+    private final AtomicInteger nextId = new AtomicInteger(OVERFLOW_ID + 1);
+    private final Function<String, OperationName> register = this::register;
+
+    @VisibleForTesting
+    OperationNames(int capacity) {
+        checkArgument(capacity > OVERFLOW_ID + 1, "capacity must be at least 2", SafeArg.of("capacity", capacity));
+        this.capacity = capacity;
+        this.byId = new AtomicReferenceArray<>(capacity);
+    }
+
+    /** The registry shared by the tracing library and its integrations. */
+    public static OperationNames global() {
+        return GLOBAL;
+    }
+
+    /** Exclusive upper bound of the identifiers handed out by this registry. */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the registered name equal to {@code name}, registering it if there is room, or {@link #OVERFLOW} once
+     * the registry is full.
+     */
+    public OperationName intern(String name) {
+        OperationName existing = names.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        if (nextId.get() >= capacity) {
+            return OVERFLOW;
+        }
+        return names.computeIfAbsent(name, register);
+    }
+
+    /** Returns the name registered with the given identifier, if any. */
+    public Optional<OperationName> byId(int id) {
+        if (id <= OVERFLOW_ID || id >= capacity) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(byId.get(id));
+    }
+
+    /** Returns a table caching the names derived from a single input, such as a path template. */
+    public SingleKeyTable table(Function<String, String> nameFunction) {
+        return new SingleKeyTable(nameFunction);
+    }
+
+    /** Returns a table caching the names derived from two inputs, such as an HTTP method and path template. */
+    public TwoKeyTable table(BiFunction<String, String, String> nameFunction) {
+        return new TwoKeyTable(nameFunction);
+    }
+
+    private OperationName register(String name) {
+        int id = nextId.getAndIncrement();
+        if (id >= capacity) {
+            // Lost a race for the last identifiers, at most one such name is retained per racing thread
+            return OVERFLOW;
+        }
+        OperationName operationName = new OperationName(name, id);
+        byId.set(id, operationName);
+        return operationName;
+    }
+
+    /** Caches the operation names derived from a single input. Only registered names are cached. */
+    public final class SingleKeyTable {
+        private final Function<String, String> nameFunction;
+        private final ConcurrentMap<String, OperationName> cache = new ConcurrentHashMap<>();
+
+        private SingleKeyTable(Function<String, String> nameFunction) {
+            this.nameFunction = nameFunction;
+        }
+
+        public OperationName get(String key) {
+            OperationName cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            OperationName name = intern(nameFunction.apply(key));
+            if (!name.isOverflow() && cache.size() < capacity) {
+                cache.putIfAbsent(key, name);
+            }
+            return name;
+        }
+    }
+
+    /** Caches the operation names derived from two inputs. Only registered names are cached. */
+    public final class TwoKeyTable {
+        private final BiFunction<String, String, String> nameFunction;
+        private final ConcurrentMap<String, ConcurrentMap<String, OperationName>> cache = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private TwoKeyTable(BiFunction<String, String, String> nameFunction) {
+            this.nameFunction = nameFunction;
+        }
+
+        public OperationName get(String first, String second) {
+            ConcurrentMap<String, OperationName> byFirst = cache.get(first);
+            if (byFirst != null) {
+                OperationName cached = byFirst.get(second);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            OperationName name = intern(nameFunction.apply(first, second));
+            if (!name.isOverflow()
+                    && size.get() < capacity
+                    && cache.computeIfAbsent(first, _key -> new ConcurrentHashMap<>())
+                                    .putIfAbsent(second, name)
+                            == null) {
+                size.incrementAndGet();
+            }
+            return name;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.tracing.api.SpanType;
+
+/**
+ * A {@link TraceSampler} which is told the operation and type of the root span of a new trace whenever they are known,
+ * allowing it to make per-operation decisions. {@link #sample()} is still invoked for traces whose root span is not
+ * known up front.
+ */
+public interface OperationSampler extends TraceSampler {
+
+    /** Like {@link #sample()}, but invoked when the operation and type of the root span of the trace are known. */
+    boolean sample(String rootOperation, SpanType rootType);
+}
@@ -0,0 +1,56 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import javax.annotation.Nullable;
+
+/** See {@link TraceContextStorage#pinnedThreadLocal()}. */
+final class PinnedThreadLocalTraceContextStorage implements TraceContextStorage {
+
+    static final TraceContextStorage INSTANCE = new PinnedThreadLocalTraceContextStorage();
+
+    // Thread-safe since each slot is only accessed by its own thread
+    private final ThreadLocal<Slot> slots = ThreadLocal.withInitial(Slot::new);
+
+    private PinnedThreadLocalTraceContextStorage() {}
+
+    @Nullable
+    @Override
+    public Trace get() {
+        return slots.get().trace;
+    }
+
+    @Override
+    public void set(Trace trace) {
+        slots.get().trace = trace;
+    }
+
+    @Override
+    public void clear() {
+        slots.get().trace = null;
+    }
+
+    @Override
+    public String toString() {
+        return "PinnedThreadLocalTraceContextStorage{}";
+    }
+
+    private static final class Slot {
+        @Nullable
+        private Trace trace;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static com.palantir.logsafe.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.tracing.api.SpanType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sampler that samples at most a fixed number of traces per second for each root operation, regardless of how much
+ * traffic the operation receives. Rarely invoked operations are therefore always sampled, while the number of traces
+ * sampled for hot operations stays constant as traffic grows. Up to one second worth of traces may be sampled in a
+ * burst.
+ *
+ * <p>Each operation is backed by a lock-free token bucket. Once {@code maxOperations} distinct operations have been
+ * seen, further operations share a single bucket, as do traces sampled through {@link #sample()} without knowing the
+ * root operation.
+ */
+public final class RateLimitingSampler implements OperationSampler {
+
+    private static final int DEFAULT_MAX_OPERATIONS = 1_000;
+
+    private final Ticker ticker;
+    private final long intervalNanos;
+    private final long burstToleranceNanos;
+    private final int maxOperations;
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final TokenBucket overflowBucket;
+
+    /** Creates a sampler which samples at most {@code tracesPerSecond} traces per second and root operation. */
+    public RateLimitingSampler(double tracesPerSecond) {
+        this(tracesPerSecond, DEFAULT_MAX_OPERATIONS);
+    }
+
+    public RateLimitingSampler(double tracesPerSecond, int maxOperations) {
+        this(tracesPerSecond, maxOperations, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    RateLimitingSampler(double tracesPerSecond, int maxOperations, Ticker ticker) {
+        checkArgument(
+                tracesPerSecond > 0 && tracesPerSecond <= 1_000_000_000,
+                "tracesPerSecond must be positive and at most one per nanosecond",
+                SafeArg.of("tracesPerSecond", tracesPerSecond));
+        checkArgument(
+                maxOperations >= 0, "maxOperations must not be negative", SafeArg.of("maxOperations", maxOperations));
+        this.ticker = ticker;
+        this.intervalNanos = (long) (1_000_000_000 / tracesPerSecond);
+        this.burstToleranceNanos = (long) (Math.max(1, Math.ceil(tracesPerSecond)) - 1) * intervalNanos;
+        this.maxOperations = maxOperations;
+        this.overflowBucket = new TokenBucket(ticker.read());
+    }
+
+    @Override
+    public boolean sample() {
+        return overflowBucket.tryAcquire(ticker.read());
+    }
+
+    @Override
+    public boolean sample(String rootOperation, SpanType _rootType) {
+        return bucket(rootOperation).tryAcquire(ticker.read());
+    }
+
+    private TokenBucket bucket(String operation) {
+        TokenBucket bucket = buckets.get(operation);
+        if (bucket != null) {
+            return bucket;
+        }
+        // Racy bound: a few more than maxOperations buckets may be created under contention, which is harmless.
+        if (buckets.size() >= maxOperations) {
+            return overflowBucket;
+        }
+        return buckets.computeIfAbsent(operation, _key -> new TokenBucket(ticker.read()));
+    }
+
+    /**
+     * Token bucket implemented as a generic cell rate algorithm: instead of a token count, each bucket tracks the
+     * theoretical time at which the next trace may be sampled, so that acquiring a token is a single CAS.
+     */
+    private final class TokenBucket {
+        private final AtomicLong theoreticalArrivalNanos;
+
+        TokenBucket(long nowNanos) {
+            this.theoreticalArrivalNanos = new AtomicLong(nowNanos);
+        }
+
+        boolean tryAcquire(long nowNanos) {
+            while (true) {
+                long arrival = theoreticalArrivalNanos.get();
+                if (nowNanos - (arrival - burstToleranceNanos) < 0) {
+                    return false;
+                }
+                long nextArrival = Math.max(arrival - nowNanos, 0) + nowNanos + intervalNanos;
+                if (theoreticalArrivalNanos.compareAndSet(arrival, nextArrival)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanObserver;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SpanObserver} subscribed to the {@link Tracer}, together with statistics about its invocations. Exceptions
+ * thrown by the observer are logged and counted rather than propagated, so that one failing observer neither affects
+ * other observers nor the thread completing the span.
+ */
+final class RegisteredObserver {
+
+    private static final Logger log = LoggerFactory.getLogger(RegisteredObserver.class);
+
+    static final RegisteredObserver[] NONE = new RegisteredObserver[0];
+
+    private final String name;
+    private final SpanObserver observer;
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder cumulativeNanos = new LongAdder();
+
+    private volatile boolean quarantined;
+
+    RegisteredObserver(String name, SpanObserver observer) {
+        this.name = name;
+        this.observer = observer;
+    }
+
+    String name() {
+        return name;
+    }
+
+    SpanObserver observer() {
+        return observer;
+    }
+
+    /**
+     * Passes the span to the observer unless it has been quarantined. Observers taking longer than
+     * {@code latencyBudgetNanos} for a single span are quarantined.
+     */
+    void consume(Span span, long latencyBudgetNanos) {
+        if (quarantined) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            observer.consume(span);
+        } catch (RuntimeException e) {
+            errors.increment();
+            log.error(
+                    "Failed to invoke observer {} registered as {}",
+                    SafeArg.of("observer", observer),
+                    SafeArg.of("name", name),
+                    e);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        invocations.increment();
+        cumulativeNanos.add(elapsedNanos);
+        if (elapsedNanos > latencyBudgetNanos) {
+            quarantined = true;
+            log.warn(
+                    "Quarantining observer {} registered as {}, it took longer than the latency budget to consume a"
+                            + " span",
+                    SafeArg.of("observer", observer),
+                    SafeArg.of("name", name),
+                    SafeArg.of("elapsedNanos", elapsedNanos),
+                    SafeArg.of("latencyBudgetNanos", latencyBudgetNanos));
+        }
+    }
+
+    ObserverStats stats() {
+        return ObserverStats.builder()
+                .name(name)
+                .invocations(invocations.sum())
+                .errors(errors.sum())
+                .cumulativeNanos(cumulativeNanos.sum())
+                .quarantined(quarantined)
+                .build();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.time.Duration;
+import org.immutables.value.Value;
+
+/** Configuration of a {@link BatchingSpanObserver}. */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.PACKAGE)
+public interface SpanBatchingOptions {
+
+    /**
+     * Maximum number of spans buffered between the observing threads and the drain thread, rounded up to the next
+     * power of two.
+     */
+    @Value.Default
+    default int capacity() {
+        return 16_384;
+    }
+
+    /** Maximum number of spans handed to {@link BatchingSpanObserver#consumeBatch} at once. */
+    @Value.Default
+    default int maxBatchSize() {
+        return 512;
+    }
+
+    /** Maximum time a span waits for its batch to fill up before the partial batch is exported. */
+    @Value.Default
+    default Duration linger() {
+        return Duration.ofMillis(100);
+    }
+
+    /** What to do with spans observed while the buffer is full. */
+    @Value.Default
+    default OverflowPolicy overflowPolicy() {
+        return OverflowPolicy.DROP_NEWEST;
+    }
+
+    /** Name of the drain thread. */
+    @Value.Default
+    default String threadName() {
+        return "tracing-span-batcher";
+    }
+
+    @Value.Check
+    default void check() {
+        Preconditions.checkArgument(capacity() > 0, "capacity must be positive", SafeArg.of("capacity", capacity()));
+        Preconditions.checkArgument(
+                capacity() <= (1 << 30), "capacity must be at most 2^30", SafeArg.of("capacity", capacity()));
+        Preconditions.checkArgument(
+                maxBatchSize() > 0, "maxBatchSize must be positive", SafeArg.of("maxBatchSize", maxBatchSize()));
+        Preconditions.checkArgument(
+                !linger().isNegative() && !linger().isZero(),
+                "linger must be positive",
+                SafeArg.of("linger", linger()));
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    class Builder extends ImmutableSpanBatchingOptions.Builder {}
+
+    enum OverflowPolicy {
+        /** Discards the span being observed, keeping the spans already buffered. */
+        DROP_NEWEST,
+        /** Evicts the oldest buffered span to make room for the span being observed. */
+        DROP_OLDEST
+    }
+}
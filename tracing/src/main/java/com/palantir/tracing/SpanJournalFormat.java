@@ -0,0 +1,471 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanTags;
+import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TracingId;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * Binary encoding of the segments written by {@link SpanJournalObserver}.
+ *
+ * <p>Segments are named {@code spans-<sequence>.journal} and start with a {@link #MAGIC magic number} and
+ * {@link #VERSION version}, followed by records. Each record is an int length and the int CRC32 of its payload,
+ * followed by the payload encoding one span. A zero length marks the end of the records, as does a record which extends
+ * past the end of the segment or fails its checksum: the writer publishes the length of a record last, so the tail of
+ * a segment written by a process which crashed is either zeroed or fails these checks.
+ *
+ * <p>Within a payload, integers are unsigned LEB128 varints and identifiers are raw 64-bit halves. Operations and
+ * metadata keys are interned into a table scoped to the segment, so that each segment can be read on its own. A writer
+ * which resumes a segment after a restart first appends a reset record, which clears the table.
+ */
+final class SpanJournalFormat {
+
+    static final int MAGIC = 0x54524a4e; // "TRJN"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 8;
+
+    private static final String SEGMENT_PREFIX = "spans-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final byte RECORD_SPAN = 1;
+    private static final byte RECORD_RESET = 2;
+
+    // Strings are either written verbatim, added to the segment's table, or refer to an entry of the table
+    private static final int STRING_LITERAL = 0;
+    private static final int STRING_DEFINITION = 1;
+    private static final int STRING_REFERENCE_OFFSET = 2;
+    private static final int MAX_TABLE_SIZE = 4_096;
+
+    private static final int ID_ABSENT = 0;
+    private static final int ID_64 = 1;
+    private static final int ID_128 = 2;
+    private static final int ID_VERBATIM = 3;
+
+    private static final SpanType[] SPAN_TYPES = SpanType.values();
+    private static final SpanTags.Type[] TAG_TYPES = SpanTags.Type.values();
+
+    private SpanJournalFormat() {}
+
+    static Path segmentPath(Path directory, long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    /** Returns the segments in the given directory, oldest first. */
+    static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(SpanJournalFormat::isSegment)
+                    .sorted(Comparator.comparingLong(SpanJournalFormat::sequence))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX)
+                || !name.endsWith(SEGMENT_SUFFIX)
+                || name.length() != SEGMENT_PREFIX.length() + 20 + SEGMENT_SUFFIX.length()) {
+            return false;
+        }
+        for (int i = SEGMENT_PREFIX.length(); i < name.length() - SEGMENT_SUFFIX.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the header of a new segment at the start of the buffer, leaving the position after it. */
+    static void writeHeader(ByteBuffer segment) {
+        segment.putInt(0, MAGIC).putInt(4, VERSION).position(HEADER_BYTES);
+    }
+
+    /**
+     * Returns the offset of the end of the valid records of a segment, which starts at the current position of the
+     * given buffer and ends at its limit, or -1 if the segment does not start with a valid header.
+     */
+    static int validEnd(ByteBuffer segment) {
+        if (!hasValidHeader(segment)) {
+            return -1;
+        }
+        int position = segment.position() + HEADER_BYTES;
+        int length = recordLength(segment, position);
+        while (length > 0) {
+            position += RECORD_HEADER_BYTES + length;
+            length = recordLength(segment, position);
+        }
+        return position;
+    }
+
+    /** Returns true if a segment of this version starts at the position of the buffer. */
+    static boolean hasValidHeader(ByteBuffer segment) {
+        return segment.remaining() >= HEADER_BYTES
+                && segment.getInt(segment.position()) == MAGIC
+                && segment.getInt(segment.position() + 4) == VERSION;
+    }
+
+    /**
+     * Returns the length of the payload of the record at the given position, or zero if there is no valid record at the
+     * position.
+     */
+    static int recordLength(ByteBuffer segment, int position) {
+        if (segment.limit() - position < RECORD_HEADER_BYTES) {
+            return 0;
+        }
+        int length = segment.getInt(position);
+        if (length <= 0 || length > segment.limit() - position - RECORD_HEADER_BYTES) {
+            return 0;
+        }
+        int checksum = segment.getInt(position + 4);
+        return checksum == checksum(segment, position + RECORD_HEADER_BYTES, length) ? length : 0;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length).position(offset);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /** Encodes spans into the payloads of the records of a single segment. Not thread-safe. */
+    static final class Encoder {
+        private final Map<String, Integer> table = new HashMap<>();
+        // Strings defined by the encoded record, which only become part of the table once the record is written
+        private final List<String> pendingDefinitions = new ArrayList<>();
+        private byte[] bytes = new byte[256];
+        private int size;
+        private long previousStartMicros;
+        private long pendingStartMicros;
+
+        /** Forgets the strings and timestamps of the previous segment, before writing a new one. */
+        void reset() {
+            table.clear();
+            pendingDefinitions.clear();
+            previousStartMicros = 0;
+            pendingStartMicros = 0;
+        }
+
+        /** Encodes a record which resets the table of the segment, replacing the previously encoded record. */
+        void encodeReset() {
+            reset();
+            size = 0;
+            writeByte(RECORD_RESET);
+        }
+
+        /**
+         * Encodes the span, replacing the previously encoded record. The string table and start time only advance
+         * once the record is written by {@link #writeRecord}, so that readers of the segment stay in step with it.
+         */
+        void encode(Span span) {
+            rollback();
+            size = 0;
+            writeByte(RECORD_SPAN);
+            writeId(TracingId.parse(span.getTraceId()));
+            writeId(TracingId.parse(span.getSpanId()));
+            Optional<String> parentSpanId = span.getParentSpanId();
+            if (parentSpanId.isPresent()) {
+                writeId(TracingId.parse(parentSpanId.get()));
+            } else {
+                writeByte(ID_ABSENT);
+            }
+            writeInternedString(span.getOperation());
+            writeByte(span.type().ordinal());
+            // Spans are written roughly in order of completion, so start times are close to one another
+            long startMicros = span.getStartTimeMicroSeconds();
+            writeVarLong(zigZag(startMicros - previousStartMicros));
+            pendingStartMicros = startMicros;
+            writeVarLong(Math.max(0, span.getDurationNanoSeconds()));
+
+            Map<String, String> metadata = span.getMetadata();
+            writeVarLong(metadata.size());
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                writeInternedString(entry.getKey());
+                writeString(entry.getValue());
+            }
+            SpanTags tags = span.getTags();
+            writeVarLong(tags.size());
+            for (int i = 0; i < tags.size(); i++) {
+                writeInternedString(tags.key(i));
+                SpanTags.Type type = tags.type(i);
+                writeByte(type.ordinal());
+                switch (type) {
+                    case LONG:
+                        writeVarLong(zigZag(tags.longValue(i)));
+                        break;
+                    case DOUBLE:
+                        writeLong(Double.doubleToRawLongBits(tags.doubleValue(i)));
+                        break;
+                    case BOOLEAN:
+                        writeByte(tags.booleanValue(i) ? 1 : 0);
+                        break;
+                    case STRING:
+                        writeString(tags.stringValue(i));
+                        break;
+                }
+            }
+        }
+
+        /** Number of bytes of the encoded payload. */
+        int size() {
+            return size;
+        }
+
+        /** Writes the record of the encoded span to the given buffer, publishing its length last. */
+        void writeRecord(ByteBuffer segment) {
+            int position = segment.position();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, size);
+            segment.putInt(position + 4, (int) crc.getValue());
+            segment.position(position + RECORD_HEADER_BYTES);
+            segment.put(bytes, 0, size);
+            segment.putInt(position, size);
+            pendingDefinitions.clear();
+            previousStartMicros = pendingStartMicros;
+        }
+
+        /** Discards the strings defined by the encoded record, if it was not written. */
+        void rollback() {
+            // Definitions are numbered in order, so removing them restores the numbering of the table
+            for (int i = 0; i < pendingDefinitions.size(); i++) {
+                table.remove(pendingDefinitions.get(i));
+            }
+            pendingDefinitions.clear();
+            pendingStartMicros = previousStartMicros;
+        }
+
+        private void writeId(TracingId id) {
+            if (!id.isPrimitive()) {
+                writeByte(ID_VERBATIM);
+                writeString(id.toString());
+            } else if (id.is128Bit()) {
+                writeByte(ID_128);
+                writeLong(id.getHigh());
+                writeLong(id.getLow());
+            } else {
+                writeByte(ID_64);
+                writeLong(id.getLow());
+            }
+        }
+
+        private void writeInternedString(String value) {
+            Integer index = table.get(value);
+            if (index != null) {
+                writeVarLong(index + STRING_REFERENCE_OFFSET);
+            } else if (table.size() < MAX_TABLE_SIZE) {
+                table.put(value, table.size());
+                pendingDefinitions.add(value);
+                writeByte(STRING_DEFINITION);
+                writeString(value);
+            } else {
+                writeByte(STRING_LITERAL);
+                writeString(value);
+            }
+        }
+
+        private void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        private void writeLong(long value) {
+            ensureCapacity(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            long remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            bytes[size++] = (byte) remaining;
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+            }
+        }
+    }
+
+    /** Decodes the payloads of the records of a single segment. Not thread-safe. */
+    static final class Decoder {
+        private final List<String> table = new ArrayList<>();
+        private long previousStartMicros;
+
+        /**
+         * Decodes the payload between the position and the limit of the buffer, returning null for records which do not
+         * encode a span.
+         */
+        @Nullable
+        Span decode(ByteBuffer buffer) {
+            byte kind = buffer.get();
+            if (kind == RECORD_RESET) {
+                table.clear();
+                previousStartMicros = 0;
+                return null;
+            }
+            if (kind != RECORD_SPAN) {
+                throw new SafeIllegalArgumentException("Unknown record kind", SafeArg.of("kind", kind));
+            }
+            Span.Builder builder = Span.builder();
+            builder.traceId(readId(buffer));
+            builder.spanId(readId(buffer));
+            if (buffer.get(buffer.position()) == ID_ABSENT) {
+                buffer.get();
+            } else {
+                builder.parentSpanId(readId(buffer));
+            }
+            builder.operation(readInternedString(buffer));
+            builder.type(SPAN_TYPES[buffer.get()]);
+            long startMicros = previousStartMicros + unZigZag(readVarLong(buffer));
+            previousStartMicros = startMicros;
+            builder.startTimeMicroSeconds(startMicros);
+            builder.durationNanoSeconds(readVarLong(buffer));
+
+            long metadataSize = readVarLong(buffer);
+            for (long i = 0; i < metadataSize; i++) {
+                builder.putMetadata(readInternedString(buffer), readString(buffer));
+            }
+            long tagsSize = readVarLong(buffer);
+            if (tagsSize > 0) {
+                SpanTags.Builder tags = SpanTags.builder();
+                for (long i = 0; i < tagsSize; i++) {
+                    String key = readInternedString(buffer);
+                    switch (TAG_TYPES[buffer.get()]) {
+                        case LONG:
+                            tags.put(key, unZigZag(readVarLong(buffer)));
+                            break;
+                        case DOUBLE:
+                            tags.put(key, Double.longBitsToDouble(buffer.getLong()));
+                            break;
+                        case BOOLEAN:
+                            tags.put(key, buffer.get() != 0);
+                            break;
+                        case STRING:
+                            tags.put(key, readString(buffer));
+                            break;
+                    }
+                }
+                builder.tags(tags.build());
+            }
+            if (buffer.hasRemaining()) {
+                throw new SafeIllegalArgumentException(
+                        "Malformed span record", SafeArg.of("remainingBytes", buffer.remaining()));
+            }
+            return builder.build();
+        }
+
+        private String readId(ByteBuffer buffer) {
+            int kind = buffer.get();
+            switch (kind) {
+                case ID_64:
+                    return TracingId.of(buffer.getLong()).toString();
+                case ID_128:
+                    return TracingId.of(buffer.getLong(), buffer.getLong()).toString();
+                case ID_VERBATIM:
+                    return readString(buffer);
+                default:
+                    throw new SafeIllegalArgumentException("Unknown identifier kind", SafeArg.of("kind", kind));
+            }
+        }
+
+        private String readInternedString(ByteBuffer buffer) {
+            long reference = readVarLong(buffer);
+            if (reference == STRING_LITERAL) {
+                return readString(buffer);
+            }
+            if (reference == STRING_DEFINITION) {
+                String value = readString(buffer);
+                table.add(value);
+                return value;
+            }
+            long index = reference - STRING_REFERENCE_OFFSET;
+            if (index >= table.size()) {
+                throw new SafeIllegalArgumentException("Unknown string reference", SafeArg.of("index", index));
+            }
+            return table.get((int) index);
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            long length = readVarLong(buffer);
+            if (length > buffer.remaining()) {
+                throw new SafeIllegalArgumentException("Malformed string length", SafeArg.of("length", length));
+            }
+            byte[] utf8 = new byte[(int) length];
+            buffer.get(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        private static long readVarLong(ByteBuffer buffer) {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte next = buffer.get();
+                value |= (long) (next & 0x7F) << shift;
+                if (next >= 0) {
+                    return value;
+                }
+            }
+            throw new SafeIllegalArgumentException("Malformed varint");
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.tracing.api.Span;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BatchingSpanObserver} which appends spans to a journal of memory-mapped segment files on local disk, in a
+ * compact binary format which is far cheaper to produce than logging spans as JSON. Read the journal back with
+ * {@link SpanJournalReader}.
+ *
+ * <p>Once a span does not fit into the current segment a new segment is started, and the oldest segments are deleted
+ * beyond the configured {@link SpanJournalOptions#maxRetainedBytes() size} and {@link SpanJournalOptions#maxAge() age}.
+ * Records are published to the page cache as they are written, so they survive a crash of the process; segments are
+ * flushed to disk when they are finished and when the observer is {@link #close() closed}.
+ */
+public final class SpanJournalObserver extends BatchingSpanObserver {
+
+    private static final Logger log = LoggerFactory.getLogger(SpanJournalObserver.class);
+
+    private final SpanJournalWriter writer;
+    private final AtomicLong oversizedSpans = new AtomicLong();
+
+    private SpanJournalObserver(SpanJournalWriter writer, SpanBatchingOptions batching) {
+        super(batching);
+        this.writer = writer;
+    }
+
+    /** Opens the journal in the configured directory, resuming its latest segment. */
+    public static SpanJournalObserver create(SpanJournalOptions options) throws IOException {
+        SpanJournalObserver observer = new SpanJournalObserver(SpanJournalWriter.open(options), options.batching());
+        observer.start();
+        return observer;
+    }
+
+    @Override
+    protected void consumeBatch(List<Span> spans) {
+        try {
+            for (int i = 0; i < spans.size(); i++) {
+                Span span = spans.get(i);
+                if (!writer.append(span)) {
+                    oversizedSpans.incrementAndGet();
+                    log.debug("Span too large for a journal segment", UnsafeArg.of("operation", span.getOperation()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Number of spans which were not written because they are larger than a segment. */
+    public long getOversizedSpans() {
+        return oversizedSpans.get();
+    }
+
+    /** Writes all buffered spans, then flushes the current segment to disk. */
+    @Override
+    public void close() {
+        super.close();
+        writer.close();
+    }
+}
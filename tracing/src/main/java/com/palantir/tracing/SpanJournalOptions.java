@@ -0,0 +1,79 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.immutables.value.Value;
+
+/** Configuration of a {@link SpanJournalObserver}. */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.PACKAGE)
+public interface SpanJournalOptions {
+
+    /** Directory holding the segments of the journal, created if it does not exist. */
+    Path directory();
+
+    /** Size of each memory-mapped segment file. Once a span does not fit into the current segment, a new one starts. */
+    @Value.Default
+    default int segmentBytes() {
+        return 64 * 1024 * 1024;
+    }
+
+    /** Maximum combined size of the segments, beyond which the oldest segments are deleted. */
+    @Value.Default
+    default long maxRetainedBytes() {
+        return 1024L * 1024 * 1024;
+    }
+
+    /** Maximum age of the segments, measured from when they were last written, beyond which they are deleted. */
+    @Value.Default
+    default Duration maxAge() {
+        return Duration.ofDays(7);
+    }
+
+    /** How spans are buffered before they are written by the journal's writer thread. */
+    @Value.Default
+    default SpanBatchingOptions batching() {
+        return SpanBatchingOptions.builder().threadName("tracing-span-journal").build();
+    }
+
+    @Value.Check
+    default void check() {
+        Preconditions.checkArgument(
+                segmentBytes() >= 4096,
+                "segmentBytes must be at least 4096",
+                SafeArg.of("segmentBytes", segmentBytes()));
+        Preconditions.checkArgument(
+                maxRetainedBytes() >= segmentBytes(),
+                "maxRetainedBytes must be at least segmentBytes",
+                SafeArg.of("maxRetainedBytes", maxRetainedBytes()),
+                SafeArg.of("segmentBytes", segmentBytes()));
+        Preconditions.checkArgument(
+                !maxAge().isNegative() && !maxAge().isZero(),
+                "maxAge must be positive",
+                SafeArg.of("maxAge", maxAge()));
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    class Builder extends ImmutableSpanJournalOptions.Builder {}
+}
@@ -0,0 +1,129 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.tracing.api.Span;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams the spans of a journal written by {@link SpanJournalObserver}, oldest segment first. Each segment is read up
+ * to its last valid record, so that a record torn by a crash of the writer ends the segment instead of failing the
+ * read. Segments which are deleted while they are waiting to be read are skipped.
+ *
+ * <pre>{@code
+ * SpanJournalReader reader = SpanJournalReader.open(directory);
+ * while (reader.hasNext()) {
+ *     Span span = reader.next();
+ * }
+ * }</pre>
+ */
+public final class SpanJournalReader implements Iterator<Span> {
+
+    private static final Logger log = LoggerFactory.getLogger(SpanJournalReader.class);
+
+    private final Iterator<Path> segments;
+
+    private SpanJournalFormat.Decoder decoder = new SpanJournalFormat.Decoder();
+
+    @Nullable
+    private ByteBuffer segment;
+
+    private int position;
+
+    @Nullable
+    private Span next;
+
+    private SpanJournalReader(List<Path> segments) {
+        this.segments = segments.iterator();
+    }
+
+    /** Returns a reader of the segments which exist in the directory when this method is called. */
+    public static SpanJournalReader open(Path directory) throws IOException {
+        return new SpanJournalReader(SpanJournalFormat.segments(directory));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            ByteBuffer current = segment;
+            if (current == null) {
+                if (!segments.hasNext()) {
+                    return false;
+                }
+                openSegment(segments.next());
+                continue;
+            }
+            int length = SpanJournalFormat.recordLength(current, position);
+            if (length == 0) {
+                segment = null;
+                continue;
+            }
+            ByteBuffer payload = current.duplicate();
+            payload.limit(position + SpanJournalFormat.RECORD_HEADER_BYTES + length)
+                    .position(position + SpanJournalFormat.RECORD_HEADER_BYTES);
+            position += SpanJournalFormat.RECORD_HEADER_BYTES + length;
+            try {
+                next = decoder.decode(payload);
+            } catch (RuntimeException e) {
+                log.warn("Skipping the remainder of a malformed span journal segment", e);
+                segment = null;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Span next() {
+        Span span = hasNext() ? next : null;
+        if (span == null) {
+            throw new NoSuchElementException();
+        }
+        next = null;
+        return span;
+    }
+
+    private void openSegment(Path path) {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!SpanJournalFormat.hasValidHeader(mapped)) {
+            log.warn("Skipping span journal segment with an invalid header", UnsafeArg.of("segment", path));
+            return;
+        }
+        segment = mapped;
+        position = SpanJournalFormat.HEADER_BYTES;
+        decoder = new SpanJournalFormat.Decoder();
+    }
+}
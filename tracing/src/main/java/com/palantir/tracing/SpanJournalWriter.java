@@ -0,0 +1,210 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
+import com.palantir.tracing.api.Span;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends spans to the memory-mapped segments of a journal, see {@link SpanJournalFormat}. Not thread-safe: spans are
+ * written by the single writer thread of a {@link SpanJournalObserver}.
+ */
+final class SpanJournalWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpanJournalWriter.class);
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxRetainedBytes;
+    private final long maxAgeMillis;
+    private final SpanJournalFormat.Encoder encoder = new SpanJournalFormat.Encoder();
+
+    private long nextSequence;
+
+    @Nullable
+    private Path segmentPath;
+
+    @Nullable
+    private MappedByteBuffer segment;
+
+    private SpanJournalWriter(SpanJournalOptions options) {
+        this.directory = options.directory();
+        this.segmentBytes = options.segmentBytes();
+        this.maxRetainedBytes = options.maxRetainedBytes();
+        this.maxAgeMillis = options.maxAge().toMillis();
+    }
+
+    /**
+     * Opens the journal in the configured directory. Spans are appended to the latest segment after its last valid
+     * record, discarding any record torn by a crash of the previous writer.
+     */
+    static SpanJournalWriter open(SpanJournalOptions options) throws IOException {
+        SpanJournalWriter writer = new SpanJournalWriter(options);
+        Files.createDirectories(writer.directory);
+        List<Path> segments = SpanJournalFormat.segments(writer.directory);
+        if (!segments.isEmpty()) {
+            Path latest = segments.get(segments.size() - 1);
+            writer.nextSequence = SpanJournalFormat.sequence(latest) + 1;
+            writer.resume(latest);
+        }
+        writer.enforceRetention();
+        return writer;
+    }
+
+    /** Appends the span, returning false if it is too large to fit into a segment. */
+    boolean append(Span span) throws IOException {
+        encoder.encode(span);
+        // Encoding into a new segment can only make the record larger, as interned strings are spelled out again
+        if (SpanJournalFormat.RECORD_HEADER_BYTES + encoder.size() > segmentBytes - SpanJournalFormat.HEADER_BYTES) {
+            encoder.rollback();
+            return false;
+        }
+        MappedByteBuffer current = segment;
+        if (current == null || current.remaining() < SpanJournalFormat.RECORD_HEADER_BYTES + encoder.size()) {
+            current = rotate();
+            // The encoding may refer to strings of the previous segment
+            encoder.encode(span);
+        }
+        if (current.remaining() < SpanJournalFormat.RECORD_HEADER_BYTES + encoder.size()) {
+            encoder.rollback();
+            return false;
+        }
+        encoder.writeRecord(current);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        finishSegment();
+    }
+
+    private void resume(Path latest) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        int validEnd = SpanJournalFormat.validEnd(mapped);
+        if (validEnd < 0) {
+            log.warn("Ignoring span journal segment with an invalid header", UnsafeArg.of("segment", latest));
+            return;
+        }
+        // Clear the remains of a torn record, so they cannot be mistaken for records following the ones we append
+        for (int position = validEnd; position < mapped.limit(); position++) {
+            if (mapped.get(position) != 0) {
+                mapped.put(position, (byte) 0);
+            }
+        }
+        mapped.position(validEnd);
+        segment = mapped;
+        segmentPath = latest;
+        encoder.encodeReset();
+        if (mapped.remaining() >= SpanJournalFormat.RECORD_HEADER_BYTES + encoder.size()) {
+            encoder.writeRecord(mapped);
+        } else {
+            finishSegment();
+        }
+    }
+
+    private MappedByteBuffer rotate() throws IOException {
+        finishSegment();
+        Path path = SpanJournalFormat.segmentPath(directory, nextSequence++);
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(
+                path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        SpanJournalFormat.writeHeader(mapped);
+        encoder.reset();
+        segment = mapped;
+        segmentPath = path;
+        enforceRetention();
+        return mapped;
+    }
+
+    /** Flushes the current segment to disk, and stamps it with the time it was last written. */
+    private void finishSegment() {
+        MappedByteBuffer current = segment;
+        Path path = segmentPath;
+        segment = null;
+        segmentPath = null;
+        if (current == null || path == null) {
+            return;
+        }
+        current.force();
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug(
+                    "Failed to update the modification time of a span journal segment", UnsafeArg.of("path", path), e);
+        }
+    }
+
+    /** Deletes the oldest finished segments until the journal satisfies the retention limits. */
+    private void enforceRetention() throws IOException {
+        List<Path> segments = SpanJournalFormat.segments(directory);
+        long retainedBytes = 0;
+        for (Path path : segments) {
+            retainedBytes += sizeOf(path);
+        }
+        long oldestRetainedMillis = System.currentTimeMillis() - maxAgeMillis;
+        for (Path path : segments) {
+            if (path.equals(segmentPath)) {
+                break;
+            }
+            long size = sizeOf(path);
+            if (retainedBytes <= maxRetainedBytes && lastModifiedMillis(path) >= oldestRetainedMillis) {
+                break;
+            }
+            Files.deleteIfExists(path);
+            retainedBytes -= size;
+            log.debug(
+                    "Deleted span journal segment",
+                    UnsafeArg.of("path", path),
+                    SafeArg.of("retainedBytes", retainedBytes));
+        }
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try {
+            return Files.size(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModifiedMillis(Path path) throws IOException {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (NoSuchFileException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
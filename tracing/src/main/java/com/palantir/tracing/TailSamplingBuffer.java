@@ -0,0 +1,412 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanTags;
+import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TracingId;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers the spans of tail-sampled traces by trace id and local root span until that local root span completes, at
+ * which point the {@link TailSamplingPolicy} decides whether the whole trace is passed on to the observers. Local roots
+ * sharing a trace id, e.g. two requests of the same trace handled by this process, are decided independently. Spans are
+ * buffered as {@link BufferedSpan raw data}, and only built into {@link Span spans} once the policy inspects them or
+ * the trace is kept.
+ *
+ * <p>Spans of a trace which complete after its local root, e.g. on an executor the root did not wait for, start a new
+ * buffered trace which is eventually discarded by age.
+ */
+final class TailSamplingBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(TailSamplingBuffer.class);
+
+    // Rough per-object overheads used to estimate the retained size of buffered spans.
+    private static final long SPAN_OVERHEAD_BYTES = 200;
+    private static final long METADATA_ENTRY_OVERHEAD_BYTES = 80;
+    // Pending trace and its map and queue entries, held until the trace leaves the age queue.
+    private static final long TRACE_OVERHEAD_BYTES = 150;
+
+    private final TailSamplingPolicy policy;
+    private final long maxBufferedBytes;
+    private final long maxTraceAgeNanos;
+    private final Consumer<Span> observer;
+
+    private final ConcurrentMap<TraceKey, PendingTrace> traces = new ConcurrentHashMap<>();
+    /**
+     * Pending traces in creation order. Traces which have since been flushed or discarded are left in place as closed
+     * tombstones, and are unlinked once they reach the head of the queue. Each entry is accounted for in
+     * {@link #bufferedBytes} until it is unlinked, so that tombstones queued behind a long running trace count towards
+     * the memory budget, and are eventually unlinked by evicting that trace.
+     */
+    private final Queue<PendingTrace> byAge = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    private final AtomicLong keptTraces = new AtomicLong();
+    private final AtomicLong droppedTraces = new AtomicLong();
+    private final AtomicLong evictedTraces = new AtomicLong();
+
+    TailSamplingBuffer(TailSamplingOptions options, Consumer<Span> observer) {
+        this.policy = options.policy();
+        this.maxBufferedBytes = options.maxBufferedBytes();
+        this.maxTraceAgeNanos = options.maxTraceAge().toNanos();
+        this.observer = observer;
+    }
+
+    /** Records a completed span of a tail-sampled trace, deciding the fate of the trace if it is the local root. */
+    void record(BufferedSpan span, boolean isLocalRoot) {
+        long nowNanos = System.nanoTime();
+        evictExpired(nowNanos);
+        if (isLocalRoot) {
+            complete(span);
+            unlinkClosed();
+        } else {
+            buffer(span, nowNanos);
+        }
+    }
+
+    private void complete(BufferedSpan localRoot) {
+        PendingTrace pending = traces.remove(localRoot.traceKey());
+        List<BufferedSpan> spans = null;
+        if (pending != null) {
+            spans = pending.close();
+            if (spans != null) {
+                bufferedBytes.addAndGet(-pending.bytes);
+            }
+        }
+        if (spans == null) {
+            spans = new ArrayList<>(1);
+        }
+        spans.add(localRoot);
+
+        List<Span> built = new BuiltSpans(spans);
+        boolean keep;
+        try {
+            keep = policy.shouldKeep(localRoot.toSpan(), built);
+        } catch (RuntimeException e) {
+            log.warn("Failed to evaluate tail sampling policy", SafeArg.of("policy", policy), e);
+            keep = false;
+        }
+        if (keep) {
+            keptTraces.incrementAndGet();
+            for (int i = 0; i < built.size(); i++) {
+                observer.accept(built.get(i));
+            }
+        } else {
+            droppedTraces.incrementAndGet();
+        }
+    }
+
+    private void buffer(BufferedSpan span, long nowNanos) {
+        long size = span.estimateSize();
+        while (true) {
+            PendingTrace pending = traces.computeIfAbsent(span.traceKey(), key -> {
+                PendingTrace created = new PendingTrace(key, nowNanos);
+                bufferedBytes.addAndGet(TRACE_OVERHEAD_BYTES);
+                byAge.add(created);
+                return created;
+            });
+            // Fails if the trace was completed or evicted concurrently, in which case a new one is buffered
+            if (pending.add(span, size)) {
+                break;
+            }
+        }
+        if (bufferedBytes.addAndGet(size) > maxBufferedBytes) {
+            evictOverBudget();
+        }
+    }
+
+    private void evictExpired(long nowNanos) {
+        PendingTrace oldest;
+        while ((oldest = byAge.peek()) != null && nowNanos - oldest.createdNanos > maxTraceAgeNanos) {
+            if (byAge.remove(oldest)) {
+                releaseTraceOverhead();
+                evict(oldest);
+            }
+        }
+    }
+
+    /** Unlinks the tombstones of completed traces from the head of the age queue. */
+    private void unlinkClosed() {
+        PendingTrace oldest;
+        while ((oldest = byAge.peek()) != null && oldest.isClosed()) {
+            if (byAge.remove(oldest)) {
+                releaseTraceOverhead();
+            }
+        }
+    }
+
+    private void evictOverBudget() {
+        while (bufferedBytes.get() > maxBufferedBytes) {
+            PendingTrace oldest = byAge.poll();
+            if (oldest == null) {
+                return;
+            }
+            releaseTraceOverhead();
+            evict(oldest);
+        }
+    }
+
+    private void releaseTraceOverhead() {
+        bufferedBytes.addAndGet(-TRACE_OVERHEAD_BYTES);
+    }
+
+    private void evict(PendingTrace pending) {
+        traces.remove(pending.key, pending);
+        if (pending.close() != null) {
+            bufferedBytes.addAndGet(-pending.bytes);
+            evictedTraces.incrementAndGet();
+        }
+    }
+
+    long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /** Number of traces in the age queue, including tombstones of completed traces. */
+    int getQueuedTraces() {
+        return byAge.size();
+    }
+
+    long getKeptTraces() {
+        return keptTraces.get();
+    }
+
+    long getDroppedTraces() {
+        return droppedTraces.get();
+    }
+
+    long getEvictedTraces() {
+        return evictedTraces.get();
+    }
+
+    /**
+     * The raw data of a completed span of a tail-sampled trace. Identifiers are only rendered, and the {@link Span}
+     * only built, if the span is inspected by the policy or observed.
+     */
+    static final class BufferedSpan {
+        private final TracingId traceId;
+
+        @Nullable
+        private final TracingId localRootSpanId;
+
+        private final TracingId spanId;
+
+        @Nullable
+        private final TracingId parentSpanId;
+
+        private final String operation;
+        private final SpanType type;
+        private final long startTimeMicroSeconds;
+        private final long durationNanoSeconds;
+        private final Map<String, String> metadata;
+        private final SpanTags tags;
+
+        // Built on first access by the thread completing the local root
+        @Nullable
+        private Span span;
+
+        BufferedSpan(
+                TracingId traceId,
+                @Nullable TracingId localRootSpanId,
+                TracingId spanId,
+                @Nullable TracingId parentSpanId,
+                String operation,
+                SpanType type,
+                long startTimeMicroSeconds,
+                long durationNanoSeconds,
+                Map<String, String> metadata,
+                SpanTags tags) {
+            this.traceId = traceId;
+            this.localRootSpanId = localRootSpanId;
+            this.spanId = spanId;
+            this.parentSpanId = parentSpanId;
+            this.operation = operation;
+            this.type = type;
+            this.startTimeMicroSeconds = startTimeMicroSeconds;
+            this.durationNanoSeconds = durationNanoSeconds;
+            this.metadata = metadata;
+            this.tags = tags;
+        }
+
+        /** Wraps a span which has already been built, e.g. to be returned from {@link Tracer#completeSpan()}. */
+        static BufferedSpan of(Span span, @Nullable TracingId localRootSpanId) {
+            BufferedSpan buffered = new BufferedSpan(
+                    TracingId.parse(span.getTraceId()),
+                    localRootSpanId,
+                    TracingId.parse(span.getSpanId()),
+                    span.getParentSpanId().map(TracingId::parse).orElse(null),
+                    span.getOperation(),
+                    span.type(),
+                    span.getStartTimeMicroSeconds(),
+                    span.getDurationNanoSeconds(),
+                    span.getMetadata(),
+                    span.getTags());
+            buffered.span = span;
+            return buffered;
+        }
+
+        /** Identifies the local root this span belongs to, which is the span itself if it is the local root. */
+        private TraceKey traceKey() {
+            return new TraceKey(traceId, localRootSpanId);
+        }
+
+        Span toSpan() {
+            Span built = span;
+            if (built == null) {
+                Span.Builder builder = Span.builder()
+                        .traceId(traceId.toString())
+                        .spanId(spanId.toString())
+                        .type(type)
+                        .operation(operation)
+                        .startTimeMicroSeconds(startTimeMicroSeconds)
+                        .durationNanoSeconds(durationNanoSeconds)
+                        .putAllMetadata(metadata)
+                        .tags(tags);
+                if (parentSpanId != null) {
+                    builder.parentSpanId(parentSpanId.toString());
+                }
+                built = builder.build();
+                span = built;
+            }
+            return built;
+        }
+
+        private long estimateSize() {
+            long size = SPAN_OVERHEAD_BYTES + 2L * operation.length();
+            if (!spanId.isPrimitive()) {
+                size += 2L * spanId.toString().length();
+            }
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                size += METADATA_ENTRY_OVERHEAD_BYTES + 2L * (entry.getKey().length() + entry.getValue().length());
+            }
+            for (int i = 0; i < tags.size(); i++) {
+                // Primitive values are stored in flat arrays rather than rendered as strings
+                size += METADATA_ENTRY_OVERHEAD_BYTES + 2L * tags.key(i).length();
+                if (tags.type(i) == SpanTags.Type.STRING) {
+                    size += 2L * tags.stringValue(i).length();
+                }
+            }
+            return size;
+        }
+    }
+
+    /** Presents buffered spans to the policy, building each span once it is first accessed. */
+    private static final class BuiltSpans extends AbstractList<Span> implements RandomAccess {
+        private final List<BufferedSpan> spans;
+
+        BuiltSpans(List<BufferedSpan> spans) {
+            this.spans = spans;
+        }
+
+        @Override
+        public Span get(int index) {
+            return spans.get(index).toSpan();
+        }
+
+        @Override
+        public int size() {
+            return spans.size();
+        }
+    }
+
+    /** Spans of a trace which complete under the same local root span. */
+    private static final class TraceKey {
+        private final TracingId traceId;
+
+        @Nullable
+        private final TracingId localRootSpanId;
+
+        TraceKey(TracingId traceId, @Nullable TracingId localRootSpanId) {
+            this.traceId = traceId;
+            this.localRootSpanId = localRootSpanId;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof TraceKey)) {
+                return false;
+            }
+            TraceKey that = (TraceKey) other;
+            return traceId.equals(that.traceId) && Objects.equals(localRootSpanId, that.localRootSpanId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * traceId.hashCode() + Objects.hashCode(localRootSpanId);
+        }
+    }
+
+    private static final class PendingTrace {
+        private final TraceKey key;
+        private final long createdNanos;
+
+        // Guarded by this, null once the trace has been completed or evicted
+        @Nullable
+        private List<BufferedSpan> spans = new ArrayList<>();
+
+        // Only read after close(), which happens-after every successful add()
+        private long bytes;
+
+        PendingTrace(TraceKey key, long createdNanos) {
+            this.key = key;
+            this.createdNanos = createdNanos;
+        }
+
+        synchronized boolean add(BufferedSpan span, long size) {
+            List<BufferedSpan> current = spans;
+            if (current == null) {
+                return false;
+            }
+            current.add(span);
+            bytes += size;
+            return true;
+        }
+
+        /** Returns the buffered spans, or null if this trace has already been closed. */
+        @Nullable
+        synchronized List<BufferedSpan> close() {
+            List<BufferedSpan> current = spans;
+            spans = null;
+            return current;
+        }
+
+        synchronized boolean isClosed() {
+            return spans == null;
+        }
+    }
+}
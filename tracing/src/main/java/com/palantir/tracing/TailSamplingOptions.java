@@ -0,0 +1,66 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.time.Duration;
+import org.immutables.value.Value;
+
+/** Configuration of tail sampling, see {@link Tracer#setTailSampling}. */
+@Value.Immutable
+@Value.Style(visibility = Value.Style.ImplementationVisibility.PACKAGE)
+public interface TailSamplingOptions {
+
+    /** Decides which traces are observed once their local root span completes. */
+    TailSamplingPolicy policy();
+
+    /**
+     * Approximate upper bound on the memory used by buffered spans. When exceeded, the oldest traces are discarded.
+     */
+    @Value.Default
+    default long maxBufferedBytes() {
+        return 32L * 1024 * 1024;
+    }
+
+    /**
+     * Maximum time spans of a trace are buffered for. Traces whose local root has not completed by then, e.g. because
+     * it was never completed, are discarded.
+     */
+    @Value.Default
+    default Duration maxTraceAge() {
+        return Duration.ofMinutes(1);
+    }
+
+    @Value.Check
+    default void check() {
+        Preconditions.checkArgument(
+                maxBufferedBytes() > 0,
+                "maxBufferedBytes must be positive",
+                SafeArg.of("maxBufferedBytes", maxBufferedBytes()));
+        Preconditions.checkArgument(
+                !maxTraceAge().isNegative() && !maxTraceAge().isZero(),
+                "maxTraceAge must be positive",
+                SafeArg.of("maxTraceAge", maxTraceAge()));
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    class Builder extends ImmutableTailSamplingOptions.Builder {}
+}
@@ -0,0 +1,60 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.tracing.api.Span;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Decides whether the buffered spans of a tail-sampled trace are passed to the {@link Tracer#subscribe registered
+ * observers} once the local root span of the trace completes. Implementations must be thread-safe and cheap, they are
+ * invoked synchronously on the thread completing the root span.
+ */
+@FunctionalInterface
+public interface TailSamplingPolicy {
+
+    /**
+     * Returns true if the given spans should be observed. {@code spans} contains every buffered span of the trace in
+     * completion order, ending with {@code localRoot}.
+     */
+    boolean shouldKeep(Span localRoot, List<Span> spans);
+
+    /** Returns a policy keeping traces accepted by this policy or the given policy. */
+    default TailSamplingPolicy or(TailSamplingPolicy other) {
+        return (localRoot, spans) -> shouldKeep(localRoot, spans) || other.shouldKeep(localRoot, spans);
+    }
+
+    /** Keeps traces whose local root span took longer than the given threshold. */
+    static TailSamplingPolicy slowerThan(Duration threshold) {
+        long thresholdNanos = threshold.toNanos();
+        return (localRoot, _spans) -> localRoot.getDurationNanoSeconds() > thresholdNanos;
+    }
+
+    /** Keeps traces in which any span carries the given metadata or tag key, for example an error marker. */
+    static TailSamplingPolicy anySpanHasMetadata(String key) {
+        return (_localRoot, spans) -> {
+            for (int i = 0; i < spans.size(); i++) {
+                Span span = spans.get(i);
+                if (span.getMetadata().containsKey(key) || span.getTags().containsKey(key)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import javax.annotation.Nullable;
+
+/** See {@link TraceContextStorage#threadLocal()}. */
+final class ThreadLocalTraceContextStorage implements TraceContextStorage {
+
+    static final TraceContextStorage INSTANCE = new ThreadLocalTraceContextStorage();
+
+    // Thread-safe since thread-local
+    private final ThreadLocal<Trace> currentTrace = new ThreadLocal<>();
+
+    private ThreadLocalTraceContextStorage() {}
+
+    @Nullable
+    @Override
+    public Trace get() {
+        return currentTrace.get();
+    }
+
+    @Override
+    public void set(Trace trace) {
+        currentTrace.set(trace);
+    }
+
+    @Override
+    public void clear() {
+        currentTrace.remove();
+    }
+
+    @Override
+    public String toString() {
+        return "ThreadLocalTraceContextStorage{}";
+    }
+}
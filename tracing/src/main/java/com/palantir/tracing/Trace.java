@@ -17,18 +17,30 @@
 package com.palantir.tracing;
 
 import static com.palantir.logsafe.Preconditions.checkArgument;
+import static com.palantir.logsafe.Preconditions.checkNotNull;
 import static com.palantir.logsafe.Preconditions.checkState;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import com.google.errorprone.annotations.CheckReturnValue;
 import com.palantir.logsafe.SafeArg;
 import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import com.palantir.tracing.TailSamplingBuffer.BufferedSpan;
 import com.palantir.tracing.api.OpenSpan;
+import com.palantir.tracing.api.Span;
 import com.palantir.tracing.api.SpanObserver;
+import com.palantir.tracing.api.SpanTags;
 import com.palantir.tracing.api.SpanType;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import com.palantir.tracing.api.TracingClock;
+import com.palantir.tracing.api.TracingId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
 
 /**
  * Represents a trace as an ordered list of non-completed spans. Supports adding and removing of spans. This class is
@@ -43,11 +55,16 @@ import java.util.Optional;
  */
 public abstract class Trace {
 
-    private final String traceId;
+    // Null for pooled traces, which lazily generate their identifier, see unsampledRoot()
+    @Nullable
+    private final TracingId traceId;
 
-    private Trace(String traceId) {
-        checkArgument(!Strings.isNullOrEmpty(traceId), "traceId must be non-empty");
-        this.traceId = traceId;
+    private Trace(TracingId traceId) {
+        this.traceId = checkNotNull(traceId, "traceId must be non-null");
+    }
+
+    private Trace() {
+        this.traceId = null;
     }
 
     /**
@@ -57,14 +74,22 @@ public abstract class Trace {
      */
     @CheckReturnValue
     final OpenSpan startSpan(String operation, String parentSpanId, SpanType type) {
-        checkState(isEmpty(), "Cannot start a span with explicit parent if the current thread's trace is non-empty");
         checkArgument(!Strings.isNullOrEmpty(parentSpanId), "parentSpanId must be non-empty");
+        return startSpan(operation, TracingId.parse(parentSpanId), type);
+    }
+
+    /** Like {@link #startSpan(String, String, SpanType)}, but takes an already parsed parent span identifier. */
+    @CheckReturnValue
+    final OpenSpan startSpan(String operation, TracingId parentSpanId, SpanType type) {
+        checkState(isEmpty(), "Cannot start a span with explicit parent if the current thread's trace is non-empty");
+        TracingId originatingSpanId = getOriginatingSpanIdentifier();
         OpenSpan span = OpenSpan.of(
                 operation,
-                Tracers.randomId(),
+                TracingId.random(),
                 type,
-                Optional.of(parentSpanId),
-                orElse(getOriginatingSpanId(), Optional.of(parentSpanId)));
+                parentSpanId,
+                originatingSpanId != null ? originatingSpanId : parentSpanId,
+                Tracer.getClock());
         push(span);
         return span;
     }
@@ -75,34 +100,23 @@ public abstract class Trace {
      */
     @CheckReturnValue
     final OpenSpan startSpan(String operation, SpanType type) {
-        Optional<OpenSpan> prevState = top();
-        final OpenSpan span;
-        // Avoid lambda allocation in hot paths
-        if (prevState.isPresent()) {
-            span = OpenSpan.of(
-                    operation,
-                    Tracers.randomId(),
-                    type,
-                    Optional.of(prevState.get().getSpanId()),
-                    orElse(getOriginatingSpanId(), prevState.get().getParentSpanId()));
-        } else {
-            span = OpenSpan.of(operation, Tracers.randomId(), type, Optional.empty(), getOriginatingSpanId());
+        TracingId parentSpanId = topSpanIdentifier();
+        TracingId originatingSpanId = getOriginatingSpanIdentifier();
+        if (originatingSpanId == null && parentSpanId != null) {
+            originatingSpanId = topParentSpanIdentifier();
         }
-
+        OpenSpan span =
+                OpenSpan.of(operation, TracingId.random(), type, parentSpanId, originatingSpanId, Tracer.getClock());
         push(span);
         return span;
     }
 
-    private static <T> Optional<T> orElse(Optional<T> left, Optional<T> right) {
-        if (left.isPresent()) {
-            return left;
-        }
-        return right;
-    }
-
     /** Like {@link #startSpan(String, String, SpanType)}, but does not return an {@link OpenSpan}. */
     abstract void fastStartSpan(String operation, String parentSpanId, SpanType type);
 
+    /** Like {@link #startSpan(String, TracingId, SpanType)}, but does not return an {@link OpenSpan}. */
+    abstract void fastStartSpan(String operation, TracingId parentSpanId, SpanType type);
+
     /** Like {@link #startSpan(String, SpanType)}, but does not return an {@link OpenSpan}. */
     abstract void fastStartSpan(String operation, SpanType type);
 
@@ -112,6 +126,52 @@ public abstract class Trace {
 
     abstract Optional<OpenSpan> pop();
 
+    /** Identifier of the current span, or null if this trace has no spans or does not record span identifiers. */
+    @Nullable
+    abstract TracingId topSpanIdentifier();
+
+    /** Identifier of the parent of the current span, or null if it has none or this trace has no spans. */
+    @Nullable
+    abstract TracingId topParentSpanIdentifier();
+
+    /**
+     * Identifier of the current span to propagate to other services, or null if this trace has no spans. Unlike
+     * {@link #topSpanIdentifier()}, traces which do not record span identifiers make one up, which remains the same
+     * until the current span completes.
+     */
+    @Nullable
+    abstract TracingId propagatedSpanIdentifier();
+
+    /**
+     * Tags of the current span, or null if this trace has no spans or does not record tags. The returned builder is
+     * only valid until the current span completes.
+     */
+    @Nullable
+    abstract SpanTags.Builder topSpanTags();
+
+    /**
+     * Removes the current span, returning it as a completed {@link Span} with the given metadata, or null if no
+     * {@link Span} is recorded for it. Unlike {@link #pop()}, no intermediate {@link OpenSpan} is created.
+     */
+    @Nullable
+    abstract Span completeSpan(Map<String, String> metadata);
+
+    /**
+     * Like {@link #completeSpan(Map)}, but returns the raw data of the span to be buffered until the fate of a
+     * {@link #isTailSampled() tail-sampled} trace is decided, without rendering its identifiers.
+     */
+    @Nullable
+    abstract BufferedSpan completeBufferedSpan(Map<String, String> metadata);
+
+    /** Removes the current span (if it exists) without creating any objects to represent it. */
+    abstract void discardSpan();
+
+    /**
+     * Records the duration of the current span, which is about to complete, into {@code histograms}. Spans which were
+     * started before the histograms were enabled may not be recorded.
+     */
+    abstract void recordLatency(LatencyHistograms histograms);
+
     abstract boolean isEmpty();
 
     /**
@@ -120,63 +180,451 @@ public abstract class Trace {
      */
     abstract boolean isObservable();
 
+    /**
+     * True iff this trace records spans which are only passed to observers if the {@link TailSamplingPolicy} accepts
+     * the trace once its local root span completes. Such traces are {@link #isObservable() observable}, but are not
+     * reported as sampled to other services.
+     */
+    abstract boolean isTailSampled();
+
+    /**
+     * True iff the outermost span of this trace is the local root of a {@link #isTailSampled() tail-sampled} trace,
+     * rather than a child of a span on another thread.
+     */
+    abstract boolean isLocalRoot();
+
+    /**
+     * Identifier of the local root span of a {@link #isTailSampled() tail-sampled} trace, which tells apart the spans
+     * of local roots sharing a trace id, or null if it is not known.
+     */
+    @Nullable
+    abstract TracingId localRootSpanIdentifier();
+
     /** The globally unique non-empty identifier for this call trace. */
     final String getTraceId() {
-        return traceId;
+        return getTraceIdentifier().toString();
+    }
+
+    /** Like {@link #getTraceId()}, but does not render the identifier as a string. */
+    final TracingId getTraceIdentifier() {
+        TracingId current = traceId;
+        return current == null ? lazyTraceIdentifier() : current;
     }
 
-    abstract Optional<String> getOriginatingSpanId();
+    /** Identifier of traces created without one, which is only generated once requested. */
+    TracingId lazyTraceIdentifier() {
+        throw new SafeIllegalStateException("Trace was created without an identifier");
+    }
+
+    final Optional<String> getOriginatingSpanId() {
+        TracingId originatingSpanId = getOriginatingSpanIdentifier();
+        return originatingSpanId == null ? Optional.empty() : Optional.of(originatingSpanId.toString());
+    }
+
+    @Nullable
+    abstract TracingId getOriginatingSpanIdentifier();
 
     /** Returns a copy of this Trace which can be independently mutated. */
     abstract Trace deepCopy();
 
     static Trace of(boolean isObservable, String traceId) {
+        checkArgument(!Strings.isNullOrEmpty(traceId), "traceId must be non-empty");
+        return of(isObservable, TracingId.parse(traceId));
+    }
+
+    static Trace of(boolean isObservable, TracingId traceId) {
         return isObservable ? new Sampled(traceId) : new Unsampled(traceId);
     }
 
+    /**
+     * Returns an unsampled trace for a new root span on the current thread. The trace identifier is only generated
+     * once requested, which {@link Tracer#setTrace} does unless the MDC is disabled, and the instance is reused by the
+     * next root trace of the thread once it has been {@link #release() released}.
+     */
+    static Trace unsampledRoot() {
+        return Unsampled.acquire();
+    }
+
+    /**
+     * Called once this trace has become empty and has been cleared from the current thread, allowing its state to be
+     * reused. Must not be called for traces which may still be referenced.
+     */
+    void release() {}
+
+    /** Forgets the traces and frames pooled by the current thread, so that tests do not observe each other's. */
+    @VisibleForTesting
+    static void clearPools() {
+        Unsampled.pooled.remove();
+        Sampled.pooledFrames.remove();
+    }
+
+    /**
+     * Returns this trace after opting it out of {@link #release() reuse}, for traces handed out of the tracer, which
+     * callers may keep referencing after it was cleared.
+     */
+    Trace unpooled() {
+        return this;
+    }
+
+    /** Returns a {@link #isTailSampled() tail-sampled} trace whose outermost span is the local root of the trace. */
+    static Trace tailSampledRoot(TracingId traceId) {
+        return new Sampled(traceId, true, true, null);
+    }
+
+    /**
+     * Returns a {@link #isTailSampled() tail-sampled} trace continuing the trace of the given local root span, e.g. on
+     * another thread.
+     */
+    static Trace tailSampled(TracingId traceId, @Nullable TracingId localRootSpanId) {
+        return new Sampled(traceId, true, false, localRootSpanId);
+    }
+
+    /**
+     * Open span of a {@link Sampled} trace, linked to the span it was started within. Frames are recycled by the trace
+     * which pushed them once their span completes, unless they were {@link #frozen} by {@link Trace#deepCopy()}. A
+     * trace and its copies share the frozen frames which were open when the copy was taken, so copying only visits the
+     * frames pushed since the previous copy rather than the whole trace.
+     */
+    private static final class SpanFrame {
+        // The span this one was started within, or the next free frame of a recycled frame
+        @Nullable
+        private SpanFrame parent;
+
+        private String operation = "";
+        private SpanType type = SpanType.LOCAL;
+        private long spanId;
+        private long startTimeMicroSeconds;
+        private long startClockNanoSeconds;
+
+        // Lazily created identifier of the span, so that propagating the span repeatedly reuses its rendered form.
+        // Frozen frames may cache it concurrently, which is benign as identifiers are immutable.
+        @Nullable
+        private TracingId identifier;
+
+        // Number of frames below this one, indexes the tags of the trace which pushed it
+        private int depth;
+
+        // Set once shared with a copy, after which the frame is never modified or recycled
+        private boolean frozen;
+    }
+
     private static final class Sampled extends Trace {
 
-        private final Deque<OpenSpan> stack;
+        /** Frames beyond this many are left for the garbage collector rather than retained by the pooling thread. */
+        private static final int MAX_POOLED_FRAMES = 1024;
 
-        private Sampled(ArrayDeque<OpenSpan> stack, String traceId) {
-            super(traceId);
-            this.stack = stack;
+        /**
+         * Free frames released by the most recently emptied trace on each thread, linked through their parents. Traces
+         * only hold free frames while they have open spans, so a released list is never shared between two live traces.
+         */
+        private static final ThreadLocal<SpanFrame> pooledFrames = new ThreadLocal<>();
+
+        /** The current span, or null when this trace has no spans. */
+        @Nullable
+        private SpanFrame top;
+
+        /** Frames recycled by this trace, linked through their parents. */
+        @Nullable
+        private SpanFrame free;
+
+        // Upper bound of the length of the free list
+        private int freeFrames;
+
+        /**
+         * Parent of the outermost span, typically the caller's span from another service. The parent of every other
+         * span is the span it was started within.
+         */
+        @Nullable
+        private TracingId rootParentSpanId;
+
+        /**
+         * Tags of the open spans indexed by {@link SpanFrame#depth}, allocated once a span is tagged. Not shared with
+         * {@link #deepCopy() copies}, which share the frames but only complete the spans they start.
+         */
+        @Nullable
+        private SpanTags.Builder[] tags;
+
+        private final boolean tailSampled;
+        private final boolean localRoot;
+
+        // Set once the outermost span is pushed if this trace owns its local root, and kept once it completes
+        @Nullable
+        private TracingId localRootSpanId;
+
+        private Sampled(TracingId traceId) {
+            this(traceId, false, false, null);
         }
 
-        private Sampled(String traceId) {
-            this(new ArrayDeque<>(), traceId);
+        private Sampled(
+                TracingId traceId, boolean tailSampled, boolean localRoot, @Nullable TracingId localRootSpanId) {
+            super(traceId);
+            this.tailSampled = tailSampled;
+            this.localRoot = localRoot;
+            this.localRootSpanId = localRootSpanId;
         }
 
         @Override
-        @SuppressWarnings("ResultOfMethodCallIgnored") // Sampled traces cannot optimize this path
         void fastStartSpan(String operation, String parentSpanId, SpanType type) {
-            startSpan(operation, parentSpanId, type);
+            checkArgument(!Strings.isNullOrEmpty(parentSpanId), "parentSpanId must be non-empty");
+            fastStartSpan(operation, TracingId.parse(parentSpanId), type);
+        }
+
+        @Override
+        void fastStartSpan(String operation, TracingId parentSpanId, SpanType type) {
+            checkState(
+                    isEmpty(), "Cannot start a span with explicit parent if the current thread's trace is non-empty");
+            rootParentSpanId = parentSpanId;
+            pushFrame(operation, type);
         }
 
         @Override
-        @SuppressWarnings("ResultOfMethodCallIgnored") // Sampled traces cannot optimize this path
         void fastStartSpan(String operation, SpanType type) {
-            startSpan(operation, type);
+            pushFrame(operation, type);
+        }
+
+        private void pushFrame(String operation, SpanType type) {
+            TracingClock clock = Tracer.getClock();
+            long nanoTime = clock.nanoTime();
+            pushFrame(
+                    operation,
+                    type,
+                    ThreadLocalRandom.current().nextLong(),
+                    null,
+                    clock.epochMicros(nanoTime),
+                    nanoTime);
         }
 
         @Override
         protected void push(OpenSpan span) {
-            stack.push(span);
+            TracingId spanId = span.spanIdentifier();
+            checkArgument(
+                    spanId.isPrimitive() && !spanId.is128Bit(),
+                    "Sampled traces only record 64-bit span identifiers",
+                    SafeArg.of("spanId", spanId));
+            if (top == null) {
+                rootParentSpanId = span.parentSpanIdentifier();
+            }
+            pushFrame(
+                    span.getOperation(),
+                    span.type(),
+                    spanId.getLow(),
+                    spanId,
+                    span.getStartTimeMicroSeconds(),
+                    span.getStartClockNanoSeconds());
+        }
+
+        private void pushFrame(
+                String operation,
+                SpanType type,
+                long spanId,
+                @Nullable TracingId identifier,
+                long startTimeMicroSeconds,
+                long startClockNanoSeconds) {
+            SpanFrame parent = top;
+            SpanFrame frame = acquireFrame();
+            frame.parent = parent;
+            frame.operation = operation;
+            frame.type = type;
+            frame.spanId = spanId;
+            frame.identifier = identifier;
+            frame.startTimeMicroSeconds = startTimeMicroSeconds;
+            frame.startClockNanoSeconds = startClockNanoSeconds;
+            frame.depth = parent == null ? 0 : parent.depth + 1;
+            top = frame;
+            if (parent == null && localRoot) {
+                localRootSpanId = identifier(frame);
+            }
+        }
+
+        private SpanFrame acquireFrame() {
+            SpanFrame frame = free;
+            if (frame == null) {
+                frame = pooledFrames.get();
+                if (frame == null) {
+                    return new SpanFrame();
+                }
+                pooledFrames.set(null);
+                freeFrames = MAX_POOLED_FRAMES;
+            }
+            free = frame.parent;
+            freeFrames--;
+            return frame;
+        }
+
+        private void recycleFrame(SpanFrame frame) {
+            if (frame.frozen || freeFrames >= MAX_POOLED_FRAMES) {
+                return;
+            }
+            frame.operation = "";
+            frame.identifier = null;
+            frame.parent = free;
+            free = frame;
+            freeFrames++;
+        }
+
+        private void releaseFrames() {
+            SpanFrame released = free;
+            free = null;
+            freeFrames = 0;
+            if (released != null && pooledFrames.get() == null) {
+                pooledFrames.set(released);
+            }
         }
 
         @Override
         Optional<OpenSpan> top() {
-            return stack.isEmpty() ? Optional.empty() : Optional.of(stack.peekFirst());
+            SpanFrame current = top;
+            return current == null ? Optional.empty() : Optional.of(toOpenSpan(current));
         }
 
         @Override
         Optional<OpenSpan> pop() {
-            return stack.isEmpty() ? Optional.empty() : Optional.of(stack.pop());
+            SpanFrame current = top;
+            if (current == null) {
+                return Optional.empty();
+            }
+            OpenSpan span = toOpenSpan(current);
+            discardSpan();
+            return Optional.of(span);
+        }
+
+        @Override
+        @Nullable
+        TracingId topSpanIdentifier() {
+            SpanFrame current = top;
+            return current == null ? null : identifier(current);
+        }
+
+        @Override
+        @Nullable
+        TracingId topParentSpanIdentifier() {
+            SpanFrame current = top;
+            return current == null ? null : parentSpanIdentifier(current);
+        }
+
+        @Override
+        @Nullable
+        TracingId propagatedSpanIdentifier() {
+            return topSpanIdentifier();
+        }
+
+        @Override
+        @Nullable
+        SpanTags.Builder topSpanTags() {
+            SpanFrame current = top;
+            if (current == null) {
+                return null;
+            }
+            SpanTags.Builder[] byDepth = tags;
+            if (byDepth == null || byDepth.length <= current.depth) {
+                int capacity = Math.max(4, current.depth * 2);
+                byDepth = byDepth == null ? new SpanTags.Builder[capacity] : Arrays.copyOf(byDepth, capacity);
+                tags = byDepth;
+            }
+            SpanTags.Builder builder = byDepth[current.depth];
+            if (builder == null) {
+                builder = SpanTags.builder();
+                byDepth[current.depth] = builder;
+            }
+            return builder;
+        }
+
+        /** Returns the tags of the given span, and forgets them so that they are not attributed to a later span. */
+        @Nullable
+        private SpanTags takeTags(SpanFrame frame) {
+            SpanTags.Builder[] byDepth = tags;
+            if (byDepth == null || byDepth.length <= frame.depth) {
+                return null;
+            }
+            SpanTags.Builder builder = byDepth[frame.depth];
+            if (builder == null) {
+                return null;
+            }
+            byDepth[frame.depth] = null;
+            return builder.build();
+        }
+
+        @Override
+        @Nullable
+        Span completeSpan(Map<String, String> metadata) {
+            SpanFrame frame = top;
+            if (frame == null) {
+                return null;
+            }
+            Span.Builder builder = Span.builder();
+            builder.traceId(getTraceId())
+                    .spanId(Tracers.longToPaddedHex(frame.spanId))
+                    .type(frame.type)
+                    .operation(frame.operation)
+                    .startTimeMicroSeconds(frame.startTimeMicroSeconds)
+                    .durationNanoSeconds(Tracer.getClock().nanoTime() - frame.startClockNanoSeconds)
+                    .putAllMetadata(metadata);
+            TracingId parentSpanId = parentSpanIdentifier(frame);
+            if (parentSpanId != null) {
+                builder.parentSpanId(parentSpanId.toString());
+            }
+            SpanTags spanTags = takeTags(frame);
+            if (spanTags != null) {
+                builder.tags(spanTags);
+            }
+            discardSpan();
+            return builder.build();
+        }
+
+        @Override
+        @Nullable
+        BufferedSpan completeBufferedSpan(Map<String, String> metadata) {
+            SpanFrame frame = top;
+            if (frame == null) {
+                return null;
+            }
+            SpanTags spanTags = takeTags(frame);
+            BufferedSpan span = new BufferedSpan(
+                    getTraceIdentifier(),
+                    localRootSpanId,
+                    identifier(frame),
+                    parentSpanIdentifier(frame),
+                    frame.operation,
+                    frame.type,
+                    frame.startTimeMicroSeconds,
+                    Tracer.getClock().nanoTime() - frame.startClockNanoSeconds,
+                    metadata.isEmpty() ? ImmutableMap.of() : ImmutableMap.copyOf(metadata),
+                    spanTags == null ? SpanTags.empty() : spanTags);
+            discardSpan();
+            return span;
+        }
+
+        @Override
+        void recordLatency(LatencyHistograms histograms) {
+            SpanFrame current = top;
+            if (current != null) {
+                histograms.record(
+                        current.operation, current.type, Tracer.getClock().nanoTime() - current.startClockNanoSeconds);
+            }
+        }
+
+        @Override
+        void discardSpan() {
+            SpanFrame current = top;
+            if (current == null) {
+                return;
+            }
+            SpanTags.Builder[] byDepth = tags;
+            if (byDepth != null && byDepth.length > current.depth) {
+                byDepth[current.depth] = null;
+            }
+            SpanFrame parent = current.parent;
+            top = parent;
+            recycleFrame(current);
+            if (parent == null) {
+                rootParentSpanId = null;
+                releaseFrames();
+            }
         }
 
         @Override
         boolean isEmpty() {
-            return stack.isEmpty();
+            return top == null;
         }
 
         @Override
@@ -185,59 +633,248 @@ public abstract class Trace {
         }
 
         @Override
-        Optional<String> getOriginatingSpanId() {
-            if (stack.isEmpty()) {
-                return Optional.empty();
-            }
-            return stack.peekLast().getParentSpanId();
+        boolean isTailSampled() {
+            return tailSampled;
+        }
+
+        @Override
+        boolean isLocalRoot() {
+            return localRoot;
+        }
+
+        @Override
+        @Nullable
+        TracingId localRootSpanIdentifier() {
+            return localRootSpanId;
+        }
+
+        @Override
+        @Nullable
+        TracingId getOriginatingSpanIdentifier() {
+            return top == null ? null : rootParentSpanId;
         }
 
         @Override
         Trace deepCopy() {
-            return new Sampled(new ArrayDeque<>(stack), getTraceId());
+            // Copies continue the trace on another thread, so never own its local root
+            Sampled copy = new Sampled(getTraceIdentifier(), tailSampled, false, localRootSpanId);
+            copy.rootParentSpanId = rootParentSpanId;
+            // Frames below a frozen frame have been frozen by an earlier copy
+            for (SpanFrame frame = top; frame != null && !frame.frozen; frame = frame.parent) {
+                frame.frozen = true;
+            }
+            copy.top = top;
+            return copy;
+        }
+
+        @Nullable
+        private TracingId parentSpanIdentifier(SpanFrame frame) {
+            SpanFrame parent = frame.parent;
+            return parent == null ? rootParentSpanId : identifier(parent);
+        }
+
+        /**
+         * Matches the originating span computed by {@link #startSpan(String, SpanType)} when spans were stored as
+         * {@link OpenSpan} objects.
+         */
+        @Nullable
+        private TracingId originatingSpanIdentifier(SpanFrame frame) {
+            SpanFrame parent = frame.parent;
+            if (rootParentSpanId != null || parent == null || parent.parent == null) {
+                return rootParentSpanId;
+            }
+            return identifier(parent.parent);
+        }
+
+        private static TracingId identifier(SpanFrame frame) {
+            TracingId identifier = frame.identifier;
+            if (identifier == null) {
+                identifier = TracingId.of(frame.spanId);
+                frame.identifier = identifier;
+            }
+            return identifier;
+        }
+
+        private OpenSpan toOpenSpan(SpanFrame frame) {
+            return new OpenSpan.Builder()
+                    .operation(frame.operation)
+                    .startTimeMicroSeconds(frame.startTimeMicroSeconds)
+                    .startClockNanoSeconds(frame.startClockNanoSeconds)
+                    .parentSpanIdentifier(parentSpanIdentifier(frame))
+                    .originatingSpanIdentifier(originatingSpanIdentifier(frame))
+                    .spanIdentifier(identifier(frame))
+                    .type(frame.type)
+                    .build();
         }
 
         @Override
         public String toString() {
+            List<OpenSpan> stack = new ArrayList<>();
+            for (SpanFrame frame = top; frame != null; frame = frame.parent) {
+                stack.add(toOpenSpan(frame));
+            }
             return "Trace{stack=" + stack + ", isObservable=true, traceId='" + getTraceId() + "'}";
         }
     }
 
     private static final class Unsampled extends Trace {
         /**
-         * Tracks the size that a {@link Sampled} trace {@link Sampled#stack} would have <i>if</i> this was sampled.
-         * This allows thread trace state to be cleared when all "started" spans have been "removed".
+         * Released root trace of each thread, see {@link Trace#unsampledRoot()}. Only instances created by
+         * {@link #acquire()} are pooled, other instances may be referenced after they have been cleared.
+         */
+        private static final ThreadLocal<Unsampled> pooled = new ThreadLocal<>();
+
+        /**
+         * Tracks the depth that a {@link Sampled} trace would have <i>if</i> this was sampled. This allows thread trace
+         * state to be cleared when all "started" spans have been "removed".
          */
         private int numberOfSpans;
 
-        private Optional<String> originatingSpanId = Optional.empty();
+        /**
+         * Identifier made up for the span at depth {@link #propagatedSpanDepth}, see
+         * {@link #propagatedSpanIdentifier()}. The depth is zero if no identifier has been made up for a span which is
+         * still open. Kept as an identifier so that propagating the span repeatedly reuses its rendered form.
+         */
+        @Nullable
+        private TracingId propagatedSpanId;
+
+        private int propagatedSpanDepth;
+
+        /** Start of the open spans, only tracked while latency histograms are enabled. Retained when pooled. */
+        @Nullable
+        private SpanStarts starts;
+
+        @Nullable
+        private TracingId originatingSpanId;
 
-        private Unsampled(int numberOfSpans, String traceId) {
+        /** Identifier of a pooled trace, generated once requested and forgotten once the trace is reused. */
+        @Nullable
+        private TracingId lazyTraceId;
+
+        private boolean poolable;
+
+        private Unsampled(int numberOfSpans, TracingId traceId) {
             super(traceId);
             this.numberOfSpans = numberOfSpans;
+            this.poolable = false;
             validateNumberOfSpans();
         }
 
-        private Unsampled(String traceId) {
+        private Unsampled(TracingId traceId) {
             this(0, traceId);
         }
 
+        /** Creates a trace which lazily generates its identifier. */
+        private Unsampled() {
+            super();
+            this.poolable = true;
+        }
+
+        static Unsampled acquire() {
+            Unsampled trace = pooled.get();
+            if (trace == null) {
+                return new Unsampled();
+            }
+            pooled.set(null);
+            return trace;
+        }
+
         @Override
-        void fastStartSpan(String _operation, String parentSpanId, SpanType _type) {
-            startSpan(Optional.of(parentSpanId));
+        void release() {
+            if (poolable && numberOfSpans == 0) {
+                lazyTraceId = null;
+                originatingSpanId = null;
+                propagatedSpanDepth = 0;
+                pooled.set(this);
+            }
         }
 
         @Override
-        void fastStartSpan(String _operation, SpanType _type) {
+        Trace unpooled() {
+            if (poolable) {
+                poolable = false;
+                // Fix the identifier before other threads may read it
+                lazyTraceIdentifier();
+            }
+            return this;
+        }
+
+        @Override
+        TracingId lazyTraceIdentifier() {
+            TracingId current = lazyTraceId;
+            if (current == null) {
+                current = TracingId.random();
+                lazyTraceId = current;
+            }
+            return current;
+        }
+
+        @Override
+        void fastStartSpan(String operation, String parentSpanId, SpanType type) {
+            startSpan(TracingId.parse(parentSpanId));
+            trackStart(operation, type);
+        }
+
+        @Override
+        void fastStartSpan(String operation, TracingId parentSpanId, SpanType type) {
+            startSpan(parentSpanId);
+            trackStart(operation, type);
+        }
+
+        @Override
+        void fastStartSpan(String operation, SpanType type) {
             numberOfSpans++;
+            trackStart(operation, type);
         }
 
         @Override
         protected void push(OpenSpan span) {
-            startSpan(span.getParentSpanId());
+            startSpan(span.parentSpanIdentifier());
+            trackStart(span.getOperation(), span.type(), span.getStartClockNanoSeconds());
+        }
+
+        private void trackStart(String operation, SpanType type) {
+            if (Tracer.getLatencyHistograms() != null) {
+                starts().set(numberOfSpans - 1, operation, type, Tracer.getClock().nanoTime());
+            } else {
+                clearStart();
+            }
+        }
+
+        private void trackStart(String operation, SpanType type, long startNanos) {
+            if (Tracer.getLatencyHistograms() != null) {
+                starts().set(numberOfSpans - 1, operation, type, startNanos);
+            } else {
+                clearStart();
+            }
         }
 
-        private void startSpan(Optional<String> parentSpanId) {
+        /** Forgets a span tracked at the current depth before the histograms were disabled. */
+        private void clearStart() {
+            SpanStarts current = starts;
+            if (current != null) {
+                current.clear(numberOfSpans - 1);
+            }
+        }
+
+        private SpanStarts starts() {
+            SpanStarts current = starts;
+            if (current == null) {
+                current = new SpanStarts();
+                starts = current;
+            }
+            return current;
+        }
+
+        @Override
+        void recordLatency(LatencyHistograms histograms) {
+            SpanStarts current = starts;
+            if (current != null && numberOfSpans > 0) {
+                current.record(numberOfSpans - 1, histograms);
+            }
+        }
+
+        private void startSpan(@Nullable TracingId parentSpanId) {
             if (numberOfSpans == 0) {
                 originatingSpanId = parentSpanId;
             }
@@ -251,14 +888,74 @@ public abstract class Trace {
 
         @Override
         Optional<OpenSpan> pop() {
+            discardSpan();
+            return Optional.empty();
+        }
+
+        @Override
+        @Nullable
+        TracingId topSpanIdentifier() {
+            return null;
+        }
+
+        @Override
+        @Nullable
+        TracingId topParentSpanIdentifier() {
+            return null;
+        }
+
+        @Override
+        @Nullable
+        SpanTags.Builder topSpanTags() {
+            return null;
+        }
+
+        @Override
+        @Nullable
+        TracingId propagatedSpanIdentifier() {
+            if (numberOfSpans == 0) {
+                return null;
+            }
+            TracingId identifier = propagatedSpanId;
+            if (identifier == null || propagatedSpanDepth != numberOfSpans) {
+                identifier = TracingId.random();
+                propagatedSpanId = identifier;
+                propagatedSpanDepth = numberOfSpans;
+            }
+            return identifier;
+        }
+
+        @Override
+        @Nullable
+        Span completeSpan(Map<String, String> _metadata) {
+            discardSpan();
+            return null;
+        }
+
+        @Override
+        @Nullable
+        BufferedSpan completeBufferedSpan(Map<String, String> _metadata) {
+            discardSpan();
+            return null;
+        }
+
+        @Override
+        void discardSpan() {
             validateNumberOfSpans();
             if (numberOfSpans > 0) {
                 numberOfSpans--;
+                SpanStarts current = starts;
+                if (current != null) {
+                    current.clear(numberOfSpans);
+                }
+            }
+            if (numberOfSpans < propagatedSpanDepth) {
+                // The span the identifier was made up for has completed
+                propagatedSpanDepth = 0;
             }
             if (numberOfSpans == 0) {
-                originatingSpanId = Optional.empty();
+                originatingSpanId = null;
             }
-            return Optional.empty();
         }
 
         @Override
@@ -273,16 +970,37 @@ public abstract class Trace {
         }
 
         @Override
-        Optional<String> getOriginatingSpanId() {
+        boolean isTailSampled() {
+            return false;
+        }
+
+        @Override
+        boolean isLocalRoot() {
+            return false;
+        }
+
+        @Override
+        @Nullable
+        TracingId localRootSpanIdentifier() {
+            return null;
+        }
+
+        @Override
+        @Nullable
+        TracingId getOriginatingSpanIdentifier() {
             return originatingSpanId;
         }
 
         @Override
         Trace deepCopy() {
-            return new Unsampled(numberOfSpans, getTraceId());
+            Unsampled copy = new Unsampled(numberOfSpans, getTraceIdentifier());
+            // The copy continues the same span on another thread, so propagates the same identifier
+            copy.propagatedSpanId = propagatedSpanId;
+            copy.propagatedSpanDepth = propagatedSpanDepth;
+            return copy;
         }
 
-        /** Internal validation, this should never fail because {@link #pop()} only decrements positive values. */
+        /** Internal validation, this should never fail because {@link #discardSpan()} only decrements positives. */
         private void validateNumberOfSpans() {
             if (numberOfSpans < 0) {
                 throw new SafeIllegalStateException(
@@ -295,4 +1013,40 @@ public abstract class Trace {
             return "Trace{numberOfSpans=" + numberOfSpans + ", isObservable=false, traceId='" + getTraceId() + "'}";
         }
     }
+
+    /** Operation, type and start time of the open spans of an {@link Unsampled} trace, indexed by depth. */
+    private static final class SpanStarts {
+        private static final int INITIAL_CAPACITY = 8;
+
+        private String[] operations = new String[INITIAL_CAPACITY];
+        private SpanType[] types = new SpanType[INITIAL_CAPACITY];
+        private long[] startClockNanoSeconds = new long[INITIAL_CAPACITY];
+
+        void set(int depth, String operation, SpanType type, long startNanos) {
+            if (depth >= operations.length) {
+                int capacity = Math.max(operations.length * 2, depth + 1);
+                operations = Arrays.copyOf(operations, capacity);
+                types = Arrays.copyOf(types, capacity);
+                startClockNanoSeconds = Arrays.copyOf(startClockNanoSeconds, capacity);
+            }
+            operations[depth] = operation;
+            types[depth] = type;
+            startClockNanoSeconds[depth] = startNanos;
+        }
+
+        /** Records the span at the given depth, unless it started before the histograms were enabled. */
+        void record(int depth, LatencyHistograms histograms) {
+            if (depth < operations.length && operations[depth] != null) {
+                long durationNanos = Tracer.getClock().nanoTime() - startClockNanoSeconds[depth];
+                histograms.record(operations[depth], types[depth], durationNanos);
+            }
+        }
+
+        void clear(int depth) {
+            if (depth < operations.length) {
+                operations[depth] = null;
+                types[depth] = null;
+            }
+        }
+    }
 }
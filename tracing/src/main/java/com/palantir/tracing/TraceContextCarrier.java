@@ -0,0 +1,34 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implemented by threads, such as the threads of an event loop, which keep the trace of the code they run in a field
+ * of their own rather than a {@link ThreadLocal}. See {@link TraceContextStorage#carrierThreads}. Only the thread
+ * itself may call these methods.
+ */
+public interface TraceContextCarrier {
+
+    /** Returns the trace stored by {@link #setTraceContext}, or null. */
+    @Nullable
+    Trace getTraceContext();
+
+    /** Stores the trace of this thread, or clears it if null. */
+    void setTraceContext(@Nullable Trace trace);
+}
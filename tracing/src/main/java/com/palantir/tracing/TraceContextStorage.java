@@ -0,0 +1,68 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static com.palantir.logsafe.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stores the {@link Trace} of the current thread, see {@link Tracer#setContextStorage}. Implementations must be
+ * thread-safe, and {@link #get()} must only return traces {@link #set} on the calling thread.
+ *
+ * <p>The {@link #threadLocal() default} stores traces in a {@link ThreadLocal}, adding and removing its entry
+ * whenever a thread starts or finishes a trace. {@link #pinnedThreadLocal()} instead keeps a single mutable slot per
+ * thread, which avoids churning the thread-local map of pooled threads running many short traces.
+ * {@link #carrierThreads} keeps the trace in a field of threads implementing {@link TraceContextCarrier}, without any
+ * thread-local lookup. Other implementations may bind the trace to an explicitly passed context, e.g. the context
+ * object of an event loop.
+ */
+public interface TraceContextStorage {
+
+    /** Returns the trace of the calling thread, or null if it has none. */
+    @Nullable
+    Trace get();
+
+    /** Sets the trace of the calling thread. */
+    void set(Trace trace);
+
+    /** Removes the trace of the calling thread. */
+    void clear();
+
+    /** Storage which keeps the trace in a {@link ThreadLocal} entry that only exists while a trace is in progress. */
+    static TraceContextStorage threadLocal() {
+        return ThreadLocalTraceContextStorage.INSTANCE;
+    }
+
+    /**
+     * Storage which pins a mutable slot in a {@link ThreadLocal} for the lifetime of each thread, so that setting and
+     * clearing the trace only writes a field of the slot. In exchange, every thread which ever traced keeps the entry
+     * until it terminates, and each new thread allocates one on its first trace. This suits long-lived pooled threads,
+     * but not a thread per task, e.g. virtual threads, for which the {@link #threadLocal() default} is cheaper.
+     */
+    static TraceContextStorage pinnedThreadLocal() {
+        return PinnedThreadLocalTraceContextStorage.INSTANCE;
+    }
+
+    /**
+     * Storage which keeps the trace of threads implementing {@link TraceContextCarrier}, such as event loop threads, in
+     * the thread itself, and the trace of other threads in the given storage.
+     */
+    static TraceContextStorage carrierThreads(TraceContextStorage fallback) {
+        return new CarrierThreadTraceContextStorage(checkNotNull(fallback, "fallback"));
+    }
+}
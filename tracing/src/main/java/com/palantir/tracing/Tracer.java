@@ -29,16 +29,25 @@ import com.palantir.logsafe.SafeArg;
 import com.palantir.logsafe.UnsafeArg;
 import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
 import com.palantir.logsafe.exceptions.SafeRuntimeException;
+import com.palantir.tracing.TailSamplingBuffer.BufferedSpan;
 import com.palantir.tracing.api.OpenSpan;
+import com.palantir.tracing.api.PropagationContext;
+import com.palantir.tracing.api.Propagator;
+import com.palantir.tracing.api.SamplingDecision;
 import com.palantir.tracing.api.Span;
 import com.palantir.tracing.api.SpanObserver;
+import com.palantir.tracing.api.SpanTags;
 import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TracingClock;
+import com.palantir.tracing.api.TracingId;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,27 +63,73 @@ public final class Tracer {
 
     private static final Logger log = LoggerFactory.getLogger(Tracer.class);
 
+    // Operation of the placeholder span standing in for an unsampled detached span, which never completes
+    private static final String DETACHED_OPERATION = "detached";
+
     private Tracer() {}
 
-    // Thread-safe since thread-local
-    private static final ThreadLocal<Trace> currentTrace = new ThreadLocal<>();
+    // Thread-safe since implementations only return the trace of the calling thread
+    private static volatile TraceContextStorage currentTrace = TraceContextStorage.threadLocal();
+
+    // Whether trace switches are reflected in the SLF4J MDC
+    private static volatile boolean mdcEnabled = true;
+
+    // Whether any thread wrote the MDC keys, and whether threads may still hold keys written before the MDC was
+    // disabled, which they then remove together with their trace
+    private static volatile boolean mdcWritten;
+    private static volatile boolean staleMdc;
 
     // Only access in a class-synchronized fashion
-    private static final Map<String, SpanObserver> observers = new HashMap<>();
-    // we want iterating through tracers to be very fast, and it's faster to pre-define observer execution
-    // when our observers are modified.
-    private static volatile Consumer<Span> compositeObserver = span -> {};
+    private static final Map<String, RegisteredObserver> observers = new HashMap<>();
+    // Copy-on-write snapshot of the observers, so that notifying them is a plain loop without locking.
+    private static volatile RegisteredObserver[] observerArray = RegisteredObserver.NONE;
+    // Observers taking longer than this to consume a single span are quarantined
+    private static volatile long observerLatencyBudgetNanos = Long.MAX_VALUE;
+    // Allows sampled spans to be discarded without materializing a Span object when nobody would observe it.
+    private static volatile boolean hasObservers = false;
 
     // Thread-safe since stateless
     private static volatile TraceSampler sampler = new RandomSampler(0.01f);
 
+    // Records traces rejected by the sampler and observes them retroactively, disabled if null
+    @Nullable
+    private static volatile TailSamplingBuffer tailSampling = null;
+
+    // Records the duration of every completed span, sampled or not, disabled if null
+    @Nullable
+    private static volatile LatencyHistograms latencyHistograms = null;
+
+    private static volatile TracingClock clock = TracingClock.system();
+
     /** Creates a new trace, but does not set it as the current trace. */
     private static Trace createTrace(Observability observability, String traceId) {
         checkArgument(!Strings.isNullOrEmpty(traceId), "traceId must be non-empty");
+        return createTrace(observability, TracingId.parse(traceId));
+    }
+
+    private static Trace createTrace(Observability observability, TracingId traceId) {
         boolean observable = shouldObserve(observability);
+        return newTrace(observability, observable, traceId);
+    }
+
+    private static Trace createTrace(
+            Observability observability, TracingId traceId, String rootOperation, SpanType rootType) {
+        boolean observable = shouldObserve(observability, rootOperation, rootType);
+        return newTrace(observability, observable, traceId);
+    }
+
+    private static Trace newTrace(Observability observability, boolean observable, TracingId traceId) {
+        if (!observable && shouldTailSample(observability)) {
+            return Trace.tailSampledRoot(traceId);
+        }
         return Trace.of(observable, traceId);
     }
 
+    /** True iff a trace which was not sampled up front should be recorded for tail sampling. */
+    private static boolean shouldTailSample(Observability observability) {
+        return observability == Observability.UNDECIDED && tailSampling != null;
+    }
+
     private static boolean shouldObserve(Observability observability) {
         switch (observability) {
             case SAMPLE:
@@ -88,6 +143,27 @@ public final class Tracer {
         throw new SafeIllegalArgumentException("Unknown observability", SafeArg.of("observability", observability));
     }
 
+    private static boolean shouldObserve(Observability observability, String rootOperation, SpanType rootType) {
+        switch (observability) {
+            case SAMPLE:
+                return true;
+            case DO_NOT_SAMPLE:
+                return false;
+            case UNDECIDED:
+                return sample(rootOperation, rootType);
+        }
+
+        throw new SafeIllegalArgumentException("Unknown observability", SafeArg.of("observability", observability));
+    }
+
+    /** Asks the sampler about a new trace, passing the root span on to samplers which make per-operation decisions. */
+    private static boolean sample(String rootOperation, SpanType rootType) {
+        TraceSampler current = sampler;
+        return current instanceof OperationSampler
+                ? ((OperationSampler) current).sample(rootOperation, rootType)
+                : current.sample();
+    }
+
     /**
      * Deprecated. This exists to avoid ABI breaks due to a cross-jar package private call that existed in <=4.1.0.
      *
@@ -100,31 +176,79 @@ public final class Tracer {
 
     /**
      * In the unsampled case, the Trace.Unsampled class doesn't actually store a spanId/parentSpanId stack, so we just
-     * make one up (just in time). This matches the behaviour of Tracer#startSpan.
+     * make one up (just in time), which is returned again until the current span completes.
      *
-     * <p>n.b. this is a bit funky because calling maybeGetTraceMetadata multiple times will return different spanIds
+     * <p>Prefer {@link #injectPropagationContext} to propagate the trace to other services.
      */
     public static Optional<TraceMetadata> maybeGetTraceMetadata() {
         Trace trace = currentTrace.get();
         if (trace == null) {
             return Optional.empty();
         }
+        TracingId spanId = trace.propagatedSpanIdentifier();
+        if (spanId == null) {
+            return Optional.empty();
+        }
+        TracingId parentSpanId = trace.topParentSpanIdentifier();
+        return Optional.of(TraceMetadata.builder()
+                .spanId(spanId.toString())
+                .parentSpanId(parentSpanId == null ? Optional.empty() : Optional.of(parentSpanId.toString()))
+                .originatingSpanId(trace.getOriginatingSpanId())
+                .traceId(trace.getTraceId())
+                .build());
+    }
 
-        if (trace.isObservable()) {
-            return trace.top().map(openSpan -> TraceMetadata.builder()
-                    .spanId(openSpan.getSpanId())
-                    .parentSpanId(openSpan.getParentSpanId())
-                    .originatingSpanId(trace.getOriginatingSpanId())
-                    .traceId(trace.getTraceId())
-                    .build());
-        } else {
-            return Optional.of(TraceMetadata.builder()
-                    .spanId(Tracers.randomId())
-                    .parentSpanId(Optional.empty())
-                    .originatingSpanId(trace.getOriginatingSpanId())
-                    .traceId(trace.getTraceId())
-                    .build());
+    /**
+     * Returns a consistent snapshot of the identifiers and sampling decision of the current span, or empty if there
+     * is no span in progress. Like {@link #maybeGetTraceMetadata()}, unsampled traces make up a span identifier which
+     * remains the same until the current span completes.
+     */
+    public static Optional<PropagationContext> maybeGetPropagationContext() {
+        Trace trace = currentTrace.get();
+        return trace == null ? Optional.empty() : Optional.ofNullable(getPropagationContext(trace));
+    }
+
+    /**
+     * Writes the {@link #maybeGetPropagationContext() propagation context} of the current span into the headers of an
+     * outgoing request using the given propagator, e.g.
+     * {@code Tracer.injectPropagationContext(Propagators.standard(), requestBuilder, Request.Builder::header)}. The
+     * thread state is only read once, and no {@link TraceMetadata} is built.
+     *
+     * @return false, without writing any headers, if there is no span in progress
+     */
+    public static <C> boolean injectPropagationContext(Propagator propagator, C carrier, Propagator.Setter<C> setter) {
+        Trace trace = currentTrace.get();
+        if (trace == null) {
+            return false;
         }
+        PropagationContext context = getPropagationContext(trace);
+        if (context == null) {
+            return false;
+        }
+        propagator.inject(context, carrier, setter);
+        return true;
+    }
+
+    @Nullable
+    private static PropagationContext getPropagationContext(Trace trace) {
+        TracingId spanId = trace.propagatedSpanIdentifier();
+        if (spanId == null) {
+            return null;
+        }
+        return PropagationContext.of(
+                trace.getTraceIdentifier(),
+                spanId,
+                trace.topParentSpanIdentifier(),
+                trace.getOriginatingSpanIdentifier(),
+                samplingDecision(trace));
+    }
+
+    private static SamplingDecision samplingDecision(Trace trace) {
+        if (trace.isTailSampled()) {
+            // Only the local root decides whether the trace is kept, so callees make their own decisions
+            return SamplingDecision.UNDECIDED;
+        }
+        return trace.isObservable() ? SamplingDecision.SAMPLE : SamplingDecision.DO_NOT_SAMPLE;
     }
 
     /**
@@ -146,6 +270,26 @@ public final class Tracer {
         setTrace(createTrace(observability, traceId));
     }
 
+    /** Like {@link #initTrace(Observability, String)}, but takes an already parsed trace identifier. */
+    static void initTrace(Observability observability, TracingId traceId) {
+        setTrace(createTrace(observability, traceId));
+    }
+
+    /**
+     * Like {@link #initTrace(Observability, String)}, but passes the operation and type of the root span the caller is
+     * about to start to the {@link TraceSampler} if the trace is {@link Observability#UNDECIDED undecided}.
+     */
+    public static void initTrace(Observability observability, String traceId, String rootOperation, SpanType rootType) {
+        checkArgument(!Strings.isNullOrEmpty(traceId), "traceId must be non-empty");
+        initTrace(observability, TracingId.parse(traceId), rootOperation, rootType);
+    }
+
+    /** Like {@link #initTrace(Observability, String, String, SpanType)}, but takes a parsed trace identifier. */
+    public static void initTrace(
+            Observability observability, TracingId traceId, String rootOperation, SpanType rootType) {
+        setTrace(createTrace(observability, traceId, rootOperation, rootType));
+    }
+
     /**
      * Opens a new span for this thread's call trace, labeled with the provided operation and parent span. Only allowed
      * when the current trace is empty. If the return value is not used, prefer {@link Tracer#fastStartSpan(String,
@@ -153,7 +297,7 @@ public final class Tracer {
      */
     @CheckReturnValue
     public static OpenSpan startSpan(String operation, String parentSpanId, SpanType type) {
-        return getOrCreateCurrentTrace().startSpan(operation, parentSpanId, type);
+        return getOrCreateCurrentTrace(operation, type).startSpan(operation, parentSpanId, type);
     }
 
     /**
@@ -162,7 +306,7 @@ public final class Tracer {
      */
     @CheckReturnValue
     public static OpenSpan startSpan(String operation, SpanType type) {
-        return getOrCreateCurrentTrace().startSpan(operation, type);
+        return getOrCreateCurrentTrace(operation, type).startSpan(operation, type);
     }
 
     /**
@@ -176,12 +320,17 @@ public final class Tracer {
 
     /** Like {@link #startSpan(String, String, SpanType)}, but does not return an {@link OpenSpan}. */
     public static void fastStartSpan(String operation, String parentSpanId, SpanType type) {
-        getOrCreateCurrentTrace().fastStartSpan(operation, parentSpanId, type);
+        getOrCreateCurrentTrace(operation, type).fastStartSpan(operation, parentSpanId, type);
+    }
+
+    /** Like {@link #fastStartSpan(String, String, SpanType)}, but takes an already parsed parent span identifier. */
+    public static void fastStartSpan(String operation, TracingId parentSpanId, SpanType type) {
+        getOrCreateCurrentTrace(operation, type).fastStartSpan(operation, parentSpanId, type);
     }
 
     /** Like {@link #startSpan(String, SpanType)}, but does not return an {@link OpenSpan}. */
     public static void fastStartSpan(String operation, SpanType type) {
-        getOrCreateCurrentTrace().fastStartSpan(operation, type);
+        getOrCreateCurrentTrace(operation, type).fastStartSpan(operation, type);
     }
 
     /** Like {@link #startSpan(String)}, but does not return an {@link OpenSpan}. */
@@ -195,12 +344,23 @@ public final class Tracer {
      */
     static DetachedSpan detachInternal(String operation, SpanType type) {
         Trace maybeCurrentTrace = currentTrace.get();
-        String traceId = maybeCurrentTrace != null ? maybeCurrentTrace.getTraceId() : Tracers.randomId();
-        boolean sampled = maybeCurrentTrace != null ? maybeCurrentTrace.isObservable() : sampler.sample();
-        Optional<String> parentSpan = getParentSpanId(maybeCurrentTrace);
-        return sampled
-                ? new SampledDetachedSpan(operation, type, traceId, parentSpan)
-                : new UnsampledDetachedSpan(traceId, parentSpan);
+        TracingId traceId =
+                maybeCurrentTrace != null ? maybeCurrentTrace.getTraceIdentifier() : TracingId.random();
+        TracingId parentSpan = getParentSpanId(maybeCurrentTrace);
+        if (maybeCurrentTrace != null) {
+            return maybeCurrentTrace.isObservable()
+                    ? new SampledDetachedSpan(
+                            operation,
+                            type,
+                            traceId,
+                            parentSpan,
+                            maybeCurrentTrace.isTailSampled(),
+                            false,
+                            maybeCurrentTrace.localRootSpanIdentifier())
+                    : unsampledDetachedSpan(traceId, parentSpan, operation, type);
+        }
+        return newDetachedSpan(
+                Observability.UNDECIDED, sample(operation, type), traceId, parentSpan, operation, type);
     }
 
     /**
@@ -213,41 +373,109 @@ public final class Tracer {
             Optional<String> parentSpanId,
             String operation,
             SpanType type) {
+        return detachInternal(
+                observability,
+                TracingId.parse(traceId),
+                parentSpanId.isPresent() ? TracingId.parse(parentSpanId.get()) : null,
+                operation,
+                type);
+    }
+
+    /** Like {@link #detachInternal(Observability, String, Optional, String, SpanType)}, with parsed identifiers. */
+    static DetachedSpan detachInternal(
+            Observability observability,
+            TracingId traceId,
+            @Nullable TracingId parentSpanId,
+            String operation,
+            SpanType type) {
         // The current trace has no impact on this function, a new trace is spawned and existing thread state
         // is not modified.
-        return shouldObserve(observability)
-                ? new SampledDetachedSpan(operation, type, traceId, parentSpanId)
-                : new UnsampledDetachedSpan(traceId, parentSpanId);
+        return newDetachedSpan(
+                observability, shouldObserve(observability, operation, type), traceId, parentSpanId, operation, type);
     }
 
-    private static Optional<String> getParentSpanId(@Nullable Trace trace) {
-        if (trace != null) {
-            Optional<OpenSpan> maybeOpenSpan = trace.top();
-            if (maybeOpenSpan.isPresent()) {
-                return Optional.of(maybeOpenSpan.get().getSpanId());
-            }
+    /** Creates the local root span of a trace. */
+    private static DetachedSpan newDetachedSpan(
+            Observability observability,
+            boolean observable,
+            TracingId traceId,
+            @Nullable TracingId parentSpanId,
+            String operation,
+            SpanType type) {
+        if (observable) {
+            return new SampledDetachedSpan(operation, type, traceId, parentSpanId, false, false, null);
         }
-        return Optional.empty();
+        if (shouldTailSample(observability)) {
+            return new SampledDetachedSpan(operation, type, traceId, parentSpanId, true, true, null);
+        }
+        return unsampledDetachedSpan(traceId, parentSpanId, operation, type);
+    }
+
+    @Nullable
+    private static TracingId getParentSpanId(@Nullable Trace trace) {
+        return trace != null ? trace.topSpanIdentifier() : null;
     }
 
     static boolean isSampled(DetachedSpan detachedSpan) {
-        return detachedSpan instanceof SampledDetachedSpan;
+        return detachedSpan instanceof SampledDetachedSpan && !((SampledDetachedSpan) detachedSpan).tailSampled;
+    }
+
+    /**
+     * Returns a new trace whose current span is the given detached span, so that spans started within the trace become
+     * its children, or null if the span was not started by this tracer.
+     */
+    @Nullable
+    static Trace detachedSpanTrace(DetachedSpan detachedSpan) {
+        if (detachedSpan instanceof SampledDetachedSpan) {
+            SampledDetachedSpan sampled = (SampledDetachedSpan) detachedSpan;
+            Trace trace = sampled.tailSampled
+                    ? Trace.tailSampled(sampled.traceId, sampled.localRootSpanId)
+                    : Trace.of(true, sampled.traceId);
+            trace.push(sampled.openSpan);
+            return trace;
+        }
+        if (detachedSpan instanceof UnsampledDetachedSpan) {
+            UnsampledDetachedSpan unsampled = (UnsampledDetachedSpan) detachedSpan;
+            Trace trace = Trace.of(false, unsampled.traceId);
+            if (unsampled.parentSpanId != null) {
+                trace.fastStartSpan(DETACHED_OPERATION, unsampled.parentSpanId, SpanType.LOCAL);
+            } else {
+                trace.fastStartSpan(DETACHED_OPERATION, SpanType.LOCAL);
+            }
+            return trace;
+        }
+        return null;
     }
 
     private static final class SampledDetachedSpan implements DetachedSpan {
 
         private final AtomicBoolean completed = new AtomicBoolean();
-        private final String traceId;
+        private final TracingId traceId;
         private final OpenSpan openSpan;
-
-        SampledDetachedSpan(String operation, SpanType type, String traceId, Optional<String> parentSpanId) {
+        private final boolean tailSampled;
+        private final boolean localRoot;
+
+        // Local root of a tail-sampled trace, which is this span itself if it is the local root
+        @Nullable
+        private final TracingId localRootSpanId;
+
+        // Guarded by this, allocated once the span is tagged
+        @Nullable
+        private SpanTags.Builder tags;
+
+        SampledDetachedSpan(
+                String operation,
+                SpanType type,
+                TracingId traceId,
+                @Nullable TracingId parentSpanId,
+                boolean tailSampled,
+                boolean localRoot,
+                @Nullable TracingId localRootSpanId) {
             this.traceId = traceId;
-            this.openSpan = OpenSpan.builder()
-                    .parentSpanId(parentSpanId)
-                    .spanId(Tracers.randomId())
-                    .operation(operation)
-                    .type(type)
-                    .build();
+            this.openSpan = OpenSpan.of(operation, TracingId.random(), type, parentSpanId, null, clock);
+            this.tailSampled = tailSampled;
+            this.localRoot = localRoot;
+            this.localRootSpanId = localRoot ? openSpan.spanIdentifier() : localRootSpanId;
         }
 
         @Override
@@ -255,22 +483,77 @@ public final class Tracer {
         public CloseableSpan childSpan(String operationName, SpanType type) {
             warnIfCompleted("startSpanOnCurrentThread");
             Trace maybeCurrentTrace = currentTrace.get();
-            setTrace(Trace.of(true, traceId));
-            Tracer.fastStartSpan(operationName, openSpan.getSpanId(), type);
+            setTrace(tailSampled ? Trace.tailSampled(traceId, localRootSpanId) : Trace.of(true, traceId));
+            Tracer.fastStartSpan(operationName, openSpan.spanIdentifier(), type);
             return TraceRestoringCloseableSpan.of(maybeCurrentTrace);
         }
 
         @Override
         public DetachedSpan childDetachedSpan(String operation, SpanType type) {
             warnIfCompleted("startDetachedSpan");
-            return new SampledDetachedSpan(operation, type, traceId, Optional.of(openSpan.getSpanId()));
+            return new SampledDetachedSpan(
+                    operation, type, traceId, openSpan.spanIdentifier(), tailSampled, false, localRootSpanId);
+        }
+
+        @Override
+        public synchronized void tag(String key, long value) {
+            tags().put(key, value);
+        }
+
+        @Override
+        public synchronized void tag(String key, double value) {
+            tags().put(key, value);
+        }
+
+        @Override
+        public synchronized void tag(String key, boolean value) {
+            tags().put(key, value);
+        }
+
+        @Override
+        public synchronized void tag(String key, String value) {
+            tags().put(key, value);
         }
 
         @Override
         public void complete() {
             if (completed.compareAndSet(false, true)) {
-                Tracer.notifyObservers(toSpan(openSpan, Collections.emptyMap(), traceId));
+                SpanTags spanTags;
+                synchronized (this) {
+                    spanTags = tags == null ? SpanTags.empty() : tags.build();
+                }
+                long durationNanos = clock.nanoTime() - openSpan.getStartClockNanoSeconds();
+                LatencyHistograms histograms = latencyHistograms;
+                if (histograms != null) {
+                    histograms.record(openSpan.getOperation(), openSpan.type(), durationNanos);
+                }
+                if (tailSampled) {
+                    Tracer.buffer(
+                            new BufferedSpan(
+                                    traceId,
+                                    localRootSpanId,
+                                    openSpan.spanIdentifier(),
+                                    openSpan.parentSpanIdentifier(),
+                                    openSpan.getOperation(),
+                                    openSpan.type(),
+                                    openSpan.getStartTimeMicroSeconds(),
+                                    durationNanos,
+                                    Collections.emptyMap(),
+                                    spanTags),
+                            localRoot);
+                } else {
+                    Tracer.notifyObservers(toSpan(openSpan, spanTags, traceId, durationNanos));
+                }
+            }
+        }
+
+        private SpanTags.Builder tags() {
+            SpanTags.Builder current = tags;
+            if (current == null) {
+                current = SpanTags.builder();
+                tags = current;
             }
+            return current;
         }
 
         @Override
@@ -295,12 +578,22 @@ public final class Tracer {
         }
     }
 
-    private static final class UnsampledDetachedSpan implements DetachedSpan {
+    private static DetachedSpan unsampledDetachedSpan(
+            TracingId traceId, @Nullable TracingId parentSpanId, String operation, SpanType type) {
+        LatencyHistograms histograms = latencyHistograms;
+        return histograms == null
+                ? new UnsampledDetachedSpan(traceId, parentSpanId)
+                : new TimedUnsampledDetachedSpan(traceId, parentSpanId, histograms, operation, type);
+    }
+
+    private static class UnsampledDetachedSpan implements DetachedSpan {
 
-        private final String traceId;
-        private final Optional<String> parentSpanId;
+        final TracingId traceId;
 
-        UnsampledDetachedSpan(String traceId, Optional<String> parentSpanId) {
+        @Nullable
+        final TracingId parentSpanId;
+
+        UnsampledDetachedSpan(TracingId traceId, @Nullable TracingId parentSpanId) {
             this.traceId = traceId;
             this.parentSpanId = parentSpanId;
         }
@@ -309,8 +602,8 @@ public final class Tracer {
         public CloseableSpan childSpan(String operationName, SpanType type) {
             Trace maybeCurrentTrace = currentTrace.get();
             setTrace(Trace.of(false, traceId));
-            if (parentSpanId.isPresent()) {
-                Tracer.fastStartSpan(operationName, parentSpanId.get(), type);
+            if (parentSpanId != null) {
+                Tracer.fastStartSpan(operationName, parentSpanId, type);
             } else {
                 Tracer.fastStartSpan(operationName, type);
             }
@@ -333,6 +626,41 @@ public final class Tracer {
         }
     }
 
+    /** Unsampled span which records its duration into the latency histograms enabled when it started. */
+    private static final class TimedUnsampledDetachedSpan extends UnsampledDetachedSpan {
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final LatencyHistograms histograms;
+        private final String operation;
+        private final SpanType type;
+        private final long startNanos;
+
+        TimedUnsampledDetachedSpan(
+                TracingId traceId,
+                @Nullable TracingId parentSpanId,
+                LatencyHistograms histograms,
+                String operation,
+                SpanType type) {
+            super(traceId, parentSpanId);
+            this.histograms = histograms;
+            this.operation = operation;
+            this.type = type;
+            this.startNanos = clock.nanoTime();
+        }
+
+        @Override
+        public DetachedSpan childDetachedSpan(String childOperation, SpanType childType) {
+            return unsampledDetachedSpan(traceId, parentSpanId, childOperation, childType);
+        }
+
+        @Override
+        public void complete() {
+            if (completed.compareAndSet(false, true)) {
+                histograms.record(operation, type, clock.nanoTime() - startNanos);
+            }
+        }
+    }
+
     private static final class TraceRestoringCloseableSpan implements CloseableSpan {
 
         // Complete the current span.
@@ -360,7 +688,50 @@ public final class Tracer {
         Trace trace = currentTrace.get();
         checkNotNull(trace, "Expected current trace to exist");
         checkState(!trace.isEmpty(), "Expected span to exist before discarding");
-        popCurrentSpan(trace);
+        trace.discardSpan();
+        clearCurrentTraceIfEmpty(trace);
+    }
+
+    /**
+     * Adds a tag to the current span, which is recorded once the span completes if the trace is sampled. Unlike
+     * {@link #fastCompleteSpan(Map) metadata}, the value is only rendered as a string once an observer requests it, and
+     * nothing is allocated for unsampled traces.
+     */
+    public static void tag(String key, long value) {
+        SpanTags.Builder tags = currentSpanTags();
+        if (tags != null) {
+            tags.put(key, value);
+        }
+    }
+
+    /** Like {@link #tag(String, long)}, but adds a floating point tag. */
+    public static void tag(String key, double value) {
+        SpanTags.Builder tags = currentSpanTags();
+        if (tags != null) {
+            tags.put(key, value);
+        }
+    }
+
+    /** Like {@link #tag(String, long)}, but adds a boolean tag. */
+    public static void tag(String key, boolean value) {
+        SpanTags.Builder tags = currentSpanTags();
+        if (tags != null) {
+            tags.put(key, value);
+        }
+    }
+
+    /** Like {@link #tag(String, long)}, but adds a string tag. */
+    public static void tag(String key, String value) {
+        SpanTags.Builder tags = currentSpanTags();
+        if (tags != null) {
+            tags.put(key, value);
+        }
+    }
+
+    @Nullable
+    private static SpanTags.Builder currentSpanTags() {
+        Trace trace = currentTrace.get();
+        return trace == null ? null : trace.topSpanTags();
     }
 
     /**
@@ -377,20 +748,26 @@ public final class Tracer {
     public static void fastCompleteSpan(Map<String, String> metadata) {
         Trace trace = currentTrace.get();
         if (trace != null) {
-            Optional<OpenSpan> span = popCurrentSpan(trace);
-            if (trace.isObservable()) {
-                completeSpanAndNotifyObservers(span, metadata, trace.getTraceId());
+            recordLatency(trace);
+            if (trace.isTailSampled() && hasObservers) {
+                BufferedSpan span = trace.completeBufferedSpan(metadata);
+                clearCurrentTraceIfEmpty(trace);
+                if (span != null) {
+                    buffer(span, trace.isLocalRoot() && trace.isEmpty());
+                }
+            } else if (trace.isObservable() && hasObservers) {
+                Span span = trace.completeSpan(metadata);
+                clearCurrentTraceIfEmpty(trace);
+                if (span != null) {
+                    observe(trace, span);
+                }
+            } else {
+                trace.discardSpan();
+                clearCurrentTraceIfEmpty(trace);
             }
         }
     }
 
-    private static void completeSpanAndNotifyObservers(
-            Optional<OpenSpan> openSpan, Map<String, String> metadata, String traceId) {
-        if (openSpan.isPresent()) {
-            Tracer.notifyObservers(toSpan(openSpan.get(), metadata, traceId));
-        }
-    }
-
     /**
      * Completes and returns the current span (if it exists) and notifies all {@link #observers subscribers} about the
      * completed span. If the return value is not used, prefer {@link Tracer#fastCompleteSpan()}.
@@ -410,41 +787,70 @@ public final class Tracer {
         if (trace == null) {
             return Optional.empty();
         }
-        Optional<Span> maybeSpan =
-                popCurrentSpan(trace).map(openSpan -> toSpan(openSpan, metadata, trace.getTraceId()));
+        recordLatency(trace);
+        Span span = trace.completeSpan(metadata);
+        clearCurrentTraceIfEmpty(trace);
 
         // Notify subscribers iff trace is observable
-        if (maybeSpan.isPresent() && trace.isObservable()) {
-            // Avoid lambda allocation in hot paths
-            notifyObservers(maybeSpan.get());
+        if (span != null && trace.isObservable()) {
+            observe(trace, span);
         }
 
-        return maybeSpan;
+        return Optional.ofNullable(span);
+    }
+
+    private static void recordLatency(Trace trace) {
+        LatencyHistograms histograms = latencyHistograms;
+        if (histograms != null) {
+            trace.recordLatency(histograms);
+        }
+    }
+
+    private static void observe(Trace trace, Span span) {
+        if (trace.isTailSampled()) {
+            buffer(BufferedSpan.of(span, trace.localRootSpanIdentifier()), trace.isLocalRoot() && trace.isEmpty());
+        } else {
+            notifyObservers(span);
+        }
+    }
+
+    private static void buffer(BufferedSpan span, boolean localRoot) {
+        TailSamplingBuffer buffer = tailSampling;
+        if (buffer != null) {
+            buffer.record(span, localRoot);
+        }
     }
 
     private static void notifyObservers(Span span) {
-        compositeObserver.accept(span);
+        RegisteredObserver[] current = observerArray;
+        long latencyBudgetNanos = observerLatencyBudgetNanos;
+        for (int i = 0; i < current.length; i++) {
+            current[i].consume(span, latencyBudgetNanos);
+        }
     }
 
-    private static Optional<OpenSpan> popCurrentSpan(Trace trace) {
-        Optional<OpenSpan> span = trace.pop();
+    private static void clearCurrentTraceIfEmpty(Trace trace) {
         if (trace.isEmpty()) {
             clearCurrentTrace();
+            trace.release();
         }
-        return span;
     }
 
-    private static Span toSpan(OpenSpan openSpan, Map<String, String> metadata, String traceId) {
-        return Span.builder()
-                .traceId(traceId)
+    private static Span toSpan(OpenSpan openSpan, SpanTags tags, TracingId traceId, long durationNanos) {
+        // Identifiers are rendered here, spans are only built when an observer or caller will see them
+        Span.Builder builder = Span.builder();
+        builder.traceId(traceId.toString())
                 .spanId(openSpan.getSpanId())
                 .type(openSpan.type())
-                .parentSpanId(openSpan.getParentSpanId())
                 .operation(openSpan.getOperation())
                 .startTimeMicroSeconds(openSpan.getStartTimeMicroSeconds())
-                .durationNanoSeconds(System.nanoTime() - openSpan.getStartClockNanoSeconds())
-                .putAllMetadata(metadata)
-                .build();
+                .durationNanoSeconds(durationNanos)
+                .tags(tags);
+        TracingId parentSpanId = openSpan.parentSpanIdentifier();
+        if (parentSpanId != null) {
+            builder.parentSpanId(parentSpanId.toString());
+        }
+        return builder.build();
     }
 
     /**
@@ -463,9 +869,9 @@ public final class Tracer {
         if (observers.size() >= 5) {
             log.warn("Five or more SpanObservers registered: {}", SafeArg.of("observers", observers.keySet()));
         }
-        SpanObserver currentValue = observers.put(name, observer);
+        RegisteredObserver currentValue = observers.put(name, new RegisteredObserver(name, observer));
         computeObserversList();
-        return currentValue;
+        return currentValue == null ? null : currentValue.observer();
     }
 
     /**
@@ -473,37 +879,136 @@ public final class Tracer {
      * observer if it existed, or null otherwise.
      */
     public static synchronized SpanObserver unsubscribe(String name) {
-        SpanObserver removedObserver = observers.remove(name);
+        RegisteredObserver removedObserver = observers.remove(name);
         computeObserversList();
-        return removedObserver;
+        return removedObserver == null ? null : removedObserver.observer();
     }
 
     private static void computeObserversList() {
-        Consumer<Span> newCompositeObserver = span -> {};
-        for (Map.Entry<String, SpanObserver> entry : observers.entrySet()) {
-            String observerName = entry.getKey();
-            SpanObserver spanObserver = entry.getValue();
-            newCompositeObserver = newCompositeObserver.andThen(span -> {
-                try {
-                    spanObserver.consume(span);
-                } catch (RuntimeException e) {
-                    log.error(
-                            "Failed to invoke observer {} registered as {}",
-                            SafeArg.of("observer", spanObserver),
-                            SafeArg.of("name", observerName),
-                            e);
-                }
-            });
-        }
         // Single volatile write, updating observers should not disrupt tracing
-        compositeObserver = newCompositeObserver;
+        observerArray = observers.values().toArray(RegisteredObserver.NONE);
+        hasObservers = !observers.isEmpty();
     }
 
-    /** Sets the sampler (for all threads). */
+    /**
+     * Sets the maximum time a {@link SpanObserver} may take to consume a single span. Observers exceeding it are
+     * quarantined: they are logged and no longer receive spans until they are {@link #subscribe subscribed} again. This
+     * protects threads completing spans from observers which block, e.g. on a full queue.
+     */
+    public static void setObserverLatencyBudget(Duration budget) {
+        checkArgument(!budget.isNegative(), "budget must not be negative", SafeArg.of("budget", budget));
+        observerLatencyBudgetNanos = budget.toNanos();
+    }
+
+    /**
+     * Removes the {@link #setObserverLatencyBudget latency budget}. Observers which have already been quarantined
+     * remain so until they are subscribed again.
+     */
+    public static void clearObserverLatencyBudget() {
+        observerLatencyBudgetNanos = Long.MAX_VALUE;
+    }
+
+    /** Returns statistics of all subscribed observers. */
+    public static synchronized List<ObserverStats> getObserverStats() {
+        List<ObserverStats> stats = new ArrayList<>(observers.size());
+        for (RegisteredObserver observer : observers.values()) {
+            stats.add(observer.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Sets where the trace of each thread is stored (for all threads), defaults to
+     * {@link TraceContextStorage#threadLocal()}. Traces in progress are not moved to the new storage, so this should
+     * only be called on startup before any trace has been started.
+     */
+    public static void setContextStorage(TraceContextStorage storage) {
+        Tracer.currentTrace = checkNotNull(storage, "storage must be non-null");
+    }
+
+    /**
+     * Sets whether the {@link Tracers#TRACE_ID_KEY trace id} and {@link Tracers#TRACE_SAMPLED_KEY sampling state} of
+     * the current trace are put into the SLF4J {@link MDC} (for all threads), defaults to true. Disabling this saves
+     * two MDC updates whenever a thread starts, switches or finishes a trace, as well as rendering the identifier of
+     * every unsampled root trace, but log lines no longer carry the trace id. Disabling the MDC while traces are in
+     * progress removes the keys from the MDC of the calling thread, and other threads remove them once they finish
+     * their trace.
+     */
+    public static void setMdcEnabled(boolean enabled) {
+        if (!enabled && mdcEnabled && mdcWritten) {
+            staleMdc = true;
+            MDC.remove(Tracers.TRACE_ID_KEY);
+            MDC.remove(Tracers.TRACE_SAMPLED_KEY);
+        } else if (enabled) {
+            staleMdc = false;
+        }
+        Tracer.mdcEnabled = enabled;
+    }
+
+    /**
+     * Sets the sampler (for all threads). {@link OperationSampler Operation samplers} are told the root span of new
+     * traces whenever it is known.
+     */
     public static void setSampler(TraceSampler sampler) {
         Tracer.sampler = sampler;
     }
 
+    /**
+     * Enables tail sampling (for all threads): {@link Observability#UNDECIDED undecided} traces rejected by the
+     * {@link #setSampler sampler} are still recorded, and their spans buffered until the local root span completes. The
+     * {@link TailSamplingOptions#policy() policy} then decides whether all spans of the trace are passed to the
+     * observers, e.g. to observe every unusually slow trace. Tail-sampled traces are not reported as
+     * {@link #isTraceObservable() observable}, and are propagated to other services as
+     * {@link SamplingDecision#UNDECIDED undecided}, so they make their own sampling decisions.
+     */
+    public static void setTailSampling(TailSamplingOptions options) {
+        tailSampling = new TailSamplingBuffer(options, Tracer::notifyObservers);
+    }
+
+    /** Disables tail sampling, discarding any buffered spans. */
+    public static void disableTailSampling() {
+        tailSampling = null;
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static TailSamplingBuffer getTailSamplingBuffer() {
+        return tailSampling;
+    }
+
+    /**
+     * Records the duration of every span completed from now on (on all threads) into the given histograms, including
+     * the spans of traces which are not sampled. Unsampled traces read the clock when starting spans while histograms
+     * are enabled.
+     */
+    public static void setLatencyHistograms(LatencyHistograms histograms) {
+        latencyHistograms = checkNotNull(histograms, "histograms");
+    }
+
+    /** Stops recording span durations into the {@link #setLatencyHistograms latency histograms}. */
+    public static void disableLatencyHistograms() {
+        latencyHistograms = null;
+    }
+
+    /** Returns the histograms spans are recorded into, or null if disabled. */
+    @Nullable
+    static LatencyHistograms getLatencyHistograms() {
+        return latencyHistograms;
+    }
+
+    /**
+     * Sets the clock which timestamps spans, {@link TracingClock#system()} by default. Spans which are open while the
+     * clock is replaced may report incorrect durations, so this is intended to be called before any span is started,
+     * for example to use a {@link TracingClock#manual manual clock} in tests.
+     */
+    public static void setClock(TracingClock tracingClock) {
+        clock = checkNotNull(tracingClock, "clock");
+    }
+
+    static TracingClock getClock() {
+        return clock;
+    }
+
     /** Returns true if there is an active trace on this thread. */
     public static boolean hasTraceId() {
         return currentTrace.get() != null;
@@ -525,7 +1030,8 @@ public final class Tracer {
     public static Trace getAndClearTrace() {
         Trace trace = getOrCreateCurrentTrace();
         clearCurrentTrace();
-        return trace;
+        // Callers may keep the trace, so it must not be reused by the next root trace of this thread
+        return trace.unpooled();
     }
 
     /**
@@ -534,16 +1040,22 @@ public final class Tracer {
      */
     public static boolean isTraceObservable() {
         Trace trace = currentTrace.get();
-        return trace != null && trace.isObservable();
+        return trace != null && trace.isObservable() && !trace.isTailSampled();
     }
 
-    /** Returns an independent copy of this thread's {@link Trace}. */
+    /**
+     * Returns an independent copy of this thread's {@link Trace}. Copies share the spans open at the time of the copy,
+     * which are frozen rather than copied, so copying is cheap regardless of the depth of the trace.
+     */
     static Optional<Trace> copyTrace() {
+        return Optional.ofNullable(copyTraceOrNull());
+    }
+
+    /** Like {@link #copyTrace()}, but returns null rather than an empty optional if this thread has no trace. */
+    @Nullable
+    static Trace copyTraceOrNull() {
         Trace trace = currentTrace.get();
-        if (trace != null) {
-            return Optional.of(trace.deepCopy());
-        }
-        return Optional.empty();
+        return trace != null ? trace.deepCopy() : null;
     }
 
     /**
@@ -552,9 +1064,35 @@ public final class Tracer {
     static void setTrace(Trace trace) {
         currentTrace.set(trace);
 
-        // Give log appenders access to the trace id and whether the trace is being sampled
-        MDC.put(Tracers.TRACE_ID_KEY, trace.getTraceId());
-        setTraceSampledMdcIfObservable(trace.isObservable());
+        if (mdcEnabled) {
+            if (!mdcWritten) {
+                mdcWritten = true;
+            }
+            // Give log appenders access to the trace id and whether the trace is being sampled
+            MDC.put(Tracers.TRACE_ID_KEY, trace.getTraceId());
+            setTraceSampledMdcIfObservable(trace.isObservable() && !trace.isTailSampled());
+        }
+    }
+
+    /**
+     * Replaces the thread-local trace, returning the previous one. Unlike {@link #setTrace}, the MDC is only updated if
+     * {@code updateMdc} is set, so that short-lived context switches do not pay for it.
+     */
+    @Nullable
+    static Trace swapTrace(@Nullable Trace trace, boolean updateMdc) {
+        Trace previous = currentTrace.get();
+        if (updateMdc) {
+            if (trace == null) {
+                clearCurrentTrace();
+            } else {
+                setTrace(trace);
+            }
+        } else if (trace == null) {
+            currentTrace.clear();
+        } else {
+            currentTrace.set(trace);
+        }
+        return previous;
     }
 
     private static void setTraceSampledMdcIfObservable(boolean observable) {
@@ -570,16 +1108,41 @@ public final class Tracer {
     private static Trace getOrCreateCurrentTrace() {
         Trace trace = currentTrace.get();
         if (trace == null) {
-            trace = createTrace(Observability.UNDECIDED, Tracers.randomId());
+            trace = createRootTrace(shouldObserve(Observability.UNDECIDED));
             setTrace(trace);
         }
         return trace;
     }
 
+    /** Like {@link #getOrCreateCurrentTrace()}, but samples a new trace based on the root span about to be started. */
+    private static Trace getOrCreateCurrentTrace(String rootOperation, SpanType rootType) {
+        Trace trace = currentTrace.get();
+        if (trace == null) {
+            trace = createRootTrace(shouldObserve(Observability.UNDECIDED, rootOperation, rootType));
+            setTrace(trace);
+        }
+        return trace;
+    }
+
+    /**
+     * Creates a new {@link Observability#UNDECIDED undecided} trace for the current thread. Unsampled traces reuse the
+     * state of the previous unsampled root trace of the thread and only generate their identifier when asked for it.
+     * Note that the identifier is put into the MDC as soon as the trace is set, so unsampled root spans only avoid
+     * allocating while the {@link #setMdcEnabled(boolean) MDC is disabled}.
+     */
+    private static Trace createRootTrace(boolean observable) {
+        if (!observable && !shouldTailSample(Observability.UNDECIDED)) {
+            return Trace.unsampledRoot();
+        }
+        return newTrace(Observability.UNDECIDED, observable, TracingId.random());
+    }
+
     @VisibleForTesting
     static void clearCurrentTrace() {
-        currentTrace.remove();
-        MDC.remove(Tracers.TRACE_ID_KEY);
-        MDC.remove(Tracers.TRACE_SAMPLED_KEY);
+        currentTrace.clear();
+        if (mdcEnabled || staleMdc) {
+            MDC.remove(Tracers.TRACE_ID_KEY);
+            MDC.remove(Tracers.TRACE_SAMPLED_KEY);
+        }
     }
 }
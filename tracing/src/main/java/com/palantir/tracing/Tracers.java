@@ -20,11 +20,13 @@ import com.google.common.annotations.Beta;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.palantir.logsafe.Preconditions;
+import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TracingId;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 
 /** Utility methods for making {@link ExecutorService} and {@link Runnable} instances tracing-aware. */
@@ -38,41 +40,20 @@ public final class Tracers {
     public static final String TRACE_SAMPLED_KEY = "_sampled";
 
     private static final String DEFAULT_ROOT_SPAN_OPERATION = "root";
-    private static final char[] HEX_DIGITS = {
-        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
-    };
-
+    private static final OperationNames.SingleKeyTable INITIAL_OPERATIONS =
+            OperationNames.global().table(operation -> operation + " initial");
+    private static final OperationNames.SingleKeyTable CALLBACK_OPERATIONS =
+            OperationNames.global().table(operation -> operation + " callback");
     private Tracers() {}
 
     /** Returns a random ID suitable for span and trace IDs. */
     public static String randomId() {
-        return longToPaddedHex(ThreadLocalRandom.current().nextLong());
+        return TracingId.random().toString();
     }
 
-    /**
-     * Convert a long to a big-endian hex string. Hand-coded implementation is more efficient than
-     * Strings.pad(Long.toHexString) because that code has to deal with mixed length longs, and then mixed length
-     * amounts of padding - we want to minimise the overhead of tracing.
-     */
+    /** Convert a long to a big-endian hex string, see {@link TracingId#of(long)}. */
     static String longToPaddedHex(long number) {
-        char[] data = new char[16];
-        data[0] = HEX_DIGITS[(int) ((number >> 60) & 0xF)];
-        data[1] = HEX_DIGITS[(int) ((number >> 56) & 0xF)];
-        data[2] = HEX_DIGITS[(int) ((number >> 52) & 0xF)];
-        data[3] = HEX_DIGITS[(int) ((number >> 48) & 0xF)];
-        data[4] = HEX_DIGITS[(int) ((number >> 44) & 0xF)];
-        data[5] = HEX_DIGITS[(int) ((number >> 40) & 0xF)];
-        data[6] = HEX_DIGITS[(int) ((number >> 36) & 0xF)];
-        data[7] = HEX_DIGITS[(int) ((number >> 32) & 0xF)];
-        data[8] = HEX_DIGITS[(int) ((number >> 28) & 0xF)];
-        data[9] = HEX_DIGITS[(int) ((number >> 24) & 0xF)];
-        data[10] = HEX_DIGITS[(int) ((number >> 20) & 0xF)];
-        data[11] = HEX_DIGITS[(int) ((number >> 16) & 0xF)];
-        data[12] = HEX_DIGITS[(int) ((number >> 12) & 0xF)];
-        data[13] = HEX_DIGITS[(int) ((number >> 8) & 0xF)];
-        data[14] = HEX_DIGITS[(int) ((number >> 4) & 0xF)];
-        data[15] = HEX_DIGITS[(int) ((number >> 0) & 0xF)];
-        return new String(data);
+        return TracingId.of(number).toString();
     }
 
     /**
@@ -191,6 +172,58 @@ public final class Tracers {
         return new TracingAwareRunnable(Optional.of(operation), delegate);
     }
 
+    /**
+     * Wraps the given {@link CompletionStage} such that every callback chained onto it, or onto stages derived from it,
+     * runs with the thread-local {@link Trace tracing state} at the time of this call, regardless of which thread
+     * completes the stage. The tracing state is captured once for the entire chain.
+     *
+     * <p>Callbacks chained onto the result of {@link CompletionStage#toCompletableFuture()} are not traced.
+     */
+    @SuppressWarnings("deprecation")
+    public static <T> CompletionStage<T> wrap(CompletionStage<T> stage) {
+        return TracingAwareCompletionStage.of(stage, new DeferredTracer(Optional.empty()));
+    }
+
+    /**
+     * Like {@link #wrap(CompletionStage)}, but using the given {@link String operation} is used to create a span for
+     * the execution of each callback.
+     */
+    public static <T> CompletionStage<T> wrap(String operation, CompletionStage<T> stage) {
+        return TracingAwareCompletionStage.of(stage, new DeferredTracer(operation));
+    }
+
+    /**
+     * Traces the execution of the {@code delegateFactory}, completing a {@link DetachedSpan} covering the entire
+     * asynchronous operation when the stage it returns completes. Each callback chained onto the returned stage, or
+     * onto stages derived from it, runs in a span named {@code "<operation> callback"}, a child of the detached span.
+     *
+     * <p>Example usage:
+     *
+     * <pre>{@code
+     * CompletionStage<Result> result = Tracers.wrapCompletionStage(
+     *     "remote operation",
+     *     () -> asyncClient.doRequest());
+     * }</pre>
+     */
+    public static <T> CompletionStage<T> wrapCompletionStage(
+            String operation, Supplier<? extends CompletionStage<T>> delegateFactory) {
+        DetachedSpan span = DetachedSpan.start(operation);
+        CompletionStage<T> result;
+        // n.b. This span is required to apply tracing thread state to an initial request, see wrapListenableFuture.
+        try (CloseableSpan ignored = span.childSpan(INITIAL_OPERATIONS.get(operation).name())) {
+            result = Preconditions.checkNotNull(delegateFactory.get(), "Expected a CompletionStage");
+        } catch (RuntimeException | Error e) {
+            // Complete the detached span, even if the delegateFactory throws.
+            span.complete();
+            throw e;
+        }
+        // Completing the span once the initial span has been closed prevents confusing traces when delegateFactory
+        // returns a completed stage. Callbacks chained onto the returned stage run after the span completes.
+        return TracingAwareCompletionStage.of(
+                result.whenComplete((_result, _throwable) -> span.complete()),
+                new DeferredTracer(span, CALLBACK_OPERATIONS.get(operation).name()));
+    }
+
     /**
      * Traces the the execution of the
      *
@@ -221,7 +254,7 @@ public final class Tracers {
         // no active trace, the detached span would not be associated with work initiated by delegateFactory.
         try (CloseableSpan ignored =
                 // This could be more efficient using https://github.com/palantir/tracing-java/issues/177
-                span.childSpan(operation + " initial")) {
+                span.childSpan(INITIAL_OPERATIONS.get(operation).name())) {
             result = Preconditions.checkNotNull(delegateFactory.get(), "Expected a ListenableFuture");
         } finally {
             if (result != null) {
@@ -332,7 +365,7 @@ public final class Tracers {
             Optional<Trace> originalTrace = Tracer.getAndClearTraceIfPresent();
 
             try {
-                Tracer.initTrace(observability, Tracers.randomId());
+                Tracer.initTrace(observability, TracingId.random(), operation, SpanType.LOCAL);
                 Tracer.fastStartSpan(operation);
                 return delegate.call();
             } finally {
@@ -368,7 +401,7 @@ public final class Tracers {
             Optional<Trace> originalTrace = Tracer.getAndClearTraceIfPresent();
 
             try {
-                Tracer.initTrace(observability, Tracers.randomId());
+                Tracer.initTrace(observability, TracingId.random(), operation, SpanType.LOCAL);
                 Tracer.fastStartSpan(operation);
                 delegate.run();
             } finally {
@@ -392,7 +425,7 @@ public final class Tracers {
             Optional<Trace> originalTrace = Tracer.getAndClearTraceIfPresent();
 
             try {
-                Tracer.initTrace(observability, traceId);
+                Tracer.initTrace(observability, traceId, operation, SpanType.LOCAL);
                 Tracer.fastStartSpan(operation);
                 return delegate.call();
             } finally {
@@ -430,7 +463,7 @@ public final class Tracers {
             Optional<Trace> originalTrace = Tracer.getAndClearTraceIfPresent();
 
             try {
-                Tracer.initTrace(observability, traceId);
+                Tracer.initTrace(observability, traceId, operation, SpanType.LOCAL);
                 Tracer.fastStartSpan(operation);
                 delegate.run();
             } finally {
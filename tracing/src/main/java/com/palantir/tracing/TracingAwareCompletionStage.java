@@ -0,0 +1,286 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A {@link CompletionStage} which runs every callback with the {@link Trace thread-local Trace} of the thread which
+ * created it, regardless of the thread completing the stage. The trace is captured once and shared by all stages
+ * derived from this one, so chaining callbacks does not capture the trace again.
+ *
+ * <p>Callbacks attached to the {@link #toCompletableFuture() underlying future} are not traced.
+ */
+final class TracingAwareCompletionStage<T> implements CompletionStage<T> {
+
+    private final CompletionStage<T> delegate;
+    private final DeferredTracer deferredTracer;
+
+    private TracingAwareCompletionStage(CompletionStage<T> delegate, DeferredTracer deferredTracer) {
+        this.delegate = delegate;
+        this.deferredTracer = deferredTracer;
+    }
+
+    static <T> CompletionStage<T> of(CompletionStage<T> delegate, DeferredTracer deferredTracer) {
+        return new TracingAwareCompletionStage<>(delegate, deferredTracer);
+    }
+
+    private <U> CompletionStage<U> wrap(CompletionStage<U> stage) {
+        return new TracingAwareCompletionStage<>(stage, deferredTracer);
+    }
+
+    private <A, R> Function<A, R> wrap(Function<A, R> fn) {
+        return value -> deferredTracer.withTrace(() -> fn.apply(value));
+    }
+
+    private <A> Consumer<A> wrap(Consumer<A> action) {
+        return value -> deferredTracer.withTrace(() -> {
+            action.accept(value);
+            return null;
+        });
+    }
+
+    private <A, B, R> BiFunction<A, B, R> wrap(BiFunction<A, B, R> fn) {
+        return (first, second) -> deferredTracer.withTrace(() -> fn.apply(first, second));
+    }
+
+    private <A, B> BiConsumer<A, B> wrap(BiConsumer<A, B> action) {
+        return (first, second) -> deferredTracer.withTrace(() -> {
+            action.accept(first, second);
+            return null;
+        });
+    }
+
+    private Runnable wrap(Runnable action) {
+        return () -> deferredTracer.withTrace(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApply(Function<? super T, ? extends U> fn) {
+        return wrap(delegate.thenApply(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
+        return wrap(delegate.thenApplyAsync(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
+        return wrap(delegate.thenApplyAsync(wrap(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAccept(Consumer<? super T> action) {
+        return wrap(delegate.thenAccept(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action) {
+        return wrap(delegate.thenAcceptAsync(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
+        return wrap(delegate.thenAcceptAsync(wrap(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRun(Runnable action) {
+        return wrap(delegate.thenRun(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action) {
+        return wrap(delegate.thenRunAsync(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action, Executor executor) {
+        return wrap(delegate.thenRunAsync(wrap(action), executor));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombine(
+            CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+        return wrap(delegate.thenCombine(other, wrap(fn)));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombineAsync(
+            CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+        return wrap(delegate.thenCombineAsync(other, wrap(fn)));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombineAsync(
+            CompletionStage<? extends U> other,
+            BiFunction<? super T, ? super U, ? extends V> fn,
+            Executor executor) {
+        return wrap(delegate.thenCombineAsync(other, wrap(fn), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBoth(
+            CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+        return wrap(delegate.thenAcceptBoth(other, wrap(action)));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(
+            CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+        return wrap(delegate.thenAcceptBothAsync(other, wrap(action)));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(
+            CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action, Executor executor) {
+        return wrap(delegate.thenAcceptBothAsync(other, wrap(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
+        return wrap(delegate.runAfterBoth(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
+        return wrap(delegate.runAfterBothAsync(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+        return wrap(delegate.runAfterBothAsync(other, wrap(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEither(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+        return wrap(delegate.applyToEither(other, wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+        return wrap(delegate.applyToEitherAsync(other, wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(
+            CompletionStage<? extends T> other, Function<? super T, U> fn, Executor executor) {
+        return wrap(delegate.applyToEitherAsync(other, wrap(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEither(CompletionStage<? extends T> other, Consumer<? super T> action) {
+        return wrap(delegate.acceptEither(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action) {
+        return wrap(delegate.acceptEitherAsync(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(
+            CompletionStage<? extends T> other, Consumer<? super T> action, Executor executor) {
+        return wrap(delegate.acceptEitherAsync(other, wrap(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
+        return wrap(delegate.runAfterEither(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
+        return wrap(delegate.runAfterEitherAsync(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+        return wrap(delegate.runAfterEitherAsync(other, wrap(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+        return wrap(delegate.thenCompose(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn) {
+        return wrap(delegate.thenComposeAsync(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(
+            Function<? super T, ? extends CompletionStage<U>> fn, Executor executor) {
+        return wrap(delegate.thenComposeAsync(wrap(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<T> exceptionally(Function<Throwable, ? extends T> fn) {
+        return wrap(delegate.exceptionally(wrap(fn)));
+    }
+
+    @Override
+    public CompletionStage<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+        return wrap(delegate.whenComplete(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
+        return wrap(delegate.whenCompleteAsync(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action, Executor executor) {
+        return wrap(delegate.whenCompleteAsync(wrap(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+        return wrap(delegate.handle(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
+        return wrap(delegate.handleAsync(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn, Executor executor) {
+        return wrap(delegate.handleAsync(wrap(fn), executor));
+    }
+
+    @Override
+    public CompletableFuture<T> toCompletableFuture() {
+        return delegate.toCompletableFuture();
+    }
+
+    @Override
+    public String toString() {
+        return "TracingAwareCompletionStage{delegate=" + delegate + '}';
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanTags;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Writes {@link Span spans} as Zipkin JSON without building intermediate objects or using reflection. The endpoint of
+ * the local service is rendered once when the encoder is created.
+ *
+ * <p>The {@link #v1 v1} format is identical to the JSON historically logged by {@link AsyncSlf4jSpanObserver}. The
+ * {@link #v2 v2} format is the one accepted by the {@code /api/v2/spans} endpoint of a Zipkin collector.
+ */
+public final class ZipkinJsonEncoder {
+
+    private static final char[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private final boolean v2;
+    private final String endpoint;
+
+    private ZipkinJsonEncoder(boolean v2, String endpoint) {
+        this.v2 = v2;
+        this.endpoint = endpoint;
+    }
+
+    /** Returns an encoder for the Zipkin v1 JSON format, tagging every annotation with the given endpoint. */
+    public static ZipkinJsonEncoder v1(String serviceName, @Nullable InetAddress ip) {
+        return new ZipkinJsonEncoder(false, endpoint(serviceName, ip));
+    }
+
+    /** Returns an encoder for the Zipkin v2 JSON format, using the given endpoint as local endpoint of every span. */
+    public static ZipkinJsonEncoder v2(String serviceName, @Nullable InetAddress ip) {
+        // Zipkin v2 service names are case-insensitive and normalized to lowercase by the collector.
+        return new ZipkinJsonEncoder(true, endpoint(serviceName.toLowerCase(Locale.ROOT), ip));
+    }
+
+    /** Returns the JSON representation of the given span, rendered in a reusable per-thread buffer. */
+    public String encode(Span span) {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        String json = encode(span, buffer).toString();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffers.remove();
+        }
+        return json;
+    }
+
+    /** Appends the JSON representation of the given span to {@code out}. */
+    public StringBuilder encode(Span span, StringBuilder out) {
+        return v2 ? encodeV2(span, out) : encodeV1(span, out);
+    }
+
+    private StringBuilder encodeV1(Span span, StringBuilder out) {
+        long timestamp = span.getStartTimeMicroSeconds();
+        long duration = nanoToMicro(span.getDurationNanoSeconds());
+
+        out.append("{\"traceId\":");
+        appendString(out, span.getTraceId());
+        out.append(",\"id\":");
+        appendString(out, span.getSpanId());
+        out.append(",\"name\":");
+        appendString(out, span.getOperation());
+        out.append(",\"parentId\":");
+        Optional<String> parentSpanId = span.getParentSpanId();
+        if (parentSpanId.isPresent()) {
+            appendString(out, parentSpanId.get());
+        } else {
+            out.append("null");
+        }
+        out.append(",\"timestamp\":").append(timestamp);
+        out.append(",\"duration\":").append(duration);
+
+        out.append(",\"annotations\":[");
+        switch (span.type()) {
+            case CLIENT_OUTGOING:
+                appendAnnotation(out, timestamp, "cs").append(',');
+                appendAnnotation(out, timestamp + duration, "cr");
+                break;
+            case SERVER_INCOMING:
+                appendAnnotation(out, timestamp, "sr").append(',');
+                appendAnnotation(out, timestamp + duration, "ss");
+                break;
+            case LOCAL:
+                appendAnnotation(out, timestamp, "lc");
+                break;
+            default:
+                throw new RuntimeException("Unhandled SpanType: " + span.type());
+        }
+
+        out.append("],\"binaryAnnotations\":[");
+        boolean first = true;
+        Map<String, String> metadata = span.getMetadata();
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append("{\"key\":");
+            appendString(out, entry.getKey());
+            out.append(",\"value\":");
+            appendString(out, entry.getValue());
+            out.append(",\"endpoint\":").append(endpoint).append('}');
+        }
+        SpanTags tags = span.getTags();
+        for (int i = 0; i < tags.size(); i++) {
+            if (metadata.containsKey(tags.key(i))) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append("{\"key\":");
+            appendString(out, tags.key(i));
+            out.append(",\"value\":");
+            appendTagValue(out, tags, i);
+            out.append(",\"endpoint\":").append(endpoint).append('}');
+        }
+        return out.append("]}");
+    }
+
+    private StringBuilder appendAnnotation(StringBuilder out, long timestamp, String value) {
+        return out.append("{\"timestamp\":")
+                .append(timestamp)
+                .append(",\"value\":\"")
+                .append(value)
+                .append("\",\"endpoint\":")
+                .append(endpoint)
+                .append('}');
+    }
+
+    private StringBuilder encodeV2(Span span, StringBuilder out) {
+        out.append("{\"traceId\":");
+        appendString(out, span.getTraceId());
+        Optional<String> parentSpanId = span.getParentSpanId();
+        if (parentSpanId.isPresent()) {
+            out.append(",\"parentId\":");
+            appendString(out, parentSpanId.get());
+        }
+        out.append(",\"id\":");
+        appendString(out, span.getSpanId());
+        switch (span.type()) {
+            case CLIENT_OUTGOING:
+                out.append(",\"kind\":\"CLIENT\"");
+                break;
+            case SERVER_INCOMING:
+                out.append(",\"kind\":\"SERVER\"");
+                break;
+            case LOCAL:
+                break;
+            default:
+                throw new RuntimeException("Unhandled SpanType: " + span.type());
+        }
+        out.append(",\"name\":");
+        appendString(out, span.getOperation());
+        out.append(",\"timestamp\":").append(span.getStartTimeMicroSeconds());
+        out.append(",\"duration\":").append(nanoToMicro(span.getDurationNanoSeconds()));
+        out.append(",\"localEndpoint\":").append(endpoint);
+
+        Map<String, String> metadata = span.getMetadata();
+        SpanTags tags = span.getTags();
+        if (!metadata.isEmpty() || !tags.isEmpty()) {
+            out.append(",\"tags\":{");
+            boolean first = true;
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                appendString(out, entry.getKey());
+                out.append(':');
+                appendString(out, entry.getValue());
+            }
+            for (int i = 0; i < tags.size(); i++) {
+                if (metadata.containsKey(tags.key(i))) {
+                    continue;
+                }
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                appendString(out, tags.key(i));
+                out.append(':');
+                appendTagValue(out, tags, i);
+            }
+            out.append('}');
+        }
+        return out.append('}');
+    }
+
+    /** Zipkin tag values are strings, numbers and flags are rendered straight into the output. */
+    private static void appendTagValue(StringBuilder out, SpanTags tags, int index) {
+        switch (tags.type(index)) {
+            case LONG:
+                out.append('"').append(tags.longValue(index)).append('"');
+                return;
+            case DOUBLE:
+                out.append('"').append(tags.doubleValue(index)).append('"');
+                return;
+            case BOOLEAN:
+                out.append('"').append(tags.booleanValue(index)).append('"');
+                return;
+            case STRING:
+                appendString(out, tags.stringValue(index));
+                return;
+            default:
+                throw new RuntimeException("Unhandled tag type: " + tags.type(index));
+        }
+    }
+
+    /** Zipkin durations are micro-seconds, and always round up so that no span has a zero duration. */
+    static long nanoToMicro(long nano) {
+        return (nano + 1000) / 1000L;
+    }
+
+    private static String endpoint(String serviceName, @Nullable InetAddress ip) {
+        StringBuilder out = new StringBuilder("{\"serviceName\":");
+        appendString(out, serviceName);
+        if (ip instanceof Inet4Address) {
+            out.append(",\"ipv4\":");
+            appendString(out, ip.getHostAddress());
+        } else if (ip instanceof Inet6Address) {
+            out.append(",\"ipv6\":");
+            appendString(out, ip.getHostAddress());
+        }
+        return out.append('}').toString();
+    }
+
+    /** Appends a quoted JSON string, escaping the same characters as Jackson. */
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char character = value.charAt(i);
+            if (character >= 0x20 && character != '"' && character != '\\') {
+                continue;
+            }
+            out.append(value, start, i);
+            start = i + 1;
+            switch (character) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                default:
+                    out.append("\\u00")
+                            .append(HEX_DIGITS[character >> 4])
+                            .append(HEX_DIGITS[character & 0xF]);
+            }
+        }
+        out.append(value, start, length).append('"');
+    }
+}
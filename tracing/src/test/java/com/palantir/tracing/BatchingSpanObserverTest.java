@@ -0,0 +1,227 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public final class BatchingSpanObserverTest {
+
+    @Test
+    public void testExportsFullBatches() {
+        RecordingObserver observer = new RecordingObserver(SpanBatchingOptions.builder()
+                .maxBatchSize(3)
+                .linger(Duration.ofHours(1))
+                .build());
+        for (int i = 0; i < 6; i++) {
+            observer.consume(span(i));
+        }
+        observer.close();
+
+        assertThat(observer.batches).hasSize(2).allSatisfy(batch -> assertThat(batch).hasSize(3));
+        assertThat(spanIds(observer.batches)).containsExactly("0", "1", "2", "3", "4", "5");
+        assertThat(observer.getExportedSpans()).isEqualTo(6);
+        assertThat(observer.getDroppedSpans()).isZero();
+    }
+
+    @Test
+    public void testExportsPartialBatchAfterLinger() throws InterruptedException {
+        BlockingQueue<Integer> batchSizes = new LinkedBlockingQueue<>();
+        BatchingSpanObserver observer = new BatchingSpanObserver(SpanBatchingOptions.builder()
+                .maxBatchSize(100)
+                .linger(Duration.ofMillis(10))
+                .build()) {
+            @Override
+            protected void consumeBatch(List<Span> spans) {
+                batchSizes.add(spans.size());
+            }
+        };
+        observer.consume(span(1));
+        observer.consume(span(2));
+
+        assertThat(batchSizes.poll(5, TimeUnit.SECONDS)).isEqualTo(2);
+        observer.close();
+    }
+
+    @Test
+    public void testDropsNewestSpansWhenFull() throws InterruptedException {
+        BlockingObserver observer = new BlockingObserver(SpanBatchingOptions.OverflowPolicy.DROP_NEWEST);
+        observer.consume(span(0));
+        observer.awaitBlocked();
+
+        for (int i = 1; i <= 6; i++) {
+            observer.consume(span(i));
+        }
+        observer.unblock();
+        observer.close();
+
+        assertThat(spanIds(observer.batches)).containsExactly("0", "1", "2", "3", "4");
+        assertThat(observer.getDroppedSpans()).isEqualTo(2);
+        assertThat(observer.getExportedSpans()).isEqualTo(5);
+    }
+
+    @Test
+    public void testDropsOldestSpansWhenFull() throws InterruptedException {
+        BlockingObserver observer = new BlockingObserver(SpanBatchingOptions.OverflowPolicy.DROP_OLDEST);
+        observer.consume(span(0));
+        observer.awaitBlocked();
+
+        for (int i = 1; i <= 6; i++) {
+            observer.consume(span(i));
+        }
+        observer.unblock();
+        observer.close();
+
+        assertThat(spanIds(observer.batches)).containsExactly("0", "3", "4", "5", "6");
+        assertThat(observer.getDroppedSpans()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCountsFailedBatches() {
+        BatchingSpanObserver observer = new BatchingSpanObserver(SpanBatchingOptions.builder()
+                .maxBatchSize(2)
+                .linger(Duration.ofHours(1))
+                .build()) {
+            @Override
+            protected void consumeBatch(List<Span> _spans) {
+                throw new IllegalStateException();
+            }
+        };
+        observer.consume(span(1));
+        observer.consume(span(2));
+        observer.close();
+
+        assertThat(observer.getFailedSpans()).isEqualTo(2);
+        assertThat(observer.getExportedSpans()).isZero();
+    }
+
+    @Test
+    public void testDropsSpansAfterClose() {
+        RecordingObserver observer = new RecordingObserver(SpanBatchingOptions.builder().build());
+        observer.close();
+        observer.consume(span(1));
+
+        assertThat(observer.batches).isEmpty();
+        assertThat(observer.getDroppedSpans()).isEqualTo(1);
+    }
+
+    @Test
+    public void testStartsDrainThreadOnceConstructed() {
+        RecordingObserver observer = new RecordingObserver(
+                SpanBatchingOptions.builder().threadName("unstarted-drain").build());
+        assertThat(isRunning("unstarted-drain")).isFalse();
+
+        observer.start();
+        assertThat(isRunning("unstarted-drain")).isTrue();
+        observer.close();
+        assertThat(isRunning("unstarted-drain")).isFalse();
+    }
+
+    @Test
+    public void testDoesNotStartDrainThreadOnceClosed() {
+        RecordingObserver observer = new RecordingObserver(
+                SpanBatchingOptions.builder().threadName("closed-drain").build());
+        observer.close();
+        observer.start();
+        observer.consume(span(1));
+
+        assertThat(isRunning("closed-drain")).isFalse();
+        assertThat(observer.getDroppedSpans()).isEqualTo(1);
+    }
+
+    private static boolean isRunning(String threadName) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().equals(threadName) && thread.isAlive());
+    }
+
+    private static List<String> spanIds(List<List<Span>> batches) {
+        return batches.stream()
+                .flatMap(List::stream)
+                .map(Span::getSpanId)
+                .collect(Collectors.toList());
+    }
+
+    private static Span span(int spanId) {
+        return Span.builder()
+                .traceId("")
+                .spanId(Integer.toString(spanId))
+                .operation("")
+                .startTimeMicroSeconds(0L)
+                .durationNanoSeconds(0L)
+                .type(SpanType.LOCAL)
+                .build();
+    }
+
+    private static class RecordingObserver extends BatchingSpanObserver {
+        // Only accessed from the drain thread until close() has joined it.
+        final List<List<Span>> batches = new ArrayList<>();
+
+        RecordingObserver(SpanBatchingOptions options) {
+            super(options);
+        }
+
+        @Override
+        protected void consumeBatch(List<Span> spans) {
+            batches.add(new ArrayList<>(spans));
+        }
+    }
+
+    /** Blocks on its first batch, leaving room for exactly four buffered spans. */
+    private static final class BlockingObserver extends RecordingObserver {
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch unblocked = new CountDownLatch(1);
+
+        BlockingObserver(SpanBatchingOptions.OverflowPolicy overflowPolicy) {
+            super(SpanBatchingOptions.builder()
+                    .capacity(4)
+                    .maxBatchSize(1)
+                    .linger(Duration.ofMillis(1))
+                    .overflowPolicy(overflowPolicy)
+                    .build());
+        }
+
+        @Override
+        protected void consumeBatch(List<Span> spans) {
+            blocked.countDown();
+            try {
+                unblocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.consumeBatch(spans);
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+
+        void unblock() {
+            unblocked.countDown();
+        }
+    }
+}
@@ -18,15 +18,36 @@ package com.palantir.tracing;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.palantir.tracing.api.Span;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
 public class DeferredTracerTest {
 
+    private final List<Span> spans = new ArrayList<>();
+
+    @Before
+    public void before() {
+        Tracer.subscribe("DeferredTracerTest", spans::add);
+    }
+
+    @After
+    public void after() {
+        Tracer.unsubscribe("DeferredTracerTest");
+        Tracer.clearCurrentTrace();
+    }
+
     @Test
     public void testIsSerializable() throws IOException, ClassNotFoundException {
         Tracer.initTrace(Observability.UNDECIDED, "defaultTraceId");
@@ -48,4 +69,71 @@ public class DeferredTracerTest {
             assertThat(trace).isEqualTo("defaultTraceId");
         }
     }
+
+    @Test
+    public void testContinuesCapturedSpanOnEachRun() throws Exception {
+        Tracer.initTrace(Observability.SAMPLE, "defaultTraceId");
+        Tracer.fastStartSpan("outer");
+        Tracer.fastStartSpan("inner");
+        DeferredTracer deferredTracer = new DeferredTracer("deferred");
+        Tracer.fastCompleteSpan();
+        Tracer.fastCompleteSpan();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 2; i++) {
+                assertThat(executor.submit(() -> deferredTracer.withTrace(Tracer::getTraceId))
+                                .get(5, TimeUnit.SECONDS))
+                        .isEqualTo("defaultTraceId");
+                assertThat(executor.submit(Tracer::hasTraceId).get(5, TimeUnit.SECONDS))
+                        .isFalse();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(spans).extracting(Span::getOperation).containsExactly("inner", "outer", "deferred", "deferred");
+        assertThat(spans.subList(2, 4)).allSatisfy(span -> {
+            assertThat(span.getTraceId()).isEqualTo("defaultTraceId");
+            assertThat(span.getParentSpanId()).hasValue(spans.get(0).getSpanId());
+        });
+    }
+
+    @Test
+    public void testRestoresTraceOfRunningThread() {
+        Tracer.initTrace(Observability.SAMPLE, "capturedTraceId");
+        Tracer.fastStartSpan("captured");
+        DeferredTracer deferredTracer = new DeferredTracer("deferred");
+        Tracer.fastCompleteSpan();
+
+        Tracer.initTrace(Observability.SAMPLE, "runningTraceId");
+        Tracer.fastStartSpan("running");
+        assertThat(deferredTracer.withTrace(Tracer::getTraceId)).isEqualTo("capturedTraceId");
+        assertThat(Tracer.getTraceId()).isEqualTo("runningTraceId");
+        Tracer.fastCompleteSpan();
+
+        assertThat(spans).extracting(Span::getOperation).containsExactly("captured", "deferred", "running");
+    }
+
+    @Test
+    public void testDeserializedTracerKeepsParentSpan() throws IOException, ClassNotFoundException {
+        Tracer.initTrace(Observability.SAMPLE, "defaultTraceId");
+        Tracer.fastStartSpan("outer");
+        DeferredTracer deferredTracer = new DeferredTracer("deferred");
+        Tracer.fastCompleteSpan();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(baos)) {
+            objectOutputStream.writeObject(deferredTracer);
+        }
+        try (ObjectInputStream objectInputStream =
+                new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            DeferredTracer deserialized = (DeferredTracer) objectInputStream.readObject();
+            deserialized.withTrace(() -> null);
+        }
+
+        assertThat(spans).extracting(Span::getOperation).containsExactly("outer", "deferred");
+        assertThat(spans.get(1).getTraceId()).isEqualTo("defaultTraceId");
+        assertThat(spans.get(1).getParentSpanId()).hasValue(spans.get(0).getSpanId());
+    }
 }
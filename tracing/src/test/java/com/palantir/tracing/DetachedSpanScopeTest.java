@@ -0,0 +1,172 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+public final class DetachedSpanScopeTest {
+
+    private final List<Span> spans = new ArrayList<>();
+
+    @Before
+    public void before() {
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+        Tracer.subscribe("DetachedSpanScopeTest", spans::add);
+    }
+
+    @After
+    public void after() {
+        Tracer.unsubscribe("DetachedSpanScopeTest");
+        Tracer.clearCurrentTrace();
+    }
+
+    @Test
+    public void testParentsSpansOnEachEntry() {
+        DetachedSpan request = DetachedSpan.start("request");
+        DetachedSpanScope scope = DetachedSpanScope.of(request);
+        for (int i = 0; i < 2; i++) {
+            try (CloseableSpan ignored = scope.enter()) {
+                assertThat(Tracer.hasTraceId()).isTrue();
+                Tracer.fastStartSpan("child" + i);
+                Tracer.fastCompleteSpan();
+            }
+            assertThat(Tracer.hasTraceId()).isFalse();
+        }
+        request.complete();
+
+        assertThat(spans).extracting(Span::getOperation).containsExactly("child0", "child1", "request");
+        Span requestSpan = spans.get(2);
+        assertThat(spans.subList(0, 2)).allSatisfy(span -> {
+            assertThat(span.getTraceId()).isEqualTo(requestSpan.getTraceId());
+            assertThat(span.getParentSpanId()).hasValue(requestSpan.getSpanId());
+        });
+    }
+
+    @Test
+    public void testReentryHasNoEffect() {
+        DetachedSpan request = DetachedSpan.start("request");
+        DetachedSpanScope scope = DetachedSpanScope.of(request);
+
+        try (CloseableSpan ignored = scope.enter()) {
+            String traceId = Tracer.getTraceId();
+            assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isEqualTo(traceId);
+            // Entering the scope again on the same thread has no effect
+            try (CloseableSpan nested = scope.enter()) {
+                assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isEqualTo(traceId);
+            }
+            assertThat(Tracer.getTraceId()).isEqualTo(traceId);
+        }
+        assertThat(Tracer.hasTraceId()).isFalse();
+        request.complete();
+    }
+
+    @Test
+    public void testRestoresPreviousTrace() {
+        DetachedSpan request = DetachedSpan.start("request");
+        DetachedSpanScope scope = DetachedSpanScope.of(request);
+        Tracer.fastStartSpan("outer");
+        String outerTraceId = Tracer.getTraceId();
+
+        try (CloseableSpan ignored = scope.enter()) {
+            assertThat(Tracer.getTraceId()).isNotEqualTo(outerTraceId);
+            assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNotEqualTo(outerTraceId);
+        }
+        assertThat(Tracer.getTraceId()).isEqualTo(outerTraceId);
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isEqualTo(outerTraceId);
+        Tracer.fastCompleteSpan();
+        request.complete();
+        assertThat(spans).extracting(Span::getOperation).containsExactly("outer", "request");
+    }
+
+    @Test
+    public void testLeavesMdcUntouched() {
+        DetachedSpan request = DetachedSpan.start("request");
+        DetachedSpanScope scope = DetachedSpanScope.of(request);
+        try (CloseableSpan ignored = scope.enterWithoutMdc()) {
+            assertThat(Tracer.hasTraceId()).isTrue();
+            assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNull();
+        }
+        assertThat(Tracer.hasTraceId()).isFalse();
+        request.complete();
+    }
+
+    @Test
+    public void testUnsampledSpan() {
+        Tracer.setSampler(() -> false);
+        DetachedSpan request = DetachedSpan.start(
+                Observability.DO_NOT_SAMPLE, "abcdef", Optional.of("0123456789abcdef"), "request", SpanType.LOCAL);
+        DetachedSpanScope scope = DetachedSpanScope.of(request);
+        try (CloseableSpan ignored = scope.enter()) {
+            assertThat(Tracer.getTraceId()).isEqualTo("abcdef");
+            assertThat(Tracer.isTraceObservable()).isFalse();
+            Tracer.fastStartSpan("child");
+            Tracer.fastCompleteSpan();
+            assertThat(Tracer.getTraceId()).isEqualTo("abcdef");
+        }
+        assertThat(Tracer.hasTraceId()).isFalse();
+        request.complete();
+        assertThat(spans).isEmpty();
+    }
+
+    @Test
+    public void testCopiesTraceForConcurrentEntries() throws Exception {
+        DetachedSpan request = DetachedSpan.start("request");
+        DetachedSpanScope scope = DetachedSpanScope.of(request);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (CloseableSpan ignored = scope.enter()) {
+            String traceId = Tracer.getTraceId();
+            Future<String> concurrent = executor.submit(() -> {
+                try (CloseableSpan inner = scope.enter()) {
+                    Tracer.fastStartSpan("concurrent");
+                    Tracer.fastCompleteSpan();
+                    return Tracer.getTraceId();
+                }
+            });
+            assertThat(concurrent.get(5, TimeUnit.SECONDS)).isEqualTo(traceId);
+            assertThat(executor.submit(Tracer::hasTraceId).get(5, TimeUnit.SECONDS)).isFalse();
+            // Later concurrent entries reuse the trace built for the first one
+            Callable<CloseableSpan> enterAndExit = () -> {
+                try (CloseableSpan inner = scope.enter()) {
+                    return inner;
+                }
+            };
+            assertThat(executor.submit(enterAndExit).get(5, TimeUnit.SECONDS))
+                    .isSameAs(executor.submit(enterAndExit).get(5, TimeUnit.SECONDS));
+            assertThat(Tracer.getTraceId()).isEqualTo(traceId);
+        } finally {
+            executor.shutdownNow();
+        }
+        request.complete();
+        assertThat(spans).extracting(Span::getOperation).containsExactly("concurrent", "request");
+        assertThat(spans.get(0).getParentSpanId()).hasValue(spans.get(1).getSpanId());
+    }
+}
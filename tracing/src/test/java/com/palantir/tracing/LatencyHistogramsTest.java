@@ -0,0 +1,136 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.palantir.tracing.api.SpanType;
+import java.util.List;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Test;
+
+public final class LatencyHistogramsTest {
+
+    @After
+    public void after() {
+        Tracer.disableLatencyHistograms();
+        Tracer.getAndClearTrace();
+    }
+
+    @Test
+    public void testBucketsCoverTheirValues() {
+        for (long nanos : new long[] {0, 1, 31, 32, 33, 63, 64, 1_000, 123_456_789, 1L << 36}) {
+            int bucket = LatencyHistograms.bucketIndex(nanos);
+            long lowest = LatencyHistograms.lowestEquivalentValue(bucket);
+            long highest = LatencyHistograms.highestEquivalentValue(bucket);
+            assertThat(lowest).isLessThanOrEqualTo(nanos);
+            assertThat(highest).isGreaterThanOrEqualTo(nanos);
+            assertThat(highest - lowest).isLessThanOrEqualTo(nanos / 32);
+        }
+        assertThat(LatencyHistograms.bucketIndex(-5)).isZero();
+        assertThat(LatencyHistograms.bucketIndex(Long.MAX_VALUE)).isEqualTo(LatencyHistograms.BUCKETS - 1);
+    }
+
+    @Test
+    public void testReportsPercentiles() {
+        LatencyHistograms histograms = new LatencyHistograms(new OperationNames(16));
+        for (int i = 1; i <= 1_000; i++) {
+            histograms.record("op", SpanType.LOCAL, i * 1_000L);
+        }
+
+        List<LatencySnapshot> snapshots = histograms.snapshot();
+        assertThat(snapshots).hasSize(1);
+        LatencySnapshot snapshot = snapshots.get(0);
+        assertThat(snapshot.operation()).isEqualTo("op");
+        assertThat(snapshot.type()).isEqualTo(SpanType.LOCAL);
+        assertThat(snapshot.count()).isEqualTo(1_000);
+        assertThat(snapshot.maxNanos()).isEqualTo(1_000_000);
+        assertThat(snapshot.p50Nanos()).isBetween(500_000L, 516_000L);
+        assertThat(snapshot.p99Nanos()).isBetween(990_000L, 1_000_000L);
+        assertThat(snapshot.p999Nanos()).isBetween(999_000L, 1_000_000L);
+        assertThat(snapshot.valueAtPercentileNanos(100)).isEqualTo(1_000_000);
+        assertThatThrownBy(() -> snapshot.valueAtPercentileNanos(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSnapshotsResetInterval() {
+        LatencyHistograms histograms = new LatencyHistograms(new OperationNames(16));
+        histograms.record("op", SpanType.LOCAL, 5_000);
+        histograms.record("op", SpanType.SERVER_INCOMING, 7_000);
+        assertThat(histograms.snapshot()).hasSize(2);
+        assertThat(histograms.snapshot()).isEmpty();
+
+        histograms.record("op", SpanType.LOCAL, 10);
+        List<LatencySnapshot> snapshots = histograms.snapshot();
+        assertThat(snapshots).hasSize(1);
+        assertThat(snapshots.get(0).count()).isEqualTo(1);
+        assertThat(snapshots.get(0).maxNanos()).isEqualTo(10);
+    }
+
+    @Test
+    public void testUnregisteredOperationsOverflow() {
+        LatencyHistograms histograms = new LatencyHistograms(new OperationNames(2));
+        histograms.record("first", SpanType.LOCAL, 1);
+        histograms.record("second", SpanType.LOCAL, 2);
+        histograms.record("third", SpanType.LOCAL, 3);
+
+        List<LatencySnapshot> snapshots = histograms.snapshot();
+        assertThat(snapshots)
+                .extracting(LatencySnapshot::operation)
+                .containsExactly(LatencyHistograms.OVERFLOW_OPERATION, "first");
+        assertThat(snapshots.get(0).count()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRecordsSpansOfAllTraces() {
+        LatencyHistograms histograms = new LatencyHistograms(new OperationNames(16));
+        Tracer.setLatencyHistograms(histograms);
+
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("sampled");
+        Tracer.fastCompleteSpan();
+
+        Tracer.initTrace(Observability.DO_NOT_SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("unsampled");
+        Tracer.fastStartSpan("child", SpanType.CLIENT_OUTGOING);
+        Tracer.fastCompleteSpan();
+        Tracer.fastCompleteSpan();
+
+        DetachedSpan detached = DetachedSpan.start(
+                Observability.DO_NOT_SAMPLE, Tracers.randomId(), Optional.empty(), "detached", SpanType.LOCAL);
+        detached.complete();
+        detached.complete();
+
+        assertThat(histograms.snapshot())
+                .extracting(snapshot -> snapshot.operation() + "/" + snapshot.type() + "=" + snapshot.count())
+                .containsExactlyInAnyOrder(
+                        "sampled/LOCAL=1", "unsampled/LOCAL=1", "child/CLIENT_OUTGOING=1", "detached/LOCAL=1");
+    }
+
+    @Test
+    public void testDoesNotRecordSpansStartedBeforeEnabling() {
+        Tracer.initTrace(Observability.DO_NOT_SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("before");
+        LatencyHistograms histograms = new LatencyHistograms(new OperationNames(16));
+        Tracer.setLatencyHistograms(histograms);
+        Tracer.fastCompleteSpan();
+
+        assertThat(histograms.snapshot()).isEmpty();
+    }
+}
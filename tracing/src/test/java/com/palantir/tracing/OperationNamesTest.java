@@ -0,0 +1,93 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public final class OperationNamesTest {
+
+    @Test
+    public void testInternReturnsSameInstance() {
+        OperationNames names = new OperationNames(16);
+        OperationName first = names.intern("operation");
+        OperationName second = names.intern("operation");
+        assertThat(second).isSameAs(first);
+        assertThat(first.name()).isEqualTo("operation");
+        assertThat(first.isOverflow()).isFalse();
+        assertThat(names.byId(first.id())).containsSame(first);
+    }
+
+    @Test
+    public void testIdentifiersAreDense() {
+        OperationNames names = new OperationNames(16);
+        assertThat(names.intern("first").id()).isEqualTo(1);
+        assertThat(names.intern("second").id()).isEqualTo(2);
+        assertThat(names.intern("first").id()).isEqualTo(1);
+        assertThat(names.byId(3)).isEmpty();
+        assertThat(names.byId(OperationNames.OVERFLOW_ID)).isEmpty();
+        assertThat(names.byId(16)).isEmpty();
+    }
+
+    @Test
+    public void testOverflow() {
+        OperationNames names = new OperationNames(3);
+        OperationName first = names.intern("first");
+        OperationName second = names.intern("second");
+        OperationName third = names.intern("third");
+        assertThat(first.isOverflow()).isFalse();
+        assertThat(second.isOverflow()).isFalse();
+        assertThat(third.isOverflow()).isTrue();
+        assertThat(third).isSameAs(OperationNames.OVERFLOW);
+        assertThat(third.id()).isEqualTo(OperationNames.OVERFLOW_ID);
+        assertThat(third.name()).isEqualTo(OperationNames.OVERFLOW_NAME);
+        assertThat(names.intern("fourth")).isSameAs(OperationNames.OVERFLOW);
+        assertThat(names.intern("first")).isSameAs(first);
+    }
+
+    @Test
+    public void testSingleKeyTable() {
+        OperationNames names = new OperationNames(16);
+        OperationNames.SingleKeyTable table = names.table(path -> "OkHttp: " + path);
+        OperationName name = table.get("/path");
+        assertThat(name.name()).isEqualTo("OkHttp: /path");
+        assertThat(table.get("/path")).isSameAs(name);
+        assertThat(names.intern("OkHttp: /path")).isSameAs(name);
+    }
+
+    @Test
+    public void testTwoKeyTable() {
+        OperationNames names = new OperationNames(16);
+        OperationNames.TwoKeyTable table = names.table((method, path) -> method + " " + path);
+        OperationName get = table.get("GET", "/path");
+        assertThat(get.name()).isEqualTo("GET /path");
+        assertThat(table.get("GET", "/path")).isSameAs(get);
+        assertThat(table.get("POST", "/path").name()).isEqualTo("POST /path");
+        assertThat(table.get("GET", "/other").name()).isEqualTo("GET /other");
+    }
+
+    @Test
+    public void testTableDerivesNamesOnceFull() {
+        OperationNames names = new OperationNames(2);
+        OperationNames.SingleKeyTable table = names.table(path -> "OkHttp: " + path);
+        assertThat(table.get("/first").isOverflow()).isFalse();
+        OperationName overflow = table.get("/second");
+        assertThat(overflow).isSameAs(OperationNames.OVERFLOW);
+        assertThat(table.get("/second").name()).isEqualTo(OperationNames.OVERFLOW_NAME);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import com.palantir.tracing.api.SpanType;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public final class RateLimitingSamplerTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @After
+    public void after() {
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+        Tracer.getAndClearTrace();
+    }
+
+    @Test
+    public void testSamplesBurstThenRate() {
+        RateLimitingSampler sampler = new RateLimitingSampler(2, 10, ticker);
+        assertThat(sampler.sample("op", SpanType.LOCAL)).isTrue();
+        assertThat(sampler.sample("op", SpanType.LOCAL)).isTrue();
+        assertThat(sampler.sample("op", SpanType.LOCAL)).isFalse();
+
+        ticker.advance(499, TimeUnit.MILLISECONDS);
+        assertThat(sampler.sample("op", SpanType.LOCAL)).isFalse();
+        ticker.advance(1, TimeUnit.MILLISECONDS);
+        assertThat(sampler.sample("op", SpanType.LOCAL)).isTrue();
+        assertThat(sampler.sample("op", SpanType.LOCAL)).isFalse();
+    }
+
+    @Test
+    public void testLimitsOperationsIndependently() {
+        RateLimitingSampler sampler = new RateLimitingSampler(1, 10, ticker);
+        assertThat(sampler.sample("hot", SpanType.SERVER_INCOMING)).isTrue();
+        assertThat(sampler.sample("hot", SpanType.SERVER_INCOMING)).isFalse();
+        assertThat(sampler.sample("rare", SpanType.SERVER_INCOMING)).isTrue();
+    }
+
+    @Test
+    public void testSharesBucketBeyondMaxOperations() {
+        RateLimitingSampler sampler = new RateLimitingSampler(1, 1, ticker);
+        assertThat(sampler.sample("first", SpanType.LOCAL)).isTrue();
+        assertThat(sampler.sample("second", SpanType.LOCAL)).isTrue();
+        assertThat(sampler.sample("third", SpanType.LOCAL)).isFalse();
+        assertThat(sampler.sample()).isFalse();
+    }
+
+    @Test
+    public void testTracerPassesRootOperationToSampler() {
+        Tracer.setSampler(new RateLimitingSampler(1, 10, ticker));
+        Tracer.getAndClearTrace();
+
+        Tracer.fastStartSpan("op");
+        assertThat(Tracer.isTraceObservable()).isTrue();
+        Tracer.fastCompleteSpan();
+
+        Tracer.fastStartSpan("op");
+        assertThat(Tracer.isTraceObservable()).isFalse();
+        Tracer.fastCompleteSpan();
+
+        Tracer.initTrace(Observability.UNDECIDED, Tracers.randomId(), "other", SpanType.SERVER_INCOMING);
+        assertThat(Tracer.isTraceObservable()).isTrue();
+    }
+
+    private static final class FakeTicker extends Ticker {
+        private long nanos = 0L;
+
+        void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanTags;
+import com.palantir.tracing.api.SpanType;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class SpanJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTripsSpans() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        List<Span> spans = ImmutableList.of(
+                Span.builder()
+                        .traceId("0123456789abcdef")
+                        .spanId("fedcba9876543210")
+                        .type(SpanType.SERVER_INCOMING)
+                        .operation("GET /api")
+                        .startTimeMicroSeconds(1_600_000_000_000_000L)
+                        .durationNanoSeconds(1_234_567)
+                        .putMetadata("status", "200")
+                        .tags(SpanTags.builder()
+                                .put("rows", -42L)
+                                .put("ratio", 0.25)
+                                .put("hit", true)
+                                .put("region", "eu-\u00fcn\u00efcode")
+                                .build())
+                        .build(),
+                Span.builder()
+                        .traceId("0123456789abcdef0123456789abcdef")
+                        .spanId("not-a-hex-id")
+                        .parentSpanId("fedcba9876543210")
+                        .type(SpanType.LOCAL)
+                        .operation("GET /api")
+                        .startTimeMicroSeconds(1_599_999_999_000_000L)
+                        .durationNanoSeconds(0)
+                        .build());
+
+        SpanJournalObserver observer = SpanJournalObserver.create(
+                SpanJournalOptions.builder().directory(directory).build());
+        spans.forEach(observer::consume);
+        observer.close();
+
+        assertThat(readAll(directory)).containsExactlyElementsOf(spans);
+        assertThat(observer.getExportedSpans()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRotatesAndDeletesOldSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        SpanJournalObserver observer = SpanJournalObserver.create(SpanJournalOptions.builder()
+                .directory(directory)
+                .segmentBytes(4096)
+                .maxRetainedBytes(3 * 4096)
+                .build());
+        List<Span> spans = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            Span span = span(i);
+            spans.add(span);
+            observer.consume(span);
+        }
+        observer.close();
+
+        List<Path> segments = SpanJournalFormat.segments(directory);
+        assertThat(segments).hasSize(3);
+        assertThat(SpanJournalFormat.sequence(segments.get(2))).isGreaterThan(2);
+        List<Span> retained = readAll(directory);
+        assertThat(retained).isNotEmpty();
+        assertThat(spans.subList(spans.size() - retained.size(), spans.size())).isEqualTo(retained);
+    }
+
+    @Test
+    public void testRecoversTornTail() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        SpanJournalOptions options =
+                SpanJournalOptions.builder().directory(directory).segmentBytes(64 * 1024).build();
+        SpanJournalObserver observer = SpanJournalObserver.create(options);
+        observer.consume(span(1));
+        observer.consume(span(2));
+        observer.close();
+
+        // A record whose payload was only partially written before the process crashed
+        Path segment = SpanJournalFormat.segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int end = SpanJournalFormat.validEnd(mapped);
+            mapped.putInt(end, 100).putInt(end + 4, 12345).put(end + 8, (byte) 1).put(end + 150, (byte) 7);
+            mapped.force();
+        }
+        assertThat(readAll(directory)).containsExactly(span(1), span(2));
+
+        observer = SpanJournalObserver.create(options);
+        observer.consume(span(3));
+        observer.close();
+
+        assertThat(SpanJournalFormat.segments(directory)).containsExactly(segment);
+        assertThat(readAll(directory)).containsExactly(span(1), span(2), span(3));
+    }
+
+    @Test
+    public void testSkipsOversizedSpans() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        SpanJournalObserver observer = SpanJournalObserver.create(
+                SpanJournalOptions.builder().directory(directory).segmentBytes(4096).build());
+        Span oversized = Span.builder().from(span(1))
+                .operation("oversized")
+                .startTimeMicroSeconds(1_700_000_000_000_000L)
+                .putMetadata("padding", String.join("", Collections.nCopies(8192, "x")))
+                .build();
+        Span reusing = Span.builder().from(span(2)).operation("oversized").build();
+        observer.consume(span(0));
+        observer.consume(oversized);
+        observer.consume(reusing);
+        observer.consume(span(3));
+        observer.close();
+
+        assertThat(readAll(directory)).containsExactly(span(0), reusing, span(3));
+        assertThat(observer.getOversizedSpans()).isEqualTo(1);
+        assertThat(SpanJournalFormat.segments(directory)).hasSize(1);
+    }
+
+    private static List<Span> readAll(Path directory) throws IOException {
+        List<Span> spans = new ArrayList<>();
+        SpanJournalReader.open(directory).forEachRemaining(spans::add);
+        return spans;
+    }
+
+    private static Span span(int index) {
+        return Span.builder()
+                .traceId("0000000000000001")
+                .spanId(String.format("%016x", index))
+                .parentSpanId("0000000000000002")
+                .type(SpanType.CLIENT_OUTGOING)
+                .operation("operation-" + (index % 5))
+                .startTimeMicroSeconds(1_600_000_000_000_000L + index)
+                .durationNanoSeconds(index * 1000L)
+                .putMetadata("index", Integer.toString(index))
+                .build();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.tracing.api.Propagators;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TraceHttpHeaders;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class TailSamplingTest {
+
+    private final List<Span> observed = new ArrayList<>();
+
+    @Before
+    public void before() {
+        Tracer.getAndClearTrace();
+        Tracer.setSampler(() -> false);
+        Tracer.subscribe("tail", observed::add);
+        Tracer.setTailSampling(TailSamplingOptions.builder()
+                .policy(TailSamplingPolicy.anySpanHasMetadata("error"))
+                .build());
+    }
+
+    @After
+    public void after() {
+        Tracer.disableTailSampling();
+        Tracer.unsubscribe("tail");
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+        Tracer.getAndClearTrace();
+    }
+
+    @Test
+    public void testObservesWholeTraceAcceptedByPolicy() {
+        Tracer.fastStartSpan("root");
+        assertThat(Tracer.isTraceObservable()).isFalse();
+        Tracer.fastStartSpan("child");
+        Tracer.fastCompleteSpan(ImmutableMap.of("error", "true"));
+        assertThat(observed).isEmpty();
+
+        Tracer.fastCompleteSpan();
+        assertThat(operations(observed)).containsExactly("child", "root");
+        assertThat(observed.get(0).getParentSpanId()).hasValue(observed.get(1).getSpanId());
+        assertThat(buffer().getBufferedBytes()).isZero();
+    }
+
+    @Test
+    public void testDiscardsTraceRejectedByPolicy() {
+        Tracer.fastStartSpan("root");
+        Tracer.fastStartSpan("child");
+        Tracer.fastCompleteSpan();
+        Tracer.fastCompleteSpan();
+
+        assertThat(observed).isEmpty();
+        assertThat(buffer().getDroppedTraces()).isEqualTo(1);
+        assertThat(buffer().getBufferedBytes()).isZero();
+    }
+
+    @Test
+    public void testDecidesWhenDetachedRootCompletes() {
+        DetachedSpan root = DetachedSpan.start("root", SpanType.SERVER_INCOMING);
+        assertThat(InternalTracers.isSampled(root)).isFalse();
+        try (CloseableSpan ignored = root.childSpan("child")) {
+            Tracer.fastStartSpan("grandchild");
+            Tracer.fastCompleteSpan(ImmutableMap.of("error", "true"));
+        }
+        assertThat(observed).isEmpty();
+
+        root.complete();
+        assertThat(operations(observed)).containsExactly("grandchild", "child", "root");
+    }
+
+    @Test
+    public void testDecidesLocalRootsSharingTraceIdIndependently() {
+        DetachedSpan first = DetachedSpan.start(
+                Observability.UNDECIDED, "abcdef", Optional.empty(), "first", SpanType.SERVER_INCOMING);
+        DetachedSpan second = DetachedSpan.start(
+                Observability.UNDECIDED, "abcdef", Optional.empty(), "second", SpanType.SERVER_INCOMING);
+        try (CloseableSpan ignored = first.childSpan("first child")) {
+            Tracer.fastStartSpan("failed");
+            Tracer.fastCompleteSpan(ImmutableMap.of("error", "true"));
+        }
+        try (CloseableSpan ignored = second.childSpan("second child")) {
+            // buffered under the second local root
+        }
+
+        second.complete();
+        assertThat(observed).isEmpty();
+        assertThat(buffer().getDroppedTraces()).isEqualTo(1);
+
+        first.complete();
+        assertThat(operations(observed)).containsExactly("failed", "first child", "first");
+        assertThat(buffer().getBufferedBytes()).isZero();
+    }
+
+    @Test
+    public void testEvictsTracesOverMemoryBudget() {
+        Tracer.setTailSampling(TailSamplingOptions.builder()
+                .policy((_root, _spans) -> true)
+                .maxBufferedBytes(1)
+                .build());
+        Tracer.fastStartSpan("root");
+        Tracer.fastStartSpan("child");
+        Tracer.fastCompleteSpan();
+        assertThat(buffer().getEvictedTraces()).isEqualTo(1);
+
+        Tracer.fastCompleteSpan();
+        assertThat(operations(observed)).containsExactly("root");
+    }
+
+    @Test
+    public void testUnlinksCompletedTracesFromAgeQueue() {
+        DetachedSpan longRunning = DetachedSpan.start("long running", SpanType.SERVER_INCOMING);
+        try (CloseableSpan ignored = longRunning.childSpan("child")) {
+            // buffered until the detached root completes
+        }
+        for (int i = 0; i < 10; i++) {
+            Tracer.fastStartSpan("root");
+            Tracer.fastStartSpan("child");
+            Tracer.fastCompleteSpan();
+            Tracer.fastCompleteSpan();
+        }
+        // Completed traces queued behind the long running one still count towards the budget
+        assertThat(buffer().getQueuedTraces()).isEqualTo(11);
+        assertThat(buffer().getBufferedBytes()).isPositive();
+
+        longRunning.complete();
+        assertThat(buffer().getQueuedTraces()).isZero();
+        assertThat(buffer().getBufferedBytes()).isZero();
+        assertThat(buffer().getDroppedTraces()).isEqualTo(11);
+    }
+
+    @Test
+    public void testSampledTracesBypassBuffer() {
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+        Tracer.fastStartSpan("root");
+        assertThat(Tracer.isTraceObservable()).isTrue();
+        Tracer.fastStartSpan("child");
+        Tracer.fastCompleteSpan();
+
+        assertThat(operations(observed)).containsExactly("child");
+        Tracer.fastCompleteSpan();
+    }
+
+    @Test
+    public void testPropagatesTailSampledTracesAsUndecided() {
+        Tracer.fastStartSpan("root");
+        Map<String, String> headers = new HashMap<>();
+        assertThat(Tracer.injectPropagationContext(Propagators.b3Multi(), headers, Map::put)).isTrue();
+        Tracer.fastCompleteSpan();
+
+        assertThat(headers).containsKeys(TraceHttpHeaders.TRACE_ID, TraceHttpHeaders.SPAN_ID);
+        assertThat(headers).doesNotContainKey(TraceHttpHeaders.IS_SAMPLED);
+    }
+
+    private static TailSamplingBuffer buffer() {
+        return Preconditions.checkNotNull(Tracer.getTailSamplingBuffer(), "tail sampling is disabled");
+    }
+
+    private static List<String> operations(List<Span> spans) {
+        return spans.stream().map(Span::getOperation).collect(Collectors.toList());
+    }
+}
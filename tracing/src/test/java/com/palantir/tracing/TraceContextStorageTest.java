@@ -0,0 +1,164 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.slf4j.MDC;
+
+@RunWith(Parameterized.class)
+public final class TraceContextStorageTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> storages() {
+        return Arrays.asList(
+                new Object[] {TraceContextStorage.threadLocal()},
+                new Object[] {TraceContextStorage.pinnedThreadLocal()},
+                new Object[] {TraceContextStorage.carrierThreads(TraceContextStorage.threadLocal())});
+    }
+
+    private final TraceContextStorage storage;
+
+    public TraceContextStorageTest(TraceContextStorage storage) {
+        this.storage = storage;
+    }
+
+    @Before
+    public void before() {
+        Tracer.getAndClearTrace();
+        Tracer.setContextStorage(storage);
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+    }
+
+    @After
+    public void after() {
+        Tracer.getAndClearTrace();
+        Tracer.setContextStorage(TraceContextStorage.threadLocal());
+        Tracer.setMdcEnabled(true);
+    }
+
+    @Test
+    public void testStoresTraceOfCurrentThread() throws Exception {
+        assertThat(Tracer.hasTraceId()).isFalse();
+        Tracer.fastStartSpan("operation");
+        String traceId = Tracer.getTraceId();
+        assertThat(storage.get()).isNotNull();
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isEqualTo(traceId);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertThat(executor.submit(Tracer::hasTraceId).get()).isFalse();
+            assertThat(executor.submit(Tracers.wrap(Tracer::getTraceId)).get()).isEqualTo(traceId);
+            assertThat(executor.submit(Tracer::hasTraceId).get()).isFalse();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Tracer.fastCompleteSpan();
+        assertThat(Tracer.hasTraceId()).isFalse();
+        assertThat(storage.get()).isNull();
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNull();
+    }
+
+    @Test
+    public void testMdcCanBeDisabled() {
+        Tracer.setMdcEnabled(false);
+        Tracer.fastStartSpan("operation");
+        assertThat(Tracer.hasTraceId()).isTrue();
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNull();
+        assertThat(MDC.get(Tracers.TRACE_SAMPLED_KEY)).isNull();
+        Tracer.fastCompleteSpan();
+    }
+
+    @Test
+    public void testDisablingMdcRemovesKeysOfTracesInProgress() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> Tracer.fastStartSpan("other")).get();
+            Tracer.fastStartSpan("operation");
+            assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNotNull();
+
+            Tracer.setMdcEnabled(false);
+            assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNull();
+            assertThat(MDC.get(Tracers.TRACE_SAMPLED_KEY)).isNull();
+            Tracer.fastCompleteSpan();
+
+            // Other threads remove the keys once they finish their trace
+            Future<String> otherTraceId = executor.submit(() -> {
+                Tracer.fastCompleteSpan();
+                return MDC.get(Tracers.TRACE_ID_KEY);
+            });
+            assertThat(otherTraceId.get()).isNull();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCarrierThreadsStoreTraceInThread() throws Exception {
+        AtomicReference<Trace> stored = new AtomicReference<>();
+        AtomicReference<String> traceId = new AtomicReference<>();
+        CarrierThread thread = new CarrierThread(() -> {
+            Tracer.fastStartSpan("operation");
+            traceId.set(Tracer.getTraceId());
+            stored.set(((CarrierThread) Thread.currentThread()).trace);
+            Tracer.fastCompleteSpan();
+        });
+        thread.start();
+        thread.join();
+
+        assertThat(traceId.get()).isNotNull();
+        if (storage instanceof CarrierThreadTraceContextStorage) {
+            assertThat(stored.get()).isNotNull();
+        } else {
+            assertThat(stored.get()).isNull();
+        }
+        assertThat(thread.trace).isNull();
+    }
+
+    private static final class CarrierThread extends Thread implements TraceContextCarrier {
+        @Nullable
+        private Trace trace;
+
+        CarrierThread(Runnable runnable) {
+            super(runnable);
+        }
+
+        @Nullable
+        @Override
+        public Trace getTraceContext() {
+            return trace;
+        }
+
+        @Override
+        public void setTraceContext(@Nullable Trace value) {
+            trace = value;
+        }
+    }
+}
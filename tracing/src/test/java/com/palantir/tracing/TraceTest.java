@@ -20,12 +20,23 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.palantir.tracing.api.OpenSpan;
+import com.palantir.tracing.api.Span;
 import com.palantir.tracing.api.SpanType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.After;
 import org.junit.Test;
 
 public final class TraceTest {
     private static final String ORIGINATING_SPAN_ID = "originating span id";
 
+    @After
+    public void after() {
+        Trace.clearPools();
+    }
+
     @Test
     public void constructTrace_emptyTraceId() {
         assertThatThrownBy(() -> Trace.of(false, "")).isInstanceOf(IllegalArgumentException.class);
@@ -74,4 +85,154 @@ public final class TraceTest {
         OpenSpan span = trace.startSpan("2", SpanType.LOCAL);
         assertThat(span.getOriginatingSpanId()).contains(ORIGINATING_SPAN_ID);
     }
+
+    @Test
+    public void testSampledTopAndPopMatchStartedSpan() {
+        Trace trace = Trace.of(true, "traceId");
+        OpenSpan parent = trace.startSpan("parent", ORIGINATING_SPAN_ID, SpanType.SERVER_INCOMING);
+        OpenSpan child = trace.startSpan("child", SpanType.LOCAL);
+        assertThat(trace.top()).contains(child);
+        assertThat(trace.pop()).contains(child);
+        assertThat(trace.pop()).contains(parent);
+        assertThat(trace.isEmpty()).isTrue();
+        assertThat(trace.pop()).isEmpty();
+    }
+
+    @Test
+    public void testSampledCompletesDeeplyNestedSpans() {
+        Trace trace = Trace.of(true, "traceId");
+        List<String> spanIds = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            trace.fastStartSpan("operation " + i, SpanType.LOCAL);
+            spanIds.add(trace.topSpanIdentifier().toString());
+        }
+        for (int i = 39; i >= 0; i--) {
+            Span span = trace.completeSpan(Collections.emptyMap());
+            assertThat(span.getOperation()).isEqualTo("operation " + i);
+            assertThat(span.getTraceId()).isEqualTo("traceId");
+            assertThat(span.getSpanId()).isEqualTo(spanIds.get(i));
+            assertThat(span.getParentSpanId())
+                    .isEqualTo(i == 0 ? Optional.empty() : Optional.of(spanIds.get(i - 1)));
+        }
+        assertThat(trace.isEmpty()).isTrue();
+        assertThat(trace.completeSpan(Collections.emptyMap())).isNull();
+    }
+
+    @Test
+    public void testSampledFramesAreNotSharedBetweenTraces() {
+        Trace first = Trace.of(true, "first");
+        first.fastStartSpan("first", SpanType.LOCAL);
+        first.discardSpan();
+
+        Trace second = Trace.of(true, "second");
+        second.fastStartSpan("second", SpanType.LOCAL);
+        first.fastStartSpan("first again", SpanType.LOCAL);
+
+        assertThat(second.top().get().getOperation()).isEqualTo("second");
+        assertThat(first.top().get().getOperation()).isEqualTo("first again");
+    }
+
+    @Test
+    public void testSampledFramesSharedWithCopiesAreNotRecycled() {
+        Trace trace = Trace.of(true, "traceId");
+        trace.fastStartSpan("root", SpanType.LOCAL);
+        trace.fastStartSpan("parent", SpanType.LOCAL);
+        Trace copy = trace.deepCopy();
+        trace.discardSpan();
+        trace.discardSpan();
+
+        Trace other = Trace.of(true, "other");
+        other.fastStartSpan("other root", SpanType.LOCAL);
+        other.fastStartSpan("other child", SpanType.LOCAL);
+
+        assertThat(copy.top().get().getOperation()).isEqualTo("parent");
+        copy.discardSpan();
+        assertThat(copy.top().get().getOperation()).isEqualTo("root");
+        assertThat(other.top().get().getOperation()).isEqualTo("other child");
+    }
+
+    @Test
+    public void testUnsampledRootIsReusedWithNewTraceId() {
+        Trace first = Trace.unsampledRoot();
+        first.fastStartSpan("first", SpanType.LOCAL);
+        String firstTraceId = first.getTraceId();
+        assertThat(first.getTraceId()).isEqualTo(firstTraceId);
+        Trace copy = first.deepCopy();
+        first.discardSpan();
+        first.release();
+
+        Trace second = Trace.unsampledRoot();
+        assertThat(second).isSameAs(first);
+        assertThat(second.isEmpty()).isTrue();
+        assertThat(second.getTraceId()).isNotEqualTo(firstTraceId);
+        assertThat(copy.getTraceId()).isEqualTo(firstTraceId);
+        assertThat(Trace.unsampledRoot()).isNotSameAs(second);
+        second.release();
+    }
+
+    @Test
+    public void testNonEmptyOrCopiedTracesAreNotReused() {
+        Trace root = Trace.unsampledRoot();
+        root.fastStartSpan("root", SpanType.LOCAL);
+        root.release();
+        assertThat(Trace.unsampledRoot()).isNotSameAs(root);
+
+        Trace copy = root.deepCopy();
+        copy.discardSpan();
+        copy.release();
+        assertThat(Trace.unsampledRoot()).isNotSameAs(copy);
+
+        Trace trace = Trace.of(false, "traceId");
+        trace.release();
+        assertThat(Trace.unsampledRoot()).isNotSameAs(trace);
+    }
+
+    @Test
+    public void testUnpooledTracesAreNotReused() {
+        Trace root = Trace.unsampledRoot().unpooled();
+        String traceId = root.getTraceId();
+        root.release();
+
+        assertThat(Trace.unsampledRoot()).isNotSameAs(root);
+        assertThat(root.getTraceId()).isEqualTo(traceId);
+    }
+
+    @Test
+    public void testHandedOutTracesAreNotReused() {
+        Tracer.setSampler(() -> false);
+        try {
+            Trace trace = Tracer.getAndClearTrace();
+            String traceId = trace.getTraceId();
+            Tracer.setTrace(trace);
+            Tracer.fastStartSpan("handed out");
+            Tracer.fastCompleteSpan();
+
+            assertThat(Tracer.hasTraceId()).isFalse();
+            assertThat(Trace.unsampledRoot()).isNotSameAs(trace);
+            assertThat(trace.getTraceId()).isEqualTo(traceId);
+        } finally {
+            Tracer.setSampler(AlwaysSampler.INSTANCE);
+        }
+    }
+
+    @Test
+    public void testSampledCopyIsIndependentOfOriginal() {
+        Trace trace = Trace.of(true, "traceId");
+        OpenSpan root = trace.startSpan("root", ORIGINATING_SPAN_ID, SpanType.SERVER_INCOMING);
+        OpenSpan parent = trace.startSpan("parent", SpanType.LOCAL);
+        Trace copy = trace.deepCopy();
+
+        Span completed = trace.completeSpan(Collections.emptyMap());
+        assertThat(completed.getOperation()).isEqualTo("parent");
+        OpenSpan sibling = trace.startSpan("sibling", SpanType.LOCAL);
+        OpenSpan child = copy.startSpan("child", SpanType.LOCAL);
+
+        assertThat(trace.top()).contains(sibling);
+        assertThat(child.getParentSpanId()).contains(parent.getSpanId());
+        assertThat(child.getOriginatingSpanId()).contains(ORIGINATING_SPAN_ID);
+        assertThat(copy.completeSpan(Collections.emptyMap()).getOperation()).isEqualTo("child");
+        assertThat(copy.completeSpan(Collections.emptyMap()).getOperation()).isEqualTo("parent");
+        assertThat(copy.top()).contains(root);
+        assertThat(copy.getTraceId()).isEqualTo("traceId");
+    }
 }
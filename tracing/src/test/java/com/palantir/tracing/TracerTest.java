@@ -18,6 +18,7 @@ package com.palantir.tracing;
 
 import static com.palantir.logsafe.testing.Assertions.assertThatLoggableExceptionThrownBy;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -25,13 +26,25 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableMap;
+import com.palantir.tracing.api.ManualTracingClock;
+import com.palantir.tracing.api.OpenSpan;
+import com.palantir.tracing.api.PropagationContext;
+import com.palantir.tracing.api.Propagators;
+import com.palantir.tracing.api.SamplingDecision;
 import com.palantir.tracing.api.Span;
 import com.palantir.tracing.api.SpanObserver;
 import com.palantir.tracing.api.SpanType;
+import com.palantir.tracing.api.TraceHttpHeaders;
+import com.palantir.tracing.api.TracingClock;
+import com.palantir.tracing.api.TracingId;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import javax.annotation.Nullable;
 import org.assertj.core.util.Sets;
 import org.junit.After;
 import org.junit.Before;
@@ -69,6 +82,8 @@ public final class TracerTest {
         Tracer.unsubscribe("0");
         Tracer.unsubscribe("1");
         Tracer.unsubscribe("2");
+        Tracer.clearObserverLatencyBudget();
+        Tracer.setClock(TracingClock.system());
         Tracer.getAndClearTrace();
     }
 
@@ -234,6 +249,37 @@ public final class TracerTest {
         assertThat(MDC.get(Tracers.TRACE_SAMPLED_KEY)).isNull();
     }
 
+    @Test
+    public void testUnsampledRootTracesAreReusedWhenMdcDisabled() {
+        Tracer.getAndClearTrace();
+        Tracer.setSampler(() -> false);
+        Tracer.setMdcEnabled(false);
+        try {
+            Trace first = unsampledRootSpanTrace("first");
+            Trace second = unsampledRootSpanTrace("second");
+            assertThat(second).isNotNull().isSameAs(first);
+        } finally {
+            Tracer.setMdcEnabled(true);
+        }
+
+        // Putting the trace id into the MDC renders it, so each root span gets its own identifier
+        Tracer.fastStartSpan("logged");
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNotNull();
+        Tracer.fastCompleteSpan();
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNull();
+    }
+
+    @Nullable
+    private static Trace unsampledRootSpanTrace(String operation) {
+        Tracer.fastStartSpan(operation);
+        Trace trace = Tracer.swapTrace(null, false);
+        Tracer.swapTrace(trace, false);
+        assertThat(MDC.get(Tracers.TRACE_ID_KEY)).isNull();
+        Tracer.fastCompleteSpan();
+        assertThat(Tracer.hasTraceId()).isFalse();
+        return trace;
+    }
+
     @Test
     public void testCompletedSpanHasCorrectSpanType() throws Exception {
         for (SpanType type : SpanType.values()) {
@@ -356,6 +402,124 @@ public final class TracerTest {
         assertThat(Tracer.hasTraceId()).isFalse();
     }
 
+    @Test
+    public void testInjectPropagationContext() {
+        Map<String, String> headers = new HashMap<>();
+        assertThat(Tracer.injectPropagationContext(Propagators.standard(), headers, Map::put))
+                .isFalse();
+        assertThat(headers).isEmpty();
+
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("parent");
+        OpenSpan child = Tracer.startSpan("child");
+        try {
+            assertThat(Tracer.injectPropagationContext(Propagators.standard(), headers, Map::put))
+                    .isTrue();
+            assertThat(headers)
+                    .containsEntry(TraceHttpHeaders.TRACE_ID, Tracer.getTraceId())
+                    .containsEntry(TraceHttpHeaders.SPAN_ID, child.getSpanId())
+                    .containsEntry(TraceHttpHeaders.PARENT_SPAN_ID, child.getParentSpanId().get())
+                    .containsEntry(TraceHttpHeaders.IS_SAMPLED, "1");
+        } finally {
+            Tracer.fastCompleteSpan();
+            Tracer.fastCompleteSpan();
+        }
+    }
+
+    @Test
+    public void testUnsampledPropagatedSpanIdIsStablePerSpan() {
+        Tracer.initTrace(Observability.DO_NOT_SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("parent");
+        try {
+            PropagationContext parent = Tracer.maybeGetPropagationContext().get();
+            assertThat(parent.sampling()).isEqualTo(SamplingDecision.DO_NOT_SAMPLE);
+            assertThat(Tracer.maybeGetPropagationContext()).contains(parent);
+            assertThat(parent.spanId()).hasToString(Tracer.maybeGetTraceMetadata().get().getSpanId());
+
+            Tracer.fastStartSpan("child");
+            TracingId childSpanId = Tracer.maybeGetPropagationContext().get().spanId();
+            assertThat(childSpanId).isNotEqualTo(parent.spanId());
+            Tracer.fastCompleteSpan();
+
+            Tracer.fastStartSpan("sibling");
+            assertThat(Tracer.maybeGetPropagationContext().get().spanId()).isNotEqualTo(childSpanId);
+            Tracer.fastCompleteSpan();
+        } finally {
+            Tracer.fastCompleteSpan();
+        }
+        assertThat(Tracer.maybeGetPropagationContext()).isEmpty();
+    }
+
+    @Test
+    public void testTagsCurrentSpan() {
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("parent");
+        Tracer.tag("parentTag", true);
+        Tracer.fastStartSpan("child");
+        Tracer.tag("rows", 3L);
+        Tracer.tag("ratio", 0.5);
+        Tracer.tag("cache", "hit");
+        Span child = Tracer.completeSpan(ImmutableMap.of("key", "value")).get();
+        Tracer.fastStartSpan("sibling");
+        Span sibling = Tracer.completeSpan().get();
+        Span parent = Tracer.completeSpan().get();
+
+        assertThat(child.getMetadata()).containsOnly(entry("key", "value"));
+        assertThat(child.getTags().size()).isEqualTo(3);
+        assertThat(child.getTags().longValue(0)).isEqualTo(3L);
+        assertThat(child.getAllMetadata())
+                .containsExactly(
+                        entry("key", "value"), entry("rows", "3"), entry("ratio", "0.5"), entry("cache", "hit"));
+        assertThat(sibling.getTags().isEmpty()).isTrue();
+        assertThat(parent.getAllMetadata()).containsOnly(entry("parentTag", "true"));
+    }
+
+    @Test
+    public void testTimestampsSpansWithClock() {
+        ManualTracingClock clock = TracingClock.manual(Instant.ofEpochSecond(1_000, 5_000));
+        Tracer.setClock(clock);
+        Tracer.initTrace(Observability.SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("parent");
+        clock.advance(Duration.ofMillis(2));
+        OpenSpan child = Tracer.startSpan("child");
+        clock.advance(Duration.ofNanos(1_500));
+        Span completedChild = Tracer.completeSpan().get();
+        Span parent = Tracer.completeSpan().get();
+
+        assertThat(parent.getStartTimeMicroSeconds()).isEqualTo(1_000_000_005L);
+        assertThat(parent.getDurationNanoSeconds()).isEqualTo(2_001_500L);
+        assertThat(child.getStartTimeMicroSeconds()).isEqualTo(1_000_002_005L);
+        assertThat(completedChild.getDurationNanoSeconds()).isEqualTo(1_500L);
+    }
+
+    @Test
+    public void testTagsAreIgnoredForUnsampledTraces() {
+        Tracer.tag("noTrace", 1L);
+        Tracer.initTrace(Observability.DO_NOT_SAMPLE, Tracers.randomId());
+        Tracer.fastStartSpan("unsampled");
+        Tracer.tag("rows", 3L);
+        assertThat(Tracer.completeSpan()).isEmpty();
+
+        DetachedSpan detached = DetachedSpan.start(
+                Observability.DO_NOT_SAMPLE, Tracers.randomId(), Optional.empty(), "detached", SpanType.LOCAL);
+        detached.tag("rows", 3L);
+        detached.complete();
+    }
+
+    @Test
+    public void testTagsDetachedSpan() {
+        Tracer.subscribe("1", observer1);
+        DetachedSpan detached = DetachedSpan.start(
+                Observability.SAMPLE, Tracers.randomId(), Optional.empty(), "detached", SpanType.LOCAL);
+        detached.tag("bytes", 1024L);
+        detached.tag("hit", false);
+        detached.complete();
+        detached.tag("late", true);
+
+        verify(observer1).consume(spanCaptor.capture());
+        assertThat(spanCaptor.getValue().getAllMetadata()).containsOnly(entry("bytes", "1024"), entry("hit", "false"));
+    }
+
     @Test
     public void testSimpleDetachedTrace() {
         assertThat(Tracer.hasTraceId()).isFalse();
@@ -495,6 +659,53 @@ public final class TracerTest {
         }
     }
 
+    @Test
+    public void testObserverStatsCountInvocationsAndErrors() {
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+        Mockito.doThrow(new IllegalStateException()).doNothing().when(observer1).consume(any(Span.class));
+        Tracer.subscribe("1", observer1);
+        Tracer.subscribe("2", observer2);
+
+        startAndFastCompleteSpan();
+        startAndFastCompleteSpan();
+
+        verify(observer2, times(2)).consume(any(Span.class));
+        ObserverStats stats = observerStats("1");
+        assertThat(stats.invocations()).isEqualTo(2);
+        assertThat(stats.errors()).isEqualTo(1);
+        assertThat(stats.quarantined()).isFalse();
+    }
+
+    @Test
+    public void testQuarantinesSlowObservers() {
+        Tracer.setSampler(AlwaysSampler.INSTANCE);
+        Tracer.setObserverLatencyBudget(Duration.ZERO);
+        Mockito.doAnswer(_invocation -> {
+                    Thread.sleep(1);
+                    return null;
+                })
+                .when(observer1)
+                .consume(any(Span.class));
+        Tracer.subscribe("1", observer1);
+
+        startAndFastCompleteSpan();
+        startAndFastCompleteSpan();
+
+        verify(observer1, times(1)).consume(any(Span.class));
+        assertThat(observerStats("1").quarantined()).isTrue();
+
+        Tracer.subscribe("1", observer1);
+        startAndFastCompleteSpan();
+        verify(observer1, times(2)).consume(any(Span.class));
+    }
+
+    private static ObserverStats observerStats(String name) {
+        return Tracer.getObserverStats().stream()
+                .filter(stats -> stats.name().equals(name))
+                .findFirst()
+                .get();
+    }
+
     private static void startAndFastCompleteSpan() {
         Tracer.fastStartSpan("operation");
         Tracer.fastCompleteSpan();
@@ -34,6 +34,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -444,6 +445,76 @@ public final class TracersTest {
                 .hasMessage("Expected a ListenableFuture");
     }
 
+    @Test
+    public void testWrapCompletionStage() {
+        withExecutor(Executors::newSingleThreadExecutor, executor -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            CompletableFuture<Void> result = Tracers.wrap("callback", future)
+                    .thenApply(value -> value + "!")
+                    .thenRun(traceExpectingRunnableWithSingleSpan("callback"))
+                    .toCompletableFuture();
+
+            executor.submit(() -> future.complete("done")).get();
+            result.get();
+            assertThat(executor.submit(Tracer::hasTraceId).get()).isFalse();
+        });
+    }
+
+    @Test
+    public void testWrapCompletionStage_async() throws Exception {
+        CompletableFuture<Void> result = Tracers.wrap(CompletableFuture.completedFuture("done"))
+                .thenRunAsync(traceExpectingRunnableWithSingleSpan("DeferredTracer(unnamed operation)"))
+                .thenCompose(_value -> CompletableFuture.completedFuture("composed"))
+                .thenAccept(_value -> assertThat(Tracer.getTraceId()).isEqualTo("defaultTraceId"))
+                .toCompletableFuture();
+        result.get();
+    }
+
+    @Test
+    public void testWrapCompletionStage_detachedSpan() throws Exception {
+        List<Span> observed = new ArrayList<>();
+        Tracer.subscribe("futureTest", observed::add);
+        try {
+            String operationName = "testOperation";
+            CompletableFuture<String> rawFuture = new CompletableFuture<>();
+            CompletableFuture<String> traced = Tracers.wrapCompletionStage(operationName, () -> rawFuture)
+                    .thenApply(value -> value + "!")
+                    .toCompletableFuture();
+            assertThat(observed).extracting(Span::getOperation).containsExactly(operationName + " initial");
+
+            rawFuture.complete("complete");
+            assertThat(traced.get()).isEqualTo("complete!");
+            assertThat(observed)
+                    .extracting(Span::getOperation)
+                    .containsExactly(operationName + " initial", operationName, operationName + " callback");
+            assertThat(observed).allSatisfy(span ->
+                    assertThat(span).extracting(Span::getTraceId).isEqualTo("defaultTraceId"));
+            // The initial operation and callbacks are children of the detached span, not of the caller's span
+            String detachedSpanId = observed.get(1).getSpanId();
+            assertThat(observed.get(0).getParentSpanId()).hasValue(detachedSpanId);
+            assertThat(observed.get(2).getParentSpanId()).hasValue(detachedSpanId);
+        } finally {
+            Tracer.unsubscribe("futureTest");
+        }
+    }
+
+    @Test
+    public void testWrapCompletionStage_throws() {
+        List<Span> observed = new ArrayList<>();
+        Tracer.subscribe("futureTest", observed::add);
+        try {
+            assertThatThrownBy(() -> Tracers.wrapCompletionStage("testOperation", () -> {
+                        throw new SafeRuntimeException("initial operation failure");
+                    }))
+                    .isInstanceOf(SafeRuntimeException.class);
+            assertThat(observed)
+                    .extracting(Span::getOperation)
+                    .containsExactly("testOperation initial", "testOperation");
+        } finally {
+            Tracer.unsubscribe("futureTest");
+        }
+    }
+
     @Test
     public void testWrapCallableWithNewTrace_traceStateInsideCallableIsIsolated() throws Exception {
         String traceIdBeforeConstruction = Tracer.getTraceId();
@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2020 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.tracing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.palantir.tracing.api.Span;
+import com.palantir.tracing.api.SpanTags;
+import com.palantir.tracing.api.SpanType;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import javax.annotation.Nullable;
+import org.junit.Test;
+
+public final class ZipkinJsonEncoderTest {
+
+    private static final InetAddress IPV4 = InetAddress.getLoopbackAddress();
+
+    @Test
+    public void testV1MatchesJacksonEncoding() throws Exception {
+        InetAddress ipv6 = InetAddress.getByName("::1");
+        for (SpanType type : SpanType.values()) {
+            assertMatchesJackson(span(type).build(), "service", IPV4);
+            assertMatchesJackson(span(type).parentSpanId("parent").build(), "service", ipv6);
+            assertMatchesJackson(
+                    span(type)
+                            .putMetadata("userId", "1")
+                            .putMetadata("path", "/a\"b\\c\n\u0001\u00fc")
+                            .build(),
+                    "my \"service\"",
+                    null);
+            assertMatchesJackson(
+                    span(type)
+                            .putMetadata("rows", "override")
+                            .tags(SpanTags.builder()
+                                    .put("rows", 3L)
+                                    .put("hit", true)
+                                    .put("ratio", 0.5)
+                                    .put("region", "\"eu\"")
+                                    .build())
+                            .build(),
+                    "service",
+                    IPV4);
+        }
+    }
+
+    @Test
+    public void testV2EncodesTags() {
+        ZipkinJsonEncoder encoder = ZipkinJsonEncoder.v2("Service", IPV4);
+        assertThat(encoder.encode(span(SpanType.LOCAL)
+                        .putMetadata("rows", "override")
+                        .tags(SpanTags.builder()
+                                .put("rows", 3L)
+                                .put("bytes", -1L)
+                                .put("hit", false)
+                                .put("ratio", 0.25)
+                                .put("region", "e\"u")
+                                .build())
+                        .build()))
+                .isEqualTo("{\"traceId\":\"trace\",\"id\":\"span\",\"name\":\"op\",\"timestamp\":43,\"duration\":44,"
+                        + "\"localEndpoint\":{\"serviceName\":\"service\",\"ipv4\":\"127.0.0.1\"},"
+                        + "\"tags\":{\"rows\":\"override\",\"bytes\":\"-1\",\"hit\":\"false\",\"ratio\":\"0.25\","
+                        + "\"region\":\"e\\\"u\"}}");
+    }
+
+    @Test
+    public void testV2Encoding() {
+        ZipkinJsonEncoder encoder = ZipkinJsonEncoder.v2("Service", IPV4);
+        assertThat(encoder.encode(span(SpanType.CLIENT_OUTGOING)
+                        .parentSpanId("parent")
+                        .putAllMetadata(ImmutableMap.of("userId", "1", "line", "a\tb"))
+                        .build()))
+                .isEqualTo("{\"traceId\":\"trace\",\"parentId\":\"parent\",\"id\":\"span\",\"kind\":\"CLIENT\","
+                        + "\"name\":\"op\",\"timestamp\":43,\"duration\":44,"
+                        + "\"localEndpoint\":{\"serviceName\":\"service\",\"ipv4\":\"127.0.0.1\"},"
+                        + "\"tags\":{\"userId\":\"1\",\"line\":\"a\\tb\"}}");
+        assertThat(encoder.encode(span(SpanType.LOCAL).build()))
+                .isEqualTo("{\"traceId\":\"trace\",\"id\":\"span\",\"name\":\"op\",\"timestamp\":43,\"duration\":44,"
+                        + "\"localEndpoint\":{\"serviceName\":\"service\",\"ipv4\":\"127.0.0.1\"}}");
+    }
+
+    @Test
+    public void testAppendsToExistingBuilder() {
+        ZipkinJsonEncoder encoder = ZipkinJsonEncoder.v1("service", IPV4);
+        Span span = span(SpanType.LOCAL).build();
+        assertThat(encoder.encode(span, new StringBuilder("[")).append(']').toString())
+                .isEqualTo("[" + encoder.encode(span) + "]");
+    }
+
+    private static void assertMatchesJackson(Span span, String serviceName, @Nullable InetAddress ip) {
+        ImmutableZipkinCompatEndpoint.Builder endpoint =
+                ImmutableZipkinCompatEndpoint.builder().serviceName(serviceName);
+        if (ip instanceof Inet4Address) {
+            endpoint.ipv4(ip.getHostAddress());
+        } else if (ip instanceof Inet6Address) {
+            endpoint.ipv6(ip.getHostAddress());
+        }
+        assertThat(ZipkinJsonEncoder.v1(serviceName, ip).encode(span))
+                .isEqualTo(AsyncSlf4jSpanObserver.ZipkinCompatSpan.fromSpan(span, endpoint.build())
+                        .toJson());
+    }
+
+    private static Span.Builder span(SpanType type) {
+        return Span.builder()
+                .traceId("trace")
+                .spanId("span")
+                .operation("op")
+                .startTimeMicroSeconds(43L)
+                .durationNanoSeconds(43001L)
+                .type(type);
+    }
+}